@@ -56,6 +56,23 @@ public class ArchiveSettings {
      */
     public static String ARCREPOSITORY_UPLOAD_RETRIES = "settings.archive.arcrepository.uploadRetries";
 
+    /**
+     * <b>settings.archive.arcrepository.adminWriteBehind</b>: <br>
+     * If true, the store states of files are written to the admin data by a background thread in batches instead of
+     * while handling the store and reply messages. States not yet written are lost if the ArcRepository is stopped
+     * abruptly, in which case the stores of the files are not replied to and will be retried by the clients. Default is
+     * true.
+     */
+    public static String ARCREPOSITORY_ADMIN_WRITE_BEHIND = "settings.archive.arcrepository.adminWriteBehind";
+
+    /**
+     * <b>settings.archive.arcrepository.messageHandlerThreads</b>: <br>
+     * The number of threads handling the messages received by the ArcRepository. The messages are received one at a
+     * time and handed to these threads, so messages for different files are handled concurrently. 0 means that each
+     * message is handled in the thread receiving it, one at a time. Default is 16.
+     */
+    public static String ARCREPOSITORY_MESSAGE_HANDLER_THREADS = "settings.archive.arcrepository.messageHandlerThreads";
+
     /**
      * <b>settings.archive.bitarchive.minSpaceLeft</b>: <br>
      * The minimum amount of bytes left *in any dir* that we will allow a bitarchive machine to accept uploads with.
@@ -293,6 +310,33 @@ public class ArchiveSettings {
      * The default is false
      */
     public static String CHECKSUM_USE_PRECOMPUTED_CHECKSUM_DURING_UPLOAD= "settings.archive.checksum.usePrecomputedChecksumDuringUpload";
+
+    /**
+     * <b>settings.archive.checksum.database.cachePercent</b>: <br>
+     * The percentage of the JVM heap used for the Berkeley DB cache of the DatabaseChecksumArchive.
+     */
+    public static String CHECKSUM_DATABASE_CACHE_PERCENT = "settings.archive.checksum.database.cachePercent";
+
+    /**
+     * <b>settings.archive.checksum.database.logFileMax</b>: <br>
+     * The maximum size in bytes of each Berkeley DB log file of the DatabaseChecksumArchive. Larger log files mean
+     * fewer files to open and clean in large archives.
+     */
+    public static String CHECKSUM_DATABASE_LOG_FILE_MAX = "settings.archive.checksum.database.logFileMax";
+
+    /**
+     * <b>settings.archive.checksum.database.batchSize</b>: <br>
+     * The maximum number of uploads to the DatabaseChecksumArchive which are committed to disk in one transaction.
+     * If 1, every upload is committed by itself.
+     */
+    public static String CHECKSUM_DATABASE_BATCH_SIZE = "settings.archive.checksum.database.batchSize";
+
+    /**
+     * <b>settings.archive.checksum.database.batchDelay</b>: <br>
+     * The maximum time in milliseconds an upload to the DatabaseChecksumArchive waits for other uploads to join its
+     * transaction before it is committed.
+     */
+    public static String CHECKSUM_DATABASE_BATCH_DELAY = "settings.archive.checksum.database.batchDelay";
     
     
     /**
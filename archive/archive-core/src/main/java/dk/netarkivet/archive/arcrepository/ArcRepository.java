@@ -25,9 +25,10 @@ package dk.netarkivet.archive.arcrepository;
 import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -38,6 +39,7 @@ import dk.netarkivet.archive.arcrepository.distribute.ArcRepositoryServer;
 import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
 import dk.netarkivet.archive.arcrepositoryadmin.Admin;
 import dk.netarkivet.archive.arcrepositoryadmin.AdminFactory;
+import dk.netarkivet.archive.arcrepositoryadmin.ConcurrentAdmin;
 import dk.netarkivet.archive.bitarchive.distribute.BatchReplyMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BitarchiveClient;
 import dk.netarkivet.archive.bitarchive.distribute.RemoveAndGetFileMessage;
@@ -71,6 +73,13 @@ import dk.netarkivet.common.utils.batch.ChecksumJob;
  * through the JMSArcRepositoryClient that contacts the appropriate (typically nearest) replica and retrieves data from
  * this archive. Batch execution is sent to the bitarchive replica(s), since batch cannot be executed on checksum
  * replicas. Correction operations are typically only allowed on one replica.
+ * <p>
+ * The {@link ArcRepositoryServer} hands the received messages to a number of handler threads, so messages are handled
+ * concurrently. All processing of a given file is serialized on one of a fixed number of lock stripes chosen by the
+ * filename, so a slow store or reply for one file does not hold up the others. The bookkeeping shared between files is
+ * kept in concurrent maps. The admin data is not thread safe, so it is only accessed under one lock, but by default
+ * the store states, which are updated for every message, are written to it in the background (see
+ * {@link ConcurrentAdmin}).
  */
 @SuppressWarnings({"deprecation"})
 public class ArcRepository implements CleanupIF {
@@ -81,32 +90,51 @@ public class ArcRepository implements CleanupIF {
     /** The unique instance (singleton) of this class. */
     private static ArcRepository instance;
 
+    /** The number of lock stripes used for serializing the processing of each file. */
+    private static final int LOCK_STRIPES = 64;
+
     /** The administration data associated with the arcrepository. */
-    private Admin ad;
+    private ConcurrentAdmin ad;
+
+    /** The locks serializing the processing of each file, chosen by the hash of the filename. */
+    private final Object[] fileLocks = new Object[LOCK_STRIPES];
+
+    /**
+     * Lock held while sending a checksum request and registering it in outstandingChecksumFiles, and while looking up
+     * the reply, so a reply cannot arrive before its request is registered.
+     */
+    private final Object checksumRequestLock = new Object();
+
+    /** Latency statistics, exposed over JMX. */
+    private final ArcRepositoryStatistics statistics;
 
     /** The class which listens to messages sent to this instance of Arcrepository or its subclasses. */
     private ArcRepositoryServer arcReposhandler;
 
     /** A Map of a Replica and their corresponding ReplicaClient. From this Map the relevant channels can be found. */
-    private final Map<Replica, ReplicaClient> connectedReplicas = new HashMap<Replica, ReplicaClient>();
+    private final Map<Replica, ReplicaClient> connectedReplicas = new ConcurrentHashMap<Replica, ReplicaClient>();
 
     /** Map from MessageId to arcfiles for which there are outstanding checksum jobs. */
-    private final Map<String, String> outstandingChecksumFiles = new HashMap<String, String>();
-    
+    private final Map<String, String> outstandingChecksumFiles = new ConcurrentHashMap<String, String>();
+
     /**
      * Map from filenames to remote files. Used for retrieving a remote file reference while a store operation is in
      * process.
      */
-    private final Map<String, RemoteFile> outstandingRemoteFiles = new HashMap<String, RemoteFile>();
+    private final Map<String, RemoteFile> outstandingRemoteFiles = new ConcurrentHashMap<String, RemoteFile>();
+
+    /** Map from filenames to the precomputed checksums of the files being stored. */
+    private final Map<String, String> outstandingRemoteFilesC = new ConcurrentHashMap<String, String>();
+
+    /** Map from filenames to the time (in nanoseconds) the store operation of the file started. */
+    private final Map<String, Long> storeStartTimes = new ConcurrentHashMap<String, Long>();
 
-    private final Map<String, String> outstandingRemoteFilesC = new HashMap<String, String>();
-    
-    
     /**
      * Map from bitarchive names to Map from filenames to the number of times a file has been attempted uploaded to the
      * the bitarchive.
      */
-    private final Map<String, Map<String, Integer>> uploadRetries = new HashMap<String, Map<String, Integer>>();
+    private final ConcurrentMap<String, Map<String, Integer>> uploadRetries =
+            new ConcurrentHashMap<String, Map<String, Integer>>();
 
     /**
      * Constructor for the ArcRepository. Connects the ArcRepository to all BitArchives, and initialises admin data.
@@ -115,11 +143,17 @@ public class ArcRepository implements CleanupIF {
      * @throws IllegalState if inconsistent channel info is given in settings.
      */
     protected ArcRepository() throws IOFailure, IllegalState {
+        for (int i = 0; i < fileLocks.length; i++) {
+            fileLocks[i] = new Object();
+        }
         // UpdateableAdminData Throws IOFailure
-        this.ad = AdminFactory.getInstance();
+        Admin admin = AdminFactory.getInstance();
+        this.ad = new ConcurrentAdmin(admin, Settings.getBoolean(ArchiveSettings.ARCREPOSITORY_ADMIN_WRITE_BEHIND));
+        this.statistics = new ArcRepositoryStatistics(this);
         this.arcReposhandler = new ArcRepositoryServer(this);
 
         initialiseReplicaClients();
+        statistics.register();
 
         log.info("Starting the ArcRepository");
     }
@@ -179,6 +213,37 @@ public class ArcRepository implements CleanupIF {
         }
     }
 
+    /**
+     * Returns the lock serializing the processing of the given file.
+     *
+     * @param filename The name of a file.
+     * @return The lock stripe of the file.
+     */
+    private Object lockFor(String filename) {
+        return fileLocks[(filename.hashCode() & Integer.MAX_VALUE) % fileLocks.length];
+    }
+
+    /**
+     * @return The number of store operations that have not been replied to yet.
+     */
+    int getOutstandingStoreCount() {
+        return storeStartTimes.size();
+    }
+
+    /**
+     * @return The number of store states not yet written to the admin data.
+     */
+    int getPendingAdminWriteCount() {
+        return ad == null ? 0 : ad.getPendingStateCount();
+    }
+
+    /**
+     * @return The latency statistics of this ArcRepository.
+     */
+    ArcRepositoryStatistics getStatistics() {
+        return statistics;
+    }
+
     /**
      * Stores a file in all known replicas. It sends out a upload message to all replicas.
      *
@@ -187,10 +252,29 @@ public class ArcRepository implements CleanupIF {
      * @throws IOFailure If file couldn't be stored.
      * @throws ArgumentNotValid If a input parameter is null.
      */
-    public synchronized void store(RemoteFile rf, StoreMessage replyInfo) throws IOFailure, ArgumentNotValid {
+    public void store(RemoteFile rf, StoreMessage replyInfo) throws IOFailure, ArgumentNotValid {
         ArgumentNotValid.checkNotNull(rf, "rf");
         ArgumentNotValid.checkNotNull(replyInfo, "replyInfo");
 
+        final String filename = rf.getName();
+        long start = System.nanoTime();
+        try {
+            synchronized (lockFor(filename)) {
+                doStore(rf, replyInfo, start);
+            }
+        } finally {
+            statistics.record(ArcRepositoryStatistics.Operation.STORE, start);
+        }
+    }
+
+    /**
+     * Stores a file in all known replicas. Must be called holding the lock of the file.
+     *
+     * @param rf The remotefile to be stored.
+     * @param replyInfo A StoreMessage used to reply with success or failure.
+     * @param start The time (in nanoseconds) the store message was received.
+     */
+    private void doStore(RemoteFile rf, StoreMessage replyInfo, long start) {
         final String filename = rf.getName();
         log.info("Store started: '{}'", filename);
 
@@ -201,6 +285,7 @@ public class ArcRepository implements CleanupIF {
         }
         outstandingRemoteFiles.put(filename, rf);
         outstandingRemoteFilesC.put(filename, replyInfo.getPrecomputedChecksum()); // Hack
+        storeStartTimes.put(filename, start);
 
         if (ad.hasEntry(filename)) {
             // Any valid entry (and all existing entries are now
@@ -234,7 +319,7 @@ public class ArcRepository implements CleanupIF {
      * @param replica The replica where RemoteFile is to be stored.
      * @param replyInfo 
      */
-    private synchronized void startUpload(RemoteFile rf, ReplicaClient replicaClient, Replica replica, StoreMessage replyInfo) {
+    private void startUpload(RemoteFile rf, ReplicaClient replicaClient, Replica replica, StoreMessage replyInfo) {
         final String filename = rf.getName();
         log.debug("Upload started of file '{}' to replica '{}'", filename, replica.getId());
 
@@ -283,10 +368,12 @@ public class ArcRepository implements CleanupIF {
     private void sendChecksumRequestForFile(String filename, ReplicaClient replicaClient) {
         NetarkivetMessage msg;
 
-        // Retrieve the checksum of the file.
-        msg = replicaClient.sendGetChecksumMessage(Channels.getTheRepos(), filename);
+        synchronized (checksumRequestLock) {
+            // Retrieve the checksum of the file.
+            msg = replicaClient.sendGetChecksumMessage(Channels.getTheRepos(), filename);
 
-        outstandingChecksumFiles.put(msg.getID(), filename);
+            outstandingChecksumFiles.put(msg.getID(), filename);
+        }
         log.debug("Checksum job message submitted for file '{}' with message id: '{}'", filename, msg.getID());
     }
 
@@ -298,7 +385,7 @@ public class ArcRepository implements CleanupIF {
      *
      * @param arcFileName The arcfile we consider replying to.
      */
-    private synchronized void considerReplyingOnStore(String arcFileName) {
+    private void considerReplyingOnStore(String arcFileName) {
         if (ad.hasReplyInfo(arcFileName)) {
             if (isStoreCompleted(arcFileName)) {
                 replyOK(arcFileName, ad.removeReplyInfo(arcFileName));
@@ -314,10 +401,11 @@ public class ArcRepository implements CleanupIF {
      * @param arcFileName The file for which we are replying.
      * @param msg The message to reply to.
      */
-    private synchronized void replyOK(String arcFileName, StoreMessage msg) {
+    private void replyOK(String arcFileName, StoreMessage msg) {
         outstandingRemoteFiles.remove(arcFileName);
         outstandingRemoteFilesC.remove(arcFileName);
         clearRetries(arcFileName);
+        recordRoundTrip(arcFileName);
         log.info("Store OK: '{}'", arcFileName);
         log.debug("Sending store OK reply to message '{}'", msg);
         JMSConnectionFactory.getInstance().reply(msg);
@@ -329,16 +417,29 @@ public class ArcRepository implements CleanupIF {
      * @param arcFileName The file for which we are replying.
      * @param msg The message to reply to.
      */
-    private synchronized void replyNotOK(String arcFileName, StoreMessage msg) {
+    private void replyNotOK(String arcFileName, StoreMessage msg) {
         outstandingRemoteFiles.remove(arcFileName);
         outstandingRemoteFilesC.remove(arcFileName);
         clearRetries(arcFileName);
+        recordRoundTrip(arcFileName);
         msg.setNotOk("Failure while trying to store ARC file: " + arcFileName);
         log.warn("Store NOT OK: '{}'", arcFileName);
         log.debug("Sending store NOT OK reply to message '{}'", msg);
         JMSConnectionFactory.getInstance().reply(msg);
     }
 
+    /**
+     * Record the time from the store of a file started until it was replied to.
+     *
+     * @param arcFileName The file for which we are replying.
+     */
+    private void recordRoundTrip(String arcFileName) {
+        Long start = storeStartTimes.remove(arcFileName);
+        if (start != null) {
+            statistics.record(ArcRepositoryStatistics.Operation.STORE_ROUND_TRIP, start);
+        }
+    }
+
     /**
      * Check if all replicas have reported that storage has been successfully completed. If this is the case return true
      * else false.
@@ -450,16 +551,23 @@ public class ArcRepository implements CleanupIF {
      *
      * @param msg an UploadMessage.
      */
-    public synchronized void onUpload(UploadMessage msg) {
+    public void onUpload(UploadMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         log.debug("Received upload reply: {}", msg.toString());
 
+        long start = System.nanoTime();
         String repChannelName = resolveReplicaChannel(msg.getTo().getName());
 
-        if (msg.isOk()) {
-            processDataUploaded(msg.getArcfileName(), repChannelName);
-        } else {
-            processUploadFailed(msg.getArcfileName(), repChannelName);
+        try {
+            synchronized (lockFor(msg.getArcfileName())) {
+                if (msg.isOk()) {
+                    processDataUploaded(msg.getArcfileName(), repChannelName);
+                } else {
+                    processUploadFailed(msg.getArcfileName(), repChannelName);
+                }
+            }
+        } finally {
+            statistics.record(ArcRepositoryStatistics.Operation.UPLOAD_REPLY, start);
         }
     }
 
@@ -476,7 +584,7 @@ public class ArcRepository implements CleanupIF {
      * @param replicaChannelName The name of the identification channel for the replica that uploaded it (THE_BAMON for
      * bitarchive and THE_CR for checksum).
      */
-    private synchronized void processDataUploaded(String arcfileName, String replicaChannelName) {
+    private void processDataUploaded(String arcfileName, String replicaChannelName) {
         log.debug("Data uploaded '{}' ,{}", arcfileName, replicaChannelName);
         ad.setState(arcfileName, replicaChannelName, ReplicaStoreState.DATA_UPLOADED);
 
@@ -508,19 +616,36 @@ public class ArcRepository implements CleanupIF {
      *
      * @param msg a BatchReplyMessage.
      */
-    public synchronized void onBatchReply(BatchReplyMessage msg) {
+    public void onBatchReply(BatchReplyMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         log.debug("BatchReplyMessage received: '{}'", msg);
 
-        if (!outstandingChecksumFiles.containsKey(msg.getReplyOfId())) {
+        long start = System.nanoTime();
+        try {
+            handleBatchReply(msg);
+        } finally {
+            statistics.record(ArcRepositoryStatistics.Operation.BATCH_REPLY, start);
+        }
+    }
+
+    /**
+     * Handle a reply on a checksum batch job. The result file is fetched and read without holding any lock; only the
+     * processing of the checksum is done holding the lock of the file.
+     *
+     * @param msg a BatchReplyMessage.
+     */
+    private void handleBatchReply(BatchReplyMessage msg) {
+        String arcfileName;
+        synchronized (checksumRequestLock) {
+            arcfileName = outstandingChecksumFiles.remove(msg.getReplyOfId());
+        }
+        if (arcfileName == null) {
             // Message was NOT expected
             log.warn("Received batchreply message with unknown originating ID {}\n{}\n. Known IDs are: {}",
                     msg.getReplyOfId(), msg.toString(), outstandingChecksumFiles.keySet().toString());
             return;
         }
 
-        String arcfileName = outstandingChecksumFiles.remove(msg.getReplyOfId());
-
         // Check incoming message
         if (!msg.isOk()) {
             // Checksum job has ended with errors, but can contain checksum
@@ -575,9 +700,11 @@ public class ArcRepository implements CleanupIF {
         }
 
         // Process result
-        String orgCheckSum = ad.getCheckSum(arcfileName);
         String repChannel = resolveReplicaChannel(msg.getReplyTo().getName());
-        processCheckSum(arcfileName, repChannel, orgCheckSum, reportedChecksum, msg.isOk() && checksumReadOk);
+        synchronized (lockFor(arcfileName)) {
+            String orgCheckSum = ad.getCheckSum(arcfileName);
+            processCheckSum(arcfileName, repChannel, orgCheckSum, reportedChecksum, msg.isOk() && checksumReadOk);
+        }
     }
 
     /**
@@ -585,20 +712,36 @@ public class ArcRepository implements CleanupIF {
      *
      * @param msg The message containing the checksum of a specific file.
      */
-    public synchronized void onChecksumReply(GetChecksumMessage msg) {
+    public void onChecksumReply(GetChecksumMessage msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
 
         log.debug("Received the reply to a GetChecksumMessage with ID: '{}'", msg.getID());
 
+        long start = System.nanoTime();
+        try {
+            handleChecksumReply(msg);
+        } finally {
+            statistics.record(ArcRepositoryStatistics.Operation.CHECKSUM_REPLY, start);
+        }
+    }
+
+    /**
+     * Handle the results of the GetChecksumMessage holding the lock of the file.
+     *
+     * @param msg The message containing the checksum of a specific file.
+     */
+    private void handleChecksumReply(GetChecksumMessage msg) {
+        String arcfileName;
+        synchronized (checksumRequestLock) {
+            arcfileName = outstandingChecksumFiles.remove(msg.getID());
+        }
         // handle the case when unwanted reply.
-        if (!outstandingChecksumFiles.containsKey(msg.getID())) {
+        if (arcfileName == null) {
             log.warn("Received GetChecksumMessage with unknown originating ID {}\n{}\n. Known IDs are: {}",
                     msg.getReplyOfId(), msg.toString(), outstandingChecksumFiles.keySet().toString());
             return;
         }
 
-        String arcfileName = outstandingChecksumFiles.remove(msg.getID());
-
         // Check incoming message
         if (!msg.isOk()) {
             // Checksum job has ended with errors, but can contain checksum
@@ -620,12 +763,15 @@ public class ArcRepository implements CleanupIF {
         boolean checksumReadOk = true;
 
         // process the checksum.
-        String orgChecksum = ad.getCheckSum(arcfileName);
-        if (orgChecksum == null) {
-            throw new IllegalState("The admin checksum for file '" + arcfileName + "' is null. Should never happen.");
-        }
         String repChannelName = resolveReplicaChannel(msg.getTo().getName());
-        processCheckSum(arcfileName, repChannelName, orgChecksum, reportedChecksum, checksumReadOk);
+        synchronized (lockFor(arcfileName)) {
+            String orgChecksum = ad.getCheckSum(arcfileName);
+            if (orgChecksum == null) {
+                throw new IllegalState("The admin checksum for file '" + arcfileName
+                        + "' is null. Should never happen.");
+            }
+            processCheckSum(arcfileName, repChannelName, orgChecksum, reportedChecksum, checksumReadOk);
+        }
     }
 
     /**
@@ -723,13 +869,30 @@ public class ArcRepository implements CleanupIF {
      * (except reply NOT ok from replica).
      * @param checksumReadOk Tells whether the checksum was read ok by batch job.
      */
-    private synchronized void processCheckSum(String arcFileName, String replicaChannelName, String orgChecksum,
+    private void processCheckSum(String arcFileName, String replicaChannelName, String orgChecksum,
             String reportedChecksum, boolean checksumReadOk) {
         log.debug("Checksum received for file '{}'... processing", arcFileName);
         ArgumentNotValid.checkNotNullOrEmpty(arcFileName, "String arcfileName");
         ArgumentNotValid.checkNotNullOrEmpty(replicaChannelName, "String replicaChannelName");
         ArgumentNotValid.checkNotNullOrEmpty(orgChecksum, "String orgChecksum");
         ArgumentNotValid.checkNotNull(reportedChecksum, "String reportedChecksum");
+        synchronized (lockFor(arcFileName)) {
+            doProcessCheckSum(arcFileName, replicaChannelName, orgChecksum, reportedChecksum, checksumReadOk);
+        }
+    }
+
+    /**
+     * Process reporting of a checksum for a file. Must be called holding the lock of the file.
+     *
+     * @param arcFileName The file being stored.
+     * @param replicaChannelName The id of the replica reporting a checksum.
+     * @param orgChecksum The original checksum.
+     * @param reportedChecksum The checksum calculated by the replica.
+     * @param checksumReadOk Tells whether the checksum was read ok by batch job.
+     * @see #processCheckSum(String, String, String, String, boolean)
+     */
+    private void doProcessCheckSum(String arcFileName, String replicaChannelName, String orgChecksum,
+            String reportedChecksum, boolean checksumReadOk) {
 
         // Log if we do not find file outstanding
         // we proceed anyway in order to be sure to update stae of file
@@ -829,8 +992,8 @@ public class ArcRepository implements CleanupIF {
     private void incRetry(String replicaChannelName, String arcfileName) {
         Map<String, Integer> replicaRetries = uploadRetries.get(replicaChannelName);
         if (replicaRetries == null) {
-            replicaRetries = new HashMap<String, Integer>();
-            uploadRetries.put(replicaChannelName, replicaRetries);
+            uploadRetries.putIfAbsent(replicaChannelName, new ConcurrentHashMap<String, Integer>());
+            replicaRetries = uploadRetries.get(replicaChannelName);
         }
 
         Integer retryCount = replicaRetries.get(arcfileName);
@@ -848,8 +1011,7 @@ public class ArcRepository implements CleanupIF {
      * @param arcfileName The name of a given ARC file
      */
     private void clearRetries(String arcfileName) {
-        for (String replicaChannelName : uploadRetries.keySet()) {
-            Map<String, Integer> baretries = uploadRetries.get(replicaChannelName);
+        for (Map<String, Integer> baretries : uploadRetries.values()) {
             baretries.remove(arcfileName);
         }
     }
@@ -883,14 +1045,16 @@ public class ArcRepository implements CleanupIF {
         log.warn(message);
         NotificationsFactory.getInstance().notify(message, NotificationType.WARNING);
 
-        if (msg.isChangeStoreState()) {
-            String replicaChannelName = Replica.getReplicaFromId(msg.getReplicaId()).getIdentificationChannel()
-                    .getName();
-            ad.setState(msg.getFileName(), replicaChannelName, msg.getNewvalue());
-        }
+        synchronized (lockFor(msg.getFileName())) {
+            if (msg.isChangeStoreState()) {
+                String replicaChannelName = Replica.getReplicaFromId(msg.getReplicaId()).getIdentificationChannel()
+                        .getName();
+                ad.setState(msg.getFileName(), replicaChannelName, msg.getNewvalue());
+            }
 
-        if (msg.isChangeChecksum()) {
-            ad.setCheckSum(msg.getFileName(), msg.getChecksum());
+            if (msg.isChangeChecksum()) {
+                ad.setCheckSum(msg.getFileName(), msg.getChecksum());
+            }
         }
     }
 
@@ -934,6 +1098,7 @@ public class ArcRepository implements CleanupIF {
      * closed along with all their connections.
      */
     public void cleanup() {
+        statistics.unregister();
         if (arcReposhandler != null) {
             arcReposhandler.close();
             arcReposhandler = null;
@@ -0,0 +1,226 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepository;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.management.SingleMBeanObject;
+
+/**
+ * Latency histograms for the operations of the {@link ArcRepository}, registered as an MBean in the platform MBean
+ * server. Recording is lock free, so it can be done from all message handling threads.
+ */
+public class ArcRepositoryStatistics implements ArcRepositoryStatisticsMBean {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ArcRepositoryStatistics.class);
+
+    /** The JMX domain of the MBean. */
+    static final String JMX_DOMAIN = "dk.netarkivet.archive.arcrepository";
+
+    /** The operations measured. */
+    enum Operation {
+        STORE, UPLOAD_REPLY, BATCH_REPLY, CHECKSUM_REPLY, STORE_ROUND_TRIP
+    }
+
+    /** The repository whose outstanding work is reported. */
+    private final ArcRepository repository;
+
+    /** One histogram per operation, indexed by ordinal. */
+    private final Histogram[] histograms = new Histogram[Operation.values().length];
+
+    /** The MBean registration, or null if not registered. */
+    private SingleMBeanObject<ArcRepositoryStatisticsMBean> mBean;
+
+    /**
+     * Create statistics for the given repository.
+     *
+     * @param repository The ArcRepository.
+     */
+    ArcRepositoryStatistics(ArcRepository repository) {
+        this.repository = repository;
+        for (Operation operation : Operation.values()) {
+            histograms[operation.ordinal()] = new Histogram();
+        }
+    }
+
+    /**
+     * Register the statistics in the platform MBean server. Failure to register is logged, but otherwise ignored.
+     */
+    synchronized void register() {
+        if (mBean != null) {
+            return;
+        }
+        try {
+            SingleMBeanObject<ArcRepositoryStatisticsMBean> bean = new SingleMBeanObject<ArcRepositoryStatisticsMBean>(
+                    JMX_DOMAIN, this, ArcRepositoryStatisticsMBean.class, ManagementFactory.getPlatformMBeanServer());
+            bean.getNameProperties().put("name", "ArcRepositoryStatistics");
+            bean.register();
+            mBean = bean;
+        } catch (Exception e) {
+            log.warn("Could not register the ArcRepository statistics as an MBean", e);
+        }
+    }
+
+    /**
+     * Unregister the statistics from the platform MBean server, if registered.
+     */
+    synchronized void unregister() {
+        if (mBean == null) {
+            return;
+        }
+        try {
+            mBean.unregister();
+        } catch (Exception e) {
+            log.warn("Could not unregister the ArcRepository statistics MBean", e);
+        }
+        mBean = null;
+    }
+
+    /**
+     * Record the duration of an operation.
+     *
+     * @param operation The operation.
+     * @param startNanos The value of {@link System#nanoTime()} when the operation started.
+     */
+    void record(Operation operation, long startNanos) {
+        histograms[operation.ordinal()].add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+    }
+
+    /**
+     * @param operation An operation.
+     * @return The number of recorded durations of the operation.
+     */
+    long getCount(Operation operation) {
+        return histograms[operation.ordinal()].count.get();
+    }
+
+    @Override
+    public String getStoreLatency() {
+        return histograms[Operation.STORE.ordinal()].toString();
+    }
+
+    @Override
+    public String getUploadReplyLatency() {
+        return histograms[Operation.UPLOAD_REPLY.ordinal()].toString();
+    }
+
+    @Override
+    public String getBatchReplyLatency() {
+        return histograms[Operation.BATCH_REPLY.ordinal()].toString();
+    }
+
+    @Override
+    public String getChecksumReplyLatency() {
+        return histograms[Operation.CHECKSUM_REPLY.ordinal()].toString();
+    }
+
+    @Override
+    public String getStoreRoundTripLatency() {
+        return histograms[Operation.STORE_ROUND_TRIP.ordinal()].toString();
+    }
+
+    @Override
+    public int getOutstandingStores() {
+        return repository.getOutstandingStoreCount();
+    }
+
+    @Override
+    public int getPendingAdminWrites() {
+        return repository.getPendingAdminWriteCount();
+    }
+
+    @Override
+    public void reset() {
+        for (Histogram histogram : histograms) {
+            histogram.reset();
+        }
+    }
+
+    /**
+     * A histogram of durations in milliseconds with power of two buckets: bucket 0 holds durations below 1 ms, and
+     * bucket i holds durations from 2^(i-1) to 2^i ms.
+     */
+    static final class Histogram {
+        private static final int BUCKETS = 40;
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void add(long millis) {
+            long value = Math.max(0, millis);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(value));
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            total.addAndGet(value);
+            long currentMax = max.get();
+            while (value > currentMax && !max.compareAndSet(currentMax, value)) {
+                currentMax = max.get();
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                buckets.set(i, 0);
+            }
+            count.set(0);
+            total.set(0);
+            max.set(0);
+        }
+
+        /**
+         * @param fraction A fraction between 0 and 1.
+         * @param n The number of durations in the buckets.
+         * @return The upper bound in ms of the bucket holding the given percentile.
+         */
+        long upperBound(double fraction, long n) {
+            long wanted = (long) Math.ceil(fraction * n);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= wanted) {
+                    return 1L << i;
+                }
+            }
+            return 1L << (BUCKETS - 1);
+        }
+
+        @Override
+        public String toString() {
+            long n = count.get();
+            if (n == 0) {
+                return "count=0";
+            }
+            return "count=" + n + ", mean=" + (total.get() / n) + "ms, max=" + max.get() + "ms, p50<"
+                    + upperBound(0.5, n) + "ms, p90<" + upperBound(0.9, n) + "ms, p99<" + upperBound(0.99, n) + "ms";
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepository;
+
+/**
+ * The statistics of the ArcRepository exposed over JMX. Latencies are summarized as the number of calls, the mean and
+ * maximum duration, and upper bounds of the median, 90th and 99th percentile in milliseconds.
+ */
+public interface ArcRepositoryStatisticsMBean {
+
+    /**
+     * @return A summary of the time spent handling store messages.
+     */
+    String getStoreLatency();
+
+    /**
+     * @return A summary of the time spent handling upload replies from the replicas.
+     */
+    String getUploadReplyLatency();
+
+    /**
+     * @return A summary of the time spent handling checksum batch replies from the bitarchive replicas.
+     */
+    String getBatchReplyLatency();
+
+    /**
+     * @return A summary of the time spent handling checksum replies from the checksum replicas.
+     */
+    String getChecksumReplyLatency();
+
+    /**
+     * @return A summary of the time from a store message is received until it is replied to.
+     */
+    String getStoreRoundTripLatency();
+
+    /**
+     * @return The number of stores that have not been replied to yet.
+     */
+    int getOutstandingStores();
+
+    /**
+     * @return The number of store states waiting to be written to the admin data.
+     */
+    int getPendingAdminWrites();
+
+    /**
+     * Reset all latency statistics.
+     */
+    void reset();
+
+}
@@ -24,10 +24,18 @@ package dk.netarkivet.archive.arcrepository.distribute;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.jms.Message;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.archive.ArchiveSettings;
 import dk.netarkivet.archive.arcrepository.ArcRepository;
 import dk.netarkivet.archive.arcrepository.bitpreservation.AdminDataMessage;
 import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
@@ -51,13 +59,24 @@ import dk.netarkivet.common.utils.Settings;
 
 /**
  * Listens on the queue "TheArcrepos" and submits the messages to a corresponding visit method on BitarchiveClient.
+ * <p>
+ * JMS delivers the messages of the queue one at a time, so they are handed to a fixed number of handler threads (see
+ * {@link ArchiveSettings#ARCREPOSITORY_MESSAGE_HANDLER_THREADS}) and handled concurrently. When all handler threads are
+ * busy and the queue of waiting messages is full, the receiving thread handles the message itself, which stops it
+ * from receiving more messages until there is room. A message is acknowledged when it is handed to a handler thread,
+ * so messages waiting to be handled are lost if the ArcRepository is stopped abruptly. Their senders time out and
+ * retry as they do when a reply is lost.
  */
 public class ArcRepositoryServer extends ArchiveMessageHandler {
 
     /** The log. */
     private static final Logger log = LoggerFactory.getLogger(ArcRepositoryServer.class);
+    /** The maximum time to wait for the handler threads to finish the received messages when closing. */
+    private static final long CLOSE_TIMEOUT_SECONDS = 60;
     /** The ArcRepository connected to this server. */
     private final ArcRepository ar;
+    /** The threads handling the received messages, or null if they are handled in the receiving thread. */
+    private final ThreadPoolExecutor handlers;
 
     /**
      * Creates and adds a ArcRepositoryMessageHandler as listener on the "TheArcrepos"-queue.
@@ -67,11 +86,53 @@ public class ArcRepositoryServer extends ArchiveMessageHandler {
     public ArcRepositoryServer(ArcRepository ar) {
         ArgumentNotValid.checkNotNull(ar, "ArcRepository ar");
         this.ar = ar;
+        int threads = Settings.getInt(ArchiveSettings.ARCREPOSITORY_MESSAGE_HANDLER_THREADS);
+        if (threads > 0) {
+            final AtomicInteger threadCount = new AtomicInteger();
+            handlers = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<Runnable>(threads), new ThreadFactory() {
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "ArcRepositoryServer-handler-" + threadCount.incrementAndGet());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    }, new ThreadPoolExecutor.CallerRunsPolicy());
+        } else {
+            handlers = null;
+        }
         ChannelID channel = Channels.getTheRepos();
-        log.info("Listening for arc repository messages on channel '{}'", channel);
+        log.info("Listening for arc repository messages on channel '{}' with {} handler threads", channel, threads);
         JMSConnectionFactory.getInstance().setListener(channel, this);
     }
 
+    /**
+     * Hands the message to a handler thread, which unpacks it and calls the corresponding visit method.
+     *
+     * @param msg a ObjectMessage
+     */
+    @Override
+    public void onMessage(final Message msg) {
+        if (handlers == null) {
+            handle(msg);
+            return;
+        }
+        ArgumentNotValid.checkNotNull(msg, "Message msg");
+        handlers.execute(new Runnable() {
+            public void run() {
+                handle(msg);
+            }
+        });
+    }
+
+    /**
+     * Unpacks the message and calls the corresponding visit method.
+     *
+     * @param msg a ObjectMessage
+     */
+    private void handle(Message msg) {
+        super.onMessage(msg);
+    }
+
     /**
      * Forwards the call to the ArcRepository.store() method with the StoreMessage as parameter. In case of exception
      * when calling store, a reply message is sent containing the message set as NotOK.
@@ -321,10 +382,21 @@ public class ArcRepositoryServer extends ArchiveMessageHandler {
     }
 
     /**
-     * Removes the ArcRepositoryMessageHandler as listener.
+     * Removes the ArcRepositoryMessageHandler as listener, and waits for the messages already received to be handled.
      */
     public void close() {
         JMSConnectionFactory.getInstance().removeListener(Channels.getTheRepos(), this);
+        if (handlers != null) {
+            handlers.shutdown();
+            try {
+                if (!handlers.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    log.warn("Messages were still being handled {} seconds after closing", CLOSE_TIMEOUT_SECONDS);
+                }
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for the received messages to be handled", e);
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
 }
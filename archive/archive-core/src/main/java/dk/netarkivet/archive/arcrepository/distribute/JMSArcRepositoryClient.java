@@ -24,6 +24,14 @@ package dk.netarkivet.archive.arcrepository.distribute;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +70,10 @@ import dk.netarkivet.common.utils.batch.FileBatchJob;
 /**
  * Client side usage of an arc repository. All requests are forwarded to the ArcRepositoryServer over the network. get
  * and store messages are retried a number of time before giving up, and will timeout after a specified time.
+ * <p>
+ * get, getChecksum, batch and store requests can also be sent asynchronously (getAsync etc.), which lets a caller have
+ * many requests outstanding without blocking a thread for each of them. The blocking methods wait for the asynchronous
+ * ones.
  */
 public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositoryClient {
 
@@ -97,6 +109,12 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
     /** The length of time to wait for a get reply before giving up. */
     private long getTimeout;
 
+    /**
+     * Handles the replies to store messages and sends the retries, as these block on the ftp server. Replies are
+     * otherwise completed in the threads receiving messages.
+     */
+    private final ExecutorService storeExecutor;
+
     // NOTE: The constants defining setting names below are left non-final on
     // purpose! Otherwise, the static initialiser that loads default values
     // will not run.
@@ -119,11 +137,27 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
      */
     public static final String ARCREPOSITORY_STORE_TIMEOUT = "settings.common.arcrepositoryClient.storeTimeout";
 
+    /**
+     * <b>settings.common.arcrepositoryClient.storeThreads</b>: <br>
+     * The number of threads handling store replies and sending store retries, which involves uploading to and deleting
+     * from the ftp server.
+     */
+    public static final String ARCREPOSITORY_STORE_THREADS = "settings.common.arcrepositoryClient.storeThreads";
+
     /** Adds this Synchronizer as listener on a jms connection. */
     protected JMSArcRepositoryClient() {
         storeRetries = Settings.getLong(ARCREPOSITORY_STORE_RETRIES);
         storeTimeout = Settings.getLong(ARCREPOSITORY_STORE_TIMEOUT);
         getTimeout = Settings.getLong(ARCREPOSITORY_GET_TIMEOUT);
+        final AtomicInteger threadCount = new AtomicInteger();
+        storeExecutor = Executors.newFixedThreadPool(Settings.getInt(ARCREPOSITORY_STORE_THREADS),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "JMSArcRepositoryClient-store-" + threadCount.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
 
         log.info(
                 "JMSArcRepositoryClient will retry a store {} times and timeout on each try after {} milliseconds, and timeout on each getrequest after {} milliseconds.",
@@ -145,10 +179,11 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
         return instance;
     }
 
-    /** Removes this object as a JMS listener. */
+    /** Removes this object as a JMS listener and stops the store threads once they are idle. */
     public void close() {
         synchronized (JMSArcRepositoryClient.class) {
             JMSConnectionFactory.getInstance().removeListener(replyQ, this);
+            storeExecutor.shutdown();
             instance = null;
         }
     }
@@ -164,29 +199,47 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
      * @throws IOFailure If a wrong message is returned or the get operation failed.
      */
     public BitarchiveRecord get(String arcfile, long index) throws ArgumentNotValid, IOFailure {
+        return waitFor(getAsync(arcfile, index), "get of record '" + arcfile + ":" + index + "'");
+    }
+
+    /**
+     * Sends a GetMessage on the "TheArcrepos" queue without waiting for the reply. The returned future is completed
+     * with null if no message is returned within Settings.ARCREPOSITORY_GET_TIMEOUT, and completed exceptionally with
+     * an IOFailure if a wrong message is returned or the get operation failed.
+     *
+     * @param arcfile The name of a file.
+     * @param index The offset of the wanted record in the file
+     * @return a future for the BitarchiveRecord-object.
+     * @throws ArgumentNotValid If the given arcfile is null or empty, or the given index is negative.
+     */
+    public CompletableFuture<BitarchiveRecord> getAsync(final String arcfile, final long index)
+            throws ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(arcfile, "arcfile");
         ArgumentNotValid.checkNotNegative(index, "index");
         log.debug("Requesting get of record '{}:{}'", arcfile, index);
-        long start = System.currentTimeMillis();
+        final long start = System.currentTimeMillis();
         GetMessage requestGetMsg = new GetMessage(Channels.getTheRepos(), replyQ, arcfile, index);
-        NetarkivetMessage replyNetMsg = sendAndWaitForOneReply(requestGetMsg, getTimeout);
-        long timePassed = System.currentTimeMillis() - start;
-        log.debug("Reply received after {} seconds", (timePassed / MILLISECONDS_PER_SECOND));
-        if (replyNetMsg == null) {
-            log.info("Request for record({}:{}) timed out after {} seconds. Returning null BitarchiveRecord", arcfile,
-                    index, (getTimeout / MILLISECONDS_PER_SECOND));
-            return null;
-        }
-        GetMessage replyGetMsg;
-        try {
-            replyGetMsg = (GetMessage) replyNetMsg;
-        } catch (ClassCastException e) {
-            throw new IOFailure("Received invalid argument reply: '" + replyNetMsg + "'", e);
-        }
-        if (!replyGetMsg.isOk()) {
-            throw new IOFailure("GetMessage failed: '" + replyGetMsg.getErrMsg() + "'");
-        }
-        return replyGetMsg.getRecord();
+        return sendAsync(requestGetMsg, getTimeout).thenApply(new Function<NetarkivetMessage, BitarchiveRecord>() {
+            public BitarchiveRecord apply(NetarkivetMessage replyNetMsg) {
+                long timePassed = System.currentTimeMillis() - start;
+                log.debug("Reply received after {} seconds", (timePassed / MILLISECONDS_PER_SECOND));
+                if (replyNetMsg == null) {
+                    log.info("Request for record({}:{}) timed out after {} seconds. Returning null BitarchiveRecord",
+                            arcfile, index, (getTimeout / MILLISECONDS_PER_SECOND));
+                    return null;
+                }
+                GetMessage replyGetMsg;
+                try {
+                    replyGetMsg = (GetMessage) replyNetMsg;
+                } catch (ClassCastException e) {
+                    throw new IOFailure("Received invalid argument reply: '" + replyNetMsg + "'", e);
+                }
+                if (!replyGetMsg.isOk()) {
+                    throw new IOFailure("GetMessage failed: '" + replyGetMsg.getErrMsg() + "'");
+                }
+                return replyGetMsg.getRecord();
+            }
+        });
     }
 
     /**
@@ -218,8 +271,8 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
     }
 
     /**
-     * Sends a StoreMessage via the synchronized JMS connection method sendAndWaitForOneReply(). After a successful
-     * storage operation, both the local copy of the file and the copy on the ftp server are deleted.
+     * Sends a StoreMessage and waits for the reply. After a successful storage operation, both the local copy of the
+     * file and the copy on the ftp server are deleted.
      *
      * @param file A file to be stored. Must exist.
      * @throws IOFailure thrown if store is unsuccessful, or failed to clean up files locally or on the ftp server after
@@ -227,53 +280,117 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
      * @throws ArgumentNotValid if file parameter is null or file is not an existing file.
      */
     public void store(File file) throws IOFailure, ArgumentNotValid {
+        waitFor(storeAsync(file), "store of file '" + file + "'");
+    }
+
+    /**
+     * Sends a StoreMessage without waiting for the reply, so many files can be stored at a time without a thread
+     * waiting for each of them. The upload of the file to the ftp server happens in the calling thread. The store is
+     * retried up to Settings.ARCREPOSITORY_STORE_RETRIES times if it fails or times out; replies are handled and
+     * retries sent by the Settings.ARCREPOSITORY_STORE_THREADS store threads. After a successful storage operation, both the local copy of the file and the copy on the ftp server are
+     * deleted.
+     *
+     * @param file A file to be stored. Must exist.
+     * @return A future completed when the file is stored. It is completed exceptionally with an IOFailure if all
+     * attempts failed.
+     * @throws ArgumentNotValid if file parameter is null or file is not an existing file.
+     */
+    public CompletableFuture<Void> storeAsync(File file) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(file, "file");
         ArgumentNotValid.checkTrue(file.isFile(), "The file '" + file.getPath() + "' is not an existing file.");
+        return storeAttempt(file, 0, new StringBuffer());
+    }
 
-        StringBuilder messages = new StringBuilder();
-        for (long i = 0; i < storeRetries; i++) {
-            StoreMessage outMsg = null;
-            try {
-                log.debug("Sending a StoreMessage with file '{}'", file.getPath());
-                outMsg = new StoreMessage(replyQ, file);
-                NetarkivetMessage replyMsg = sendAndWaitForOneReply(outMsg, storeTimeout);
-                if (replyMsg != null && replyMsg.isOk()) {
-                    try {
-                        FileUtils.removeRecursively(file);
-                    } catch (IOFailure e) {
-                        log.warn("Failed to clean up '{}'", file.getAbsolutePath(), e);
-                        // Not fatal
+    /**
+     * Make one attempt to store a file, continuing with the next attempt if it fails.
+     *
+     * @param file The file to store
+     * @param attempt The number of attempts made before this one
+     * @param messages The errors of the attempts made before this one
+     * @return A future completed when the file is stored, or exceptionally when all attempts failed
+     */
+    private CompletableFuture<Void> storeAttempt(final File file, final long attempt, final StringBuffer messages) {
+        if (attempt >= storeRetries) {
+            String errMsg = "Could not store '" + file.getPath() + "' after " + storeRetries
+                    + " attempts. Giving up.\n" + messages;
+            log.error(errMsg);
+            NotificationsFactory.getInstance().notify(errMsg, NotificationType.ERROR);
+            CompletableFuture<Void> failed = new CompletableFuture<Void>();
+            failed.completeExceptionally(new IOFailure(errMsg));
+            return failed;
+        }
+        StoreMessage msg = null;
+        CompletableFuture<NetarkivetMessage> reply;
+        try {
+            log.debug("Sending a StoreMessage with file '{}'", file.getPath());
+            msg = new StoreMessage(replyQ, file);
+            reply = sendAsync(msg, storeTimeout);
+        } catch (Exception e) {
+            storeFailed(messages, "Client-side exception occurred while storing '" + file.getPath()
+                    + "' on attempt number " + (attempt + 1) + " of " + storeRetries + ".", e);
+            if (msg != null) {
+                cleanUpAfterStore(msg);
+            }
+            return storeAttempt(file, attempt + 1, messages);
+        }
+        final StoreMessage outMsg = msg;
+        return reply.handleAsync(new BiFunction<NetarkivetMessage, Throwable, Boolean>() {
+            public Boolean apply(NetarkivetMessage replyMsg, Throwable t) {
+                try {
+                    if (t != null) {
+                        storeFailed(messages, "Client-side exception occurred while storing '"
+                                + file.getPath() + "' on attempt number " + (attempt + 1) + " of " + storeRetries
+                                + ".", t);
+                        return false;
+                    } else if (replyMsg != null && replyMsg.isOk()) {
+                        try {
+                            FileUtils.removeRecursively(file);
+                        } catch (IOFailure e) {
+                            log.warn("Failed to clean up '{}'", file.getAbsolutePath(), e);
+                            // Not fatal
+                        }
+                        return true;
+                    } else if (replyMsg == null) {
+                        storeFailed(messages, "Timed out while waiting for reply on store of file '"
+                                + file.getPath() + "' on attempt number " + (attempt + 1) + " of " + storeRetries,
+                                null);
+                    } else {
+                        storeFailed(messages, "The returned message '" + replyMsg
+                                + "' was not ok while waiting for reply on store of file '" + file.getPath()
+                                + "' on attempt number " + (attempt + 1) + " of " + storeRetries
+                                + ". Error message was '" + replyMsg.getErrMsg() + "'", null);
                     }
-                    return;
-                } else if (replyMsg == null) {
-                    String msg = "Timed out" + " while waiting for reply on store of file '" + file.getPath()
-                            + "' on attempt number " + (i + 1) + " of " + storeRetries;
-                    log.warn(msg);
-                    messages.append(msg).append("\n");
-                } else {
-                    String msg = "The returned message '" + replyMsg + "' was not ok while waiting for reply on store "
-                            + "of file '" + file.getPath() + "' on attempt number " + (i + 1) + " of " + storeRetries
-                            + ". Error message was '" + replyMsg.getErrMsg() + "'";
-                    log.warn(msg);
-                    messages.append(msg).append("\n");
-                }
-            } catch (Exception e) {
-                String msg = "Client-side exception occurred while storing '" + file.getPath() + "' on attempt number "
-                        + (i + 1) + " of " + storeRetries + ".";
-                log.warn(msg, e);
-                messages.append(msg).append("\n");
-                messages.append(ExceptionUtils.getStackTrace(e));
-            } finally {
-                if (outMsg != null) {
+                    return false;
+                } finally {
                     cleanUpAfterStore(outMsg);
                 }
             }
+        }, storeExecutor).thenCompose(new Function<Boolean, CompletionStage<Void>>() {
+            public CompletionStage<Void> apply(Boolean stored) {
+                if (stored) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return storeAttempt(file, attempt + 1, messages);
+            }
+        });
+    }
+
+    /**
+     * Log and remember the failure of a store attempt.
+     *
+     * @param messages The errors of the attempts made so far
+     * @param msg A description of the failure
+     * @param t The cause of the failure, or null if there is none
+     */
+    private static void storeFailed(StringBuffer messages, String msg, Throwable t) {
+        if (t == null) {
+            log.warn(msg);
+            messages.append(msg).append("\n");
+        } else {
+            log.warn(msg, t);
+            messages.append(msg).append("\n");
+            messages.append(ExceptionUtils.getStackTrace(t));
         }
-        String errMsg = "Could not store '" + file.getPath() + "' after " + storeRetries + " attempts. Giving up.\n"
-                + messages;
-        log.error(errMsg);
-        NotificationsFactory.getInstance().notify(errMsg, NotificationType.ERROR);
-        throw new IOFailure(errMsg);
     }
 
     /**
@@ -331,23 +448,45 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
      */
     public BatchStatus batch(FileBatchJob job, String replicaId, String batchId, String... args) throws IOFailure,
             ArgumentNotValid {
+        return waitFor(batchAsync(job, replicaId, batchId, args), "batch job '" + job + "'");
+    }
+
+    /**
+     * Starts a batch job on each file in the ArcRepository without waiting for it to end.
+     *
+     * @param job An object that implements the FileBatchJob interface.
+     * @param replicaId The archive to execute the job on.
+     * @param batchId The id for the batch process.
+     * @param args The arguments for the batchjob. This is allowed to be null.
+     * @return A future for the status of the batch job after it ended. It is completed exceptionally with an IOFailure
+     * if no result file is returned.
+     * @throws ArgumentNotValid If the job is null or the replicaId is either null or the empty string.
+     * @see #batch(FileBatchJob, String, String, String...)
+     */
+    public CompletableFuture<BatchStatus> batchAsync(final FileBatchJob job, String replicaId, String batchId,
+            String... args) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(job, "FileBatchJob job");
         ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
 
         log.debug("Starting batchjob '{}' running on replica '{}'", job, replicaId);
-        BatchMessage bMsg = new BatchMessage(Channels.getTheRepos(), replyQ, job, replicaId, batchId, args);
+        final BatchMessage bMsg = new BatchMessage(Channels.getTheRepos(), replyQ, job, replicaId, batchId, args);
         log.debug("Sending batchmessage to queue '{}' with replyqueue set to '{}'", Channels.getTheRepos(), replyQ);
-        BatchReplyMessage brMsg = (BatchReplyMessage) sendAndWaitForOneReply(bMsg, 0);
-        if (!brMsg.isOk()) {
-            String msg = "The batch job '" + bMsg + "' resulted in the following " + "error: " + brMsg.getErrMsg();
-            log.warn(msg);
-            if (brMsg.getResultFile() == null) {
-                // If no result is available at all, this is non-recoverable
-                throw new IOFailure(msg);
+        return sendAsync(bMsg, 0).thenApply(new Function<NetarkivetMessage, BatchStatus>() {
+            public BatchStatus apply(NetarkivetMessage replyNetMsg) {
+                BatchReplyMessage brMsg = (BatchReplyMessage) replyNetMsg;
+                if (!brMsg.isOk()) {
+                    String msg = "The batch job '" + bMsg + "' resulted in the following " + "error: "
+                            + brMsg.getErrMsg();
+                    log.warn(msg);
+                    if (brMsg.getResultFile() == null) {
+                        // If no result is available at all, this is non-recoverable
+                        throw new IOFailure(msg);
+                    }
+                }
+                return new BatchStatus(brMsg.getFilesFailed(), brMsg.getNoOfFilesProcessed(), brMsg.getResultFile(),
+                        job.getExceptions());
             }
-        }
-        return new BatchStatus(brMsg.getFilesFailed(), brMsg.getNoOfFilesProcessed(), brMsg.getResultFile(),
-                job.getExceptions());
+        });
     }
 
     /**
@@ -550,36 +689,53 @@ public class JMSArcRepositoryClient extends Synchronizer implements ArcRepositor
      * @throws ArgumentNotValid If either the replicaId of the filename is null or empty.
      */
     public String getChecksum(String replicaId, String filename) throws ArgumentNotValid, IOFailure {
+        return waitFor(getChecksumAsync(replicaId, filename), "checksum of file '" + filename + "'");
+    }
+
+    /**
+     * Retrieves the checksum of a specific file without waiting for the reply.
+     *
+     * @param replicaId The ID of the replica to send the message.
+     * @param filename The name of the file for whom the checksum should be retrieved.
+     * @return A future for the checksum of the file in the replica. It is completed exceptionally with an IOFailure if
+     * the reply is not of type GetChecksumMessage.
+     * @throws ArgumentNotValid If either the replicaId of the filename is null or empty.
+     * @see #getChecksum(String, String)
+     */
+    public CompletableFuture<String> getChecksumAsync(String replicaId, String filename) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(replicaId, "String replicaId");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
         log.debug("Sending GetChecksumMessage to replica '{}' for file '{}'.", replicaId, filename);
         // time this.
-        long start = System.currentTimeMillis();
+        final long start = System.currentTimeMillis();
         // make and send the message to the replica.
         GetChecksumMessage gcsMsg = new GetChecksumMessage(Channels.getTheRepos(), replyQ, filename, replicaId);
-        NetarkivetMessage replyNetMsg = sendAndWaitForOneReply(gcsMsg, 0);
-        // calculate and log the time spent on handling the message.
-        long timePassed = System.currentTimeMillis() - start;
-        log.debug("Reply received after {} seconds.", (timePassed / MILLISECONDS_PER_SECOND));
-        // check whether the output was valid.
-        if (replyNetMsg == null) {
-            throw new IOFailure("Request for checksum timed out after " + (getTimeout / MILLISECONDS_PER_SECOND)
-                    + " seconds.");
-        }
+        return sendAsync(gcsMsg, 0).thenApply(new Function<NetarkivetMessage, String>() {
+            public String apply(NetarkivetMessage replyNetMsg) {
+                // calculate and log the time spent on handling the message.
+                long timePassed = System.currentTimeMillis() - start;
+                log.debug("Reply received after {} seconds.", (timePassed / MILLISECONDS_PER_SECOND));
+                // check whether the output was valid.
+                if (replyNetMsg == null) {
+                    throw new IOFailure("Request for checksum timed out after "
+                            + (getTimeout / MILLISECONDS_PER_SECOND) + " seconds.");
+                }
 
-        // convert to the expected type of message.
-        GetChecksumMessage replyCSMsg;
-        try {
-            replyCSMsg = (GetChecksumMessage) replyNetMsg;
-        } catch (ClassCastException e) {
-            throw new IOFailure("Received invalid reply message: '" + replyNetMsg, e);
-        }
+                // convert to the expected type of message.
+                GetChecksumMessage replyCSMsg;
+                try {
+                    replyCSMsg = (GetChecksumMessage) replyNetMsg;
+                } catch (ClassCastException e) {
+                    throw new IOFailure("Received invalid reply message: '" + replyNetMsg, e);
+                }
 
-        if (!replyCSMsg.isOk()) {
-            log.warn("The reply message for retrieval of checksum was not OK. Tries to extract checksum anyway. {}",
-                    replyCSMsg.getErrMsg());
-        }
-        return replyCSMsg.getChecksum();
+                if (!replyCSMsg.isOk()) {
+                    log.warn("The reply message for retrieval of checksum was not OK. "
+                            + "Tries to extract checksum anyway. {}", replyCSMsg.getErrMsg());
+                }
+                return replyCSMsg.getChecksum();
+            }
+        });
     }
 
     /**
@@ -0,0 +1,394 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepositoryadmin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
+import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.NotificationType;
+import dk.netarkivet.common.utils.NotificationsFactory;
+
+/**
+ * An Admin that makes another Admin safe for use from many threads at once.
+ * <p>
+ * All calls to the wrapped Admin are serialized on one lock, as neither the file based nor the database based admin
+ * are thread safe. Optionally, updates of the store states can be written behind: {@link #setState} then only records
+ * the new state in memory, and a background thread writes the recorded states to the wrapped Admin in batches. A
+ * state that is changed several times before it is written is only written once, with its latest value. Reads of a
+ * state that has not been written yet are answered from memory, so callers always see their own updates. States that
+ * cannot be written are kept and retried with increasing delays, and repeated failures are reported by notification.
+ */
+public class ConcurrentAdmin implements Admin {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ConcurrentAdmin.class);
+
+    /** The maximum number of states written by the background thread while holding the lock. */
+    private static final int MAX_BATCH_SIZE = 500;
+
+    /** The delay before the first retry of states that could not be written. */
+    private static final long MIN_RETRY_DELAY_MILLIS = 1000L;
+
+    /** The maximum delay between retries of states that could not be written. */
+    private static final long MAX_RETRY_DELAY_MILLIS = 60000L;
+
+    /** The number of failed writes in a row after which the failures are reported by notification. */
+    private static final int FAILURES_BEFORE_NOTIFICATION = 5;
+
+    /** Queued to wake up the writer thread when the admin is closed. */
+    private static final StateKey STOP = new StateKey("", "");
+
+    /** The wrapped admin. */
+    private final Admin admin;
+
+    /** Lock serializing all access to the wrapped admin. */
+    private final Object lock = new Object();
+
+    /** Whether updates of the store states are written behind. */
+    private final boolean writeBehind;
+
+    /** The states not written to the wrapped admin yet, by filename and replica channel. */
+    private final Map<StateKey, ReplicaStoreState> pendingStates = new ConcurrentHashMap<StateKey, ReplicaStoreState>();
+
+    /** The keys of the states waiting to be written. */
+    private final BlockingQueue<StateKey> pendingKeys = new LinkedBlockingQueue<StateKey>();
+
+    /** The thread writing the pending states, or null if states are not written behind. */
+    private final Thread writer;
+
+    /** Set when the admin is closed. */
+    private volatile boolean closed;
+
+    /** Counted down when the admin is closed, to end the wait before a retry. */
+    private final CountDownLatch closing = new CountDownLatch(1);
+
+    /** The number of failed writes of states since the last successful one. Only used holding the lock. */
+    private int consecutiveFailures;
+
+    /**
+     * Wrap the given admin.
+     *
+     * @param admin The admin to wrap.
+     * @param writeBehind Whether store states should be written to the wrapped admin in the background.
+     * @throws ArgumentNotValid If admin is null.
+     */
+    public ConcurrentAdmin(Admin admin, boolean writeBehind) {
+        ArgumentNotValid.checkNotNull(admin, "Admin admin");
+        this.admin = admin;
+        this.writeBehind = writeBehind;
+        if (writeBehind) {
+            writer = new Thread("AdminStateWriter") {
+                public void run() {
+                    writePendingStates();
+                }
+            };
+            writer.setDaemon(true);
+            writer.start();
+        } else {
+            writer = null;
+        }
+    }
+
+    /**
+     * @return The admin wrapped by this instance.
+     */
+    public Admin getWrappedAdmin() {
+        return admin;
+    }
+
+    /**
+     * @return The number of store states that have not been written to the wrapped admin yet.
+     */
+    public int getPendingStateCount() {
+        return pendingStates.size();
+    }
+
+    @Override
+    public boolean hasEntry(String filename) {
+        synchronized (lock) {
+            return admin.hasEntry(filename);
+        }
+    }
+
+    @Override
+    public void addEntry(String filename, StoreMessage msg, String checksum) {
+        synchronized (lock) {
+            admin.addEntry(filename, msg, checksum);
+        }
+    }
+
+    @Override
+    public String getCheckSum(String filename) {
+        synchronized (lock) {
+            return admin.getCheckSum(filename);
+        }
+    }
+
+    @Override
+    public void setCheckSum(String filename, String checksum) {
+        synchronized (lock) {
+            admin.setCheckSum(filename, checksum);
+        }
+    }
+
+    @Override
+    public boolean hasReplyInfo(String filename) {
+        synchronized (lock) {
+            return admin.hasReplyInfo(filename);
+        }
+    }
+
+    @Override
+    public void setReplyInfo(String filename, StoreMessage msg) {
+        synchronized (lock) {
+            admin.setReplyInfo(filename, msg);
+        }
+    }
+
+    @Override
+    public StoreMessage removeReplyInfo(String filename) {
+        synchronized (lock) {
+            return admin.removeReplyInfo(filename);
+        }
+    }
+
+    @Override
+    public ReplicaStoreState getState(String filename, String replicaChannelName) {
+        if (writeBehind) {
+            ReplicaStoreState pending = pendingStates.get(new StateKey(filename, replicaChannelName));
+            if (pending != null) {
+                return pending;
+            }
+        }
+        synchronized (lock) {
+            return admin.getState(filename, replicaChannelName);
+        }
+    }
+
+    @Override
+    public boolean hasState(String filename, String repChannelId) {
+        if (writeBehind && pendingStates.containsKey(new StateKey(filename, repChannelId))) {
+            return true;
+        }
+        synchronized (lock) {
+            return admin.hasState(filename, repChannelId);
+        }
+    }
+
+    @Override
+    public void setState(String filename, String repChannelId, ReplicaStoreState state) {
+        if (!writeBehind || closed) {
+            synchronized (lock) {
+                admin.setState(filename, repChannelId, state);
+            }
+            return;
+        }
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+        ArgumentNotValid.checkNotNullOrEmpty(repChannelId, "String repChannelId");
+        ArgumentNotValid.checkNotNull(state, "ReplicaStoreState state");
+        StateKey key = new StateKey(filename, repChannelId);
+        if (pendingStates.put(key, state) == null) {
+            pendingKeys.add(key);
+        }
+    }
+
+    @Override
+    public Set<String> getAllFileNames() {
+        synchronized (lock) {
+            return admin.getAllFileNames();
+        }
+    }
+
+    @Override
+    public Set<String> getAllFileNames(Replica rep, ReplicaStoreState state) {
+        flush();
+        synchronized (lock) {
+            return admin.getAllFileNames(rep, state);
+        }
+    }
+
+    /**
+     * Write all pending store states to the wrapped admin from the calling thread.
+     */
+    public void flush() {
+        if (!writeBehind) {
+            return;
+        }
+        synchronized (lock) {
+            for (StateKey key : new ArrayList<StateKey>(pendingStates.keySet())) {
+                writeState(key);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending states until the admin is closed, taking as many keys at a time as are available. States that
+     * could not be written are queued again after a delay, which doubles for each failed batch in a row.
+     */
+    private void writePendingStates() {
+        List<StateKey> batch = new ArrayList<StateKey>();
+        List<StateKey> failed = new ArrayList<StateKey>();
+        long retryDelay = 0;
+        while (!closed) {
+            try {
+                StateKey first = pendingKeys.poll(1, TimeUnit.SECONDS);
+                if (first == null || first == STOP) {
+                    continue;
+                }
+                batch.add(first);
+                pendingKeys.drainTo(batch, MAX_BATCH_SIZE - 1);
+                synchronized (lock) {
+                    for (StateKey key : batch) {
+                        if (!writeState(key)) {
+                            failed.add(key);
+                        }
+                    }
+                }
+                if (log.isTraceEnabled()) {
+                    log.trace("Wrote {} store states, {} still pending", batch.size() - failed.size(),
+                            pendingStates.size());
+                }
+                if (failed.isEmpty()) {
+                    retryDelay = 0;
+                } else {
+                    retryDelay = Math.min(MAX_RETRY_DELAY_MILLIS, Math.max(MIN_RETRY_DELAY_MILLIS, 2 * retryDelay));
+                    log.warn("Could not write {} store states, retrying in {} ms", failed.size(), retryDelay);
+                    closing.await(retryDelay, TimeUnit.MILLISECONDS);
+                }
+            } catch (InterruptedException e) {
+                log.debug("Admin state writer interrupted");
+            } catch (Throwable t) {
+                log.warn("Unexpected error while writing store states", t);
+            } finally {
+                // Failed states are still pending, so they are retried
+                pendingKeys.addAll(failed);
+                failed.clear();
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Write the pending state for the given key, if any. Must be called holding the lock. If the state was changed
+     * while being written, the key is queued again so the newer value is also written. If writing fails, the state is
+     * kept as pending.
+     *
+     * @param key Filename and replica channel of the state.
+     * @return false if the state could not be written, true otherwise.
+     */
+    private boolean writeState(StateKey key) {
+        ReplicaStoreState state = pendingStates.get(key);
+        if (state == null) {
+            return true;
+        }
+        try {
+            admin.setState(key.filename, key.replicaChannelName, state);
+        } catch (RuntimeException e) {
+            consecutiveFailures++;
+            if (consecutiveFailures == FAILURES_BEFORE_NOTIFICATION) {
+                String msg = "Failed " + consecutiveFailures + " times in a row to write store states to the admin, "
+                        + "latest " + state + " for file '" + key.filename + "' on '" + key.replicaChannelName
+                        + "'. The states are kept and retried.";
+                log.error(msg, e);
+                NotificationsFactory.getInstance().notify(msg, NotificationType.ERROR, e);
+            } else {
+                log.warn("Could not write store state {} for file '{}' on '{}'", state, key.filename,
+                        key.replicaChannelName, e);
+            }
+            return false;
+        }
+        consecutiveFailures = 0;
+        if (!pendingStates.remove(key, state)) {
+            pendingKeys.add(key);
+        }
+        return true;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        closing.countDown();
+        if (writer != null) {
+            pendingKeys.add(STOP);
+            try {
+                writer.join(TimeUnit.SECONDS.toMillis(10));
+            } catch (InterruptedException e) {
+                log.debug("Interrupted while waiting for the admin state writer to stop");
+            }
+        }
+        flush();
+        if (!pendingStates.isEmpty()) {
+            String msg = "Could not write " + pendingStates.size() + " store states before closing the admin";
+            log.error(msg);
+            NotificationsFactory.getInstance().notify(msg, NotificationType.ERROR);
+        }
+        synchronized (lock) {
+            admin.close();
+        }
+    }
+
+    /**
+     * Key of a store state: the filename and the identification channel of the replica.
+     */
+    private static final class StateKey {
+        private final String filename;
+        private final String replicaChannelName;
+
+        StateKey(String filename, String replicaChannelName) {
+            this.filename = filename;
+            this.replicaChannelName = replicaChannelName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StateKey)) {
+                return false;
+            }
+            StateKey other = (StateKey) o;
+            return filename.equals(other.filename) && replicaChannelName.equals(other.replicaChannelName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * filename.hashCode() + replicaChannelName.hashCode();
+        }
+    }
+
+}
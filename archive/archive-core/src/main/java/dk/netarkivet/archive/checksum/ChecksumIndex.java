@@ -0,0 +1,562 @@
+/*
+ * #%L
+ * Netarchivesuite - archive
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.KeyValuePair;
+
+/**
+ * A compact map from filenames to checksums, used by the {@link FileChecksumArchive} for keeping the archive in
+ * memory.
+ * <p>
+ * MD5 checksums (32 lower case hexadecimal characters) are stored as two longs. The filenames are split into a prefix,
+ * which is interned (e.g. '1234-56-' for the files of job 1234 of harvest 56), and a suffix, which is stored as UTF-8
+ * bytes in large shared byte arrays. The entries are found through an open addressing hash table of ints. This uses
+ * around a quarter of the memory of a HashMap of Strings. Entries with other kinds of checksums are kept in an
+ * ordinary map.
+ * <p>
+ * This class is not thread safe.
+ */
+public class ChecksumIndex {
+
+    /** The charset of the stored filename suffixes. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The number of bits addressing a position within a page of filename bytes. */
+    private static final int PAGE_BITS = 22;
+    /** The size of the pages holding the filename bytes. */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    /** The maximum length in bytes of a stored filename suffix. */
+    private static final int MAX_SUFFIX_LENGTH = 0xFFFF;
+
+    /** Marks a slot in the table whose entry has been removed. */
+    private static final int REMOVED = -1;
+    /** The maximum fraction of occupied slots in the table. */
+    private static final float LOAD_FACTOR = 0.7f;
+
+    /** Marks an MD5 entry in the binary format. */
+    private static final byte TYPE_MD5 = 0;
+    /** Marks an entry with another checksum in the binary format. */
+    private static final byte TYPE_OTHER = 1;
+
+    /** The interned filename prefixes. */
+    private final List<String> prefixes = new ArrayList<String>();
+    /** The ids of the interned filename prefixes. */
+    private final Map<String, Integer> prefixIds = new HashMap<String, Integer>();
+
+    /** The pages holding the filename suffixes, each preceded by its length in two bytes. */
+    private byte[][] pages;
+    /** The number of pages in use. */
+    private int pageCount;
+    /** The next free position in the last page. */
+    private int pagePosition;
+
+    /** The prefix id of each entry, or REMOVED if the entry has been removed. */
+    private int[] entryPrefix;
+    /** The position of the suffix of each entry: the page number in the high bits, the position in the low bits. */
+    private long[] entrySuffix;
+    /** The hash code of the filename of each entry. */
+    private int[] entryHash;
+    /** The first 8 bytes of the MD5 checksum of each entry. */
+    private long[] md5High;
+    /** The last 8 bytes of the MD5 checksum of each entry. */
+    private long[] md5Low;
+    /** The number of entries, including removed ones. */
+    private int entryCount;
+
+    /** The hash table: entry number + 1, 0 for a free slot, or REMOVED. */
+    private int[] table;
+    /** The number of live entries in the table. */
+    private int liveCount;
+    /** The number of slots in the table which are not free. */
+    private int occupiedSlots;
+
+    /** Entries whose checksum is not an MD5 checksum in lower case hexadecimal. */
+    private final Map<String, String> otherChecksums = new HashMap<String, String>();
+
+    /**
+     * Create an empty index.
+     */
+    public ChecksumIndex() {
+        clear();
+    }
+
+    /**
+     * Remove all entries from the index.
+     */
+    public void clear() {
+        prefixes.clear();
+        prefixIds.clear();
+        pages = new byte[4][];
+        pages[0] = new byte[PAGE_SIZE];
+        pageCount = 1;
+        pagePosition = 0;
+        entryPrefix = new int[1024];
+        entrySuffix = new long[1024];
+        entryHash = new int[1024];
+        md5High = new long[1024];
+        md5Low = new long[1024];
+        entryCount = 0;
+        table = new int[2048];
+        liveCount = 0;
+        occupiedSlots = 0;
+        otherChecksums.clear();
+    }
+
+    /**
+     * Make a copy of the index, which is independent of this index. Filled pages of filename bytes are never changed,
+     * so they are shared rather than copied.
+     *
+     * @return The copy.
+     */
+    public ChecksumIndex copy() {
+        ChecksumIndex copy = new ChecksumIndex();
+        copy.prefixes.addAll(prefixes);
+        copy.prefixIds.putAll(prefixIds);
+        copy.pages = Arrays.copyOf(pages, pages.length);
+        copy.pages[pageCount - 1] = pages[pageCount - 1].clone();
+        copy.pageCount = pageCount;
+        copy.pagePosition = pagePosition;
+        copy.entryPrefix = entryPrefix.clone();
+        copy.entrySuffix = entrySuffix.clone();
+        copy.entryHash = entryHash.clone();
+        copy.md5High = md5High.clone();
+        copy.md5Low = md5Low.clone();
+        copy.entryCount = entryCount;
+        copy.table = table.clone();
+        copy.liveCount = liveCount;
+        copy.occupiedSlots = occupiedSlots;
+        copy.otherChecksums.putAll(otherChecksums);
+        return copy;
+    }
+
+    /**
+     * @return The number of entries in the index.
+     */
+    public int size() {
+        return liveCount + otherChecksums.size();
+    }
+
+    /**
+     * @return Whether the index has no entries.
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @param filename A filename.
+     * @return Whether the index has an entry for the filename.
+     */
+    public boolean containsKey(String filename) {
+        return findSlot(filename) >= 0 || otherChecksums.containsKey(filename);
+    }
+
+    /**
+     * @param filename A filename.
+     * @return The checksum of the filename, or null if the index has no entry for it.
+     */
+    public String get(String filename) {
+        int slot = findSlot(filename);
+        if (slot >= 0) {
+            return md5ToString(table[slot] - 1);
+        }
+        return otherChecksums.get(filename);
+    }
+
+    /**
+     * Set the checksum of a filename.
+     *
+     * @param filename The filename.
+     * @param checksum The checksum.
+     * @return The previous checksum of the filename, or null if the index had no entry for it.
+     * @throws ArgumentNotValid If the filename or the checksum is null.
+     */
+    public String put(String filename, String checksum) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(filename, "String filename");
+        ArgumentNotValid.checkNotNull(checksum, "String checksum");
+        long[] md5 = parseMd5(checksum);
+        if (md5 == null || suffixOf(filename).length > MAX_SUFFIX_LENGTH) {
+            String previous = remove(filename);
+            otherChecksums.put(filename, checksum);
+            return previous;
+        }
+        return putMd5(filename, md5[0], md5[1]);
+    }
+
+    /**
+     * Set the MD5 checksum of a filename.
+     *
+     * @param filename The filename.
+     * @param high The first 8 bytes of the checksum.
+     * @param low The last 8 bytes of the checksum.
+     * @return The previous checksum of the filename, or null if the index had no entry for it.
+     */
+    private String putMd5(String filename, long high, long low) {
+        int slot = findSlot(filename);
+        if (slot >= 0) {
+            int entry = table[slot] - 1;
+            String previous = md5ToString(entry);
+            md5High[entry] = high;
+            md5Low[entry] = low;
+            return previous;
+        }
+        String previous = otherChecksums.remove(filename);
+        int entry = addEntry(filename, high, low);
+        insert(entry);
+        return previous;
+    }
+
+    /**
+     * Remove the entry of a filename.
+     *
+     * @param filename The filename.
+     * @return The checksum of the removed entry, or null if the index had no entry for the filename.
+     */
+    public String remove(String filename) {
+        int slot = findSlot(filename);
+        if (slot >= 0) {
+            int entry = table[slot] - 1;
+            String previous = md5ToString(entry);
+            table[slot] = REMOVED;
+            entryPrefix[entry] = REMOVED;
+            liveCount--;
+            return previous;
+        }
+        return otherChecksums.remove(filename);
+    }
+
+    /**
+     * Iterate over the entries of the index. The index must not be changed while iterating.
+     *
+     * @return An iterator over the filenames and checksums in the index.
+     */
+    public Iterator<KeyValuePair<String, String>> iterator() {
+        final Iterator<Map.Entry<String, String>> others = otherChecksums.entrySet().iterator();
+        return new Iterator<KeyValuePair<String, String>>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                int entry = from;
+                while (entry < entryCount && entryPrefix[entry] == REMOVED) {
+                    entry++;
+                }
+                return entry;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next < entryCount || others.hasNext();
+            }
+
+            @Override
+            public KeyValuePair<String, String> next() {
+                if (next < entryCount) {
+                    KeyValuePair<String, String> result = new KeyValuePair<String, String>(filenameOf(next),
+                            md5ToString(next));
+                    next = advance(next + 1);
+                    return result;
+                }
+                if (!others.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Map.Entry<String, String> other = others.next();
+                return new KeyValuePair<String, String>(other.getKey(), other.getValue());
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("The index cannot be changed while iterating");
+            }
+        };
+    }
+
+    /**
+     * Write all entries in a binary format, which can be read by {@link #readFrom(DataInput)}.
+     *
+     * @param out The output to write to.
+     * @throws IOException If writing fails.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size());
+        for (int entry = 0; entry < entryCount; entry++) {
+            if (entryPrefix[entry] != REMOVED) {
+                out.writeUTF(filenameOf(entry));
+                out.writeByte(TYPE_MD5);
+                out.writeLong(md5High[entry]);
+                out.writeLong(md5Low[entry]);
+            }
+        }
+        for (Map.Entry<String, String> other : otherChecksums.entrySet()) {
+            out.writeUTF(other.getKey());
+            out.writeByte(TYPE_OTHER);
+            out.writeUTF(other.getValue());
+        }
+    }
+
+    /**
+     * Add the entries written by {@link #writeTo(DataOutput)} to the index.
+     *
+     * @param in The input to read from.
+     * @throws IOException If reading fails.
+     * @throws IOFailure If the input is not in the expected format.
+     */
+    public void readFrom(DataInput in) throws IOException, IOFailure {
+        int count = in.readInt();
+        for (int i = 0; i < count; i++) {
+            String filename = in.readUTF();
+            byte type = in.readByte();
+            if (type == TYPE_MD5) {
+                long high = in.readLong();
+                long low = in.readLong();
+                putMd5(filename, high, low);
+            } else if (type == TYPE_OTHER) {
+                put(filename, in.readUTF());
+            } else {
+                throw new IOFailure("Unknown entry type " + type + " in checksum index");
+            }
+        }
+    }
+
+    /**
+     * Find the slot in the table of the entry for a filename.
+     *
+     * @param filename The filename.
+     * @return The slot, or -1 if there is no MD5 entry for the filename.
+     */
+    private int findSlot(String filename) {
+        if (filename == null) {
+            return -1;
+        }
+        int hash = filename.hashCode();
+        int mask = table.length - 1;
+        int slot = spread(hash) & mask;
+        byte[] suffix = null;
+        int prefix = -2;
+        while (table[slot] != 0) {
+            int entry = table[slot] - 1;
+            if (entry >= 0 && entryHash[entry] == hash) {
+                if (suffix == null) {
+                    suffix = suffixOf(filename);
+                    Integer id = prefixIds.get(prefixOf(filename));
+                    prefix = id == null ? -2 : id;
+                }
+                if (entryPrefix[entry] == prefix && suffixEquals(entry, suffix)) {
+                    return slot;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * Insert an entry in the table, growing the table if needed.
+     *
+     * @param entry The entry number.
+     */
+    private void insert(int entry) {
+        if (occupiedSlots + 1 > table.length * LOAD_FACTOR) {
+            rehash(liveCount + 1 > table.length * LOAD_FACTOR / 2 ? table.length * 2 : table.length);
+        }
+        int mask = table.length - 1;
+        int slot = spread(entryHash[entry]) & mask;
+        while (table[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        table[slot] = entry + 1;
+        liveCount++;
+        occupiedSlots++;
+    }
+
+    /**
+     * Rebuild the table with the given capacity, dropping removed entries.
+     *
+     * @param capacity The new capacity, a power of two.
+     */
+    private void rehash(int capacity) {
+        int[] newTable = new int[capacity];
+        int mask = capacity - 1;
+        for (int value : table) {
+            if (value > 0) {
+                int slot = spread(entryHash[value - 1]) & mask;
+                while (newTable[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                newTable[slot] = value;
+            }
+        }
+        table = newTable;
+        occupiedSlots = liveCount;
+    }
+
+    /**
+     * Append a new entry.
+     *
+     * @return The number of the new entry.
+     */
+    private int addEntry(String filename, long high, long low) {
+        if (entryCount == entryPrefix.length) {
+            int capacity = entryCount + (entryCount >> 1);
+            entryPrefix = Arrays.copyOf(entryPrefix, capacity);
+            entrySuffix = Arrays.copyOf(entrySuffix, capacity);
+            entryHash = Arrays.copyOf(entryHash, capacity);
+            md5High = Arrays.copyOf(md5High, capacity);
+            md5Low = Arrays.copyOf(md5Low, capacity);
+        }
+        int entry = entryCount++;
+        entryPrefix[entry] = internPrefix(prefixOf(filename));
+        entrySuffix[entry] = storeSuffix(suffixOf(filename));
+        entryHash[entry] = filename.hashCode();
+        md5High[entry] = high;
+        md5Low[entry] = low;
+        return entry;
+    }
+
+    private int internPrefix(String prefix) {
+        Integer id = prefixIds.get(prefix);
+        if (id == null) {
+            id = prefixes.size();
+            prefixes.add(prefix);
+            prefixIds.put(prefix, id);
+        }
+        return id;
+    }
+
+    private long storeSuffix(byte[] suffix) {
+        if (pagePosition + 2 + suffix.length > PAGE_SIZE) {
+            if (pageCount == pages.length) {
+                pages = Arrays.copyOf(pages, pages.length * 2);
+            }
+            pages[pageCount++] = new byte[PAGE_SIZE];
+            pagePosition = 0;
+        }
+        byte[] page = pages[pageCount - 1];
+        int position = pagePosition;
+        page[position] = (byte) (suffix.length >> 8);
+        page[position + 1] = (byte) suffix.length;
+        System.arraycopy(suffix, 0, page, position + 2, suffix.length);
+        pagePosition += 2 + suffix.length;
+        return ((long) (pageCount - 1) << PAGE_BITS) | position;
+    }
+
+    private boolean suffixEquals(int entry, byte[] suffix) {
+        byte[] page = pages[(int) (entrySuffix[entry] >>> PAGE_BITS)];
+        int position = (int) (entrySuffix[entry] & (PAGE_SIZE - 1));
+        int length = ((page[position] & 0xFF) << 8) | (page[position + 1] & 0xFF);
+        if (length != suffix.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (page[position + 2 + i] != suffix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private String filenameOf(int entry) {
+        byte[] page = pages[(int) (entrySuffix[entry] >>> PAGE_BITS)];
+        int position = (int) (entrySuffix[entry] & (PAGE_SIZE - 1));
+        int length = ((page[position] & 0xFF) << 8) | (page[position + 1] & 0xFF);
+        return prefixes.get(entryPrefix[entry]) + new String(page, position + 2, length, UTF8);
+    }
+
+    /**
+     * The prefix of a filename shared with other files of the same harvest job: everything up to and including the
+     * second '-', or the first '-' if there is only one.
+     *
+     * @param filename A filename.
+     * @return The prefix, possibly empty.
+     */
+    static String prefixOf(String filename) {
+        int first = filename.indexOf('-');
+        if (first < 0) {
+            return "";
+        }
+        int second = filename.indexOf('-', first + 1);
+        return filename.substring(0, (second < 0 ? first : second) + 1);
+    }
+
+    private static byte[] suffixOf(String filename) {
+        return filename.substring(prefixOf(filename).length()).getBytes(UTF8);
+    }
+
+    private static int spread(int hash) {
+        int h = hash * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Parse an MD5 checksum in lower case hexadecimal.
+     *
+     * @param checksum The checksum.
+     * @return The checksum as two longs, or null if the checksum is not 32 lower case hexadecimal characters.
+     */
+    static long[] parseMd5(String checksum) {
+        if (checksum.length() != 32) {
+            return null;
+        }
+        long[] result = new long[2];
+        for (int i = 0; i < 32; i++) {
+            char c = checksum.charAt(i);
+            int digit;
+            if (c >= '0' && c <= '9') {
+                digit = c - '0';
+            } else if (c >= 'a' && c <= 'f') {
+                digit = c - 'a' + 10;
+            } else {
+                return null;
+            }
+            result[i / 16] = (result[i / 16] << 4) | digit;
+        }
+        return result;
+    }
+
+    private String md5ToString(int entry) {
+        char[] chars = new char[32];
+        toHex(md5High[entry], chars, 0);
+        toHex(md5Low[entry], chars, 16);
+        return new String(chars);
+    }
+
+    private static void toHex(long value, char[] chars, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            chars[offset + i] = Character.forDigit((int) (value >>> (4 * (15 - i))) & 0xF, 16);
+        }
+    }
+
+}
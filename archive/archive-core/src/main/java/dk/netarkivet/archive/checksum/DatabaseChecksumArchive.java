@@ -22,11 +22,19 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -36,6 +44,7 @@ import com.sleepycat.bind.EntryBinding;
 import com.sleepycat.bind.serial.SerialBinding;
 import com.sleepycat.bind.serial.StoredClassCatalog;
 import com.sleepycat.je.Cursor;
+import com.sleepycat.je.CursorConfig;
 import com.sleepycat.je.Database;
 import com.sleepycat.je.DatabaseConfig;
 import com.sleepycat.je.DatabaseEntry;
@@ -55,12 +64,19 @@ import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.KeyValuePair;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.batch.ChecksumJob;
 
 /**
  * A ChecksumArchive persisted with a Berkeley DB JE Database. Migrating from the {@link FileChecksumArchive} to the
  * DatabaseChecksumArchive is done with the {@link LoadDatabaseChecksumArchive} tool.
+ * <p>
+ * Reads are not synchronized; they are served concurrently by the database. Uploads from concurrent threads are
+ * handed to a single writer thread, which commits them in groups of up to
+ * {@link ArchiveSettings#CHECKSUM_DATABASE_BATCH_SIZE} entries or after
+ * {@link ArchiveSettings#CHECKSUM_DATABASE_BATCH_DELAY} milliseconds. An upload does not return before its
+ * transaction is synced to disk.
  */
 public class DatabaseChecksumArchive implements ChecksumArchive {
 
@@ -94,6 +110,22 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     /** The minSpaceLeft value. */
     private long minSpaceLeft;
 
+    /** The maximum number of writes committed in one transaction. */
+    private int batchSize;
+    /** The maximum time in milliseconds a write waits for other writes to join its transaction. */
+    private long batchDelay;
+    /** The writes waiting for the writer thread. */
+    private final BlockingQueue<PendingWrite> writeQueue = new LinkedBlockingQueue<PendingWrite>();
+    /** Queued to make the writer thread stop. */
+    private static final PendingWrite STOP = new PendingWrite(null, null, false);
+    /** The thread committing the queued writes, or null if every write is committed by the calling thread. */
+    private volatile Thread writerThread;
+    /** Set when the writer thread takes no more writes from the queue. Guarded by the lock on writeQueue. */
+    private boolean writerStopped;
+
+    /** The Berkeley DB setting for the maximum size of a log file. */
+    private static final String JE_LOG_FILE_MAX = "je.log.fileMax";
+
     /** The prefix to the removedEntryFile. */
     private static final String WRONG_FILENAME_PREFIX = "removed_";
     /** The suffix to the removedEntryFile. */
@@ -128,7 +160,7 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
         super();
 
         // Get the minimum space left setting.
-        long minSpaceLeft = Settings.getLong(ArchiveSettings.CHECKSUM_MIN_SPACE_LEFT);
+        minSpaceLeft = Settings.getLong(ArchiveSettings.CHECKSUM_MIN_SPACE_LEFT);
         // make sure, that minSpaceLeft is non-negative.
         if (minSpaceLeft < 0) {
             String msg = "Wrong setting of minSpaceRequired read from Settings: int " + minSpaceLeft;
@@ -141,6 +173,18 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
 
         // Initialize Wrong Entry file
         initializeWrongEntryFile();
+
+        batchSize = Settings.getInt(ArchiveSettings.CHECKSUM_DATABASE_BATCH_SIZE);
+        batchDelay = Settings.getLong(ArchiveSettings.CHECKSUM_DATABASE_BATCH_DELAY);
+        if (batchSize > 1) {
+            writerThread = new Thread("ChecksumDBWriter") {
+                public void run() {
+                    writeQueuedEntries();
+                }
+            };
+            writerThread.setDaemon(true);
+            writerThread.start();
+        }
     }
 
     private void initializeWrongEntryFile() {
@@ -171,6 +215,8 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
         EnvironmentConfig envConfig = new EnvironmentConfig();
         envConfig.setTransactional(true);
         envConfig.setAllowCreate(true);
+        envConfig.setCachePercent(Settings.getInt(ArchiveSettings.CHECKSUM_DATABASE_CACHE_PERCENT));
+        envConfig.setConfigParam(JE_LOG_FILE_MAX, Settings.get(ArchiveSettings.CHECKSUM_DATABASE_LOG_FILE_MAX));
 
         DatabaseConfig dbConfig = new DatabaseConfig();
         dbConfig.setTransactional(true);
@@ -322,62 +368,42 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     }
 
     @Override
-    public synchronized void upload(RemoteFile file, String filename) {
+    public void upload(RemoteFile file, String filename) {
         ArgumentNotValid.checkNotNull(file, "RemoteFile file");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
         InputStream input = null;
-
+        String newChecksum;
         try {
             input = file.getInputStream();
-            String newChecksum = calculateChecksum(input);
-            if (hasEntry(filename)) {
-                // fetch already stored checksum
-                String oldChecksum = getChecksum(filename);
-                if (newChecksum.equals(oldChecksum)) {
-                    log.warn(
-                            "Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
-                            filename, oldChecksum);
-                } else {
-                    throw new IllegalState("Cannot upload archivefile '" + filename
-                            + "', it is already archived with different checksum." + " Archive checksum: '"
-                            + oldChecksum + "' and the uploaded file has: '" + newChecksum + "'.");
-                }
-                // It is considered a success that it already is within the archive,
-                // thus do not throw an exception.
-                return;
-            } else {
-                put(filename, newChecksum);
-            }
+            newChecksum = calculateChecksum(input);
         } finally {
             if (input != null) {
                 IOUtils.closeQuietly(input);
             }
         }
+        upload(newChecksum, filename);
     }
-    
-    public synchronized void upload(String checksum, String filename) {
-    	ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
-    	ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
-
-    	if (hasEntry(filename)) {
-    		// fetch already stored checksum
-    		String oldChecksum = getChecksum(filename);
-    		if (checksum.equals(oldChecksum)) {
-    			log.warn(
-    					"Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
-    					filename, oldChecksum);
-    		} else {
-    			throw new IllegalState("Cannot upload archivefile '" + filename
-    					+ "', it is already archived with different checksum." + " Archive checksum: '"
-    					+ oldChecksum + "' and the uploaded file has: '" + checksum + "'.");
-    		}
-    		// It is considered a success that it already is within the archive,
-    		// thus do not throw an exception.
-    		return;
-    	} else {
-    		put(filename, checksum);
-    	}
+
+    public void upload(String checksum, String filename) {
+        ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
+        ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
+
+        // The entry is only written if the filename is not already archived, so concurrent uploads of the same file
+        // cannot overwrite each other.
+        String oldChecksum = write(filename, checksum, false);
+        if (oldChecksum != null) {
+            if (checksum.equals(oldChecksum)) {
+                log.warn("Cannot upload archivefile '{}', " + "it is already archived with the same checksum: '{}'",
+                        filename, oldChecksum);
+            } else {
+                throw new IllegalState("Cannot upload archivefile '" + filename
+                        + "', it is already archived with different checksum." + " Archive checksum: '"
+                        + oldChecksum + "' and the uploaded file has: '" + checksum + "'.");
+            }
+            // It is considered a success that it already is within the archive,
+            // thus do not throw an exception.
+        }
     }
 
     /**
@@ -390,16 +416,227 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
         ArgumentNotValid.checkNotNullOrEmpty(checksum, "String checksum");
 
+        write(filename, checksum, true);
+    }
+
+    /**
+     * Update the database with many filenames and their checksums, overwriting existing entries. The entries are
+     * written by the calling thread in transactions of the configured batch size, which are not synced to disk before
+     * all entries are written. This is intended for bulk loading, e.g. by the {@link LoadDatabaseChecksumArchive}
+     * tool.
+     *
+     * @param entries The filenames and checksums.
+     * @throws IOFailure If the entries cannot be written.
+     */
+    public void putAll(Iterable<KeyValuePair<String, String>> entries) throws IOFailure {
+        ArgumentNotValid.checkNotNull(entries, "Iterable<KeyValuePair<String, String>> entries");
+
+        Transaction txn = null;
+        int inTransaction = 0;
         DatabaseEntry theKey = new DatabaseEntry();
         DatabaseEntry theData = new DatabaseEntry();
-        keyBinding.objectToEntry(filename, theKey);
-        objectBinding.objectToEntry(checksum, theData);
-        Transaction nullTransaction = null;
-
         try {
-            checksumDB.put(nullTransaction, theKey, theData);
+            for (KeyValuePair<String, String> entry : entries) {
+                ArgumentNotValid.checkNotNullOrEmpty(entry.getKey(), "String filename");
+                ArgumentNotValid.checkNotNullOrEmpty(entry.getValue(), "String checksum");
+                if (txn == null) {
+                    txn = env.beginTransaction(null, null);
+                }
+                keyBinding.objectToEntry(entry.getKey(), theKey);
+                objectBinding.objectToEntry(entry.getValue(), theData);
+                checksumDB.put(txn, theKey, theData);
+                if (++inTransaction >= batchSize) {
+                    txn.commitNoSync();
+                    txn = null;
+                    inTransaction = 0;
+                }
+            }
+            if (txn != null) {
+                txn.commitNoSync();
+                txn = null;
+            }
+            env.sync();
         } catch (DatabaseException e) {
             throw new IOFailure("Database exception occuring during ingest", e);
+        } finally {
+            if (txn != null) {
+                abortQuietly(txn);
+            }
+        }
+    }
+
+    /**
+     * Write an entry to the database, either through the writer thread or directly, and wait until it is committed.
+     * The entry is written directly if the writer thread has stopped.
+     *
+     * @param filename The filename.
+     * @param checksum The checksum of the file.
+     * @param overwrite Whether an existing entry for the filename is overwritten.
+     * @return The checksum already stored for the filename if it was not overwritten, otherwise null.
+     * @throws IOFailure If the entry cannot be written.
+     */
+    private String write(String filename, String checksum, boolean overwrite) throws IOFailure {
+        PendingWrite pending = new PendingWrite(filename, checksum, overwrite);
+        if (writerThread == null || !enqueue(pending)) {
+            List<PendingWrite> single = new ArrayList<PendingWrite>(1);
+            single.add(pending);
+            commit(single);
+        } else {
+            try {
+                pending.done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOFailure("Interrupted while waiting for the checksum of '" + filename + "' to be stored", e);
+            }
+        }
+        if (pending.failure != null) {
+            throw pending.failure;
+        }
+        return pending.existingChecksum;
+    }
+
+    /**
+     * Queue a write for the writer thread, unless it has stopped.
+     *
+     * @param pending The write.
+     * @return Whether the write was queued.
+     */
+    private boolean enqueue(PendingWrite pending) {
+        synchronized (writeQueue) {
+            if (writerStopped) {
+                return false;
+            }
+            writeQueue.add(pending);
+            return true;
+        }
+    }
+
+    /**
+     * The loop of the writer thread. Takes the queued writes and commits them in groups until the STOP marker is met.
+     */
+    private void writeQueuedEntries() {
+        boolean stopped = false;
+        while (!stopped) {
+            PendingWrite first;
+            try {
+                first = writeQueue.take();
+            } catch (InterruptedException e) {
+                log.warn("ChecksumDB writer thread interrupted; stopping", e);
+                break;
+            }
+            if (first == STOP) {
+                break;
+            }
+            List<PendingWrite> batch = new ArrayList<PendingWrite>();
+            batch.add(first);
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchDelay);
+            while (batch.size() < batchSize) {
+                PendingWrite next;
+                try {
+                    next = writeQueue.poll(Math.max(0L, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    stopped = true;
+                    break;
+                }
+                if (next == null) {
+                    break;
+                }
+                if (next == STOP) {
+                    stopped = true;
+                    break;
+                }
+                batch.add(next);
+            }
+            commit(batch);
+        }
+        // Writes queued after the STOP marker must not wait forever, and later writes are not queued.
+        List<PendingWrite> remaining = new ArrayList<PendingWrite>();
+        synchronized (writeQueue) {
+            writerStopped = true;
+            writeQueue.drainTo(remaining);
+        }
+        remaining.remove(STOP);
+        if (!remaining.isEmpty()) {
+            commit(remaining);
+        }
+    }
+
+    /**
+     * Write the given entries in one transaction, which is synced to disk, and release the threads waiting for them.
+     * If the transaction fails, all the writes fail.
+     *
+     * @param batch The writes to commit.
+     */
+    private void commit(List<PendingWrite> batch) {
+        Transaction txn = null;
+        try {
+            txn = env.beginTransaction(null, null);
+            DatabaseEntry theKey = new DatabaseEntry();
+            DatabaseEntry theData = new DatabaseEntry();
+            for (PendingWrite pending : batch) {
+                keyBinding.objectToEntry(pending.filename, theKey);
+                objectBinding.objectToEntry(pending.checksum, theData);
+                if (pending.overwrite) {
+                    checksumDB.put(txn, theKey, theData);
+                } else if (checksumDB.putNoOverwrite(txn, theKey, theData) == OperationStatus.KEYEXIST) {
+                    DatabaseEntry existing = new DatabaseEntry();
+                    checksumDB.get(txn, theKey, existing, LockMode.DEFAULT);
+                    pending.existingChecksum = (String) objectBinding.entryToObject(existing);
+                }
+            }
+            txn.commitSync();
+            txn = null;
+            log.trace("Committed {} checksum entries", batch.size());
+        } catch (Exception e) {
+            IOFailure failure = new IOFailure("Database exception occuring during ingest", e);
+            for (PendingWrite pending : batch) {
+                pending.existingChecksum = null;
+                pending.failure = failure;
+            }
+        } finally {
+            if (txn != null) {
+                abortQuietly(txn);
+            }
+            for (PendingWrite pending : batch) {
+                pending.done.countDown();
+            }
+        }
+    }
+
+    /**
+     * Abort a transaction, logging but otherwise ignoring failures.
+     *
+     * @param txn The transaction to abort.
+     */
+    private void abortQuietly(Transaction txn) {
+        try {
+            txn.abort();
+        } catch (DatabaseException e) {
+            log.warn("Unable to abort transaction", e);
+        }
+    }
+
+    /**
+     * A write waiting to be committed by the writer thread.
+     */
+    private static final class PendingWrite {
+        /** The filename. */
+        final String filename;
+        /** The checksum of the file. */
+        final String checksum;
+        /** Whether an existing entry is overwritten. */
+        final boolean overwrite;
+        /** Counted down when the write is committed or has failed. */
+        final CountDownLatch done = new CountDownLatch(1);
+        /** The checksum already stored, if the entry was not overwritten. */
+        String existingChecksum;
+        /** The failure of the write, if any. */
+        IOFailure failure;
+
+        PendingWrite(String filename, String checksum, boolean overwrite) {
+            this.filename = filename;
+            this.checksum = checksum;
+            this.overwrite = overwrite;
         }
     }
 
@@ -429,42 +666,43 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
     }
 
     /**
-     * Write the contents of the database to the given file.
+     * Write the contents of the database to the given file. The file is written directly while the database is
+     * traversed, and it is handed over to the reply without further copying. The cursor reads committed entries
+     * without keeping them locked, so uploads can continue during the export.
      *
      * @param outputFile The outputfile whereto the data is written.
      * @param writeOnlyFilenames If true, we only write the filenames to the files, not the checksums
      * @throws IOException If unable to write to file for some reason
      */
-    private void dumpDatabaseToFile(File tempFile, boolean writeOnlyFilenames) throws IOException {
+    private void dumpDatabaseToFile(File outputFile, boolean writeOnlyFilenames) throws IOException {
         Cursor cursor = null;
-        File resultFile = tempFile;
-
-        FileWriter fw = new FileWriter(resultFile);
+        Writer writer = new BufferedWriter(new FileWriter(outputFile), 1 << 16);
+        long count = 0;
         try {
-            cursor = checksumDB.openCursor(null, null);
+            cursor = checksumDB.openCursor(null, CursorConfig.READ_COMMITTED);
 
             DatabaseEntry foundKey = new DatabaseEntry();
             DatabaseEntry foundData = new DatabaseEntry();
+            if (writeOnlyFilenames) {
+                // Do not read the checksums at all.
+                foundData.setPartial(0, 0, true);
+            }
 
             while (cursor.getNext(foundKey, foundData, LockMode.DEFAULT) == OperationStatus.SUCCESS) {
-                String keyString = new String(foundKey.getData());
-                String dataString = new String(foundData.getData());
-                if (writeOnlyFilenames) {
-                    fw.append(keyString);
-                } else {
-                    fw.append(keyString);
-                    fw.append(ChecksumJob.STRING_FILENAME_SEPARATOR);
-                    fw.append(dataString);
+                writer.write((String) keyBinding.entryToObject(foundKey));
+                if (!writeOnlyFilenames) {
+                    writer.write(ChecksumJob.STRING_FILENAME_SEPARATOR);
+                    writer.write((String) objectBinding.entryToObject(foundData));
                 }
-                fw.append('\n'); // end with newline
+                writer.write('\n'); // end with newline
+                count++;
             }
-            fw.flush();
+            writer.flush();
+            log.debug("Wrote {} entries to '{}'", count, outputFile.getAbsolutePath());
         } catch (DatabaseException de) {
             throw new IOFailure("Error accessing database." + de);
         } finally {
-            if (fw != null) {
-                IOUtils.closeQuietly(fw);
-            }
+            IOUtils.closeQuietly(writer);
             if (cursor != null) {
                 try {
                     cursor.close();
@@ -495,12 +733,44 @@ public class DatabaseChecksumArchive implements ChecksumArchive {
 
     @Override
     public void cleanup() {
+        if (writerThread != null) {
+            writeQueue.add(STOP);
+            try {
+                writerThread.join();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for the queued checksums to be written", e);
+                Thread.currentThread().interrupt();
+            }
+            writerThread = null;
+        }
         if (checksumDB != null) {
             try {
                 checksumDB.close();
             } catch (DatabaseException e) {
                 log.warn("Unable to close database. The error was :", e);
             }
+            checksumDB = null;
+        }
+        if (classDB != null) {
+            try {
+                classDB.close();
+            } catch (DatabaseException e) {
+                log.warn("Unable to close class database. The error was :", e);
+            }
+            classDB = null;
+        }
+        if (env != null) {
+            try {
+                env.close();
+            } catch (DatabaseException e) {
+                log.warn("Unable to close database environment. The error was :", e);
+            }
+            env = null;
+        }
+        synchronized (DatabaseChecksumArchive.class) {
+            if (instance == this) {
+                instance = null;
+            }
         }
     }
 }
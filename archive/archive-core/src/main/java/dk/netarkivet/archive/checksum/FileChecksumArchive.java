@@ -22,17 +22,30 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Collections;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.Writer;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Iterator;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -60,6 +73,13 @@ import dk.netarkivet.common.utils.batch.ChecksumJob;
  * <b>'filename' + ## + 'checksum'</b> <br>
  * The lines are not sorted.
  * <p>
+ * The file is an append-only log: a corrected entry is appended, and the last line for a filename is the valid one.
+ * When many lines have been superseded, the file is compacted by rewriting it from memory. The archive is kept in
+ * memory in a compact {@link ChecksumIndex}, and a binary snapshot of it is written next to the checksum file when the
+ * file is compacted, regularly while entries are appended, and on cleanup. The regular snapshots are written by a
+ * background thread from a copy of the archive, so appending is only held up while the copy is made. On startup the
+ * snapshot is loaded and only the lines appended after it are read from the checksum file.
+ * <p>
  * If no file exists when the class is instantiated then it will be created, and if an 'admin.data' file exists, then it
  * will be loaded and put into the archive file.
  */
@@ -81,6 +101,21 @@ public final class FileChecksumArchive implements ChecksumArchive {
     private static final String WRONG_FILENAME_PREFIX = "removed_";
     /** The suffix to the removedEntryFile. */
     private static final String WRONG_FILENAME_SUFFIX = ".checksum";
+    /** The suffix of the snapshot file. */
+    private static final String SNAPSHOT_SUFFIX = ".snapshot";
+
+    /** Identifies a snapshot file. */
+    private static final int SNAPSHOT_MAGIC = 0x4E41534D;
+    /** The version of the snapshot format. */
+    private static final int SNAPSHOT_VERSION = 1;
+    /** The number of bytes at the end of the covered part of the checksum file, which are verified by a snapshot. */
+    private static final int SNAPSHOT_VERIFIED_BYTES = 4096;
+    /** The number of entries appended to the checksum file before a new snapshot is written. */
+    private static final int SNAPSHOT_INTERVAL = 100000;
+    /** The minimum number of superseded lines in the checksum file before it is compacted. */
+    private static final int COMPACTION_MIN_OBSOLETE = 10000;
+    /** The fraction of superseded lines to valid entries in the checksum file which triggers compaction. */
+    private static final double COMPACTION_RATIO = 0.2;
 
     /** The logger used by this class. */
     private static final Logger log = LoggerFactory.getLogger(FileChecksumArchive.class);
@@ -98,6 +133,24 @@ public final class FileChecksumArchive implements ChecksumArchive {
      */
     private File wrongEntryFile;
 
+    /** The binary snapshot of the archive. */
+    private File snapshotFile;
+
+    /** The writer appending to the checksum file, or null if not open. */
+    private Writer checksumWriter;
+
+    /** The number of lines in the checksum file which have been superseded by later lines. */
+    private int obsoleteEntries;
+
+    /** The number of entries appended to the checksum file since the last snapshot was taken. */
+    private int entriesSinceSnapshot;
+
+    /** The thread writing snapshots taken while entries are appended, created on first use. */
+    private ExecutorService snapshotWriter;
+
+    /** The snapshot being written by the snapshot writer, or null if none has been started. */
+    private Future<?> backgroundSnapshot;
+
     /**
      * The last modified date for the checksum file. This variable is used for determining whether to reload the archive
      * from the checksum file, when they are synchronized. This has to be updated whenever the checksum file is changed.
@@ -106,11 +159,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
     /**
      * This map consists of the archive loaded into the memory. It is faster to use a memory archive than the the
-     * checksum file, though all entries must exist both in the file and the memory.
+     * checksum file, though all entries must exist both in the file and the memory. Access must be synchronized on
+     * this instance.
      * <p>
      * Map(file -> checksum).
      */
-    private Map<String, String> checksumArchive = Collections.synchronizedMap(new HashMap<String, String>());
+    private final ChecksumIndex checksumArchive = new ChecksumIndex();
 
     /** The minimum space left. */
     private long minSpaceLeft;
@@ -224,6 +278,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
         // get the name of the file and initialise it.
         checksumFile = new File(checksumDir, makeChecksumFileName());
+        snapshotFile = new File(checksumDir, makeSnapshotFileName());
 
         // Create file is checksumFile does not exist.
         if (!checksumFile.exists()) {
@@ -238,8 +293,10 @@ public final class FileChecksumArchive implements ChecksumArchive {
         } else {
             // If the archive file already exists, then it must consist of the
             // archive for this replica. It must therefore be loaded into the
-            // memory.
-            loadFile();
+            // memory, preferably from the snapshot.
+            if (!loadSnapshot()) {
+                loadFile();
+            }
         }
 
         // If the archive is new or otherwise empty, then try to load admin.data
@@ -257,40 +314,64 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * still would be in the archive file.
      */
     private void loadFile() {
+        loadFile(0L);
+    }
+
+    /**
+     * Loads the lines of the checksum archive file from the given position into the memory, replacing existing
+     * entries for the same files.
+     *
+     * @param offset The position in the file of the first line to load.
+     * @see #loadFile()
+     */
+    private void loadFile(long offset) {
         // Checks whether a bad entry was found, to decide whether the archive
         // file should be recreated.
         boolean recreate = false;
-
-        // extract all the data from the file.
-        List<String> entries;
+        int loaded = 0;
 
         // This should be synchronized to prevent reading the file while it is
         // being written.
         synchronized (checksumFile) {
-            entries = FileUtils.readListFromFile(checksumFile);
-        }
-
-        String filename;
-        String checksum;
-
-        // go through all entries and extract their filename and checksum.
-        for (String record : entries) {
             try {
-                KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
-                // extract the filename and checksum
-                filename = entry.getKey();
-                checksum = entry.getValue();
-                // If their are extracted correct, then they will be put
-                // into the archive.
-                checksumArchive.put(filename, checksum);
-            } catch (IllegalState e) {
-                log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry file.", record,
-                        e);
-                // put into wrongEntryFile!
-                appendWrongRecordToWrongEntryFile(record);
-                recreate = true;
+                InputStream in = new FileInputStream(checksumFile);
+                try {
+                    long skipped = 0;
+                    while (skipped < offset) {
+                        long n = in.skip(offset - skipped);
+                        if (n <= 0) {
+                            throw new IOException("Could not skip to position " + offset);
+                        }
+                        skipped += n;
+                    }
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+                    String record;
+                    while ((record = reader.readLine()) != null) {
+                        try {
+                            KeyValuePair<String, String> entry = ChecksumJob.parseLine(record);
+                            // If their are extracted correct, then they will be put
+                            // into the archive. A later line replaces an earlier one.
+                            if (checksumArchive.put(entry.getKey(), entry.getValue()) != null) {
+                                obsoleteEntries++;
+                            }
+                            loaded++;
+                        } catch (IllegalState e) {
+                            log.warn("An invalid entry in the loaded file: '{}' This will be put in the wrong entry "
+                                    + "file.", record, e);
+                            // put into wrongEntryFile!
+                            appendWrongRecordToWrongEntryFile(record);
+                            recreate = true;
+                        }
+                    }
+                } finally {
+                    IOUtils.closeQuietly(in);
+                }
+            } catch (IOException e) {
+                throw new IOFailure("Could not read the checksum file '" + checksumFile.getAbsolutePath() + "'", e);
             }
         }
+        entriesSinceSnapshot += loaded;
+        log.debug("Loaded {} entries from position {} of the checksum file", loaded, offset);
 
         // If a bad entry is found, then the archive file should be recreated.
         // Otherwise the bad entries might still be in the archive file next
@@ -303,6 +384,200 @@ public final class FileChecksumArchive implements ChecksumArchive {
         lastModifiedChecksumFile = checksumFile.lastModified();
     }
 
+    /**
+     * Loads the archive from the snapshot file, followed by the lines appended to the checksum file after the
+     * snapshot was written. The snapshot is only used if the part of the checksum file it covers is unchanged.
+     *
+     * @return Whether the archive was loaded, otherwise the memory archive is left empty.
+     */
+    private boolean loadSnapshot() {
+        if (!snapshotFile.isFile()) {
+            return false;
+        }
+        long start = System.currentTimeMillis();
+        long coveredLength;
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+            try {
+                if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+                    log.warn("Ignoring the snapshot '{}' with unknown format", snapshotFile);
+                    return false;
+                }
+                coveredLength = in.readLong();
+                long verification = in.readLong();
+                if (checksumFile.length() < coveredLength || verification != tailChecksum(coveredLength)) {
+                    log.info("The checksum file has been rewritten since the snapshot '{}', which is ignored.",
+                            snapshotFile);
+                    return false;
+                }
+                int obsolete = in.readInt();
+                checksumArchive.readFrom(in);
+                obsoleteEntries = obsolete;
+            } finally {
+                IOUtils.closeQuietly(in);
+            }
+        } catch (IOException | IOFailure e) {
+            log.warn("Could not read the snapshot '{}'. Loading the checksum file instead.", snapshotFile, e);
+            checksumArchive.clear();
+            obsoleteEntries = 0;
+            return false;
+        }
+        int fromSnapshot = checksumArchive.size();
+        entriesSinceSnapshot = 0;
+        loadFile(coveredLength);
+        log.info("Loaded {} entries from the snapshot and {} lines appended to the checksum file after it in {} ms",
+                fromSnapshot, entriesSinceSnapshot, System.currentTimeMillis() - start);
+        return true;
+    }
+
+    /**
+     * Writes a binary snapshot of the memory archive, covering the current contents of the checksum file. Waits for a
+     * snapshot being written in the background to finish first. Failure is logged, but otherwise ignored, since the
+     * checksum file is still complete.
+     */
+    private synchronized void writeSnapshot() {
+        awaitBackgroundSnapshot();
+        Snapshot snapshot = takeSnapshot();
+        if (snapshot != null) {
+            snapshot.run();
+        }
+    }
+
+    /**
+     * Takes a snapshot of the memory archive and writes it to disk in a background thread, so appending entries is
+     * not held up while it is written. Nothing is done if the previous snapshot is still being written.
+     */
+    private synchronized void writeSnapshotInBackground() {
+        if (backgroundSnapshot != null && !backgroundSnapshot.isDone()) {
+            return;
+        }
+        Snapshot snapshot = takeSnapshot();
+        if (snapshot == null) {
+            return;
+        }
+        if (snapshotWriter == null) {
+            snapshotWriter = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ChecksumSnapshotWriter");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        backgroundSnapshot = snapshotWriter.submit(snapshot);
+    }
+
+    /**
+     * Waits for the snapshot being written in the background, if any.
+     */
+    private synchronized void awaitBackgroundSnapshot() {
+        if (backgroundSnapshot == null) {
+            return;
+        }
+        try {
+            backgroundSnapshot.get();
+        } catch (InterruptedException e) {
+            log.warn("Interrupted while waiting for the snapshot '{}' to be written", snapshotFile, e);
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            // Not expected, the snapshot logs its own failures.
+            log.warn("Unexpected error writing the snapshot '{}'", snapshotFile, e.getCause());
+        }
+        backgroundSnapshot = null;
+    }
+
+    /**
+     * Copies the memory archive along with the data identifying the part of the checksum file it covers.
+     *
+     * @return The snapshot, or null if the checksum file could not be read.
+     */
+    private synchronized Snapshot takeSnapshot() {
+        synchronized (checksumFile) {
+            try {
+                flushChecksumWriter();
+                long coveredLength = checksumFile.length();
+                Snapshot snapshot = new Snapshot(snapshotFile, coveredLength, tailChecksum(coveredLength),
+                        obsoleteEntries, checksumArchive.copy());
+                entriesSinceSnapshot = 0;
+                return snapshot;
+            } catch (IOException | IOFailure e) {
+                log.warn("Could not take a snapshot for '{}'", snapshotFile, e);
+                return null;
+            }
+        }
+    }
+
+    /**
+     * A copy of the memory archive, which is written to the snapshot file when run. Runs without holding any locks on
+     * the archive.
+     */
+    private static final class Snapshot implements Runnable {
+        /** The file to write to. */
+        private final File snapshotFile;
+        /** The length of the part of the checksum file covered by the snapshot. */
+        private final long coveredLength;
+        /** The verification checksum of the covered part of the checksum file. */
+        private final long verification;
+        /** The number of superseded lines in the covered part of the checksum file. */
+        private final int obsoleteEntries;
+        /** The copy of the memory archive. */
+        private final ChecksumIndex index;
+
+        Snapshot(File snapshotFile, long coveredLength, long verification, int obsoleteEntries, ChecksumIndex index) {
+            this.snapshotFile = snapshotFile;
+            this.coveredLength = coveredLength;
+            this.verification = verification;
+            this.obsoleteEntries = obsoleteEntries;
+            this.index = index;
+        }
+
+        @Override
+        public void run() {
+            try {
+                File tmpFile = new File(snapshotFile.getParentFile(), snapshotFile.getName() + ".tmp");
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+                try {
+                    out.writeInt(SNAPSHOT_MAGIC);
+                    out.writeInt(SNAPSHOT_VERSION);
+                    out.writeLong(coveredLength);
+                    out.writeLong(verification);
+                    out.writeInt(obsoleteEntries);
+                    index.writeTo(out);
+                } finally {
+                    out.close();
+                }
+                FileUtils.moveFile(tmpFile, snapshotFile);
+                log.debug("Wrote snapshot of {} entries to '{}'", index.size(), snapshotFile);
+            } catch (IOException | IOFailure e) {
+                log.warn("Could not write the snapshot '{}'", snapshotFile, e);
+            }
+        }
+    }
+
+    /**
+     * Calculates a CRC32 of the last bytes of the given part of the checksum file, used for verifying that a snapshot
+     * matches the checksum file.
+     *
+     * @param length The length of the part of the checksum file.
+     * @return The CRC32 value.
+     * @throws IOException If the checksum file cannot be read.
+     */
+    private long tailChecksum(long length) throws IOException {
+        int count = (int) Math.min(length, SNAPSHOT_VERIFIED_BYTES);
+        byte[] bytes = new byte[count];
+        RandomAccessFile file = new RandomAccessFile(checksumFile, "r");
+        try {
+            file.seek(length - count);
+            file.readFully(bytes);
+        } finally {
+            file.close();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes);
+        return crc.getValue() ^ length;
+    }
+
     /**
      * This function is made for the converting the checksum part of admin.data to an actual checksum replica. If no
      * usable admin.data file is found, then we start with an empty archive.
@@ -391,7 +666,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
      *
      * @throws IOFailure If a problem occur when writing the new file.
      */
-    private void recreateArchiveFile() throws IOFailure {
+    private synchronized void recreateArchiveFile() throws IOFailure {
         try {
             // Handle the case, when there is not enough space left for
             // recreating the
@@ -410,20 +685,25 @@ public final class FileChecksumArchive implements ChecksumArchive {
                 }
 
                 // put the archive into the file.
-                FileWriter fw = new FileWriter(recreateFile);
+                Writer fw = new BufferedWriter(new FileWriter(recreateFile));
                 try {
-                    for (Map.Entry<String, String> entry : checksumArchive.entrySet()) {
-                        String record = entry.getKey() + CHECKSUM_SEPARATOR + entry.getValue();
-                        fw.append(record + "\n");
+                    Iterator<KeyValuePair<String, String>> entries = checksumArchive.iterator();
+                    while (entries.hasNext()) {
+                        KeyValuePair<String, String> entry = entries.next();
+                        fw.append(entry.getKey()).append(CHECKSUM_SEPARATOR).append(entry.getValue()).append('\n');
                     }
                 } finally {
                     fw.flush();
                     fw.close();
                 }
 
-                // Move the file.
+                // Move the file. The append writer must be reopened on the new file.
+                closeChecksumWriter();
                 FileUtils.moveFile(recreateFile, checksumFile);
+                lastModifiedChecksumFile = checksumFile.lastModified();
+                obsoleteEntries = 0;
             }
+            writeSnapshot();
         } catch (IOException e) {
             String errMsg = "The checksum file has not been recreated as attempted. "
                     + "The archive in memory and the one on file are no longer identical.";
@@ -441,6 +721,15 @@ public final class FileChecksumArchive implements ChecksumArchive {
         return FILENAME_PREFIX + Settings.get(CommonSettings.USE_REPLICA_ID) + FILENAME_SUFFIX;
     }
 
+    /**
+     * Creates the string for the name of the snapshot file. E.g. checksum_REPLICA.snapshot.
+     *
+     * @return The name of the snapshot file.
+     */
+    private String makeSnapshotFileName() {
+        return FILENAME_PREFIX + Settings.get(CommonSettings.USE_REPLICA_ID) + SNAPSHOT_SUFFIX;
+    }
+
     /**
      * Creates the string for the name of the recreate file. E.g. recreate_REPLICA.checksum.
      *
@@ -483,32 +772,26 @@ public final class FileChecksumArchive implements ChecksumArchive {
     }
 
     /**
-     * Appending an checksum archive entry to the checksum file. The record string is created and appended to the file.
+     * Appending an checksum archive entry to the checksum file. The record string is created and appended to the file
+     * through a writer kept open between calls. The writer is flushed after each entry, so the file is always complete.
      *
      * @param filename The name of the file to add.
      * @param checksum The checksum of the file to add.
      * @throws IOFailure If something is wrong when writing to the file.
      */
     private synchronized void appendEntryToFile(String filename, String checksum) throws IOFailure {
-        // initialise the record.
-        String record = filename + CHECKSUM_SEPARATOR + checksum + "\n";
-
-        // get a filewriter for the checksum file, and append the record.
-        boolean appendToFile = true;
-
         // Synchronize to ensure that the file is not overridden during the
         // appending of the new entry.
         synchronized (checksumFile) {
             try {
-                FileWriter fwrite = new FileWriter(checksumFile, appendToFile);
-                try {
-                    fwrite.append(record);
-                } finally {
-                    // close fileWriter.
-                    fwrite.flush();
-                    fwrite.close();
+                if (checksumWriter == null) {
+                    boolean appendToFile = true;
+                    checksumWriter = new BufferedWriter(new FileWriter(checksumFile, appendToFile));
                 }
+                checksumWriter.append(filename).append(CHECKSUM_SEPARATOR).append(checksum).append('\n');
+                checksumWriter.flush();
             } catch (IOException e) {
+                closeChecksumWriter();
                 throw new IOFailure("An error occurred while appending an entry to the archive file.", e);
             }
 
@@ -516,6 +799,41 @@ public final class FileChecksumArchive implements ChecksumArchive {
             // Thus update the last modified date for the checksum file.
             lastModifiedChecksumFile = checksumFile.lastModified();
         }
+        entriesSinceSnapshot++;
+    }
+
+    /**
+     * Compacts the checksum file if enough of its lines have been superseded by later lines, or writes a new snapshot
+     * if enough entries have been appended since the last one.
+     */
+    private synchronized void compactOrSnapshotIfNeeded() {
+        if (obsoleteEntries >= COMPACTION_MIN_OBSOLETE && obsoleteEntries > checksumArchive.size() * COMPACTION_RATIO) {
+            log.info("Compacting the checksum file, which has {} superseded lines", obsoleteEntries);
+            recreateArchiveFile();
+        } else if (entriesSinceSnapshot >= SNAPSHOT_INTERVAL) {
+            writeSnapshotInBackground();
+        }
+    }
+
+    /**
+     * Flushes the writer appending to the checksum file, if open.
+     *
+     * @throws IOException If the writer cannot be flushed.
+     */
+    private void flushChecksumWriter() throws IOException {
+        if (checksumWriter != null) {
+            checksumWriter.flush();
+        }
+    }
+
+    /**
+     * Closes the writer appending to the checksum file, if open.
+     */
+    private synchronized void closeChecksumWriter() {
+        if (checksumWriter != null) {
+            IOUtils.closeQuietly(checksumWriter);
+            checksumWriter = null;
+        }
     }
 
     /**
@@ -556,64 +874,46 @@ public final class FileChecksumArchive implements ChecksumArchive {
         // Validate arguments.
         ArgumentNotValid.checkNotNull(file, "RemoteFile file");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
-        
+
         InputStream input = null;
 
         try {
             input = file.getInputStream();
-            synchronizeMemoryWithFile();
-            String checksum = calculateChecksum(input);
-
-            if (checksumArchive.containsKey(filename)) {
-                if (checksumArchive.get(filename).equals(checksum)) {
-                    log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
-                            filename, checksum);
-                } else {
-                    throw new IllegalState("Cannot upload arcfile '" + filename
-                            + "', it is already archived with different checksum." + " Archive checksum: '"
-                            + checksumArchive.get(filename) + "' and the uploaded file has: '" + checksum + "'.");
-                }
-
-                // It is considered a success that it already is within the archive,
-                // thus do not throw an exception.
-                return;
-            }
-
-            // otherwise put the file into memory and file.
-            appendEntryToFile(filename, checksum);
-            checksumArchive.put(filename, checksum);
+            // The checksum is calculated without holding the lock of the archive.
+            upload(calculateChecksum(input), filename);
         } finally {
             if (input != null) {
                 IOUtils.closeQuietly(input);
             }
         }
-
     }
-    
-    public void upload(String checksum, String filename) throws ArgumentNotValid, IllegalState {
+
+    public synchronized void upload(String checksum, String filename) throws ArgumentNotValid, IllegalState {
         // Validate arguments.
         ArgumentNotValid.checkNotNull(checksum, "String checksum");
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
         synchronizeMemoryWithFile();
-        if (checksumArchive.containsKey(filename)) {
-        	if (checksumArchive.get(filename).equals(checksum)) {
-        		log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
-        				filename, checksum);
-        	} else {
-        		throw new IllegalState("Cannot upload arcfile '" + filename
-        				+ "', it is already archived with different checksum." + " Archive checksum: '"
-        				+ checksumArchive.get(filename) + "' and the uploaded file has: '" + checksum + "'.");
-        	}
+        String archivedChecksum = checksumArchive.get(filename);
+        if (archivedChecksum != null) {
+            if (archivedChecksum.equals(checksum)) {
+                log.warn("Cannot upload arcfile '{}', it is already archived with the same checksum: '{}",
+                        filename, checksum);
+            } else {
+                throw new IllegalState("Cannot upload arcfile '" + filename
+                        + "', it is already archived with different checksum." + " Archive checksum: '"
+                        + archivedChecksum + "' and the uploaded file has: '" + checksum + "'.");
+            }
 
-        	// It is considered a success that it already is within the archive,
-        	// thus do not throw an exception.
-        	return;
+            // It is considered a success that it already is within the archive,
+            // thus do not throw an exception.
+            return;
         }
 
         // otherwise put the file into memory and file.
         appendEntryToFile(filename, checksum);
         checksumArchive.put(filename, checksum);
+        compactOrSnapshotIfNeeded();
     }
 
     /**
@@ -624,7 +924,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * @throws ArgumentNotValid If the filename is not valid (null or empty).
      */
     @Override
-    public String getChecksum(String filename) throws ArgumentNotValid {
+    public synchronized String getChecksum(String filename) throws ArgumentNotValid {
         // validate the argument
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
@@ -641,7 +941,7 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * @return Whether an entry with the filename was found.
      */
     @Override
-    public boolean hasEntry(String filename) {
+    public synchronized boolean hasEntry(String filename) {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
 
         // Return whether the archive contains an entry with the filename.
@@ -674,8 +974,8 @@ public final class FileChecksumArchive implements ChecksumArchive {
 
     /**
      * Method for correcting a bad entry from the archive. The current incorrect entry is put into the wrongEntryFile.
-     * Then it calculates the checksum and corrects the entry for the file, and then the checksum file is recreated from
-     * the archive in the memory.
+     * Then it calculates the checksum and corrects the entry for the file, and the corrected entry is appended to the
+     * checksum file, where it supersedes the incorrect entry.
      *
      * @param filename The name of the file whose record should be removed.
      * @param correctFile The file that should replace the current entry
@@ -687,23 +987,24 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * incorrectChecksum.
      */
     @Override
-    public File correct(String filename, File correctFile) throws IOFailure, ArgumentNotValid, IllegalState {
+    public synchronized File correct(String filename, File correctFile) throws IOFailure, ArgumentNotValid,
+            IllegalState {
         ArgumentNotValid.checkNotNullOrEmpty(filename, "String filename");
         ArgumentNotValid.checkNotNull(correctFile, "File correctFile");
 
         // synchronize the memory.
         synchronizeMemoryWithFile();
 
+        // retrieve the checksum
+        String currentChecksum = checksumArchive.get(filename);
+
         // If no file entry exists, then IllegalState
-        if (!checksumArchive.containsKey(filename)) {
+        if (currentChecksum == null) {
             String errMsg = "No file entry for file '" + filename + "'.";
             log.error(errMsg);
             throw new IllegalState(errMsg);
         }
 
-        // retrieve the checksum
-        String currentChecksum = checksumArchive.get(filename);
-
         // Calculate the new checksum and verify that it is different.
         String newChecksum = calculateChecksum(correctFile);
         if (newChecksum.equals(currentChecksum)) {
@@ -717,12 +1018,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
         appendWrongRecordToWrongEntryFile(badEntry);
 
         // Correct the bad entry, by changing the value to the newChecksum.'
-        // Since the checksumArchive is a hashmap, then putting an existing
-        // entry with a new value will override the existing one.
+        // Putting an existing entry with a new value will override the
+        // existing one. In the file, the new line supersedes the old one.
+        appendEntryToFile(filename, newChecksum);
         checksumArchive.put(filename, newChecksum);
-
-        // Recreate the archive file.
-        recreateArchiveFile();
+        obsoleteEntries++;
+        compactOrSnapshotIfNeeded();
 
         // Make the file containing the bad entry be returned in the
         // CorrectMessage.
@@ -754,8 +1055,12 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * @throws IOFailure If problems occurs during the creation of the file.
      */
     @Override
-    public File getArchiveAsFile() throws IOFailure {
+    public synchronized File getArchiveAsFile() throws IOFailure {
         synchronizeMemoryWithFile();
+        // Remove superseded lines, so the file has exactly one line per entry.
+        if (obsoleteEntries > 0) {
+            recreateArchiveFile();
+        }
 
         try {
             // create new temporary file of the archive.
@@ -779,17 +1084,18 @@ public final class FileChecksumArchive implements ChecksumArchive {
      * @throws IOFailure If problems occurs during the creation of the file.
      */
     @Override
-    public File getAllFilenames() throws IOFailure {
+    public synchronized File getAllFilenames() throws IOFailure {
         synchronizeMemoryWithFile();
 
         try {
             File tempFile = File.createTempFile("tmp", "tmp", FileUtils.getTempDir());
-            FileWriter fw = new FileWriter(tempFile);
+            Writer fw = new BufferedWriter(new FileWriter(tempFile));
 
             try {
                 // put the content into the file.
-                for (String filename : checksumArchive.keySet()) {
-                    fw.append(filename);
+                Iterator<KeyValuePair<String, String>> entries = checksumArchive.iterator();
+                while (entries.hasNext()) {
+                    fw.append(entries.next().getKey());
                     fw.append("\n");
                 }
 
@@ -820,23 +1126,35 @@ public final class FileChecksumArchive implements ChecksumArchive {
             log.warn("Archive in memory out of sync with archive in file.");
 
             // The archive is then reloaded by clearing the current memory
-            // archive and loading the file again.
+            // archive and loading the file again. The file may have been
+            // replaced, so the append writer is reopened.
+            closeChecksumWriter();
             checksumArchive.clear();
+            obsoleteEntries = 0;
             // The 'last modified' is reset during loading.
             loadFile();
         }
     }
 
     /**
-     * The method for cleaning up when done. It sets the checksum file and the instance to null.
+     * The method for cleaning up when done. It writes a snapshot of the archive for a fast restart, closes the checksum
+     * file and sets it and the instance to null.
      */
     @Override
-    public void cleanup() {
+    public synchronized void cleanup() {
+        if (checksumFile != null && checksumFile.isFile() && entriesSinceSnapshot > 0) {
+            writeSnapshot();
+        } else {
+            awaitBackgroundSnapshot();
+        }
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdown();
+            snapshotWriter = null;
+        }
+        closeChecksumWriter();
         checksumFile = null;
         instance = null;
-        if (checksumArchive != null) {
-            checksumArchive.clear();
-        }
+        checksumArchive.clear();
     }
 
 }
@@ -26,7 +26,9 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
 
 import com.sleepycat.je.DatabaseException;
 
@@ -70,6 +72,7 @@ public class LoadDatabaseChecksumArchive {
         BufferedReader in = null;
         int loginterval = 10000;
         int currentLine = 0;
+        List<KeyValuePair<String, String>> entries = new ArrayList<KeyValuePair<String, String>>(loginterval);
         try {
             try {
                 in = new BufferedReader(new FileReader(checksumCSFile));
@@ -79,13 +82,18 @@ public class LoadDatabaseChecksumArchive {
                     if (currentLine % loginterval == 0) {
                         System.out.println("Processing line " + currentLine);
                     }
-                    KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
-                    dca.put(entry.getKey(), entry.getValue());
+                    entries.add(ChecksumJob.parseLine(line));
+                    if (entries.size() == loginterval) {
+                        dca.putAll(entries);
+                        entries.clear();
+                    }
                 }
+                dca.putAll(entries);
             } finally {
                 if (in != null) {
                     in.close();
                 }
+                dca.cleanup();
             }
         } catch (IOException e) {
             String msg = "Could not read data from " + checksumCSFile.getAbsolutePath();
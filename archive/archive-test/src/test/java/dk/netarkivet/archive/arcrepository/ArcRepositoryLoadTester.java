@@ -0,0 +1,346 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.arcrepository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.archive.arcrepository.distribute.ArcRepositoryServer;
+import dk.netarkivet.archive.arcrepository.distribute.StoreMessage;
+import dk.netarkivet.archive.arcrepositoryadmin.Admin;
+import dk.netarkivet.archive.arcrepositoryadmin.AdminData;
+import dk.netarkivet.archive.arcrepositoryadmin.UpdateableAdminData;
+import dk.netarkivet.archive.bitarchive.distribute.BatchMessage;
+import dk.netarkivet.archive.bitarchive.distribute.GetFileMessage;
+import dk.netarkivet.archive.bitarchive.distribute.GetMessage;
+import dk.netarkivet.archive.bitarchive.distribute.RemoveAndGetFileMessage;
+import dk.netarkivet.archive.bitarchive.distribute.UploadMessage;
+import dk.netarkivet.archive.checksum.distribute.CorrectMessage;
+import dk.netarkivet.archive.checksum.distribute.GetAllChecksumsMessage;
+import dk.netarkivet.archive.checksum.distribute.GetAllFilenamesMessage;
+import dk.netarkivet.archive.checksum.distribute.GetChecksumMessage;
+import dk.netarkivet.archive.distribute.ReplicaClient;
+import dk.netarkivet.common.distribute.ChannelID;
+import dk.netarkivet.common.distribute.Channels;
+import dk.netarkivet.common.distribute.JMSConnectionMockupMQ;
+import dk.netarkivet.common.distribute.NetarkivetMessage;
+import dk.netarkivet.common.distribute.RemoteFile;
+import dk.netarkivet.common.distribute.arcrepository.Replica;
+import dk.netarkivet.common.distribute.arcrepository.ReplicaStoreState;
+import dk.netarkivet.common.distribute.arcrepository.ReplicaType;
+import dk.netarkivet.common.exceptions.NotImplementedException;
+import dk.netarkivet.common.utils.ChecksumCalculator;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.batch.FileBatchJob;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+import dk.netarkivet.testutils.preconfigured.UseTestRemoteFile;
+
+/**
+ * Drives many concurrent stores through the ArcRepository, with replicas that answer upload and checksum requests
+ * from other threads after a short random delay, and checks that every store completes in all replicas. All messages,
+ * the store requests as well as the replies of the replicas, are delivered to the ArcRepositoryServer by one thread,
+ * as JMS does, so the stores are only handled concurrently if the server dispatches them.
+ */
+@SuppressWarnings({"unchecked"})
+public class ArcRepositoryLoadTester {
+
+    private static final int STORES = 300;
+    private static final int HANDLER_THREADS = 16;
+
+    private static final File FILES_DIR = new File(ServerSetUp.TEST_DIR, "loadtest");
+
+    private UseTestRemoteFile rf = new UseTestRemoteFile();
+    private ReloadSettings rs = new ReloadSettings();
+
+    private ArcRepository arcRepos;
+    private ScheduledExecutorService replyExecutor;
+    /** Delivers the messages to the ArcRepositoryServer one at a time, like the JMS session does. */
+    private ExecutorService listener;
+    private ArcRepositoryServer server;
+    private final Map<String, String> checksums = new ConcurrentHashMap<String, String>();
+    private final List<Throwable> replyErrors = Collections.synchronizedList(new ArrayList<Throwable>());
+
+    @Before
+    public void setUp() {
+        rs.setUp();
+        Channels.reset();
+        ServerSetUp.setUp();
+        rf.setUp();
+        FileUtils.createDir(FILES_DIR);
+        replyExecutor = Executors.newScheduledThreadPool(16);
+        listener = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        replyExecutor.shutdownNow();
+        listener.shutdownNow();
+        if (arcRepos != null && arcRepos != ServerSetUp.getArcRepository()) {
+            arcRepos.close();
+        }
+        FileUtils.removeRecursively(FILES_DIR);
+        rf.tearDown();
+        ServerSetUp.tearDown();
+        rs.tearDown();
+    }
+
+    @Test
+    public void testConcurrentStores() throws Exception {
+        startArcRepository(false);
+        runStores();
+    }
+
+    @Test
+    public void testConcurrentStoresWithAdminWriteBehind() throws Exception {
+        startArcRepository(true);
+        runStores();
+    }
+
+    /**
+     * Replace the ArcRepository of the ServerSetUp, which handles messages in the receiving thread, with one
+     * dispatching them to handler threads.
+     */
+    private void startArcRepository(boolean writeBehind) throws Exception {
+        ServerSetUp.getArcRepository().close();
+        Settings.set(ArchiveSettings.ARCREPOSITORY_ADMIN_WRITE_BEHIND, Boolean.toString(writeBehind));
+        Settings.set(ArchiveSettings.ARCREPOSITORY_MESSAGE_HANDLER_THREADS, Integer.toString(HANDLER_THREADS));
+        arcRepos = ArcRepository.getInstance();
+        Field f = ArcRepository.class.getDeclaredField("arcReposhandler");
+        f.setAccessible(true);
+        server = (ArcRepositoryServer) f.get(arcRepos);
+    }
+
+    /**
+     * Deliver a message to the ArcRepositoryServer in the listener thread.
+     */
+    private void deliver(final NetarkivetMessage msg) {
+        listener.execute(new Runnable() {
+            public void run() {
+                try {
+                    server.onMessage(JMSConnectionMockupMQ.getObjectMessage(msg));
+                } catch (Throwable t) {
+                    replyErrors.add(t);
+                }
+            }
+        });
+    }
+
+    /**
+     * Replace the replica clients with clients answering from other threads, send store messages for many files and
+     * wait for all stores to be replied to.
+     */
+    private void runStores() throws Exception {
+        Field f = ArcRepository.class.getDeclaredField("connectedReplicas");
+        f.setAccessible(true);
+        Map<Replica, ReplicaClient> connectedReplicas = (Map<Replica, ReplicaClient>) f.get(arcRepos);
+        List<Replica> replicas = new ArrayList<Replica>(connectedReplicas.keySet());
+        assertTrue("Expected replicas to be connected", replicas.size() > 0);
+        for (Replica replica : replicas) {
+            connectedReplicas.put(replica, new DelayedReplicaClient(replica));
+        }
+
+        final List<File> files = new ArrayList<File>();
+        for (int i = 0; i < STORES; i++) {
+            File file = new File(FILES_DIR, "load-" + i + ".warc");
+            FileUtils.writeBinaryFile(file, ("Content of file " + i).getBytes());
+            checksums.put(file.getName(), ChecksumCalculator.calculateMd5(file));
+            files.add(file);
+        }
+
+        for (File file : files) {
+            StoreMessage msg = new StoreMessage(Channels.getError(), file);
+            JMSConnectionMockupMQ.updateMsgID(msg, "store-" + file.getName());
+            deliver(msg);
+        }
+
+        ArcRepositoryStatistics statistics = arcRepos.getStatistics();
+        long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(60);
+        while (statistics.getCount(ArcRepositoryStatistics.Operation.STORE_ROUND_TRIP) < STORES
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+
+        assertTrue("Unexpected errors in replies: " + replyErrors, replyErrors.isEmpty());
+        assertEquals("All stores should have been replied to", STORES,
+                statistics.getCount(ArcRepositoryStatistics.Operation.STORE_ROUND_TRIP));
+        assertEquals("No stores should be outstanding", 0, statistics.getOutstandingStores());
+        assertEquals(STORES, statistics.getCount(ArcRepositoryStatistics.Operation.STORE));
+        assertEquals(STORES * replicas.size(), statistics.getCount(ArcRepositoryStatistics.Operation.UPLOAD_REPLY));
+        assertEquals(STORES * replicas.size(),
+                statistics.getCount(ArcRepositoryStatistics.Operation.CHECKSUM_REPLY));
+
+        UpdateableAdminData adminData = AdminData.getUpdateableInstance();
+        for (File file : files) {
+            for (Replica replica : replicas) {
+                assertEquals("File " + file.getName() + " should be completed in " + replica.getId(),
+                        ReplicaStoreState.UPLOAD_COMPLETED, getState(file.getName(), replica, adminData));
+            }
+        }
+    }
+
+    /**
+     * Read the state through the ArcRepository's admin when states are written behind, as they may not have reached
+     * the admin data yet.
+     */
+    private ReplicaStoreState getState(String filename, Replica replica, UpdateableAdminData adminData)
+            throws Exception {
+        String channel = replica.getIdentificationChannel().getName();
+        if (Settings.getBoolean(ArchiveSettings.ARCREPOSITORY_ADMIN_WRITE_BEHIND)) {
+            Field f = ArcRepository.class.getDeclaredField("ad");
+            f.setAccessible(true);
+            return ((Admin) f.get(arcRepos)).getState(filename, channel);
+        }
+        return adminData.getState(filename, channel);
+    }
+
+    /**
+     * A replica client that reports every upload as successful and every checksum as correct, from another thread
+     * after a random delay of a few milliseconds.
+     */
+    private class DelayedReplicaClient implements ReplicaClient {
+        private final Replica replica;
+        private final Random random = new Random();
+        private final AtomicLong messageCount = new AtomicLong();
+
+        DelayedReplicaClient(Replica replica) {
+            this.replica = replica;
+        }
+
+        private void later(final Runnable reply) {
+            int delay;
+            synchronized (random) {
+                delay = random.nextInt(5);
+            }
+            replyExecutor.schedule(new Runnable() {
+                public void run() {
+                    try {
+                        reply.run();
+                    } catch (Throwable t) {
+                        replyErrors.add(t);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void sendUploadMessage(final RemoteFile rf, String precomputedChecksum) {
+            final UploadMessage reply = new UploadMessage(replica.getIdentificationChannel(), Channels.getTheRepos(),
+                    rf);
+            later(new Runnable() {
+                public void run() {
+                    deliver(reply);
+                }
+            });
+        }
+
+        @Override
+        public GetChecksumMessage sendGetChecksumMessage(ChannelID replyChannel, String filename) {
+            final GetChecksumMessage msg = new GetChecksumMessage(replica.getIdentificationChannel(), replyChannel,
+                    filename, replica.getId());
+            JMSConnectionMockupMQ.updateMsgID(msg, replica.getId() + "-checksum-" + messageCount.incrementAndGet());
+            msg.setChecksum(checksums.get(filename));
+            later(new Runnable() {
+                public void run() {
+                    msg.setIsReply();
+                    deliver(msg);
+                }
+            });
+            return msg;
+        }
+
+        @Override
+        public BatchMessage sendBatchJob(BatchMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public BatchMessage sendBatchJob(ChannelID replyChannel, FileBatchJob job) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public void sendGetMessage(GetMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public void sendGetFileMessage(GetFileMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public void sendRemoveAndGetFileMessage(RemoveAndGetFileMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public void sendGetChecksumMessage(GetChecksumMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public void sendGetAllFilenamesMessage(GetAllFilenamesMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public void sendGetAllChecksumsMessage(GetAllChecksumsMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public void sendCorrectMessage(CorrectMessage msg) {
+            throw new NotImplementedException("Not used by store");
+        }
+
+        @Override
+        public ReplicaType getType() {
+            return replica.getType();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/*
+ * #%L
+ * Netarchivesuite - archive - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.archive.checksum;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.KeyValuePair;
+
+/**
+ * Unit tests for the ChecksumIndex, comparing it with a HashMap.
+ */
+public class ChecksumIndexTester {
+
+    @Test
+    public void testPutGetRemove() {
+        ChecksumIndex index = new ChecksumIndex();
+        assertTrue(index.isEmpty());
+        assertNull(index.put("1-2-20170101-00000-host.warc", TestInfo.TEST1_CHECKSUM));
+        assertNull(index.put("1-2-20170101-00001-host.warc", "not an md5"));
+        assertNull(index.put("TEST1.arc", TestInfo.TEST2_CHECKSUM.toUpperCase()));
+        assertEquals(3, index.size());
+        assertEquals(TestInfo.TEST1_CHECKSUM, index.get("1-2-20170101-00000-host.warc"));
+        assertEquals("not an md5", index.get("1-2-20170101-00001-host.warc"));
+        assertEquals(TestInfo.TEST2_CHECKSUM.toUpperCase(), index.get("TEST1.arc"));
+        assertFalse(index.containsKey("1-2-"));
+        assertNull(index.get("1-2-20170101-00002-host.warc"));
+
+        // Replace an MD5 checksum by another kind of checksum and back
+        assertEquals(TestInfo.TEST1_CHECKSUM, index.put("1-2-20170101-00000-host.warc", "other"));
+        assertEquals("other", index.put("1-2-20170101-00000-host.warc", TestInfo.TEST2_CHECKSUM));
+        assertEquals(TestInfo.TEST2_CHECKSUM, index.get("1-2-20170101-00000-host.warc"));
+        assertEquals(3, index.size());
+
+        assertEquals(TestInfo.TEST2_CHECKSUM, index.remove("1-2-20170101-00000-host.warc"));
+        assertFalse(index.containsKey("1-2-20170101-00000-host.warc"));
+        assertEquals(2, index.size());
+    }
+
+    @Test
+    public void testPrefix() {
+        assertEquals("1234-56-", ChecksumIndex.prefixOf("1234-56-20170101-00000-host.warc.gz"));
+        assertEquals("1234-", ChecksumIndex.prefixOf("1234-metadata.warc"));
+        assertEquals("", ChecksumIndex.prefixOf("TEST1.arc"));
+    }
+
+    @Test
+    public void testSameContentAsHashMapAndSnapshot() throws Exception {
+        ChecksumIndex index = new ChecksumIndex();
+        Map<String, String> expected = new HashMap<String, String>();
+        Random random = new Random(42);
+        for (int i = 0; i < 50000; i++) {
+            String filename = random.nextInt(100) + "-" + random.nextInt(10) + "-" + random.nextInt(20000)
+                    + "-netarkivet.dk.warc";
+            String checksum;
+            if (random.nextInt(50) == 0) {
+                checksum = "checksum" + i;
+            } else {
+                checksum = String.format("%016x%016x", random.nextLong(), random.nextLong());
+            }
+            assertEquals(expected.put(filename, checksum), index.put(filename, checksum));
+            if (random.nextInt(20) == 0) {
+                assertEquals(expected.remove(filename), index.remove(filename));
+            }
+        }
+        assertSameContent(expected, index);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        index.writeTo(new DataOutputStream(bytes));
+        ChecksumIndex copy = new ChecksumIndex();
+        copy.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        assertSameContent(expected, copy);
+    }
+
+    private void assertSameContent(Map<String, String> expected, ChecksumIndex index) {
+        assertEquals(expected.size(), index.size());
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), index.get(entry.getKey()));
+        }
+        int count = 0;
+        Iterator<KeyValuePair<String, String>> entries = index.iterator();
+        while (entries.hasNext()) {
+            KeyValuePair<String, String> entry = entries.next();
+            assertEquals(expected.get(entry.getKey()), entry.getValue());
+            count++;
+        }
+        assertEquals(expected.size(), count);
+    }
+
+}
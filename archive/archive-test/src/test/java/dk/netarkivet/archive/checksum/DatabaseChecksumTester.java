@@ -22,13 +22,50 @@
  */
 package dk.netarkivet.archive.checksum;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Before;
 import org.junit.Test;
 
 import com.sleepycat.je.DatabaseException;
 
+import dk.netarkivet.archive.ArchiveSettings;
+import dk.netarkivet.common.CommonSettings;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.exceptions.IllegalState;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.KeyValuePair;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.batch.ChecksumJob;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
+
 @SuppressWarnings({"unused"})
 public class DatabaseChecksumTester {
 
+    /**
+     * The number of entries loaded and exported by {@link #testLoadUploadAndExport()}. Set the system property to
+     * e.g. 50000000 to test a full size archive.
+     */
+    private static final int BENCHMARK_ENTRIES = Integer.getInteger("checksumdb.benchmark.entries", 100000);
+
+    ReloadSettings rs = new ReloadSettings();
+    DatabaseChecksumArchive dca;
+
     /**
      * @param args
      * @throws Exception
@@ -37,9 +74,174 @@ public class DatabaseChecksumTester {
         DatabaseChecksumArchive dca = new DatabaseChecksumArchive();
     }
 
+    @Before
+    public void setUp() {
+        rs.setUp();
+        FileUtils.removeRecursively(TestInfo.TMP_DIR);
+        Settings.set(ArchiveSettings.CHECKSUM_BASEDIR, new File(TestInfo.TMP_DIR, "db").getAbsolutePath());
+        Settings.set(CommonSettings.USE_REPLICA_ID, "THREE");
+    }
+
+    @After
+    public void tearDown() {
+        if (dca != null) {
+            dca.cleanup();
+        }
+        FileUtils.removeRecursively(TestInfo.TMP_DIR);
+        rs.tearDown();
+    }
+
     @Test
     public void testConstructor() throws DatabaseException {
-        DatabaseChecksumArchive dca = new DatabaseChecksumArchive();
+        dca = new DatabaseChecksumArchive();
+    }
+
+    /**
+     * Uploads from many threads at once, and checks that uploads of archived files are only accepted with the same
+     * checksum, and that the exported archive contains exactly the uploaded entries.
+     */
+    @Test
+    public void testConcurrentUploadsAndExport() throws Exception {
+        dca = new DatabaseChecksumArchive();
+        final int threads = 20;
+        final int filesPerThread = 200;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int i = 0; i < filesPerThread; i++) {
+                        dca.upload(checksum(thread * filesPerThread + i), filename(thread * filesPerThread + i));
+                        // Every thread also uploads the same file with the same checksum
+                        dca.upload(checksum(0), filename(0));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        try {
+            dca.upload(checksum(1), filename(0));
+            fail("Uploading an archived file with another checksum should fail");
+        } catch (IllegalState e) {
+            // expected
+        }
+        assertEquals(checksum(0), dca.getChecksum(filename(0)));
+        assertNull(dca.getChecksum("unknown.arc"));
+
+        List<String> lines = FileUtils.readListFromFile(dca.getArchiveAsFile());
+        assertEquals(threads * filesPerThread, lines.size());
+        for (String line : lines) {
+            KeyValuePair<String, String> entry = ChecksumJob.parseLine(line);
+            int number = Integer.parseInt(entry.getKey().substring(5, entry.getKey().indexOf('.')));
+            assertEquals(checksum(number), entry.getValue());
+        }
+        List<String> filenames = FileUtils.readListFromFile(dca.getAllFilenames());
+        assertEquals(threads * filesPerThread, filenames.size());
+        assertTrue(filenames.contains(filename(threads * filesPerThread - 1)));
+    }
+
+    /**
+     * Checks that bulk loaded entries overwrite existing entries and survive a restart, also when every write is
+     * committed by itself.
+     */
+    @Test
+    public void testPutAllAndRestart() throws Exception {
+        Settings.set(ArchiveSettings.CHECKSUM_DATABASE_BATCH_SIZE, "1");
+        dca = new DatabaseChecksumArchive();
+        dca.upload(checksum(1), filename(1));
+        List<KeyValuePair<String, String>> entries = new ArrayList<KeyValuePair<String, String>>();
+        entries.add(new KeyValuePair<String, String>(filename(1), checksum(2)));
+        entries.add(new KeyValuePair<String, String>(filename(2), checksum(2)));
+        dca.putAll(entries);
+        dca.cleanup();
+
+        dca = new DatabaseChecksumArchive();
+        assertEquals(checksum(2), dca.getChecksum(filename(1)));
+        assertEquals(checksum(2), dca.getChecksum(filename(2)));
+        assertFalse(dca.hasEntry(filename(3)));
+    }
+
+    /**
+     * Checks that an upload after cleanup fails instead of waiting for the stopped writer thread.
+     */
+    @Test(timeout = 60000)
+    public void testUploadAfterCleanupFails() throws Exception {
+        Settings.set(ArchiveSettings.CHECKSUM_DATABASE_BATCH_SIZE, "10");
+        dca = new DatabaseChecksumArchive();
+        dca.cleanup();
+        try {
+            dca.upload(checksum(0), filename(0));
+            fail("Uploading after cleanup should fail");
+        } catch (IOFailure e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Loads {@link #BENCHMARK_ENTRIES} entries through the bulk load and the upload path, and checks that they are all
+     * exported.
+     */
+    @Test
+    public void testLoadUploadAndExport() throws Exception {
+        dca = new DatabaseChecksumArchive();
+        final int chunk = 10000;
+        List<KeyValuePair<String, String>> entries = new ArrayList<KeyValuePair<String, String>>(chunk);
+        for (int i = 0; i < BENCHMARK_ENTRIES; i++) {
+            entries.add(new KeyValuePair<String, String>(filename(i), checksum(i)));
+            if (entries.size() == chunk) {
+                dca.putAll(entries);
+                entries.clear();
+            }
+        }
+        dca.putAll(entries);
+
+        final int uploads = Math.min(BENCHMARK_ENTRIES, 20000);
+        final int threads = 20;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(executor.submit(new Callable<Void>() {
+                public Void call() {
+                    for (int i = thread; i < uploads; i += threads) {
+                        dca.upload(checksum(BENCHMARK_ENTRIES + i), filename(BENCHMARK_ENTRIES + i));
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+        int lastUpload = BENCHMARK_ENTRIES + uploads - 1;
+        assertEquals(checksum(lastUpload), dca.getChecksum(filename(lastUpload)));
+
+        File export = dca.getArchiveAsFile();
+        int lines = 0;
+        BufferedReader reader = new BufferedReader(new FileReader(export));
+        try {
+            while (reader.readLine() != null) {
+                lines++;
+            }
+        } finally {
+            reader.close();
+        }
+        assertEquals(BENCHMARK_ENTRIES + uploads, lines);
+    }
+
+    private static String filename(int i) {
+        return "file-" + i + ".arc";
+    }
+
+    private static String checksum(int i) {
+        return String.format("%032x", i);
     }
 
 }
@@ -237,4 +237,39 @@ public class FileChecksumArchiveTester {
             adminFile.delete();
         }
     }
+
+    /**
+     * Checks that a restarted archive is loaded from the snapshot together with the lines appended after it, and that
+     * the snapshot is ignored if the checksum file has been rewritten.
+     */
+    @Test
+    public void testRestartFromSnapshot() throws Exception {
+        fca.upload(TestInfo.TEST1_CHECKSUM, "TEST1.arc");
+        fca.upload(TestInfo.TEST2_CHECKSUM, "TEST2.arc");
+        fca.correct("TEST1.arc", TestInfo.UPLOAD_FILE_2);
+        fca.cleanup();
+        File snapshot = new File(TestInfo.CHECKSUM_DIR, "checksum_THREE.snapshot");
+        assertTrue("A snapshot should be written on cleanup", snapshot.isFile());
+
+        // Lines appended after the snapshot must also be loaded.
+        FileWriter fw = new FileWriter(new File(TestInfo.CHECKSUM_DIR, "checksum_THREE.md5"), true);
+        fw.append("TEST3.arc##checksum3\n");
+        fw.close();
+
+        fca = FileChecksumArchive.getInstance();
+        assertEquals(TestInfo.TEST2_CHECKSUM, fca.getChecksum("TEST1.arc"));
+        assertEquals(TestInfo.TEST2_CHECKSUM, fca.getChecksum("TEST2.arc"));
+        assertEquals("checksum3", fca.getChecksum("TEST3.arc"));
+        assertEquals("The superseded line should be removed from the archive file", 3,
+                FileUtils.readListFromFile(fca.getArchiveAsFile()).size());
+        fca.cleanup();
+
+        // A rewritten checksum file must take precedence over the snapshot.
+        fw = new FileWriter(new File(TestInfo.CHECKSUM_DIR, "checksum_THREE.md5"), false);
+        fw.append("TEST4.arc##" + TestInfo.TEST1_CHECKSUM + "\n");
+        fw.close();
+        fca = FileChecksumArchive.getInstance();
+        assertFalse("The snapshot should not be used", fca.hasEntry("TEST1.arc"));
+        assertEquals(TestInfo.TEST1_CHECKSUM, fca.getChecksum("TEST4.arc"));
+    }
 }
@@ -79,6 +79,20 @@ public class CommonSettings {
      */
     public static String JMS_BROKER_RETRIES = "settings.common.jms.retries";
 
+    /**
+     * <b>settings.common.jms.sessionPoolSize</b>: <br>
+     * The maximum number of JMS sessions used for sending messages concurrently from one application. The default is
+     * 4.
+     */
+    public static String JMS_BROKER_SESSION_POOL_SIZE = "settings.common.jms.sessionPoolSize";
+
+    /**
+     * <b>settings.common.jms.messageCodec</b>: <br>
+     * The class used to convert messages to and from JMS messages. Must implement
+     * dk.netarkivet.common.distribute.JMSMessageCodec, and be the same for all applications using the same JMS broker.
+     */
+    public static String JMS_MESSAGE_CODEC = "settings.common.jms.messageCodec";
+
     /**
      * <b>settings.common.http.port</b>: <br>
      * The *unique* (per host) port number that may or may not be used to serve http.
@@ -259,6 +273,14 @@ public class CommonSettings {
      * The default number of jobs to show in the harvest status section, on one result page.
      */
     public static String HARVEST_STATUS_DFT_PAGE_SIZE = "settings.common.webinterface.harvestStatus.defaultPageSize";
+
+    /**
+     * <b>settings.common.webinterface.harvestStatus.countCacheSeconds</b>: <br>
+     * The number of seconds the total number of jobs matching a query in the harvest status section is reused before
+     * it is counted again in the background. 0 means that the jobs are counted for every page shown.
+     */
+    public static String HARVEST_STATUS_COUNT_CACHE_SECONDS =
+            "settings.common.webinterface.harvestStatus.countCacheSeconds";
     
     /**
      * <b>settings.common.topLevelDomains.tld</b>: <br>
@@ -540,4 +562,24 @@ public class CommonSettings {
      */
     public static String METADATAFILE_REGEX_SUFFIX = "settings.common.metadata.fileregexsuffix";
 
+    /**
+     * <b>settings.common.zip.threads</b>: <br>
+     * The number of threads used by {@link dk.netarkivet.common.utils.ZipUtils} to gzip and gunzip the files of a
+     * directory. 0 means one thread per available processor, 1 disables the parallel compression.
+     */
+    public static String ZIP_THREADS = "settings.common.zip.threads";
+
+    /**
+     * <b>settings.common.zip.compressionLevel</b>: <br>
+     * The compression level, from 1 (fastest) to 9 (best), used when gzipping files. The default is 6, as gzip.
+     */
+    public static String ZIP_COMPRESSION_LEVEL = "settings.common.zip.compressionLevel";
+
+    /**
+     * <b>settings.common.zip.blockSize</b>: <br>
+     * The size in bytes of the blocks that files larger than two blocks are split into when gzipped with more than one
+     * thread. Each block is compressed in parallel as a separate gzip member.
+     */
+    public static String ZIP_BLOCK_SIZE = "settings.common.zip.blockSize";
+
 }
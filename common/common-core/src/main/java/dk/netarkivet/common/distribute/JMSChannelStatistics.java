@@ -0,0 +1,99 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the messages sent to one JMS channel by a JMSConnection, and the time spent sending them. The counters are
+ * updated without locking by concurrent senders.
+ */
+public class JMSChannelStatistics {
+
+    /** The number of messages sent. */
+    private final LongAdder sent = new LongAdder();
+    /** The number of failed send attempts. */
+    private final LongAdder failed = new LongAdder();
+    /** The total time spent on successful sends in nanoseconds. */
+    private final LongAdder totalSendNanos = new LongAdder();
+    /** The longest time spent on a successful send in nanoseconds. */
+    private final AtomicLong maxSendNanos = new AtomicLong();
+    /** The time these statistics were created. */
+    private final long created = System.nanoTime();
+
+    /**
+     * Record one send attempt.
+     *
+     * @param nanos The time spent on the attempt in nanoseconds
+     * @param successful Whether the message was sent
+     */
+    void record(long nanos, boolean successful) {
+        if (!successful) {
+            failed.increment();
+            return;
+        }
+        sent.increment();
+        totalSendNanos.add(nanos);
+        long max = maxSendNanos.get();
+        while (nanos > max && !maxSendNanos.compareAndSet(max, nanos)) {
+            max = maxSendNanos.get();
+        }
+    }
+
+    /** @return the number of messages sent */
+    public long getMessagesSent() {
+        return sent.sum();
+    }
+
+    /** @return the number of failed send attempts */
+    public long getFailedSends() {
+        return failed.sum();
+    }
+
+    /** @return the average time spent sending a message in microseconds */
+    public long getAverageSendMicros() {
+        long count = sent.sum();
+        return count == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(totalSendNanos.sum() / count);
+    }
+
+    /** @return the longest time spent sending a message in microseconds */
+    public long getMaxSendMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(maxSendNanos.get());
+    }
+
+    /** @return the average number of messages sent per second since these statistics were created */
+    public double getMessagesPerSecond() {
+        long elapsed = System.nanoTime() - created;
+        return elapsed <= 0 ? 0 : sent.sum() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "sent=" + getMessagesSent() + ", failed=" + getFailedSends() + ", avgSendMicros="
+                + getAverageSendMicros() + ", maxSendMicros=" + getMaxSendMicros() + ", messagesPerSecond="
+                + String.format("%.1f", getMessagesPerSecond());
+    }
+
+}
@@ -26,6 +26,11 @@ import java.util.Calendar;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import javax.jms.Connection;
@@ -37,7 +42,6 @@ import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
-import javax.jms.ObjectMessage;
 import javax.jms.Queue;
 import javax.jms.QueueBrowser;
 import javax.jms.QueueSession;
@@ -53,6 +57,7 @@ import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.common.utils.CleanupHook;
 import dk.netarkivet.common.utils.CleanupIF;
 import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.common.utils.SettingsFactory;
 import dk.netarkivet.common.utils.TimeUtils;
 
 /**
@@ -60,6 +65,11 @@ import dk.netarkivet.common.utils.TimeUtils;
  * accessed by multiple threads (though JMSConnection itself creates threads). Thus no synchronization is needed on
  * methods and fields of JMSConnection. A shutdown hook is also added, which closes the connection. Class JMSConnection
  * is now also a exceptionhandler for the JMS Connections
+ * <p>
+ * Messages may be sent from many threads at once. As a JMS session must only be used by one thread at a time, senders
+ * borrow a session with its own cached producers from a pool of at most
+ * {@link CommonSettings#JMS_BROKER_SESSION_POOL_SIZE} sessions. The sender sessions are separate from the session
+ * used for the consumers. The time spent sending is recorded per channel, see {@link #getSendStatistics()}.
  */
 public abstract class JMSConnection implements ExceptionListener, CleanupIF {
 
@@ -76,14 +86,30 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     protected Connection connection;
 
     /**
-     * The Session handling messages sent to / received from the NetarchiveSuite queues and topics.
+     * The Session handling messages received from the NetarchiveSuite queues and topics. Messages are sent using
+     * separate sessions, see {@link #borrowSenderSession()}.
      */
     protected Session session;
 
-    /** Map for caching message producers. */
+    /** Map for caching message producers of the first sender session. */
     protected final Map<String, MessageProducer> producers = Collections
             .synchronizedMap(new HashMap<String, MessageProducer>());
 
+    /** The maximum number of sessions used for sending messages concurrently. */
+    private final int maxSenderSessions = Math.max(1, Settings.getInt(CommonSettings.JMS_BROKER_SESSION_POOL_SIZE));
+
+    /** The sender sessions not currently in use. The most recently used session is first. */
+    private final BlockingDeque<SenderSession> idleSenders = new LinkedBlockingDeque<SenderSession>();
+
+    /** The number of sender sessions created on the current connection. */
+    private final AtomicInteger senderSessionCount = new AtomicInteger();
+
+    /** Statistics for the messages sent, indexed by channel name. */
+    private final ConcurrentMap<String, JMSChannelStatistics> sendStatistics = new ConcurrentHashMap<String, JMSChannelStatistics>();
+
+    /** The codec used for converting messages to and from JMS messages, created on first use. */
+    private static volatile JMSMessageCodec messageCodec;
+
     /** Map for caching message consumers (topic-subscribers and queue-receivers). */
     protected final Map<String, MessageConsumer> consumers = Collections
             .synchronizedMap(new HashMap<String, MessageConsumer>());
@@ -283,6 +309,9 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
                 // Okay, it just means we are already shutting down.
             }
             closeHook = null;
+            for (Map.Entry<String, JMSChannelStatistics> stats : sendStatistics.entrySet()) {
+                log.info("Messages sent to '{}': {}", stats.getKey(), stats.getValue());
+            }
             // Close session
             closeConnection();
             // Clear list of listeners
@@ -312,31 +341,22 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
         session = null;
         consumers.clear();
         producers.clear();
+        idleSenders.clear();
+        senderSessionCount.set(0);
     }
 
     /**
-     * Unwraps a NetarkivetMessage from an ObjectMessage.
+     * Unwraps a NetarkivetMessage from a JMS message, using the configured {@link JMSMessageCodec}.
      *
-     * @param msg a javax.jms.ObjectMessage
+     * @param msg a javax.jms.Message, by default an ObjectMessage
      * @return a NetarkivetMessage
      * @throws ArgumentNotValid when msg in valid or format of JMS Object message is invalid
      */
     public static NetarkivetMessage unpack(Message msg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(msg, "msg");
 
-        ObjectMessage objMsg;
-        try {
-            objMsg = (ObjectMessage) msg;
-        } catch (ClassCastException e) {
-            log.warn("Invalid message type: {}", msg.getClass());
-            throw new ArgumentNotValid("Invalid message type: " + msg.getClass());
-        }
-
-        NetarkivetMessage netMsg;
-        String classname = "Unknown class"; // for error reporting purposes
+        NetarkivetMessage netMsg = getMessageCodec().decode(msg);
         try {
-            classname = objMsg.getObject().getClass().getName();
-            netMsg = (NetarkivetMessage) objMsg.getObject();
             // Note: Id is only updated if the message does not already have an
             // id. On unpack, this means the first time the message is received.
 
@@ -345,11 +365,8 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
             // netMsg.updateId(randomID);
 
             netMsg.updateId(msg.getJMSMessageID());
-        } catch (ClassCastException e) {
-            log.warn("Invalid message type: {}", classname, e);
-            throw new ArgumentNotValid("Invalid message type: " + classname, e);
         } catch (Exception e) {
-            String message = "Message invalid. Unable to unpack message: " + classname;
+            String message = "Message invalid. Unable to unpack message: " + netMsg.getClass().getName();
             log.warn(message, e);
             throw new ArgumentNotValid(message, e);
         }
@@ -358,9 +375,52 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     }
 
     /**
-     * Submit an ObjectMessage to the destination channel.
+     * @return the codec for converting messages to and from JMS messages, as defined by
+     * {@link CommonSettings#JMS_MESSAGE_CODEC}
+     */
+    protected static JMSMessageCodec getMessageCodec() {
+        JMSMessageCodec codec = messageCodec;
+        if (codec == null) {
+            synchronized (JMSConnection.class) {
+                codec = messageCodec;
+                if (codec == null) {
+                    codec = SettingsFactory.getInstance(CommonSettings.JMS_MESSAGE_CODEC);
+                    messageCodec = codec;
+                }
+            }
+        }
+        return codec;
+    }
+
+    /**
+     * Get the statistics of the messages sent on this connection.
+     *
+     * @return An unmodifiable view of the statistics indexed by channel name
+     */
+    public Map<String, JMSChannelStatistics> getSendStatistics() {
+        return Collections.unmodifiableMap(sendStatistics);
+    }
+
+    /**
+     * @param channelName The name of a channel
+     * @return the statistics for the channel, created if necessary
+     */
+    private JMSChannelStatistics getChannelStatistics(String channelName) {
+        JMSChannelStatistics stats = sendStatistics.get(channelName);
+        if (stats == null) {
+            stats = new JMSChannelStatistics();
+            JMSChannelStatistics existing = sendStatistics.putIfAbsent(channelName, stats);
+            if (existing != null) {
+                stats = existing;
+            }
+        }
+        return stats;
+    }
+
+    /**
+     * Submit a message to the destination channel.
      *
-     * @param nMsg the NetarkivetMessage to be wrapped and send as an ObjectMessage
+     * @param nMsg the NetarkivetMessage to be wrapped and send as a JMS message
      * @param to the destination channel
      * @throws IOFailure if message failed to be sent.
      */
@@ -437,21 +497,81 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     }
 
     /**
-     * Helper method for getting the right producer for a queue or topic.
+     * Borrow a session for sending messages. The session must be returned with {@link #returnSenderSession} after
+     * use. Must be called while holding the read lock of the connection.
      *
-     * @param queueName The name of the channel
-     * @return The producer for that channel. A new one is created, if none exists.
-     * @throws JMSException If a new producer cannot be created.
+     * @return A session only used by the calling thread until returned.
+     * @throws JMSException If a new session cannot be created.
+     * @throws IOFailure If no connection is available, or interrupted while waiting for a session.
+     */
+    private SenderSession borrowSenderSession() throws JMSException {
+        SenderSession sender = idleSenders.pollFirst();
+        if (sender != null) {
+            return sender;
+        }
+        if (connection == null || session == null) {
+            throw new IOFailure("Session not available");
+        }
+        int number = senderSessionCount.incrementAndGet();
+        if (number <= maxSenderSessions) {
+            try {
+                log.debug("Creating sender session number {}", number);
+                // Never use the session of the consumers, as it is used by the thread delivering messages to them
+                return new SenderSession(connection.createSession(false, Session.AUTO_ACKNOWLEDGE),
+                        number == 1 ? producers : new HashMap<String, MessageProducer>());
+            } catch (JMSException e) {
+                senderSessionCount.decrementAndGet();
+                throw e;
+            }
+        }
+        senderSessionCount.decrementAndGet();
+        try {
+            return idleSenders.takeFirst();
+        } catch (InterruptedException e) {
+            throw new IOFailure("Interrupted while waiting for a JMS session", e);
+        }
+    }
+
+    /**
+     * Return a session borrowed with {@link #borrowSenderSession()} to the pool.
+     *
+     * @param sender The borrowed session
+     */
+    private void returnSenderSession(SenderSession sender) {
+        idleSenders.offerFirst(sender);
+    }
+
+    /**
+     * A session used for sending, with its cache of message producers. Only used by one thread at a time.
      */
-    private MessageProducer getProducer(String queueName) throws JMSException {
-        // Check if producer is in cache
-        // If it is not, it is created and stored in cache:
-        MessageProducer producer = producers.get(queueName);
-        if (producer == null) {
-            producer = getSession().createProducer(getDestination(queueName));
-            producers.put(queueName, producer);
+    private final class SenderSession {
+        /** The session. */
+        private final Session session;
+        /** The producers created on the session, indexed by channel name. */
+        private final Map<String, MessageProducer> producers;
+
+        private SenderSession(Session session, Map<String, MessageProducer> producers) {
+            this.session = session;
+            this.producers = producers;
+        }
+
+        /**
+         * Helper method for getting the right producer for a queue or topic.
+         *
+         * @param queueName The name of the channel
+         * @return The producer for that channel. A new one is created, if none exists.
+         * @throws JMSException If a new producer cannot be created.
+         */
+        private MessageProducer getProducer(String queueName) throws JMSException {
+            // Check if producer is in cache
+            // If it is not, it is created and stored in cache:
+            MessageProducer producer = producers.get(queueName);
+            if (producer == null) {
+                producer = session.createProducer(getDestination(queueName));
+                producers.put(queueName, producer);
+            }
+            return producer;
         }
-        return producer;
     }
 
     /**
@@ -525,18 +645,21 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
     }
 
     /**
-     * Sends an ObjectMessage on a queue destination.
+     * Sends a message on a queue or topic destination, using a session borrowed from the pool.
      *
-     * @param msg the NetarkivetMessage to be wrapped and send as an ObjectMessage.
+     * @param msg the NetarkivetMessage to be wrapped and send as a JMS message.
      * @param to the destination topic.
      * @throws JMSException if message failed to be sent.
      */
     private void doSend(NetarkivetMessage msg, ChannelID to) throws JMSException {
+        long start = System.nanoTime();
+        boolean sent = false;
         connectionLock.readLock().lock();
         try {
-            ObjectMessage message = getSession().createObjectMessage(msg);
-            synchronized (msg) {
-                getProducer(to.getName()).send(message);
+            SenderSession sender = borrowSenderSession();
+            try {
+                Message message = getMessageCodec().encode(sender.session, msg);
+                sender.getProducer(to.getName()).send(message);
                 // Note: Id is only updated if the message does not already have
                 // an id. This ensures that resent messages keep the same ID
                 // TODO Is it always OK for resent messages to keep the same ID
@@ -544,11 +667,16 @@ public abstract class JMSConnection implements ExceptionListener, CleanupIF {
                 // FIXME Solution for NAS-2043 doesn't work; rolled back
                 // String randomID = UUID.randomUUID().toString();
                 // msg.updateId(randomID);
-                msg.updateId(message.getJMSMessageID());
-
+                synchronized (msg) {
+                    msg.updateId(message.getJMSMessageID());
+                }
+                sent = true;
+            } finally {
+                returnSenderSession(sender);
             }
         } finally {
             connectionLock.readLock().unlock();
+            getChannelStatistics(to.getName()).record(System.nanoTime() - start, sent);
         }
         log.trace("Sent message '{}'", msg.toString());
     }
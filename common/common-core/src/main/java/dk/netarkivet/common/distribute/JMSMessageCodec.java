@@ -0,0 +1,61 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Session;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * Converts NetarkivetMessages to and from JMS messages. The codec is selected with the setting
+ * {@link dk.netarkivet.common.CommonSettings#JMS_MESSAGE_CODEC}, and must be the same for all applications sharing a
+ * JMS broker. Implementations must have a public no-argument constructor and be thread-safe.
+ * <p>
+ * The default {@link ObjectMessageCodec} sends every message as a Java serialized ObjectMessage. Other codecs can
+ * encode frequently sent message types more cheaply, and should decode ObjectMessages like the default codec, so they
+ * can still receive messages from applications using it.
+ */
+public interface JMSMessageCodec {
+
+    /**
+     * Create a JMS message containing the given message.
+     *
+     * @param session The session the JMS message is sent on
+     * @param msg The message to encode
+     * @return A JMS message ready to send
+     * @throws JMSException If the session fails to create the JMS message
+     */
+    Message encode(Session session, NetarkivetMessage msg) throws JMSException;
+
+    /**
+     * Extract the NetarkivetMessage from a received JMS message.
+     *
+     * @param msg A JMS message created by {@link #encode(Session, NetarkivetMessage)}
+     * @return The NetarkivetMessage contained in the JMS message
+     * @throws ArgumentNotValid If the JMS message is not of a supported type or cannot be decoded
+     */
+    NetarkivetMessage decode(Message msg) throws ArgumentNotValid;
+
+}
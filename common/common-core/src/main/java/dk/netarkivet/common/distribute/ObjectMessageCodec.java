@@ -0,0 +1,74 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.distribute;
+
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.ObjectMessage;
+import javax.jms.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The default message codec, which sends NetarkivetMessages as Java serialized ObjectMessages.
+ */
+public class ObjectMessageCodec implements JMSMessageCodec {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(ObjectMessageCodec.class);
+
+    @Override
+    public Message encode(Session session, NetarkivetMessage msg) throws JMSException {
+        return session.createObjectMessage(msg);
+    }
+
+    @Override
+    public NetarkivetMessage decode(Message msg) throws ArgumentNotValid {
+        ArgumentNotValid.checkNotNull(msg, "msg");
+
+        ObjectMessage objMsg;
+        try {
+            objMsg = (ObjectMessage) msg;
+        } catch (ClassCastException e) {
+            log.warn("Invalid message type: {}", msg.getClass());
+            throw new ArgumentNotValid("Invalid message type: " + msg.getClass());
+        }
+
+        String classname = "Unknown class"; // for error reporting purposes
+        try {
+            classname = objMsg.getObject().getClass().getName();
+            return (NetarkivetMessage) objMsg.getObject();
+        } catch (ClassCastException e) {
+            log.warn("Invalid message type: {}", classname, e);
+            throw new ArgumentNotValid("Invalid message type: " + classname, e);
+        } catch (Exception e) {
+            String message = "Message invalid. Unable to unpack message: " + classname;
+            log.warn(message, e);
+            throw new ArgumentNotValid(message, e);
+        }
+    }
+
+}
@@ -22,7 +22,15 @@
  */
 package dk.netarkivet.common.distribute;
 
-import java.util.Hashtable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -34,55 +42,115 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 
 /**
- * Converts an asynchronous call to a synchronous call. The method sendAndWaitForOneReply() is a blocking call which
- * responds when a reply is received or returns null on timeout.
+ * Matches replies received from a message queue with the requests sent. Requests can be sent asynchronously with
+ * sendAsync(), which returns a future completed when the reply arrives, or synchronously with the blocking call
+ * sendAndWaitForOneReply(), which returns the reply or null on timeout.
+ * <p>
+ * Outstanding requests are kept in a map indexed by message id, and timeouts are handled by one shared
+ * scheduler thread, so any number of requests can be outstanding without a waiting thread for each of them.
  */
 public class Synchronizer implements MessageListener {
 
     private static final Logger log = LoggerFactory.getLogger(Synchronizer.class);
 
-    /** Collection containing messages on which a reply is awaited. */
-    private Hashtable<String, NetarkivetMessage> requests;
+    /** Completes the futures of requests that time out. Shared by all Synchronizers. */
+    private static final ScheduledThreadPoolExecutor TIMEOUT_SCHEDULER = createTimeoutScheduler();
 
-    /** Collection containing reply messages which have not yet been returned to the caller. */
-    private Hashtable<String, NetarkivetMessage> replies;
+    /** Futures of the requests on which a reply is awaited, indexed by message id. */
+    private ConcurrentMap<String, CompletableFuture<NetarkivetMessage>> requests;
 
     /**
-     * Initialise maps containing requests and replies.
+     * Initialise the map of outstanding requests.
      */
     public Synchronizer() {
-        requests = new Hashtable<String, NetarkivetMessage>();
-        replies = new Hashtable<String, NetarkivetMessage>();
+        requests = new ConcurrentHashMap<String, CompletableFuture<NetarkivetMessage>>();
+    }
+
+    private static ScheduledThreadPoolExecutor createTimeoutScheduler() {
+        ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Synchronizer-timeouts");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        // Most requests are answered before they time out, so do not keep the cancelled timeouts around
+        scheduler.setRemoveOnCancelPolicy(true);
+        return scheduler;
     }
 
     /**
-     * Receives replies from a message queue and triggers the blocked call in sendAndWaitForOneReply().
+     * Receives replies from a message queue and completes the future of the matching request.
      *
      * @param msg an ObjectMessage containing a NetarkivetMessage.
      */
     public void onMessage(Message msg) {
         ArgumentNotValid.checkNotNull(msg, "msg");
         NetarkivetMessage naMsg = JMSConnection.unpack(msg);
-        NetarkivetMessage requestMsg;
+        CompletableFuture<NetarkivetMessage> request;
+        // Wait for a request being sent to be registered, the reply may arrive before that
         synchronized (requests) {
-            requestMsg = requests.get(naMsg.getReplyOfId());
+            request = requests.remove(naMsg.getReplyOfId());
         }
-        if (requestMsg != null) {
-            synchronized (requestMsg) {
-                replies.put(naMsg.getReplyOfId(), naMsg);
-                requestMsg.notifyAll();
-            }
+        if (request != null) {
+            log.debug("Received reply for message: {}", naMsg.getReplyOfId());
+            request.complete(naMsg);
         } else {
             log.warn("Received unexpected reply for unknown message '{}' of type '{}'. Ignored!!: {}",
                     naMsg.getReplyOfId(), naMsg.getClass().getName(), naMsg.toString());
         }
     }
 
+    /**
+     * Sends a message to a message queue without waiting for the reply. The returned future is completed with the
+     * reply when it arrives, or with null if no reply arrives within the timeout. Cancelling the future stops waiting
+     * for the reply.
+     *
+     * @param msg the request message
+     * @param timeout the timeout in milliseconds (or zero for no timeout)
+     * @return a future for the reply message from the receiver of the request
+     * @throws ArgumentNotValid if msg is null or timeout is negative
+     */
+    public CompletableFuture<NetarkivetMessage> sendAsync(final NetarkivetMessage msg, long timeout) {
+        ArgumentNotValid.checkNotNull(msg, "msg");
+        ArgumentNotValid.checkNotNegative(timeout, "timeout");
+        final CompletableFuture<NetarkivetMessage> reply = new CompletableFuture<NetarkivetMessage>();
+        // The message only gets its id when sent, so send and register while holding the lock that onMessage takes
+        // before looking up the request of a reply
+        final String id;
+        synchronized (requests) {
+            JMSConnectionFactory.getInstance().send(msg);
+            id = msg.getID();
+            requests.put(id, reply);
+        }
+        final ScheduledFuture<?> timer;
+        if (timeout > 0) {
+            timer = TIMEOUT_SCHEDULER.schedule(new Runnable() {
+                public void run() {
+                    if (requests.remove(id, reply)) {
+                        log.debug("Timed out waiting for reply to {}", msg.toString());
+                        reply.complete(null);
+                    }
+                }
+            }, timeout, TimeUnit.MILLISECONDS);
+        } else {
+            timer = null;
+        }
+        reply.whenComplete(new BiConsumer<NetarkivetMessage, Throwable>() {
+            public void accept(NetarkivetMessage result, Throwable failure) {
+                // Stop tracking the request if it was cancelled by the caller
+                requests.remove(id, reply);
+                if (timer != null) {
+                    timer.cancel(false);
+                }
+            }
+        });
+        return reply;
+    }
+
     /**
      * Sends a message to a message queue and blocks the method invocation until a reply arrives. If it times out a null
-     * is returned. If a spurious wakeup is received and a timeout is set, the method will carry on waiting for the
-     * reply until the total timeout time has been used up. If a spurious wakeup is received and no timeout is set the
-     * method will just go back to waiting
+     * is returned.
      *
      * @param msg the request message
      * @param timeout the timeout in milliseconds (or zero for no timeout)
@@ -90,48 +158,33 @@ public class Synchronizer implements MessageListener {
      */
     public NetarkivetMessage sendAndWaitForOneReply(NetarkivetMessage msg, long timeout) {
         ArgumentNotValid.checkNotNull(msg, "msg");
-        boolean noTimeout = (timeout == 0);
-        JMSConnection con = JMSConnectionFactory.getInstance();
-        synchronized (msg) {
-            synchronized (requests) {
-                con.send(msg);
-                requests.put(msg.getID(), msg);
+        return waitFor(sendAsync(msg, timeout), msg);
+    }
+
+    /**
+     * Waits for a future returned by one of the asynchronous request methods.
+     *
+     * @param future the future to wait for
+     * @param request the request, used in error messages
+     * @param <T> the type of the result
+     * @return the result of the future
+     * @throws IOFailure if interrupted while waiting, or the future failed with a checked exception
+     */
+    protected static <T> T waitFor(CompletableFuture<T> future, Object request) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(false);
+            throw new IOFailure("Interrupted while waiting for reply to " + request, e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
             }
-            try {
-                while (!replies.containsKey(msg.getID())) {
-                    long timeBeforeWait = System.currentTimeMillis();
-                    msg.wait(timeout);
-                    synchronized (requests) {
-                        if (!replies.containsKey(msg.getID())) {
-                            // At this point we either got an unexpected wakeup
-                            // or timed out
-                            long timeAfterWait = System.currentTimeMillis();
-                            // the new timeout value
-                            timeout -= timeAfterWait - timeBeforeWait;
-                            if (noTimeout || timeout > 0) { // Unexpected wakeup
-                                log.debug("Unexpected wakeup for {}", msg.toString());
-                            } else {
-                                // timed out
-                                // NB! if timeout is exactly zero here then this
-                                // counts as a timeout. Otherwise we would call
-                                // wait(0) on the next loop with disastrous
-                                // results
-                                requests.remove(msg.getID());
-                                log.debug("Timed out waiting for reply to {}", msg.toString());
-                                return null;
-                            }
-                        }
-                    }
-                }
-            } catch (InterruptedException e) {
-                throw new IOFailure("Interrupted while waiting for reply to " + msg, e);
+            if (cause instanceof Error) {
+                throw (Error) cause;
             }
-        }
-        // If we get here, we must have received the expected reply
-        synchronized (requests) {
-            requests.remove(msg.getID());
-            log.debug("Received reply for message: {}", msg.toString());
-            return replies.remove(msg.getID());
+            throw new IOFailure("Failure while waiting for reply to " + request, cause);
         }
     }
 
@@ -51,6 +51,18 @@ public class LargeFileGZIPInputStream extends GZIPInputStream {
         super(in);
     }
 
+    /**
+     * Creates a new input stream with the specified buffer size.
+     *
+     * @param in the input stream
+     * @param size the input buffer size
+     * @throws IOException if an I/O error has occurred. Note: We usually don't allow IOException in our code, but this
+     * is done here to closely mimic GZIPInputStream
+     */
+    public LargeFileGZIPInputStream(InputStream in, int size) throws IOException {
+        super(in, size);
+    }
+
     /**
      * Reads uncompressed data into an array of bytes. Blocks until enough input is available for decompression.
      *
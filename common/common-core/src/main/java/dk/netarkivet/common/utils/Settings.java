@@ -27,6 +27,8 @@ import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -43,6 +45,11 @@ import dk.netarkivet.common.exceptions.UnknownID;
  * specified by the system property {@link #SETTINGS_FILE_PROPERTY}, multiple files can be separated by
  * {@link File#pathSeparator}, that is ':' on linux and ';' on windows; or if that property is not set, the default
  * location is {@link #DEFAULT_SETTINGS_FILEPATH}.
+ * <p>
+ * Values found in the xml files are remembered in a snapshot, so repeated lookups of a setting neither lock nor
+ * evaluate XPath expressions. The typed getters also remember the parsed values. The snapshot is discarded whenever the
+ * settings are changed by {@link #set}, {@link #reload()} or {@link #addDefaultClasspathSettings(String)}. System
+ * properties are checked on every lookup, and are never remembered.
  */
 public class Settings {
 
@@ -61,10 +68,21 @@ public class Settings {
      */
     private static final List<SimpleXml> defaultClasspathSettingsXmlList;
 
+    /** Marks a setting that is known not to exist in the snapshot. */
+    private static final Object MISSING = new Object();
+
+    /** The values looked up since the settings were last changed. */
+    private static volatile Snapshot snapshot;
+
+    /** Listeners notified when the settings are reloaded. */
+    private static final List<SettingsChangeListener> listeners;
+
     static {
         // All static initialization in one place
         fileSettingsXmlList = Collections.synchronizedList(new ArrayList<SimpleXml>());
         defaultClasspathSettingsXmlList = Collections.synchronizedList(new ArrayList<SimpleXml>());
+        snapshot = new Snapshot();
+        listeners = new CopyOnWriteArrayList<SettingsChangeListener>();
         // Perform an initial loading of the settings.
         reload();
     }
@@ -131,7 +149,28 @@ public class Settings {
             return val;
         }
 
-        // Key not in System.properties try loaded data instead
+        Snapshot current = snapshot;
+        Object cached = current.values.get(key);
+        if (cached == null) {
+            cached = lookup(key);
+            if (cached == null) {
+                cached = MISSING;
+            }
+            current.values.putIfAbsent(key, cached);
+        }
+        if (cached == MISSING) {
+            throw new UnknownID("No match for key '" + key + "' in settings");
+        }
+        return (String) cached;
+    }
+
+    /**
+     * Look up a setting in the loaded settings xml files, and then in the default settings files from classpath.
+     *
+     * @param key name of the setting to retrieve
+     * @return the retrieved value, or null if no setting loaded matches key
+     */
+    private static String lookup(String key) {
         synchronized (fileSettingsXmlList) {
             for (SimpleXml settingsXml : fileSettingsXmlList) {
                 if (settingsXml.hasKey(key)) {
@@ -148,7 +187,7 @@ public class Settings {
                 }
             }
         }
-        throw new UnknownID("No match for key '" + key + "' in settings");
+        return null;
     }
 
     /**
@@ -160,9 +199,14 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static int getInt(String key) throws UnknownID, ArgumentNotValid {
+        Snapshot current = snapshot;
+        Object cached = getParsed(current.ints, key);
+        if (cached != null) {
+            return (Integer) cached;
+        }
         String value = get(key);
         try {
-            return Integer.parseInt(value);
+            return (Integer) putParsed(current.ints, key, Integer.valueOf(value));
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key
                     + "' could not be parsed as an integer.";
@@ -179,9 +223,14 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static long getLong(String key) throws UnknownID, ArgumentNotValid {
+        Snapshot current = snapshot;
+        Object cached = getParsed(current.longs, key);
+        if (cached != null) {
+            return (Long) cached;
+        }
         String value = get(key);
         try {
-            return Long.parseLong(value);
+            return (Long) putParsed(current.longs, key, Long.valueOf(value));
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key + "' could not be parsed as a long.";
             throw new ArgumentNotValid(msg, e);
@@ -197,9 +246,14 @@ public class Settings {
      * @throws UnknownID if no setting loaded matches key
      */
     public static double getDouble(String key) throws UnknownID, ArgumentNotValid {
+        Snapshot current = snapshot;
+        Object cached = getParsed(current.doubles, key);
+        if (cached != null) {
+            return (Double) cached;
+        }
         String value = get(key);
         try {
-            return Double.parseDouble(value);
+            return (Double) putParsed(current.doubles, key, Double.valueOf(value));
         } catch (NumberFormatException e) {
             String msg = "Invalid setting. Value '" + value + "' for key '" + key
                     + "' could not be parsed as a double.";
@@ -230,8 +284,43 @@ public class Settings {
      */
     public static boolean getBoolean(String key) throws UnknownID, ArgumentNotValid {
         ArgumentNotValid.checkNotNullOrEmpty(key, "String key");
+        Snapshot current = snapshot;
+        Object cached = getParsed(current.booleans, key);
+        if (cached != null) {
+            return (Boolean) cached;
+        }
         String value = get(key);
-        return Boolean.parseBoolean(value);
+        return (Boolean) putParsed(current.booleans, key, Boolean.valueOf(value));
+    }
+
+    /**
+     * Get a parsed value remembered in the snapshot. Values overridden by a system property are never remembered.
+     *
+     * @param parsed The parsed values of one type in the snapshot
+     * @param key name of the setting
+     * @return the parsed value, or null if not remembered
+     */
+    private static Object getParsed(ConcurrentHashMap<String, Object> parsed, String key) {
+        ArgumentNotValid.checkNotNullOrEmpty(key, "String key");
+        if (System.getProperty(key) != null) {
+            return null;
+        }
+        return parsed.get(key);
+    }
+
+    /**
+     * Remember a parsed value in the snapshot, unless the setting is overridden by a system property.
+     *
+     * @param parsed The parsed values of one type in the snapshot
+     * @param key name of the setting
+     * @param value the parsed value
+     * @return the value
+     */
+    private static Object putParsed(ConcurrentHashMap<String, Object> parsed, String key, Object value) {
+        if (System.getProperty(key) == null) {
+            parsed.putIfAbsent(key, value);
+        }
+        return value;
     }
 
     /**
@@ -254,6 +343,29 @@ public class Settings {
         if (val != null) {
             return new String[] {val};
         }
+        Snapshot current = snapshot;
+        Object cached = current.lists.get(key);
+        if (cached == null) {
+            cached = lookupAll(key);
+            if (cached == null) {
+                cached = MISSING;
+            }
+            current.lists.putIfAbsent(key, cached);
+        }
+        if (cached == MISSING) {
+            throw new UnknownID("No match for key '" + key + "' in settings");
+        }
+        return ((String[]) cached).clone();
+    }
+
+    /**
+     * Look up a list of settings in the loaded settings xml files, and then in the default settings files from
+     * classpath.
+     *
+     * @param key name of the setting to retrieve
+     * @return the retrieved values, or null if no setting loaded matches key
+     */
+    private static String[] lookupAll(String key) {
         if (fileSettingsXmlList.isEmpty()) {
             System.out.print("The list of loaded data settings is empty. Is this OK?");
         }
@@ -284,7 +396,7 @@ public class Settings {
                 return result.toArray(new String[result.size()]);
             }
         }
-        throw new UnknownID("No match for key '" + key + "' in settings");
+        return null;
     }
 
     /**
@@ -311,6 +423,7 @@ public class Settings {
         } else {
             simpleXml.add(key, values);
         }
+        snapshot = new Snapshot();
     }
 
     /**
@@ -339,6 +452,34 @@ public class Settings {
             fileSettingsXmlList.clear();
             fileSettingsXmlList.addAll(simpleXmlList);
         }
+        snapshot = new Snapshot();
+        for (SettingsChangeListener listener : listeners) {
+            try {
+                listener.settingsChanged();
+            } catch (RuntimeException e) {
+                log.warn("Settings change listener {} failed", listener, e);
+            }
+        }
+    }
+
+    /**
+     * Add a listener, which is notified whenever the settings are reloaded.
+     *
+     * @param listener the listener
+     * @throws ArgumentNotValid if listener is null
+     */
+    public static void addChangeListener(SettingsChangeListener listener) {
+        ArgumentNotValid.checkNotNull(listener, "SettingsChangeListener listener");
+        listeners.add(listener);
+    }
+
+    /**
+     * Remove a listener added with {@link #addChangeListener(SettingsChangeListener)}.
+     *
+     * @param listener the listener
+     */
+    public static void removeChangeListener(SettingsChangeListener listener) {
+        listeners.remove(listener);
     }
 
     /**
@@ -352,6 +493,7 @@ public class Settings {
                 .getResourceAsStream(defaultClasspathSettingsPath);
         if (stream != null) {
             defaultClasspathSettingsXmlList.add(new SimpleXml(stream));
+            snapshot = new Snapshot();
         } else {
             log.warn("Unable to read the settings file represented by path: '{}'", defaultClasspathSettingsPath);
         }
@@ -399,4 +541,23 @@ public class Settings {
     	return true;
     }
 
+    /**
+     * The values looked up since the settings were last changed. A snapshot is replaced by an empty one whenever the
+     * settings change, and a replaced snapshot is never read again.
+     */
+    private static final class Snapshot {
+        /** Single values, or MISSING, indexed by key. */
+        private final ConcurrentHashMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+        /** Lists of values as String arrays, or MISSING, indexed by key. */
+        private final ConcurrentHashMap<String, Object> lists = new ConcurrentHashMap<String, Object>();
+        /** Values parsed as Integer indexed by key. */
+        private final ConcurrentHashMap<String, Object> ints = new ConcurrentHashMap<String, Object>();
+        /** Values parsed as Long indexed by key. */
+        private final ConcurrentHashMap<String, Object> longs = new ConcurrentHashMap<String, Object>();
+        /** Values parsed as Double indexed by key. */
+        private final ConcurrentHashMap<String, Object> doubles = new ConcurrentHashMap<String, Object>();
+        /** Values parsed as Boolean indexed by key. */
+        private final ConcurrentHashMap<String, Object> booleans = new ConcurrentHashMap<String, Object>();
+    }
+
 }
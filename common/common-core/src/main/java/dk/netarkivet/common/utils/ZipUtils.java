@@ -23,12 +23,26 @@
 
 package dk.netarkivet.common.utils;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
 import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
 import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
@@ -38,11 +52,17 @@ import java.util.zip.ZipOutputStream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 
 /**
  * Utilities for interfacing with the (fairly low-level) java.util.zip package.
+ * <p>
+ * The files of a directory are gzipped and gunzipped in parallel, using the number of threads given by
+ * {@link CommonSettings#ZIP_THREADS}. Files larger than two blocks of {@link CommonSettings#ZIP_BLOCK_SIZE} bytes are
+ * split into blocks that are compressed in parallel as separate gzip members. The concatenated members form a valid
+ * gzip file, which any gzip reader, including {@link GZIPInputStream}, decompresses to the original contents.
  */
 public final class ZipUtils {
 
@@ -52,6 +72,9 @@ public final class ZipUtils {
     /** The standard suffix for a gzipped file. */
     public static final String GZIP_SUFFIX = ".gz";
 
+    /** The size of the buffers used when gzipping and gunzipping files. */
+    private static final int GZIP_BUFFER_SIZE = 256 * 1024;
+
     /** Default constructor to avoid initialization. */
     private ZipUtils() {
     }
@@ -153,21 +176,50 @@ public final class ZipUtils {
         ArgumentNotValid.checkTrue(fromDir.isDirectory(), "source '" + fromDir + "' must be an existing directory");
         ArgumentNotValid.checkTrue(!toDir.exists(), "destination directory '" + toDir + "' must not exist");
 
+        final int level = Settings.getInt(CommonSettings.ZIP_COMPRESSION_LEVEL);
+        ArgumentNotValid.checkTrue(level >= Deflater.BEST_SPEED && level <= Deflater.BEST_COMPRESSION,
+                "compression level " + level + " must be between 1 and 9");
+        int blockSize = Settings.getInt(CommonSettings.ZIP_BLOCK_SIZE);
+        ArgumentNotValid.checkPositive(blockSize, "int blockSize");
+        int threads = getThreadCount();
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
         File tmpDir = null;
         try {
             tmpDir = FileUtils.createUniqueTempDir(toDir.getAbsoluteFile().getParentFile(), toDir.getName());
             File[] fromFiles = fromDir.listFiles();
-            for (File f : fromFiles) {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final File f : fromFiles) {
                 if (f.isFile()) {
-                    gzipFileInto(f, tmpDir);
+                    final File outF = new File(tmpDir, f.getName() + GZIP_SUFFIX);
+                    if (executor == null) {
+                        gzipFile(f, outF, level);
+                    } else if (f.length() > 2L * blockSize) {
+                        // Compressed block by block on the pool, while the smaller files submitted so far are
+                        // compressed as well
+                        gzipFileInBlocks(f, outF, level, blockSize, executor, 2 * threads);
+                    } else {
+                        results.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                gzipFile(f, outF, level);
+                                return null;
+                            }
+                        }));
+                    }
                 } else {
                     log.trace("Skipping non-file '{}'", f);
                 }
             }
+            for (Future<Void> result : results) {
+                getResult(result, "Error while gzipping the files of '" + fromDir + "'");
+            }
             if (!tmpDir.renameTo(toDir)) {
                 throw new IOFailure("Failed to rename temp dir '" + tmpDir + "' to desired target '" + toDir + "'");
             }
         } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
             if (tmpDir != null) {
                 try {
                     FileUtils.removeRecursively(tmpDir);
@@ -179,18 +231,19 @@ public final class ZipUtils {
     }
 
     /**
-     * GZip a file into a given dir. The resulting file will have .gz appended.
+     * GZip a file into a single gzip member.
      *
      * @param f A file to gzip. This must be a real file, not a directory or the like.
-     * @param toDir The directory that the gzipped file will be placed in.
+     * @param outF The gzipped file to create.
+     * @param level The compression level.
      */
-    private static void gzipFileInto(File f, File toDir) {
+    private static void gzipFile(File f, File outF, int level) {
         try {
             GZIPOutputStream out = null;
             try {
-                File outF = new File(toDir, f.getName() + GZIP_SUFFIX);
-                out = new GZIPOutputStream(new FileOutputStream(outF));
-                FileUtils.writeFileToStream(f, out);
+                out = new LevelGZIPOutputStream(new FileOutputStream(outF), level);
+                copy(f, out);
+                out.finish();
             } finally {
                 if (out != null) {
                     try {
@@ -207,9 +260,152 @@ public final class ZipUtils {
         }
     }
 
+    /**
+     * GZip a file as a sequence of gzip members, one for each block of the file, which are compressed in parallel. At
+     * most maxPending blocks are held in memory at any time.
+     *
+     * @param f A file to gzip. This must be a real file, not a directory or the like.
+     * @param outF The gzipped file to create.
+     * @param level The compression level.
+     * @param blockSize The number of bytes in each block.
+     * @param executor The executor that compresses the blocks.
+     * @param maxPending The maximum number of blocks being compressed at a time.
+     */
+    private static void gzipFileInBlocks(File f, File outF, final int level, int blockSize, ExecutorService executor,
+            int maxPending) {
+        String errMsg = "Error while gzipping file '" + f + "'";
+        try {
+            InputStream in = new FileInputStream(f);
+            try {
+                OutputStream out = new BufferedOutputStream(new FileOutputStream(outF), GZIP_BUFFER_SIZE);
+                try {
+                    Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+                    byte[] block;
+                    while ((block = readBlock(in, blockSize)) != null) {
+                        final byte[] data = block;
+                        pending.add(executor.submit(new Callable<byte[]>() {
+                            @Override
+                            public byte[] call() throws IOException {
+                                return gzipBlock(data, level);
+                            }
+                        }));
+                        if (pending.size() >= maxPending) {
+                            out.write(getResult(pending.removeFirst(), errMsg));
+                        }
+                    }
+                    while (!pending.isEmpty()) {
+                        out.write(getResult(pending.removeFirst(), errMsg));
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            throw new IOFailure(errMsg, e);
+        }
+    }
+
+    /**
+     * Read a block of bytes from a stream.
+     *
+     * @param in The stream to read from.
+     * @param blockSize The number of bytes to read.
+     * @return The next blockSize bytes of the stream, fewer at the end of the stream, or null if the end of the stream
+     * has been reached.
+     * @throws IOException If reading fails.
+     */
+    private static byte[] readBlock(InputStream in, int blockSize) throws IOException {
+        byte[] block = new byte[blockSize];
+        int length = 0;
+        int read;
+        while (length < blockSize && (read = in.read(block, length, blockSize - length)) != -1) {
+            length += read;
+        }
+        if (length == 0) {
+            return null;
+        }
+        return (length == blockSize) ? block : Arrays.copyOf(block, length);
+    }
+
+    /**
+     * @param data The bytes to compress.
+     * @param level The compression level.
+     * @return The bytes as a complete gzip member.
+     * @throws IOException Never, as the member is written to memory.
+     */
+    private static byte[] gzipBlock(byte[] data, int level) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 2 + 64);
+        GZIPOutputStream out = new LevelGZIPOutputStream(bytes, level);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Copy a file to a stream through a large buffer.
+     *
+     * @param f The file to copy.
+     * @param out The stream to write to.
+     * @throws IOException If reading or writing fails.
+     */
+    private static void copy(File f, OutputStream out) throws IOException {
+        InputStream in = new FileInputStream(f);
+        try {
+            copy(in, out);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copy a stream to another stream through a large buffer.
+     *
+     * @param in The stream to read from. It is not closed.
+     * @param out The stream to write to. It is not closed.
+     * @throws IOException If reading or writing fails.
+     */
+    private static void copy(InputStream in, OutputStream out) throws IOException {
+        byte[] buffer = new byte[GZIP_BUFFER_SIZE];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+    }
+
+    /**
+     * Wait for the result of a task, turning any failure into an IOFailure.
+     *
+     * @param result The result of the task.
+     * @param errMsg The message of the IOFailure thrown, if the task failed with anything but an IOFailure.
+     * @return The result.
+     * @throws IOFailure If the task failed or the thread was interrupted.
+     */
+    private static <T> T getResult(Future<T> result, String errMsg) {
+        try {
+            return result.get();
+        } catch (InterruptedException e) {
+            throw new IOFailure("Interrupted: " + errMsg, e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOFailure) {
+                throw (IOFailure) e.getCause();
+            }
+            throw new IOFailure(errMsg, e.getCause());
+        }
+    }
+
+    /**
+     * @return The number of threads to gzip and gunzip with, as given by {@link CommonSettings#ZIP_THREADS}.
+     */
+    private static int getThreadCount() {
+        int threads = Settings.getInt(CommonSettings.ZIP_THREADS);
+        return (threads > 0) ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
     /**
      * Gunzip all .gz files in a given directory into another. Files in fromDir not ending in .gz or not real files will
-     * be skipped with a log entry.
+     * be skipped with a log entry. The files are gunzipped in parallel.
      *
      * @param fromDir The directory containing .gz files
      * @param toDir The directory to place the unzipped files in. This directory must not exist beforehand.
@@ -220,21 +416,40 @@ public final class ZipUtils {
         ArgumentNotValid.checkNotNull(toDir, "File toDir");
         ArgumentNotValid.checkTrue(fromDir.isDirectory(), "source directory '" + fromDir + "' must exist");
         ArgumentNotValid.checkTrue(!toDir.exists(), "destination directory '" + toDir + "' must not exist");
-        File tempDir = FileUtils.createUniqueTempDir(toDir.getAbsoluteFile().getParentFile(), toDir.getName());
+        final File tempDir = FileUtils.createUniqueTempDir(toDir.getAbsoluteFile().getParentFile(), toDir.getName());
+        int threads = getThreadCount();
+        ExecutorService executor = (threads > 1) ? Executors.newFixedThreadPool(threads) : null;
         try {
             File[] gzippedFiles = fromDir.listFiles();
-            for (File f : gzippedFiles) {
+            List<Future<Void>> results = new ArrayList<Future<Void>>();
+            for (final File f : gzippedFiles) {
                 if (f.isFile() && f.getName().endsWith(GZIP_SUFFIX)) {
-                    gunzipInto(f, tempDir);
+                    if (executor == null) {
+                        gunzipInto(f, tempDir);
+                    } else {
+                        results.add(executor.submit(new Callable<Void>() {
+                            @Override
+                            public Void call() {
+                                gunzipInto(f, tempDir);
+                                return null;
+                            }
+                        }));
+                    }
                 } else {
                     log.trace("Non-gzip file '{}' found in gzip dir", f);
                 }
             }
+            for (Future<Void> result : results) {
+                getResult(result, "Error while gunzipping the files of '" + fromDir + "'");
+            }
             if (!tempDir.renameTo(toDir)) {
                 throw new IOFailure("Error renaming temporary directory '" + tempDir + "' to target directory '"
                         + toDir);
             }
         } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
             FileUtils.removeRecursively(tempDir);
         }
     }
@@ -255,7 +470,7 @@ public final class ZipUtils {
 
     /**
      * Gunzip a single gzipped file into the given file. Unlike with the gzip() command-line tool, the original file is
-     * not deleted.
+     * not deleted. Files of several concatenated gzip members are supported.
      *
      * @param fromFile A gzipped file to unzip.
      * @param toFile The file that the contents of fromFile should be gunzipped into. This file must be in an existing
@@ -268,11 +483,35 @@ public final class ZipUtils {
         ArgumentNotValid.checkTrue(toFile.getAbsoluteFile().getParentFile().canWrite(),
                 "toFile must be in a writeable dir");
         try {
-            GZIPInputStream in = new LargeFileGZIPInputStream(new FileInputStream(fromFile));
-            FileUtils.writeStreamToFile(in, toFile);
+            GZIPInputStream in = new LargeFileGZIPInputStream(new FileInputStream(fromFile), GZIP_BUFFER_SIZE);
+            try {
+                OutputStream out = new FileOutputStream(toFile);
+                try {
+                    copy(in, out);
+                } finally {
+                    out.close();
+                }
+            } finally {
+                in.close();
+            }
         } catch (IOException e) {
             throw new IOFailure("Error ungzipping '" + fromFile + "'", e);
         }
     }
 
+    /**
+     * A GZIPOutputStream with a given compression level and a large buffer.
+     */
+    private static class LevelGZIPOutputStream extends GZIPOutputStream {
+        /**
+         * @param out The stream to write the gzip member to.
+         * @param level The compression level.
+         * @throws IOException If writing the gzip header fails.
+         */
+        LevelGZIPOutputStream(OutputStream out, int level) throws IOException {
+            super(out, GZIP_BUFFER_SIZE);
+            def.setLevel(level);
+        }
+    }
+
 }
@@ -0,0 +1,233 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * A small in-memory index of a sorted CDX file, holding the first line and offset of each block of the file. A prefix
+ * lookup searches the index in memory and then reads only the block where the matching lines start, instead of
+ * binary searching the file on disk line by line as {@link BinSearch} does.
+ * <p>
+ * The file must be sorted in byte order, as done by {@link dk.netarkivet.common.utils.FileUtils#sortCDX(File, File)},
+ * and must not change after the index is built. Lines are read as ISO-8859-1, like {@link BinSearch} reads them. The
+ * index is never modified after construction, so lookups are safe from any number of threads.
+ */
+public class CDXBlockIndex {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(CDXBlockIndex.class);
+
+    /** The default number of bytes between indexed lines. */
+    public static final int DEFAULT_BLOCK_SIZE = 16 * 1024;
+
+    /** The size of the read buffer. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The indexed file. */
+    private final File file;
+    /** The first line of each block, in file order. */
+    private final String[] firstLines;
+    /** The offset of the first line of each block. */
+    private final long[] offsets;
+
+    /**
+     * Build a block index of the given sorted CDX file with blocks of {@link #DEFAULT_BLOCK_SIZE} bytes.
+     *
+     * @param sortedFile A CDX file sorted in byte order
+     * @throws ArgumentNotValid If the file is null
+     * @throws IOFailure If the file cannot be read
+     */
+    public CDXBlockIndex(File sortedFile) {
+        this(sortedFile, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Build a block index of the given sorted CDX file.
+     *
+     * @param sortedFile A CDX file sorted in byte order
+     * @param blockSize The minimum number of bytes between indexed lines
+     * @throws ArgumentNotValid If the file is null or the block size is not positive
+     * @throws IOFailure If the file cannot be read
+     */
+    public CDXBlockIndex(File sortedFile, int blockSize) {
+        ArgumentNotValid.checkNotNull(sortedFile, "File sortedFile");
+        ArgumentNotValid.checkPositive(blockSize, "int blockSize");
+        this.file = sortedFile;
+        List<String> lines = new ArrayList<String>();
+        List<Long> lineOffsets = new ArrayList<Long>();
+        try {
+            InputStream in = new BufferedInputStream(new FileInputStream(sortedFile), BUFFER_SIZE);
+            try {
+                long offset = 0;
+                long nextBlock = 0;
+                StringBuilder line = new StringBuilder();
+                int length;
+                while ((length = readLine(in, offset >= nextBlock ? line : null)) >= 0) {
+                    if (offset >= nextBlock) {
+                        lines.add(line.toString());
+                        lineOffsets.add(offset);
+                        line.setLength(0);
+                        nextBlock = offset + blockSize;
+                    }
+                    offset += length;
+                }
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            String message = "IOException indexing CDX file '" + sortedFile + "'";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+        firstLines = lines.toArray(new String[lines.size()]);
+        offsets = new long[lineOffsets.size()];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = lineOffsets.get(i);
+        }
+        log.debug("Indexed {} blocks of CDX file '{}'", offsets.length, sortedFile);
+    }
+
+    /**
+     * Read one line from the stream.
+     *
+     * @param in The stream to read from
+     * @param line If not null, the line is appended to this, without the line terminator
+     * @return the number of bytes read including the line terminator, or -1 at the end of the stream
+     * @throws IOException If reading fails
+     */
+    private static int readLine(InputStream in, StringBuilder line) throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            length++;
+            if (b == '\n') {
+                break;
+            }
+            if (line != null) {
+                line.append((char) b);
+            }
+        }
+        if (length == 0) {
+            return -1;
+        }
+        if (line != null && line.length() > 0 && line.charAt(line.length() - 1) == '\r') {
+            line.setLength(line.length() - 1);
+        }
+        return length;
+    }
+
+    /**
+     * @return the number of blocks in the index
+     */
+    public int getBlockCount() {
+        return offsets.length;
+    }
+
+    /**
+     * Find the offset to start reading from when looking for lines with the given prefix: the start of the last block
+     * whose first line sorts before the prefix. Matching lines cannot start earlier than that.
+     *
+     * @param prefix The line prefix to search for
+     * @return the offset of the block to read
+     */
+    long findBlockOffset(String prefix) {
+        int low = 0;
+        int high = firstLines.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (compare(firstLines[mid], prefix) < 0) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found < 0 ? 0 : offsets[found];
+    }
+
+    /**
+     * Compare the start of a line with a prefix, like {@link BinSearch} does.
+     *
+     * @param line A line
+     * @param prefix The prefix to compare with
+     * @return a result equivalent to String.compareTo, but only for a prefix
+     */
+    private static int compare(String line, String prefix) {
+        return line.substring(0, Math.min(prefix.length(), line.length())).compareTo(prefix);
+    }
+
+    /**
+     * Return the lines in the file that start with the given prefix, in order. Only the file from the start of the
+     * block where the matching lines start is read, up to the first line after them. The lines are all read before
+     * returning, so the prefix should match a limited number of lines, e.g. the captures of one URI.
+     *
+     * @param prefix The line prefix to search for
+     * @return The lines matching the prefix, or an empty list if none match
+     * @throws ArgumentNotValid If the prefix is null
+     * @throws IOFailure If reading the file fails
+     */
+    public List<String> getLines(String prefix) {
+        ArgumentNotValid.checkNotNull(prefix, "String prefix");
+        List<String> result = new ArrayList<String>();
+        try {
+            FileInputStream fileIn = new FileInputStream(file);
+            try {
+                fileIn.getChannel().position(findBlockOffset(prefix));
+                InputStream in = new BufferedInputStream(fileIn, BUFFER_SIZE);
+                StringBuilder line = new StringBuilder();
+                while (readLine(in, line) >= 0) {
+                    String s = line.toString();
+                    int cmp = compare(s, prefix);
+                    if (cmp == 0) {
+                        result.add(s);
+                    } else if (cmp > 0) {
+                        break;
+                    }
+                    line.setLength(0);
+                }
+            } finally {
+                fileIn.close();
+            }
+        } catch (IOException e) {
+            String message = "IOException reading file '" + file + "'";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+        return result;
+    }
+
+}
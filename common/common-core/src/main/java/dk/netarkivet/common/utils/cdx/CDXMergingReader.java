@@ -0,0 +1,208 @@
+/*
+ * #%L
+ * Netarchivesuite - common
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+
+/**
+ * Reads the lines of a number of sorted CDX files as one sorted sequence, by a k-way merge of the files.
+ * <p>
+ * The files must each be sorted in byte order, as done by {@link dk.netarkivet.common.utils.FileUtils#sortCDX(File,
+ * File)}. Lines are read as ISO-8859-1, so they are compared in byte order and written back unchanged whatever the
+ * encoding of the files. Duplicate lines are kept. Only one line per file is held in memory at a time.
+ */
+public class CDXMergingReader implements Iterator<String>, Closeable {
+
+    /** The logger. */
+    private static final Logger log = LoggerFactory.getLogger(CDXMergingReader.class);
+
+    /** Maps each byte to one char, so comparing lines as Strings compares them in byte order. */
+    static final Charset CHARSET = Charset.forName("ISO-8859-1");
+
+    /** The size of the read buffer of each file. */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** The files with lines left to read, ordered by their next line. */
+    private final PriorityQueue<Segment> segments = new PriorityQueue<Segment>();
+
+    /** The readers of all files, for closing. */
+    private final List<BufferedReader> readers = new ArrayList<BufferedReader>();
+
+    /**
+     * The next line of one of the merged files.
+     */
+    private static class Segment implements Comparable<Segment> {
+        /** The reader of the file. */
+        private final BufferedReader reader;
+        /** The order of the file among the merged files, so equal lines are returned in file order. */
+        private final int index;
+        /** The next line of the file. */
+        private String line;
+
+        Segment(BufferedReader reader, int index, String line) {
+            this.reader = reader;
+            this.index = index;
+            this.line = line;
+        }
+
+        @Override
+        public int compareTo(Segment other) {
+            int cmp = line.compareTo(other.line);
+            return cmp != 0 ? cmp : Integer.compare(index, other.index);
+        }
+    }
+
+    /**
+     * Open the given sorted CDX files for merging.
+     *
+     * @param sortedFiles The CDX files to merge, each sorted in byte order
+     * @throws ArgumentNotValid If sortedFiles is null
+     * @throws IOFailure If a file cannot be read
+     */
+    public CDXMergingReader(Collection<File> sortedFiles) {
+        ArgumentNotValid.checkNotNull(sortedFiles, "Collection<File> sortedFiles");
+        try {
+            for (File file : sortedFiles) {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), CHARSET),
+                        BUFFER_SIZE);
+                readers.add(reader);
+                String line = reader.readLine();
+                if (line != null) {
+                    segments.add(new Segment(reader, readers.size(), line));
+                }
+            }
+        } catch (IOException e) {
+            close();
+            String message = "Could not open the CDX files " + sortedFiles + " for merging";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        return !segments.isEmpty();
+    }
+
+    /**
+     * @return the smallest line not yet returned
+     * @throws NoSuchElementException If all lines have been returned
+     * @throws IOFailure If reading one of the files fails
+     */
+    @Override
+    public String next() {
+        Segment segment = segments.poll();
+        if (segment == null) {
+            throw new NoSuchElementException();
+        }
+        String line = segment.line;
+        try {
+            segment.line = segment.reader.readLine();
+        } catch (IOException e) {
+            String message = "Error reading CDX file while merging";
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        }
+        if (segment.line != null) {
+            segments.add(segment);
+        }
+        return line;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Close all the merged files.
+     */
+    @Override
+    public void close() {
+        for (BufferedReader reader : readers) {
+            try {
+                reader.close();
+            } catch (IOException e) {
+                log.debug("Error closing CDX file after merging", e);
+            }
+        }
+        readers.clear();
+        segments.clear();
+    }
+
+    /**
+     * Merge a number of sorted CDX files into one sorted CDX file. Unlike concatenating the files and sorting the
+     * result, this reads each file once and needs no temporary files.
+     *
+     * @param sortedFiles The CDX files to merge, each sorted in byte order
+     * @param resultFile The file to write the merged lines to
+     * @throws ArgumentNotValid If an argument is null
+     * @throws IOFailure If reading or writing the files fails
+     */
+    public static void merge(Collection<File> sortedFiles, File resultFile) {
+        ArgumentNotValid.checkNotNull(sortedFiles, "Collection<File> sortedFiles");
+        ArgumentNotValid.checkNotNull(resultFile, "File resultFile");
+        CDXMergingReader reader = new CDXMergingReader(sortedFiles);
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(resultFile), CHARSET),
+                    BUFFER_SIZE);
+            try {
+                while (reader.hasNext()) {
+                    out.write(reader.next());
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            String message = "Could not merge " + sortedFiles.size() + " CDX files into " + resultFile;
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            reader.close();
+        }
+    }
+
+}
@@ -49,6 +49,9 @@ public class CDXReader {
     /** The CDX files that we want to iterate over. */
     private List<File> files = new ArrayList<File>();
 
+    /** The block indexes of the CDX files, built at the first lookup in each file. */
+    private Map<File, CDXBlockIndex> blockIndexes = new HashMap<File, CDXBlockIndex>();
+
     /** Any filters we want to apply. */
     private Map<String, CDXRecordFilter> cdxrecordfilters = new HashMap<String, CDXRecordFilter>();
 
@@ -90,6 +93,7 @@ public class CDXReader {
      */
     public void clearCDXFiles() {
         files.clear();
+        blockIndexes.clear();
     }
 
     /**
@@ -147,6 +151,21 @@ public class CDXReader {
         cdxrecordfilters.remove(filtername);
     }
 
+    /**
+     * Get the block index of a CDX file, building it if this is the first lookup in the file.
+     *
+     * @param cdxFile One of the CDX files of this reader
+     * @return the block index of the file
+     */
+    private synchronized CDXBlockIndex getBlockIndex(File cdxFile) {
+        CDXBlockIndex blockIndex = blockIndexes.get(cdxFile);
+        if (blockIndex == null) {
+            blockIndex = new CDXBlockIndex(cdxFile);
+            blockIndexes.put(cdxFile, blockIndex);
+        }
+        return blockIndex;
+    }
+
     /**
      * Look up an entry in CDX files. Notice that only full match search is allowed, not prefix search.
      *
@@ -158,7 +177,7 @@ public class CDXReader {
             String firstBrokenLine = null;
             long numBrokenLines = 0;
             try {
-                CDXLINES: for (String s : BinSearch.getLinesInFile(f, uri)) {
+                CDXLINES: for (String s : getBlockIndex(f).getLines(uri)) {
                     String[] fieldParts = s.split(SEPARATOR_REGEX);
                     CDXRecord cdxrec;
                     try {
@@ -25,7 +25,10 @@ package dk.netarkivet.common.utils.cdx;
 
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -106,19 +109,10 @@ public class CDXUtils {
                     archiveFileDirectory.getAbsolutePath());
         }
         for (File arcfile : filesToProcess) {
-            File cdxfile = new File(cdxFileDirectory, arcfile.getName() + FileUtils.CDX_EXTENSION);
             try {
-                OutputStream cdxstream = null;
-                try {
-                    cdxstream = new FileOutputStream(cdxfile);
-                    writeCDXInfo(arcfile, cdxstream);
-                } finally {
-                    if (cdxstream != null) {
-                        cdxstream.close();
-                    }
-                }
+                generateCDX(arcfile, cdxFileDirectory);
             } catch (Exception e) {
-                exceptions.put(cdxfile, e);
+                exceptions.put(new File(cdxFileDirectory, arcfile.getName() + FileUtils.CDX_EXTENSION), e);
             }
         }
         // Log any errors
@@ -135,4 +129,44 @@ public class CDXUtils {
         }
     }
 
+    /**
+     * Creates one CDX file for a single ARC/WARC file. The CDX file is named as the ARC/WARC file extended with
+     * ".cdx". Note, any exceptions during index generation are logged at level FINE but otherwise ignored.
+     *
+     * @param archiveFile An ARC/WARC file to generate index for
+     * @param cdxFileDirectory A directory to generate the CDX file in
+     * @return the generated CDX file
+     * @throws IOException if the CDX file cannot be written
+     */
+    public static File generateCDX(File archiveFile, File cdxFileDirectory) throws IOException {
+        return generateCDX(archiveFile, cdxFileDirectory, (MessageDigest) null);
+    }
+
+    /**
+     * Creates one CDX file for a single ARC/WARC file, and updates the given digest with the bytes written to it. This
+     * lets the caller know the digest of the CDX file without reading it again.
+     *
+     * @param archiveFile An ARC/WARC file to generate index for
+     * @param cdxFileDirectory A directory to generate the CDX file in
+     * @param digest A digest to update with the content of the CDX file, or null
+     * @return the generated CDX file
+     * @throws IOException if the CDX file cannot be written
+     */
+    public static File generateCDX(File archiveFile, File cdxFileDirectory, MessageDigest digest) throws IOException {
+        ArgumentNotValid.checkNotNull(archiveFile, "File archiveFile");
+        ArgumentNotValid.checkNotNull(cdxFileDirectory, "File cdxFileDirectory");
+        File cdxfile = new File(cdxFileDirectory, archiveFile.getName() + FileUtils.CDX_EXTENSION);
+        OutputStream cdxstream = new FileOutputStream(cdxfile);
+        if (digest != null) {
+            digest.reset();
+            cdxstream = new DigestOutputStream(cdxstream, digest);
+        }
+        try {
+            writeCDXInfo(archiveFile, cdxstream);
+        } finally {
+            cdxstream.close();
+        }
+        return cdxfile;
+    }
+
 }
@@ -0,0 +1,661 @@
+/* CompactDigestIndex
+ *
+ * This file is part of the DeDuplicator (Heritrix add-on module).
+ *
+ * DeDuplicator is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * DeDuplicator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with DeDuplicator; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package is.hi.bok.deduplicator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A compact, read-only deduplication index, which is an alternative to the Lucene index written by
+ * {@link DigestIndexer} for lookups by URL or by content digest.
+ * <p>
+ * The index is one file that is memory-mapped when opened, so opening it costs nothing regardless of its size. It
+ * consists of:
+ * <ul>
+ * <li>A fixed size header.</li>
+ * <li>A table of fixed-width entries (64-bit hash of the URL, offset of the record in the string pool) sorted by
+ * hash.</li>
+ * <li>A table of the same form for the content digests.</li>
+ * <li>A string pool with one record per indexed document: URL, digest, timestamp and origin.</li>
+ * </ul>
+ * A lookup is a binary search in one of the tables followed by reading the record(s) with the same hash, so a lookup
+ * touches the table pages near the key and one page of the string pool. Hash collisions are resolved by comparing
+ * the full strings of the records.
+ * <p>
+ * Normalized URLs are not part of the format, so lookups of equivalent URLs are not supported.
+ */
+public class CompactDigestIndex implements Closeable {
+
+    /** The name of the compact index file, when it is stored together with a Lucene index. */
+    public static final String FILENAME = "dedup-compact.idx";
+
+    /** Magic number identifying the file format ("NASDEDUP"). */
+    static final long MAGIC = 0x4E41534445445550L;
+    /** The version of the file format. */
+    static final int VERSION = 1;
+    /** The size of the header in bytes. */
+    static final int HEADER_SIZE = 64;
+    /** The size of one table entry in bytes. */
+    static final int ENTRY_SIZE = 16;
+    /** The size of each memory-mapped region. A multiple of ENTRY_SIZE, so table entries never cross regions. */
+    static final long REGION_SIZE = 1L << 30;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The stored fields of the Lucene index, which are copied to the compact index. */
+    private static final Set<String> FIELDS_TO_COPY = new HashSet<String>(Arrays.asList(DigestIndexer.FIELD_URL,
+            DigestIndexer.FIELD_DIGEST, DigestIndexer.FIELD_TIMESTAMP, DigestIndexer.FIELD_ORIGIN));
+
+    /** The file backing this index. */
+    private final RandomAccessFile raf;
+    /** The memory-mapped regions of the file. */
+    private final MappedByteBuffer[] regions;
+    /** The number of records in the index. */
+    private final long size;
+    /** The position of the URL table. */
+    private final long urlTableOffset;
+    /** The position of the digest table. */
+    private final long digestTableOffset;
+    /** The position of the string pool. */
+    private final long poolOffset;
+
+    /**
+     * One indexed document: the URL, content digest, timestamp and origin of a previously harvested object.
+     */
+    public static final class Record {
+        private final String url;
+        private final String digest;
+        private final String timestamp;
+        private final String origin;
+
+        Record(String url, String digest, String timestamp, String origin) {
+            this.url = url;
+            this.digest = digest;
+            this.timestamp = timestamp;
+            this.origin = origin;
+        }
+
+        /** @return the URL */
+        public String getURL() {
+            return url;
+        }
+
+        /** @return the content digest */
+        public String getDigest() {
+            return digest;
+        }
+
+        /** @return the timestamp (yyyyMMddHHmmssSSS), or null if not indexed */
+        public String getTimestamp() {
+            return timestamp;
+        }
+
+        /** @return the origin, or null if not indexed */
+        public String getOrigin() {
+            return origin;
+        }
+    }
+
+    /**
+     * Open a compact index file and map it into memory.
+     *
+     * @param file The index file
+     * @throws IOException If the file cannot be read or is not a compact deduplication index
+     */
+    public CompactDigestIndex(File file) throws IOException {
+        raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            long length = channel.size();
+            int regionCount = (int) ((length + REGION_SIZE - 1) / REGION_SIZE);
+            regions = new MappedByteBuffer[Math.max(1, regionCount)];
+            for (int i = 0; i < regionCount; i++) {
+                long start = i * REGION_SIZE;
+                regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(REGION_SIZE, length - start));
+            }
+            if (length < HEADER_SIZE || getLong(0) != MAGIC) {
+                throw new IOException("The file '" + file + "' is not a compact deduplication index");
+            }
+            int version = getInt(8);
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of compact deduplication index '" + file
+                        + "'");
+            }
+            size = getLong(16);
+            urlTableOffset = getLong(24);
+            digestTableOffset = getLong(32);
+            poolOffset = getLong(40);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the number of records in the index
+     */
+    public long size() {
+        return size;
+    }
+
+    /**
+     * Find all records with the given URL.
+     *
+     * @param url A URL
+     * @return The records with exactly this URL, never null
+     */
+    public List<Record> lookupByURL(String url) {
+        return lookup(urlTableOffset, url, true);
+    }
+
+    /**
+     * Find all records with the given content digest.
+     *
+     * @param digest A content digest
+     * @return The records with exactly this digest, never null
+     */
+    public List<Record> lookupByDigest(String digest) {
+        return lookup(digestTableOffset, digest, false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        raf.close();
+    }
+
+    private List<Record> lookup(long tableOffset, String key, boolean byUrl) {
+        if (key == null || size == 0) {
+            return Collections.emptyList();
+        }
+        long hash = hash(key);
+        // Binary search for the first entry with the hash
+        long low = 0;
+        long high = size;
+        while (low < high) {
+            long mid = (low + high) >>> 1;
+            if (getLong(tableOffset + mid * ENTRY_SIZE) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        List<Record> result = null;
+        for (long i = low; i < size && getLong(tableOffset + i * ENTRY_SIZE) == hash; i++) {
+            Record record = readRecord(poolOffset + getLong(tableOffset + i * ENTRY_SIZE + 8));
+            if (key.equals(byUrl ? record.url : record.digest)) {
+                if (result == null) {
+                    result = new ArrayList<Record>(1);
+                }
+                result.add(record);
+            }
+        }
+        if (result == null) {
+            return Collections.emptyList();
+        }
+        return result;
+    }
+
+    private Record readRecord(long position) {
+        long[] pos = new long[] {position};
+        String url = readString(pos);
+        String digest = readString(pos);
+        String timestamp = readString(pos);
+        String origin = readString(pos);
+        return new Record(url, digest, timestamp, origin);
+    }
+
+    /** Read a length prefixed UTF-8 string, a length of -1 denotes null. Advances pos[0] past the string. */
+    private String readString(long[] pos) {
+        int length = getInt(pos[0]);
+        pos[0] += 4;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        int copied = 0;
+        while (copied < length) {
+            long p = pos[0] + copied;
+            ByteBuffer region = regions[(int) (p / REGION_SIZE)].duplicate();
+            region.position((int) (p % REGION_SIZE));
+            int n = Math.min(length - copied, region.remaining());
+            region.get(bytes, copied, n);
+            copied += n;
+        }
+        pos[0] += length;
+        return new String(bytes, UTF8);
+    }
+
+    private long getLong(long position) {
+        int offset = (int) (position % REGION_SIZE);
+        MappedByteBuffer region = regions[(int) (position / REGION_SIZE)];
+        if (offset + 8 <= region.limit()) {
+            return region.getLong(offset);
+        }
+        return ((long) getInt(position) << 32) | (getInt(position + 4) & 0xFFFFFFFFL);
+    }
+
+    private int getInt(long position) {
+        int offset = (int) (position % REGION_SIZE);
+        MappedByteBuffer region = regions[(int) (position / REGION_SIZE)];
+        if (offset + 4 <= region.limit()) {
+            return region.getInt(offset);
+        }
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            long p = position + i;
+            value = (value << 8) | (regions[(int) (p / REGION_SIZE)].get((int) (p % REGION_SIZE)) & 0xFF);
+        }
+        return value;
+    }
+
+    /**
+     * The 64-bit hash used for the keys of the index: FNV-1a of the UTF-8 bytes followed by a final avalanche mix.
+     *
+     * @param key A URL or digest
+     * @return the hash of the key
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(UTF8)) {
+            h ^= (b & 0xFF);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Write a compact index with the contents of a Lucene deduplication index.
+     *
+     * @param reader An open reader on a Lucene index written by the {@link DigestIndexer}
+     * @param file The compact index file to write
+     * @return The number of records written
+     * @throws IOException If reading the Lucene index or writing the file fails
+     */
+    public static long writeFromLuceneIndex(IndexReader reader, File file) throws IOException {
+        Writer writer = new Writer(file);
+        try {
+            Bits liveDocs = MultiFields.getLiveDocs(reader);
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) {
+                    continue;
+                }
+                Document doc = reader.document(i, FIELDS_TO_COPY);
+                writer.add(doc.get(DigestIndexer.FIELD_URL), doc.get(DigestIndexer.FIELD_DIGEST),
+                        doc.get(DigestIndexer.FIELD_TIMESTAMP), doc.get(DigestIndexer.FIELD_ORIGIN));
+            }
+        } finally {
+            writer.close();
+        }
+        return writer.count;
+    }
+
+    /**
+     * Writes a compact index file. Records are added one at a time and the file is completed on {@link #close()}.
+     * <p>
+     * The records are spooled to a temporary file. The hashes and pool offsets are collected in primitive arrays of a
+     * bounded number of records; when they are full, they are sorted and written to temporary run files, which are
+     * merged into the tables of the index on close. The memory used is thus independent of the number of records. The
+     * temporary files are kept in a work directory under {@link FileUtils#getTempDir()}, which is removed on close, so
+     * the directory of the index only ever holds the finished index file.
+     */
+    public static class Writer implements Closeable {
+        /** The default number of records sorted in memory at a time (32 bytes each). */
+        static final int DEFAULT_CHUNK_RECORDS = 1 << 21;
+
+        private final File file;
+        /** The directory holding the temporary files. */
+        final File workDir;
+        private final File poolFile;
+        private final DataOutputStream pool;
+        private final int chunkRecords;
+        private long poolLength = 0;
+        private long count = 0;
+        /** The number of records in the arrays not yet written to a run. */
+        private int chunkCount = 0;
+        private long[] urlEntries;
+        private long[] digestEntries;
+        /** The sorted runs of URL table entries written so far. */
+        private final List<File> urlRuns = new ArrayList<File>();
+        /** The sorted runs of digest table entries written so far. */
+        private final List<File> digestRuns = new ArrayList<File>();
+        private boolean closed = false;
+
+        /**
+         * Create a writer.
+         *
+         * @param file The compact index file to write
+         * @throws IOException If the temporary string pool cannot be created
+         */
+        public Writer(File file) throws IOException {
+            this(file, DEFAULT_CHUNK_RECORDS);
+        }
+
+        /**
+         * Create a writer sorting the given number of records in memory at a time.
+         *
+         * @param file The compact index file to write
+         * @param chunkRecords The maximum number of records kept in memory
+         * @throws IOException If the temporary string pool cannot be created
+         */
+        Writer(File file, int chunkRecords) throws IOException {
+            if (chunkRecords <= 0 || chunkRecords > Integer.MAX_VALUE / 2) {
+                throw new IllegalArgumentException("Invalid number of records per chunk: " + chunkRecords);
+            }
+            this.file = file;
+            this.chunkRecords = chunkRecords;
+            this.urlEntries = new long[2 * Math.min(chunkRecords, 1024)];
+            this.digestEntries = new long[urlEntries.length];
+            File tempDir = FileUtils.getTempDir();
+            FileUtils.createDir(tempDir);
+            this.workDir = FileUtils.createUniqueTempDir(tempDir, "compactindex");
+            this.poolFile = new File(workDir, "pool");
+            try {
+                this.pool = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(poolFile), 1 << 16));
+            } catch (IOException e) {
+                FileUtils.removeRecursively(workDir);
+                throw e;
+            }
+        }
+
+        /**
+         * Add one record to the index.
+         *
+         * @param url The URL, must not be null
+         * @param digest The content digest, must not be null
+         * @param timestamp The timestamp, may be null
+         * @param origin The origin, may be null
+         * @throws IOException If writing to the temporary files fails
+         */
+        public void add(String url, String digest, String timestamp, String origin) throws IOException {
+            if (url == null || digest == null) {
+                throw new IllegalArgumentException("Both URL and digest are required in a compact index");
+            }
+            if (chunkCount == chunkRecords) {
+                writeRuns();
+            }
+            if (2 * chunkCount + 2 > urlEntries.length) {
+                int length = (int) Math.min(2L * chunkRecords, 2L * urlEntries.length);
+                urlEntries = Arrays.copyOf(urlEntries, length);
+                digestEntries = Arrays.copyOf(digestEntries, length);
+            }
+            int i = 2 * chunkCount;
+            urlEntries[i] = hash(url);
+            urlEntries[i + 1] = poolLength;
+            digestEntries[i] = hash(digest);
+            digestEntries[i + 1] = poolLength;
+            writeString(url);
+            writeString(digest);
+            writeString(timestamp);
+            writeString(origin);
+            chunkCount++;
+            count++;
+        }
+
+        private void writeString(String s) throws IOException {
+            if (s == null) {
+                pool.writeInt(-1);
+                poolLength += 4;
+            } else {
+                byte[] bytes = s.getBytes(UTF8);
+                pool.writeInt(bytes.length);
+                pool.write(bytes);
+                poolLength += 4 + bytes.length;
+            }
+        }
+
+        /**
+         * Sort the entries in memory and write them to a new run file of each table.
+         */
+        private void writeRuns() throws IOException {
+            sortPairs(urlEntries, 0, chunkCount - 1);
+            sortPairs(digestEntries, 0, chunkCount - 1);
+            urlRuns.add(writeRun(urlEntries, "url", urlRuns.size()));
+            digestRuns.add(writeRun(digestEntries, "digest", digestRuns.size()));
+            chunkCount = 0;
+        }
+
+        private File writeRun(long[] entries, String table, int number) throws IOException {
+            File run = new File(workDir, table + "-run" + number);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run), 1 << 16));
+            try {
+                writeEntries(entries, out);
+            } finally {
+                out.close();
+            }
+            return run;
+        }
+
+        private void writeEntries(long[] entries, DataOutputStream out) throws IOException {
+            for (int i = 0; i < 2 * chunkCount; i++) {
+                out.writeLong(entries[i]);
+            }
+        }
+
+        /**
+         * Sort the tables and write the index file.
+         *
+         * @throws IOException If writing the file fails
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            pool.close();
+            try {
+                if (!urlRuns.isEmpty() && chunkCount > 0) {
+                    writeRuns();
+                } else {
+                    sortPairs(urlEntries, 0, chunkCount - 1);
+                    sortPairs(digestEntries, 0, chunkCount - 1);
+                }
+                long urlTableOffset = HEADER_SIZE;
+                long digestTableOffset = urlTableOffset + count * ENTRY_SIZE;
+                long poolOffset = digestTableOffset + count * ENTRY_SIZE;
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file),
+                        1 << 16));
+                try {
+                    out.writeLong(MAGIC);
+                    out.writeInt(VERSION);
+                    out.writeInt(0);
+                    out.writeLong(count);
+                    out.writeLong(urlTableOffset);
+                    out.writeLong(digestTableOffset);
+                    out.writeLong(poolOffset);
+                    out.writeLong(poolLength);
+                    out.write(new byte[HEADER_SIZE - 56]);
+                    if (urlRuns.isEmpty()) {
+                        writeEntries(urlEntries, out);
+                        writeEntries(digestEntries, out);
+                    } else {
+                        urlEntries = null;
+                        digestEntries = null;
+                        mergeRuns(urlRuns, out);
+                        mergeRuns(digestRuns, out);
+                    }
+                    InputStream in = new BufferedInputStream(new FileInputStream(poolFile));
+                    try {
+                        byte[] buffer = new byte[1 << 16];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    } finally {
+                        in.close();
+                    }
+                } finally {
+                    out.close();
+                }
+            } finally {
+                urlEntries = null;
+                digestEntries = null;
+                FileUtils.removeRecursively(workDir);
+            }
+        }
+
+        /**
+         * @return the number of records added
+         */
+        public long getCount() {
+            return count;
+        }
+    }
+
+    /**
+     * Merge sorted run files of (hash, offset) pairs into one sorted table.
+     *
+     * @param runs The run files, each sorted by hash
+     * @param out The stream to write the merged table to
+     * @throws IOException If reading the runs or writing the table fails
+     */
+    static void mergeRuns(List<File> runs, DataOutputStream out) throws IOException {
+        final long[] heads = new long[2 * runs.size()];
+        DataInputStream[] inputs = new DataInputStream[runs.size()];
+        PriorityQueue<Integer> queue = new PriorityQueue<Integer>(runs.size(), new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int cmp = Long.compare(heads[2 * a], heads[2 * b]);
+                return cmp != 0 ? cmp : Integer.compare(a, b);
+            }
+        });
+        try {
+            for (int r = 0; r < runs.size(); r++) {
+                inputs[r] = new DataInputStream(new BufferedInputStream(new FileInputStream(runs.get(r)), 1 << 16));
+                if (readPair(inputs[r], heads, r)) {
+                    queue.add(r);
+                }
+            }
+            while (!queue.isEmpty()) {
+                int r = queue.poll();
+                out.writeLong(heads[2 * r]);
+                out.writeLong(heads[2 * r + 1]);
+                if (readPair(inputs[r], heads, r)) {
+                    queue.add(r);
+                }
+            }
+        } finally {
+            for (DataInputStream in : inputs) {
+                if (in != null) {
+                    in.close();
+                }
+            }
+        }
+    }
+
+    /** Read the next pair of a run into heads, returning false at the end of the run. */
+    private static boolean readPair(DataInputStream in, long[] heads, int r) throws IOException {
+        try {
+            heads[2 * r] = in.readLong();
+        } catch (EOFException e) {
+            return false;
+        }
+        heads[2 * r + 1] = in.readLong();
+        return true;
+    }
+
+    /**
+     * Sort the (hash, offset) pairs stored consecutively in the array by hash, using quicksort on the pair indexes
+     * from..to (inclusive).
+     */
+    static void sortPairs(long[] pairs, int from, int to) {
+        while (to - from > 16) {
+            int mid = (from + to) >>> 1;
+            long pivot = median(pairs[2 * from], pairs[2 * mid], pairs[2 * to]);
+            int i = from;
+            int j = to;
+            while (i <= j) {
+                while (pairs[2 * i] < pivot) {
+                    i++;
+                }
+                while (pairs[2 * j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(pairs, i, j);
+                    i++;
+                    j--;
+                }
+            }
+            // Recurse into the smaller part to bound the stack depth
+            if (j - from < to - i) {
+                sortPairs(pairs, from, j);
+                from = i;
+            } else {
+                sortPairs(pairs, i, to);
+                to = j;
+            }
+        }
+        for (int i = from + 1; i <= to; i++) {
+            for (int j = i; j > from && pairs[2 * (j - 1)] > pairs[2 * j]; j--) {
+                swap(pairs, j - 1, j);
+            }
+        }
+    }
+
+    private static long median(long a, long b, long c) {
+        if (a < b) {
+            return b < c ? b : (a < c ? c : a);
+        }
+        return a < c ? a : (b < c ? c : b);
+    }
+
+    private static void swap(long[] pairs, int i, int j) {
+        long key = pairs[2 * i];
+        long value = pairs[2 * i + 1];
+        pairs[2 * i] = pairs[2 * j];
+        pairs[2 * i + 1] = pairs[2 * j + 1];
+        pairs[2 * j] = key;
+        pairs[2 * j + 1] = value;
+    }
+
+}
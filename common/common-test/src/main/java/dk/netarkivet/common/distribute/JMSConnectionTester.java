@@ -278,6 +278,28 @@ public class JMSConnectionTester {
         assertNotNull("Message should now have an id", msg.getID());
     }
 
+    /**
+     * Tests that the messages sent are counted per channel.
+     */
+    @Test
+    public void testSendStatistics() {
+        Settings.set(CommonSettings.JMS_BROKER_CLASS, "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
+        JMSConnection con = JMSConnectionFactory.getInstance();
+        con.initConnection();
+
+        for (int i = 0; i < 10; i++) {
+            con.send(new TestMessage(Channels.getTheRepos(), Channels.getTheBamon(), "testMSG"));
+        }
+        con.send(new TestMessage(Channels.getAllBa(), Channels.getTheBamon(), "testMSG"));
+
+        Map<String, JMSChannelStatistics> stats = con.getSendStatistics();
+        assertEquals("Should have counted the messages sent to the queue", 10,
+                stats.get(Channels.getTheRepos().getName()).getMessagesSent());
+        assertEquals("Should have counted the messages sent to the topic", 1,
+                stats.get(Channels.getAllBa().getName()).getMessagesSent());
+        assertEquals("Should have no failed sends", 0, stats.get(Channels.getTheRepos().getName()).getFailedSends());
+    }
+
     @Test
     public void testSendToTopic() throws JMSException, NoSuchFieldException, IllegalAccessException {
         Settings.set(CommonSettings.JMS_BROKER_CLASS, "dk.netarkivet.common.distribute.JMSConnectionMockupMQ");
@@ -29,7 +29,11 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import javax.jms.Message;
 import javax.jms.MessageListener;
@@ -334,6 +338,43 @@ public class SynchronizerTester {
         assertNull("Should have returned null, not " + sr.received, sr.received);
     }
 
+    /**
+     * Tests that many asynchronous requests can be outstanding at once, and that each future is completed with the
+     * reply to its own request.
+     */
+    @Test
+    public void testSendAsyncManyOutstandingRequests() throws Exception {
+        Synchronizer sync = new Synchronizer();
+        /**
+         * The sender is also the listener. Each message is the reply to itself.
+         */
+        con.setListener(toQ, sync);
+        List<NetarkivetMessage> sent = new ArrayList<NetarkivetMessage>();
+        List<CompletableFuture<NetarkivetMessage>> replies = new ArrayList<CompletableFuture<NetarkivetMessage>>();
+        for (int i = 0; i < 200; i++) {
+            NetarkivetMessage msg = new TestMessage(toQ, replyToQ);
+            sent.add(msg);
+            replies.add(sync.sendAsync(msg, 0));
+        }
+        for (int i = 0; i < sent.size(); i++) {
+            assertEquals("The reply should correspond to the request", sent.get(i),
+                    replies.get(i).get(WAIT_TIME, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * Tests that the future of an asynchronous request is completed with null when it times out.
+     */
+    @Test
+    public void testSendAsyncTimeout() throws Exception {
+        Synchronizer sync = new Synchronizer();
+        con.setListener(replyToQ, sync);
+        CompletableFuture<NetarkivetMessage> reply = sync.sendAsync(new TestMessage(toQ, replyToQ), SHORT_TIME);
+        assertNull("Should have completed with null on timeout", reply.get(WAIT_TIME, TimeUnit.SECONDS));
+        assertNull("Should return null on timeout", sync.sendAndWaitForOneReply(new TestMessage(toQ, replyToQ),
+                SHORT_TIME));
+    }
+
     /**
      * @param sr a Thread wrapper for the Synchronizer.
      */
@@ -28,12 +28,22 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
@@ -46,6 +56,8 @@ import dk.netarkivet.testutils.preconfigured.ReloadSettings;
  */
 @SuppressWarnings({"rawtypes"})
 public class SettingsTester {
+    private static final Logger log = LoggerFactory.getLogger(SettingsTester.class);
+
     ReloadSettings rs = new ReloadSettings(new File(TestInfo.SETTINGSFILENAME));
 
     @Before
@@ -192,6 +204,151 @@ public class SettingsTester {
         }
     }
 
+    /**
+     * Test that the typed getters see changed values and system properties, also after the value has been read once.
+     */
+    @Test
+    public void testTypedValuesFollowChanges() {
+        String key = "settings.for.test.purposes6";
+        Settings.set(key, "42");
+        assertEquals("Should return set value", 42, Settings.getInt(key));
+        assertEquals("Should return set value", 42L, Settings.getLong(key));
+        Settings.set(key, "43");
+        assertEquals("Should return changed value", 43, Settings.getInt(key));
+        assertEquals("Should return changed value", 43L, Settings.getLong(key));
+        System.setProperty(key, "44");
+        try {
+            assertEquals("System property should override", 44, Settings.getInt(key));
+            assertEquals("System property should override", "44", Settings.get(key));
+        } finally {
+            System.clearProperty(key);
+        }
+        assertEquals("Should return set value again", 43, Settings.getInt(key));
+    }
+
+    /**
+     * Test that listeners are notified on reload, and that unknown keys become known when set.
+     */
+    @Test
+    public void testReloadNotifiesListeners() {
+        String key = "settings.for.test.purposes7";
+        try {
+            Settings.get(key);
+            fail("Should throw UnknownID for invented key " + key);
+        } catch (UnknownID e) {
+            // expected
+        }
+        Settings.set(key, "value");
+        assertEquals("Should return value of new key", "value", Settings.get(key));
+
+        final AtomicInteger notifications = new AtomicInteger();
+        SettingsChangeListener listener = new SettingsChangeListener() {
+            public void settingsChanged() {
+                notifications.incrementAndGet();
+            }
+        };
+        Settings.addChangeListener(listener);
+        try {
+            Settings.reload();
+            assertEquals("Listener should be notified once", 1, notifications.get());
+        } finally {
+            Settings.removeChangeListener(listener);
+        }
+        Settings.reload();
+        assertEquals("Removed listener should not be notified", 1, notifications.get());
+    }
+
+    /**
+     * Reads settings from 64 threads at once, and checks that every thread reads the right values.
+     */
+    @Test
+    public void testConcurrentLookups() throws Exception {
+        final int threads = 64;
+        final int lookupsPerThread = 20000;
+        final String key = "settings.for.test.purposes8";
+        Settings.set(key, "6961464186");
+        final String expectedTimeout = Settings.get(CommonSettings.PROCESS_TIMEOUT);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < threads; t++) {
+            results.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    boolean ok = true;
+                    for (int i = 0; i < lookupsPerThread; i++) {
+                        ok &= Settings.getLong(key) == 6961464186L;
+                        ok &= expectedTimeout.equals(Settings.get(CommonSettings.PROCESS_TIMEOUT));
+                    }
+                    return ok;
+                }
+            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue("Should read the right values", result.get());
+        }
+        executor.shutdown();
+    }
+
+    /**
+     * Times settings lookups from 64 threads at once, through the snapshot and directly in the loaded settings xml
+     * files as before the snapshot, checking that both read the same value.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testConcurrentLookupThroughput() throws Exception {
+        final int threads = 64;
+        final int lookupsPerThread = 50000;
+        final String key = CommonSettings.PROCESS_TIMEOUT;
+        final String expected = Settings.get(key);
+        final Method lookup = Settings.class.getDeclaredMethod("lookup", String.class);
+        lookup.setAccessible(true);
+        assertEquals("The settings files should hold the value", expected, lookup.invoke(null, key));
+
+        long snapshotNanos = timeLookups(threads, lookupsPerThread, expected, new Callable<String>() {
+            public String call() {
+                return Settings.get(key);
+            }
+        });
+        long xmlNanos = timeLookups(threads, lookupsPerThread / 10, expected, new Callable<String>() {
+            public String call() throws Exception {
+                return (String) lookup.invoke(null, key);
+            }
+        });
+        log.info("Settings lookups/second with {} threads: snapshot {}, settings xml files {}", threads,
+                (long) threads * lookupsPerThread * 1000000000L / Math.max(1, snapshotNanos),
+                (long) threads * (lookupsPerThread / 10) * 1000000000L / Math.max(1, xmlNanos));
+    }
+
+    /**
+     * Run the given lookup from a number of threads at once, and check that every lookup returns the expected value.
+     *
+     * @return the number of nanoseconds the lookups took
+     */
+    private static long timeLookups(int threads, final int lookupsPerThread, final String expected,
+            final Callable<String> lookup) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+            long start = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                results.add(executor.submit(new Callable<Boolean>() {
+                    public Boolean call() throws Exception {
+                        boolean ok = true;
+                        for (int i = 0; i < lookupsPerThread; i++) {
+                            ok &= expected.equals(lookup.call());
+                        }
+                        return ok;
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue("Should read the right values", result.get());
+            }
+            return System.nanoTime() - start;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
     /**
      * Test that getBoolean returns true, when it can be parsed as some upper/lowercase combination of the string "true"
      */
@@ -27,44 +27,63 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Enumeration;
 import java.util.HashSet;
+import java.util.Random;
 import java.util.Set;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.CommonSettings;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
 import dk.netarkivet.testutils.ReflectUtils;
 import dk.netarkivet.testutils.StringAsserts;
 import dk.netarkivet.testutils.TestFileUtils;
+import dk.netarkivet.testutils.preconfigured.ReloadSettings;
 
 /**
  * Unit tests for the class ZipUtils.
  */
 // @SuppressWarnings("resource")
 public class ZipUtilsTester {
+    private static final Logger log = LoggerFactory.getLogger(ZipUtilsTester.class);
+
+    ReloadSettings rs = new ReloadSettings();
 
     @Before
     public void setUp() throws Exception {
+        rs.setUp();
         TestFileUtils.copyDirectoryNonCVS(TestInfo.FILEUTILS_DATADIR, TestInfo.TEMPDIR);
     }
 
     @After
     public void tearDown() throws Exception {
         FileUtils.removeRecursively(TestInfo.TEMPDIR);
+        rs.tearDown();
     }
 
     @Test
@@ -267,4 +286,130 @@ public class ZipUtilsTester {
         }).length);
     }
 
+    /**
+     * Tests that files gzipped in parallel, including files split into blocks, are gunzipped to the original contents
+     * by both GZIPInputStream and ZipUtils, and that files gzipped as one member are identical to the output of
+     * GZIPOutputStream.
+     */
+    @Test
+    public void testGzipFilesInParallel() throws Exception {
+        File inputDir = new File(TestInfo.TEMPDIR, "parallel");
+        FileUtils.createDir(inputDir);
+        Random random = new Random(42);
+        writeTestFile(new File(inputDir, "empty"), 0, random);
+        writeTestFile(new File(inputDir, "small"), 1000, random);
+        writeTestFile(new File(inputDir, "twoblocks"), 2 * 65536, random);
+        writeTestFile(new File(inputDir, "large1"), 3000001, random);
+        writeTestFile(new File(inputDir, "large2"), 1000000, random);
+        Settings.set(CommonSettings.ZIP_BLOCK_SIZE, "65536");
+
+        for (String threads : new String[] {"1", "4"}) {
+            Settings.set(CommonSettings.ZIP_THREADS, threads);
+            File gzipDir = new File(TestInfo.TEMPDIR, "gzipped" + threads);
+            File gunzipDir = new File(TestInfo.TEMPDIR, "gunzipped" + threads);
+            ZipUtils.gzipFiles(inputDir, gzipDir);
+            ZipUtils.gunzipFiles(gzipDir, gunzipDir);
+            for (File f : inputDir.listFiles()) {
+                byte[] original = readFile(f);
+                File gzipped = new File(gzipDir, f.getName() + ZipUtils.GZIP_SUFFIX);
+                assertTrue("GZIPInputStream should read the original contents of " + gzipped,
+                        Arrays.equals(original, readFile(new GZIPInputStream(new FileInputStream(gzipped)))));
+                assertTrue("Gunzipped " + f.getName() + " should be identical to the original",
+                        Arrays.equals(original, readFile(new File(gunzipDir, f.getName()))));
+                if (threads.equals("1") || original.length <= 2 * 65536) {
+                    assertTrue("A file gzipped as one member should be identical to the output of GZIPOutputStream",
+                            Arrays.equals(gzip(original), readFile(gzipped)));
+                }
+            }
+        }
+
+        Settings.set(CommonSettings.ZIP_COMPRESSION_LEVEL, "1");
+        File fastDir = new File(TestInfo.TEMPDIR, "gzippedFast");
+        ZipUtils.gzipFiles(inputDir, fastDir);
+        assertTrue("Compression level 1 should compress less than level 6",
+                new File(fastDir, "large1.gz").length() > new File(TestInfo.TEMPDIR, "gzipped1/large1.gz").length());
+        Settings.set(CommonSettings.ZIP_COMPRESSION_LEVEL, "0");
+        try {
+            ZipUtils.gzipFiles(inputDir, new File(TestInfo.TEMPDIR, "gzippedInvalid"));
+            fail("Should fail on invalid compression level");
+        } catch (ArgumentNotValid e) {
+            // expected
+        }
+    }
+
+    /**
+     * Times gzipping and gunzipping a directory with one thread and with a thread per processor, checking that the
+     * files come back unchanged.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testGzipThroughput() throws Exception {
+        File inputDir = new File(TestInfo.TEMPDIR, "throughput");
+        FileUtils.createDir(inputDir);
+        Random random = new Random(42);
+        long totalSize = 0;
+        for (int i = 0; i < 8; i++) {
+            writeTestFile(new File(inputDir, "index" + i), 1000000 + i * 1000000, random);
+            totalSize += 1000000 + i * 1000000;
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        for (int threads : new int[] {1, processors}) {
+            Settings.set(CommonSettings.ZIP_THREADS, Integer.toString(threads));
+            File gzipDir = new File(TestInfo.TEMPDIR, "throughputGzipped" + threads);
+            File gunzipDir = new File(TestInfo.TEMPDIR, "throughputGunzipped" + threads);
+            long start = System.nanoTime();
+            ZipUtils.gzipFiles(inputDir, gzipDir);
+            long gzipNanos = System.nanoTime() - start;
+            start = System.nanoTime();
+            ZipUtils.gunzipFiles(gzipDir, gunzipDir);
+            long gunzipNanos = System.nanoTime() - start;
+            for (File f : inputDir.listFiles()) {
+                assertTrue("Gunzipped " + f.getName() + " should be identical to the original",
+                        Arrays.equals(readFile(f), readFile(new File(gunzipDir, f.getName()))));
+            }
+            log.info("Gzipped {} bytes with {} threads at {} MB/s, gunzipped at {} MB/s", totalSize, threads,
+                    totalSize * 1000L / Math.max(1, gzipNanos), totalSize * 1000L / Math.max(1, gunzipNanos));
+        }
+    }
+
+    /** Write a file of partly random, partly repetitive bytes. */
+    private static void writeTestFile(File f, int size, Random random) throws IOException {
+        byte[] data = new byte[size];
+        for (int i = 0; i < size; i++) {
+            data[i] = (byte) ((i % 7000 < 3000) ? random.nextInt(256) : "abcdefghij".charAt(random.nextInt(10)));
+        }
+        OutputStream out = new FileOutputStream(f);
+        try {
+            out.write(data);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static byte[] readFile(File f) throws IOException {
+        return readFile(new FileInputStream(f));
+    }
+
+    private static byte[] readFile(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
 }
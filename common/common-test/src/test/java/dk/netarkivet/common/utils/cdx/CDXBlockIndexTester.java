@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * Netarchivesuite - common - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.common.utils.cdx;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.IteratorUtils;
+
+/**
+ * Unit tests for the CDXBlockIndex and CDXMergingReader classes.
+ */
+public class CDXBlockIndexTester {
+
+    private File workDir;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("cdxblockindex").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(workDir);
+    }
+
+    /**
+     * Test that lookups return the same lines as BinSearch, with blocks of many sizes.
+     */
+    @Test
+    public void testGetLinesSameAsBinSearch() {
+        String[] prefixes = {"http://fnord/", "http://xenophile.dk/", "dns:101", "http://player.", "http://server-dk.",
+                "http://server-dk.imrworldwide.com/a1.js", "filedesc:", "h", ""};
+        for (int blockSize : new int[] {1, 100, 1000, CDXBlockIndex.DEFAULT_BLOCK_SIZE}) {
+            CDXBlockIndex index = new CDXBlockIndex(TestInfo.CDX_FILE1, blockSize);
+            assertTrue(index.getBlockCount() > 0);
+            for (String prefix : prefixes) {
+                assertEquals("Lines for '" + prefix + "' with block size " + blockSize,
+                        IteratorUtils.toList(BinSearch.getLinesInFile(TestInfo.CDX_FILE1, prefix).iterator()),
+                        index.getLines(prefix));
+            }
+        }
+        assertEquals(4, new CDXBlockIndex(TestInfo.CDX_FILE1).getLines("http://player.").size());
+    }
+
+    /**
+     * Test that merging sorted files gives the same lines as sorting all the lines, duplicates included.
+     */
+    @Test
+    public void testMergeSortedFiles() throws IOException {
+        Random random = new Random(42);
+        List<String> allLines = new ArrayList<String>();
+        List<File> segments = new ArrayList<File>();
+        for (int s = 0; s < 5; s++) {
+            List<String> lines = new ArrayList<String>();
+            for (int i = 0; i < s * 100; i++) {
+                lines.add(cdxLine(random.nextInt(300), random.nextInt(3)));
+            }
+            Collections.sort(lines);
+            allLines.addAll(lines);
+            File segment = new File(workDir, "segment" + s + ".cdx");
+            FileUtils.writeCollectionToFile(segment, lines);
+            segments.add(segment);
+        }
+        Collections.sort(allLines);
+        File merged = new File(workDir, "merged.cdx");
+        CDXMergingReader.merge(segments, merged);
+        assertEquals(allLines, FileUtils.readListFromFile(merged));
+
+        CDXMergingReader reader = new CDXMergingReader(segments);
+        try {
+            assertEquals(allLines, IteratorUtils.toList(reader));
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Compare lookups in the block index with BinSearch on a large sorted file.
+     */
+    @Test
+    public void testLookupsOnLargeFile() {
+        final int urls = 200000;
+        List<String> lines = new ArrayList<String>(urls);
+        for (int i = 0; i < urls; i++) {
+            lines.add(cdxLine(i, 0));
+        }
+        Collections.sort(lines);
+        File cdxFile = new File(workDir, "large.cdx");
+        FileUtils.writeCollectionToFile(cdxFile, lines);
+
+        CDXBlockIndex index = new CDXBlockIndex(cdxFile);
+        assertTrue("A large file should have many blocks", index.getBlockCount() > 1);
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            int n = random.nextInt(urls);
+            String uri = url(n) + " ";
+            List<String> expected = IteratorUtils.toList(BinSearch.getLinesInFile(cdxFile, uri).iterator());
+            assertEquals(Collections.singletonList(cdxLine(n, 0)), expected);
+            assertEquals("Lines of " + uri, expected, index.getLines(uri));
+        }
+    }
+
+    private static String url(int i) {
+        return "http://www.example" + (i % 97) + ".dk/page" + i;
+    }
+
+    private static String cdxLine(int i, int capture) {
+        return url(i) + " 127.0.0.1 2017010112000" + capture + " text/html 1234 1-1-20170101-00000.warc " + i * 100
+                + " d41d8cd98f00b204e9800998ecf8427e";
+    }
+
+}
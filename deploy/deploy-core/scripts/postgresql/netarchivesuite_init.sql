@@ -106,6 +106,10 @@ INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'eav_attribute', 1);
 INSERT INTO schemaversions ( tablename, version )
     VALUES ( 'eav_type_attribute', 1);
+INSERT INTO schemaversions ( tablename, version )
+    VALUES ( 'id_sequences', 1);
+INSERT INTO schemaversions ( tablename, version )
+    VALUES ( 'harvest_status_indexes', 1);
 
 
 
@@ -274,6 +278,10 @@ CREATE TABLE harvestdefinitions (
 );
 
 CREATE INDEX harvestdefinitionssubmitdate on harvestdefinitions (submitted) TABLESPACE tsindex;
+CREATE INDEX harvestdefinitionsuppername on harvestdefinitions (UPPER(name) varchar_pattern_ops) TABLESPACE tsindex;
+-- With the pg_trgm extension installed, name filters with leading wildcards
+-- on the harvest status pages can use an index as well:
+-- CREATE INDEX harvestdefinitionsnametrgm on harvestdefinitions USING gin (UPPER(name) gin_trgm_ops) TABLESPACE tsindex;
 
 GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE harvestdefinitions TO netarchivesuite;
 
@@ -390,6 +398,8 @@ CREATE TABLE jobs (
 
 CREATE INDEX jobstatus on jobs(status) TABLESPACE tsindex;
 CREATE INDEX jobharvestid on jobs(harvest_id) TABLESPACE tsindex;
+CREATE INDEX jobsstatusjobid on jobs(status, job_id) TABLESPACE tsindex;
+CREATE INDEX jobsharvestjobid on jobs(harvest_id, job_id) TABLESPACE tsindex;
 
 GRANT SELECT,INSERT,UPDATE,DELETE ON TABLE jobs TO netarchivesuite;
 
@@ -676,3 +686,21 @@ VALUES(2, 2, 'HONOR_ROBOTS_DOT_TXT', 'dk.netarkivet.harvester.datamodel.eav', 'C
 
 INSERT INTO eav_type_attribute(tree_id, id, name, class_namespace, class_name, datatype, viewtype, def_int, def_datetime, def_varchar, def_text)
 VALUES(2, 3, 'EXTRACT_JAVASCRIPT', 'dk.netarkivet.harvester.datamodel.eav', 'ContentAttrType_Generic', 1, 5, 1, null, null, null);
+
+-- *****************************************************************************
+-- Area: Id sequences
+-- *****************************************************************************
+
+-- Sequences used for allocating ids of jobs, harvest definitions and extended
+-- fields. Each value fetched starts a block of ids, so the increment must match
+-- the block size in dk.netarkivet.harvester.datamodel.IdSequence.
+
+CREATE SEQUENCE jobs_job_id_seq START WITH 1 INCREMENT BY 10;
+CREATE SEQUENCE harvestdefinitions_harvest_id_seq START WITH 1 INCREMENT BY 1;
+CREATE SEQUENCE extendedfield_extendedfield_id_seq START WITH 1 INCREMENT BY 1;
+CREATE SEQUENCE extendedfieldvalue_extendedfieldvalue_id_seq START WITH 1 INCREMENT BY 100;
+
+GRANT USAGE ON SEQUENCE jobs_job_id_seq TO netarchivesuite;
+GRANT USAGE ON SEQUENCE harvestdefinitions_harvest_id_seq TO netarchivesuite;
+GRANT USAGE ON SEQUENCE extendedfield_extendedfield_id_seq TO netarchivesuite;
+GRANT USAGE ON SEQUENCE extendedfieldvalue_extendedfieldvalue_id_seq TO netarchivesuite;
@@ -107,6 +107,10 @@ INSERT INTO schemaversions ( tablename, version )
 
 INSERT INTO schemaversions ( tablename, version )
 VALUES ( 'harvestchannel', 1);
+INSERT INTO schemaversions ( tablename, version )
+VALUES ( 'id_sequences', 1);
+INSERT INTO schemaversions ( tablename, version )
+VALUES ( 'harvest_status_indexes', 1);
 
 --***************************************************************************--
 -- Area: Domains
@@ -460,6 +464,8 @@ create table jobs (
 
 create index jobstatus on jobs(status);
 create index jobharvestid on jobs(harvest_id);
+create index jobsstatusjobid on jobs(status, job_id);
+create index jobsharvestjobid on jobs(harvest_id, job_id);
 
 -------------------------------------------------------------------------------
 -- Name:    job_configs
@@ -639,3 +645,14 @@ INSERT INTO harvestchannel(name, issnapshot, isdefault, comments)
     VALUES('SNAPSHOT', true, true, 'Channel for snapshot harvests');
 INSERT INTO harvestchannel(name, issnapshot, isdefault, comments)
     VALUES('FOCUSED', false, true, 'Channel for focused harvests');
+
+--***************************************************************************--
+-- Area: Id sequences
+--***************************************************************************--
+
+-- The increments must match the block sizes in
+-- dk.netarkivet.harvester.datamodel.IdSequence.
+CREATE SEQUENCE jobs_job_id_seq AS BIGINT START WITH 1 INCREMENT BY 10;
+CREATE SEQUENCE harvestdefinitions_harvest_id_seq AS BIGINT START WITH 1 INCREMENT BY 1;
+CREATE SEQUENCE extendedfield_extendedfield_id_seq AS BIGINT START WITH 1 INCREMENT BY 1;
+CREATE SEQUENCE extendedfieldvalue_extendedfieldvalue_id_seq AS BIGINT START WITH 1 INCREMENT BY 100;
@@ -0,0 +1,166 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.scheduler;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Provider;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.JMSConnection;
+import dk.netarkivet.common.distribute.indexserver.RequestType;
+import dk.netarkivet.common.lifecycle.ComponentLifeCycle;
+import dk.netarkivet.common.lifecycle.PeriodicTaskExecutor;
+import dk.netarkivet.harvester.HarvesterSettings;
+import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
+import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
+import dk.netarkivet.harvester.datamodel.JobStatus;
+import dk.netarkivet.harvester.distribute.HarvesterChannels;
+import dk.netarkivet.harvester.indexserver.distribute.IndexRequestMessage;
+
+/**
+ * Requests the deduplication indices of new jobs from the IndexServer as soon as the jobs are generated, so the index
+ * is ready when a harvester starts the job, instead of being built while the harvester waits.
+ * <p>
+ * Snapshot harvests are skipped, as their index is requested when the harvest definition is activated. The IndexServer
+ * builds the requested indices in the background and sends no reply.
+ */
+public class DeduplicationIndexPrebuilder implements ComponentLifeCycle {
+
+    /** The logger to use. */
+    private static final Logger log = LoggerFactory.getLogger(DeduplicationIndexPrebuilder.class);
+
+    /** The max number of requested job sets remembered, to avoid requesting the same index twice. */
+    private static final int MAX_REMEMBERED_JOB_SETS = 1000;
+
+    private final Provider<JMSConnection> jmsConnectionProvider;
+    private final Provider<JobDAO> jobDaoProvider;
+    private final Provider<HarvestDefinitionDAO> harvestDefinitionDAOProvider;
+
+    /** The period between checks for new jobs, in seconds. */
+    private final long period;
+
+    /** The new jobs that have already been checked. */
+    private Set<Long> checkedJobs = new HashSet<Long>();
+
+    /** The most recently requested job sets, in least recently requested order. */
+    private final Map<Set<Long>, Boolean> requestedJobSets = new LinkedHashMap<Set<Long>, Boolean>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Set<Long>, Boolean> eldest) {
+            return size() > MAX_REMEMBERED_JOB_SETS;
+        }
+    };
+
+    /** The executor running the checks. */
+    private PeriodicTaskExecutor executor;
+
+    /**
+     * @param jmsConnectionProvider Used for sending the index requests.
+     * @param jobDaoProvider Used for accessing the jobdao.
+     * @param harvestDefinitionDAOProvider Used for accessing the harvestdefinitiondao.
+     * @param period The period between checks for new jobs in seconds. 0 disables pre-building.
+     */
+    public DeduplicationIndexPrebuilder(Provider<JMSConnection> jmsConnectionProvider, Provider<JobDAO> jobDaoProvider,
+            Provider<HarvestDefinitionDAO> harvestDefinitionDAOProvider, long period) {
+        this.jmsConnectionProvider = jmsConnectionProvider;
+        this.jobDaoProvider = jobDaoProvider;
+        this.harvestDefinitionDAOProvider = harvestDefinitionDAOProvider;
+        this.period = period;
+    }
+
+    /**
+     * Starts checking for new jobs every {@link HarvesterSettings#INDEX_PREBUILD_PERIOD} seconds.
+     */
+    @Override
+    public void start() {
+        if (period <= 0) {
+            log.info("Pre-building of deduplication indices is disabled");
+            return;
+        }
+        executor = new PeriodicTaskExecutor("DeduplicationIndexPrebuilder", new Runnable() {
+            public void run() {
+                try {
+                    requestIndices();
+                } catch (Exception e) {
+                    log.info("Exception caught at fault barrier while requesting deduplication indices.", e);
+                }
+            }
+        }, period, period);
+    }
+
+    @Override
+    public void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Request the deduplication index for each new job with deduplication enabled, that has not been checked before,
+     * unless an index for the same set of jobs has already been requested.
+     * <p>
+     * Package protected to allow unit testing.
+     *
+     * @return the number of index requests sent
+     */
+    synchronized int requestIndices() {
+        JobDAO jobDao = jobDaoProvider.get();
+        Set<Long> newJobs = new HashSet<Long>();
+        int requests = 0;
+        Iterator<Long> jobs = jobDao.getAllJobIds(JobStatus.NEW);
+        while (jobs.hasNext()) {
+            Long jobID = jobs.next();
+            newJobs.add(jobID);
+            if (checkedJobs.contains(jobID)) {
+                continue;
+            }
+            Job job = jobDao.read(jobID);
+            Long harvestId = job.getOrigHarvestDefinitionID();
+            if (!job.getOrderXMLdoc().IsDeduplicationEnabled()
+                    || harvestDefinitionDAOProvider.get().isSnapshot(harvestId)) {
+                continue;
+            }
+            Set<Long> jobSet = new HashSet<Long>(jobDao.getJobIDsForDuplicateReduction(jobID));
+            if (jobSet.isEmpty() || requestedJobSets.put(jobSet, Boolean.TRUE) != null) {
+                continue;
+            }
+            IndexRequestMessage irMsg = new IndexRequestMessage(RequestType.DEDUP_CRAWL_LOG, jobSet,
+                    HarvesterChannels.getTheSched(), false, harvestId);
+            irMsg.setPrebuild(true);
+            jmsConnectionProvider.get().send(irMsg);
+            log.info("Requested the deduplication index of the {} jobs needed by new job {}", jobSet.size(), jobID);
+            requests++;
+        }
+        // Only remember the jobs that are still new
+        checkedJobs = newJobs;
+        return requests;
+    }
+
+}
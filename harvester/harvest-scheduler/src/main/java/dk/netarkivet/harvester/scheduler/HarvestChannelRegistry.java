@@ -23,89 +23,338 @@
 package dk.netarkivet.harvester.scheduler;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.List;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.datamodel.HarvestChannel;
+import dk.netarkivet.harvester.harvesting.distribute.HarvesterReadyMessage;
 import dk.netarkivet.harvester.harvesting.distribute.HarvesterRegistrationRequest;
 
 /**
- * Keeps track of the number of {@link HarvesterRegistrationRequest}s that have been received per channel, which allows
- * to know if a HarvestControllers are registered to a given {@link HarvestChannel}.
+ * Keeps track of the harvesters that have registered to each {@link HarvestChannel}, either by a
+ * {@link HarvesterRegistrationRequest} or by a {@link HarvesterReadyMessage}, and of whether they are idle or busy.
+ * <p>
+ * The registry is lock-free: every harvester instance is held by an immutable {@link Harvester} in a concurrent map,
+ * and all state changes are made by atomically replacing it. A harvester sends ready messages while it is idle and
+ * none while it crawls, so idle harvesters that have been silent for longer than
+ * {@link HarvesterSettings#SCHEDULER_HARVESTER_TIMEOUT} are expired, and busy ones after
+ * {@link HarvesterSettings#JOB_TIMEOUT_TIME}.
+ * <p>
+ * {@link CapacityListener}s are notified whenever a harvester registers or reports that it is ready, so jobs can be
+ * dispatched immediately.
  */
 public class HarvestChannelRegistry {
 
     /** The class logger. */
     private static final Logger LOG = LoggerFactory.getLogger(HarvestChannelRegistry.class);
 
-    private Map<String, Set<String>> harvesterChannelRegistry = new HashMap<String, Set<String>>();
+    /** Receives notifications of available harvester capacity. */
+    public interface CapacityListener {
+        /**
+         * Called when a harvester on the given channel has become ready for a new job. Implementations should claim
+         * the capacity with {@link HarvestChannelRegistry#claimIdleHarvester(String)}.
+         *
+         * @param channelName the name of the harvest channel
+         */
+        void capacityAvailable(String channelName);
+    }
+
+    /** The state of a harvester instance. */
+    public enum State {
+        /** The harvester has reported that it is ready for a job. */
+        IDLE,
+        /** A job has been dispatched to the harvester since it last reported that it was ready. */
+        BUSY
+    }
+
+    /** The immutable status of a registered harvester instance. */
+    public static final class Harvester {
+        private final String instanceId;
+        private final String channelName;
+        private final String hostName;
+        private final State state;
+        private final long lastHeartbeat;
 
-    public synchronized void register(final String channelName, final String harvesterInstanceId) {
-        // First remove any reference to this instanceId
-        // This is done in case a Harvester has been unexpectedly shut down and restarted
-        clearHarvester(harvesterInstanceId);
+        Harvester(String instanceId, String channelName, String hostName, State state, long lastHeartbeat) {
+            this.instanceId = instanceId;
+            this.channelName = channelName;
+            this.hostName = hostName;
+            this.state = state;
+            this.lastHeartbeat = lastHeartbeat;
+        }
+
+        Harvester withState(State newState) {
+            return new Harvester(instanceId, channelName, hostName, newState, lastHeartbeat);
+        }
+
+        /** @return the application instance ID of the harvester */
+        public String getInstanceId() {
+            return instanceId;
+        }
+
+        /** @return the name of the channel the harvester is registered to */
+        public String getChannelName() {
+            return channelName;
+        }
+
+        /** @return the host of the harvester, or null if not known */
+        public String getHostName() {
+            return hostName;
+        }
 
-        Set<String> instanceIds = harvesterChannelRegistry.get(channelName);
-        if (instanceIds == null) {
-            instanceIds = new TreeSet<String>();
+        /** @return whether the harvester is idle or busy */
+        public State getState() {
+            return state;
         }
-        instanceIds.add(harvesterInstanceId);
-        harvesterChannelRegistry.put(channelName, instanceIds);
 
+        /** @return the time in milliseconds when the harvester last registered or reported that it was ready */
+        public long getLastHeartbeat() {
+            return lastHeartbeat;
+        }
+
+        @Override
+        public String toString() {
+            return instanceId + (hostName == null ? "" : " on " + hostName) + " (" + state + ")";
+        }
+    }
+
+    /** The registered harvesters by instance ID. */
+    private final ConcurrentMap<String, Harvester> harvesters = new ConcurrentHashMap<String, Harvester>();
+
+    /** The listeners to notify of available capacity. */
+    private final List<CapacityListener> listeners = new CopyOnWriteArrayList<CapacityListener>();
+
+    /** Milliseconds of silence before an idle harvester is expired. */
+    private final long idleTimeout;
+
+    /** Milliseconds of silence before a busy harvester is expired. */
+    private final long busyTimeout;
+
+    /**
+     * Creates a registry with the timeouts given by the settings.
+     */
+    public HarvestChannelRegistry() {
+        this(Settings.getLong(HarvesterSettings.SCHEDULER_HARVESTER_TIMEOUT) * 1000L, Settings
+                .getLong(HarvesterSettings.JOB_TIMEOUT_TIME) * 1000L);
+    }
+
+    /**
+     * @param idleTimeout Milliseconds of silence before an idle harvester is expired
+     * @param busyTimeout Milliseconds of silence before a busy harvester is expired
+     */
+    HarvestChannelRegistry(long idleTimeout, long busyTimeout) {
+        this.idleTimeout = idleTimeout;
+        this.busyTimeout = busyTimeout;
+    }
+
+    /**
+     * Registers a harvester to a channel, replacing any former registration of the same instance. This is done in case
+     * a Harvester has been unexpectedly shut down and restarted on another channel.
+     *
+     * @param channelName the name of the harvest channel
+     * @param harvesterInstanceId the application instance ID of the harvester
+     */
+    public void register(final String channelName, final String harvesterInstanceId) {
+        register(channelName, harvesterInstanceId, null);
+    }
+
+    private void register(String channelName, String harvesterInstanceId, String hostName) {
+        Harvester former = harvesters.put(harvesterInstanceId, new Harvester(harvesterInstanceId, channelName,
+                hostName, State.IDLE, System.currentTimeMillis()));
+        if (former != null && !former.getChannelName().equals(channelName)) {
+            LOG.info("Cleared former registration of '{}' to '{}'", former.getChannelName(), harvesterInstanceId);
+        }
         LOG.info("Harvester {} registered on channel {}", harvesterInstanceId, channelName);
         logStatus();
+        notifyCapacityAvailable(channelName);
     }
 
-    public synchronized boolean isRegistered(final String channelName) {
-        return harvesterChannelRegistry.containsKey(channelName);
+    /**
+     * Records that a harvester has reported that it is ready for a job, registering it if needed, and notifies the
+     * listeners.
+     *
+     * @param channelName the name of the harvest channel
+     * @param harvesterInstanceId the application instance ID of the harvester
+     * @param hostName the host of the harvester
+     * @return true if the harvester was not already registered to the channel
+     */
+    public boolean harvesterReady(String channelName, String harvesterInstanceId, String hostName) {
+        ArgumentNotValid.checkNotNullOrEmpty(channelName, "String channelName");
+        ArgumentNotValid.checkNotNull(harvesterInstanceId, "String harvesterInstanceId");
+        Harvester former = harvesters.get(harvesterInstanceId);
+        if (former == null || !former.getChannelName().equals(channelName)) {
+            register(channelName, harvesterInstanceId, hostName);
+            return true;
+        }
+        // A concurrent registration wins over this heartbeat
+        harvesters.replace(harvesterInstanceId, former, new Harvester(harvesterInstanceId, channelName, hostName,
+                State.IDLE, System.currentTimeMillis()));
+        notifyCapacityAvailable(channelName);
+        return false;
     }
-    
-    public synchronized boolean isRegisteredToChannel(final String harvesterInstanceId, final String channelName) {
-    	if (!isRegistered(channelName)){
-    		return false;
-    	} else {
-    		return harvesterChannelRegistry.get(channelName).contains(harvesterInstanceId);
-    	}
+
+    /**
+     * Marks an idle harvester on the given channel as busy, because a job is about to be dispatched to it.
+     *
+     * @param channelName the name of the harvest channel
+     * @return the instance ID of the claimed harvester, or null if no harvester on the channel is idle
+     */
+    public String claimIdleHarvester(String channelName) {
+        for (Harvester harvester : harvesters.values()) {
+            if (harvester.getState() == State.IDLE && harvester.getChannelName().equals(channelName)
+                    && harvesters.replace(harvester.getInstanceId(), harvester, harvester.withState(State.BUSY))) {
+                return harvester.getInstanceId();
+            }
+        }
+        return null;
     }
 
-    private void logStatus() {
-        if (LOG.isInfoEnabled()) {
-            String msg = HarvestChannelRegistry.class.getSimpleName() + " status:";
-            for (String channel : harvesterChannelRegistry.keySet()) {
-                msg += "\n\t- " + channel + " { ";
-                for (String id : harvesterChannelRegistry.get(channel)) {
-                    msg += id + ", ";
-                }
-                msg = msg.substring(0, msg.lastIndexOf(",")) + " }";
+    /**
+     * Returns a claimed harvester to the idle state, when no job could be dispatched to it after all.
+     *
+     * @param harvesterInstanceId the instance ID returned by {@link #claimIdleHarvester(String)}
+     */
+    public void releaseHarvester(String harvesterInstanceId) {
+        Harvester harvester = harvesters.get(harvesterInstanceId);
+        if (harvester != null && harvester.getState() == State.BUSY) {
+            harvesters.replace(harvesterInstanceId, harvester, harvester.withState(State.IDLE));
+        }
+    }
+
+    /**
+     * Notifies the listeners of every channel with an idle harvester, e.g. when new jobs have been generated.
+     */
+    public void notifyIdleCapacity() {
+        Set<String> channels = new TreeSet<String>();
+        for (Harvester harvester : harvesters.values()) {
+            if (harvester.getState() == State.IDLE) {
+                channels.add(harvester.getChannelName());
+            }
+        }
+        for (String channelName : channels) {
+            notifyCapacityAvailable(channelName);
+        }
+    }
+
+    private void notifyCapacityAvailable(String channelName) {
+        for (CapacityListener listener : listeners) {
+            try {
+                listener.capacityAvailable(channelName);
+            } catch (Exception e) {
+                LOG.warn("Capacity listener {} failed for channel {}", listener, channelName, e);
             }
-            LOG.info(msg);
         }
     }
 
     /**
-     * Clears any registration data for a given harvester instance id.
+     * @param listener a listener to notify of available capacity
+     */
+    public void addCapacityListener(CapacityListener listener) {
+        ArgumentNotValid.checkNotNull(listener, "CapacityListener listener");
+        listeners.add(listener);
+    }
+
+    /**
+     * @param listener a listener to stop notifying
+     */
+    public void removeCapacityListener(CapacityListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Removes the harvesters that have been silent for longer than their timeout.
+     */
+    public void expireSilentHarvesters() {
+        expireSilentHarvesters(System.currentTimeMillis());
+    }
+
+    /**
+     * Removes the harvesters that have been silent for longer than their timeout at the given time.
      *
-     * @param harvesterInstanceId a harvester instance id
+     * @param now the current time in milliseconds
      */
-    private void clearHarvester(final String harvesterInstanceId) {
-        ArrayList<String> keysToRemove = new ArrayList<String>();
-        for (String channel : harvesterChannelRegistry.keySet()) {
-            Set<String> instanceIds = harvesterChannelRegistry.get(channel);
-            if (instanceIds.contains(harvesterInstanceId)) {
-                instanceIds.remove(harvesterInstanceId);
-                if (instanceIds.isEmpty()) {
-                    keysToRemove.add(channel);
-                }
-                LOG.info("Cleared former registration of '{}' to '{}'", channel, harvesterInstanceId);
+    void expireSilentHarvesters(long now) {
+        boolean expired = false;
+        for (Harvester harvester : harvesters.values()) {
+            long timeout = harvester.getState() == State.IDLE ? idleTimeout : busyTimeout;
+            if (now - harvester.getLastHeartbeat() > timeout
+                    && harvesters.remove(harvester.getInstanceId(), harvester)) {
+                LOG.warn("Harvester {} on channel {} has not been heard from in {} seconds and is expired",
+                        harvester, harvester.getChannelName(), (now - harvester.getLastHeartbeat()) / 1000L);
+                expired = true;
+            }
+        }
+        if (expired) {
+            logStatus();
+        }
+    }
+
+    /**
+     * @param channelName the name of a harvest channel
+     * @return true if any harvester is registered to the channel
+     */
+    public boolean isRegistered(final String channelName) {
+        for (Harvester harvester : harvesters.values()) {
+            if (harvester.getChannelName().equals(channelName)) {
+                return true;
             }
         }
-        for (String key : keysToRemove) {
-            harvesterChannelRegistry.remove(key);
+        return false;
+    }
+
+    /**
+     * @param harvesterInstanceId the application instance ID of a harvester
+     * @param channelName the name of a harvest channel
+     * @return true if the harvester is registered to the channel
+     */
+    public boolean isRegisteredToChannel(final String harvesterInstanceId, final String channelName) {
+        Harvester harvester = harvesters.get(harvesterInstanceId);
+        return harvester != null && harvester.getChannelName().equals(channelName);
+    }
+
+    /**
+     * @return a snapshot of the registered harvesters, sorted by channel and instance ID
+     */
+    public List<Harvester> getHarvesters() {
+        TreeMap<String, Harvester> sorted = new TreeMap<String, Harvester>();
+        for (Harvester harvester : harvesters.values()) {
+            sorted.put(harvester.getChannelName() + '\u0000' + harvester.getInstanceId(), harvester);
+        }
+        return Collections.unmodifiableList(new ArrayList<Harvester>(sorted.values()));
+    }
+
+    private void logStatus() {
+        if (LOG.isInfoEnabled()) {
+            StringBuilder msg = new StringBuilder(HarvestChannelRegistry.class.getSimpleName()).append(" status:");
+            String channel = null;
+            for (Harvester harvester : getHarvesters()) {
+                if (!harvester.getChannelName().equals(channel)) {
+                    if (channel != null) {
+                        msg.append(" }");
+                    }
+                    channel = harvester.getChannelName();
+                    msg.append("\n\t- ").append(channel).append(" { ");
+                } else {
+                    msg.append(", ");
+                }
+                msg.append(harvester);
+            }
+            if (channel != null) {
+                msg.append(" }");
+            }
+            LOG.info(msg.toString());
         }
     }
 
@@ -119,6 +119,7 @@ public class HarvestJobGenerator implements ComponentLifeCycle {
         @Override
         public synchronized void run() {
             try {
+                harvestChannelRegistry.expireSilentHarvesters();
                 generateJobs(new Date());
             } catch (Exception e) {
                 log.info("Exception caught at fault barrier while generating jobs.", e);
@@ -187,7 +188,8 @@ public class HarvestJobGenerator implements ComponentLifeCycle {
 
                 log.info("Starting to create jobs for harvest definition #{}({})", id, harvestDefinition.getName());
 
-                final JobGeneratorThread jobGeneratorThread = new JobGeneratorThread(id, harvestDefinition);
+                final JobGeneratorThread jobGeneratorThread = new JobGeneratorThread(id, harvestDefinition,
+                        harvestChannelRegistry);
                 threadMap.put(id, jobGeneratorThread);
                 jobGeneratorThread.start();
             }
@@ -223,11 +225,14 @@ public class HarvestJobGenerator implements ComponentLifeCycle {
         private static class JobGeneratorThread extends Thread {
             private final Long id;
             private final HarvestDefinition harvestDefinition;
+            private final HarvestChannelRegistry harvestChannelRegistry;
 
-            public JobGeneratorThread(Long id, HarvestDefinition harvestDefinition) {
+            public JobGeneratorThread(Long id, HarvestDefinition harvestDefinition,
+                    HarvestChannelRegistry harvestChannelRegistry) {
                 super("JobGeneratorTask-" + id);
                 this.id = id;
                 this.harvestDefinition = harvestDefinition;
+                this.harvestChannelRegistry = harvestChannelRegistry;
             }
 
             public void run() {
@@ -245,6 +250,10 @@ public class HarvestJobGenerator implements ComponentLifeCycle {
                         NotificationsFactory.getInstance().notify(msg, NotificationType.WARNING);
                     }
                     haDefinitionDAO.update(harvestDefinition);
+                    if (jobsMade > 0) {
+                        // Let idle harvesters start on the new jobs without waiting for their next ready message
+                        harvestChannelRegistry.notifyIdleCapacity();
+                    }
                 } catch (Throwable e) {
                     try {
                         HarvestDefinition hd = haDefinitionDAO.read(harvestDefinition.getOid());
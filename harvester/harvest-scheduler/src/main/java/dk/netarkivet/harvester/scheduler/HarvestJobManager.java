@@ -64,6 +64,9 @@ public class HarvestJobManager extends LifeCycleComponent {
         ));
 
         addChild(new JobSupervisor(getJobDAOProvider(), Settings.getLong(HarvesterSettings.JOB_TIMEOUT_TIME)));
+
+        addChild(new DeduplicationIndexPrebuilder(getJMSConnectionProvider(), getJobDAOProvider(),
+                getHarvestDefinitionDAOProvider(), Settings.getLong(HarvesterSettings.INDEX_PREBUILD_PERIOD)));
     }
 
     @Override
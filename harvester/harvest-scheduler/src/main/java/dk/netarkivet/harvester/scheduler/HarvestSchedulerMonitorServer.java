@@ -121,7 +121,8 @@ public class HarvestSchedulerMonitorServer
                                     + "UploadErrors = {}\n" + "UploadErrorDetails = {}", jobID, cmsg.getHarvestErrors(),
                             cmsg.getHarvestErrorDetails(), cmsg.getUploadErrors(), cmsg.getUploadErrorDetails());
                 } else {
-                    log.info("Job #{} succesfully completed", jobID);
+                    log.info("Job #{} succesfully completed, uploaded {} files ({} bytes) at {} bytes/s", jobID,
+                            cmsg.getUploadedFiles(), cmsg.getUploadedBytes(), cmsg.getUploadBytesPerSecond());
                 }
                 job.setStatus(newStatus);
                 job.appendHarvestErrors(cmsg.getHarvestErrors());
@@ -49,8 +49,13 @@ import dk.netarkivet.harvester.harvesting.distribute.HarvesterRegistrationRespon
 /**
  * Handles the reception of status messages from the harvesters. Will call the {@link #visit(HarvesterReadyMessage)}
  * method when a Ready message is received.
+ * <p>
+ * Ready messages and registrations are recorded in the {@link HarvestChannelRegistry}, which notifies this receiver
+ * through {@link #capacityAvailable(String)}, whereupon a new job is dispatched for every idle harvester on the
+ * channel.
  */
-public class HarvesterStatusReceiver extends HarvesterMessageHandler implements ComponentLifeCycle {
+public class HarvesterStatusReceiver extends HarvesterMessageHandler implements ComponentLifeCycle,
+        HarvestChannelRegistry.CapacityListener {
 
     /** The logger to use. */
     private static final Logger log = LoggerFactory.getLogger(HarvesterStatusReceiver.class);
@@ -81,12 +86,14 @@ public class HarvesterStatusReceiver extends HarvesterMessageHandler implements
         ArgumentNotValid.checkNotNull(jobDispatcher, "jobDispatcher");
         ArgumentNotValid.checkNotNull(jmsConnection, "jmsConnection");
         ArgumentNotValid.checkNotNull(harvestChannelDao, "harvestChannelDao");
+        ArgumentNotValid.checkNotNull(harvestChannelRegistry, "harvestChannelRegistry");
         this.jobDispatcher = jobDispatcher;
         this.jmsConnection = jmsConnection;
         this.harvestChannelDao = harvestChannelDao;
         this.harvestChannelRegistry = harvestChannelRegistry;
         this.limitSubmittedJobsInQueue = Settings.getBoolean(HarvesterSettings.SCHEDULER_LIMIT_SUBMITTED_JOBS_IN_QUEUE);
         this.submittedJobsInQueueThreshold = Settings.getInt(HarvesterSettings.SCHEDULER_SUBMITTED_JOBS_IN_QUEUE_LIMIT);
+        harvestChannelRegistry.addCapacityListener(this);
     }
 
     @Override
@@ -102,10 +109,12 @@ public class HarvesterStatusReceiver extends HarvesterMessageHandler implements
     @Override
     public void shutdown() {
         jmsConnection.removeListener(HarvesterChannels.getHarvesterStatusChannel(), this);
+        harvestChannelRegistry.removeCapacityListener(this);
     }
 
     /**
-     * Tells the dispatcher that it may dispatch a new job.
+     * Records that the harvester is ready in the registry, which in turn tells this receiver that it may dispatch a new
+     * job.
      *
      * @param message The message containing the relevant harvester information.
      */
@@ -113,26 +122,42 @@ public class HarvesterStatusReceiver extends HarvesterMessageHandler implements
     public void visit(HarvesterReadyMessage message) {
         ArgumentNotValid.checkNotNull(message, "message");
         log.trace("Received ready message from {} on host {}", message.getApplicationInstanceId(), message.getHostName() );
-        HarvestChannel channel = harvestChannelDao.getByName(message.getHarvestChannelName());
-        if (!harvestChannelRegistry.isRegistered(message.getHarvestChannelName())) {
-        	log.info("Reregistering the harvester '{}' to channel '{}'", message.getApplicationInstanceId(),message.getHarvestChannelName()); 
-        	harvestChannelRegistry.register(message.getHarvestChannelName(), message.getApplicationInstanceId());
-        } else if (!harvestChannelRegistry.isRegisteredToChannel(message.getApplicationInstanceId(), message.getHarvestChannelName())) {
-        	harvestChannelRegistry.register(message.getHarvestChannelName(), message.getApplicationInstanceId());
-        };
-        if (limitSubmittedJobsInQueue) {
-        	// Check If already a Message in the JMS queue for this channel
-        	ChannelID relevantChannelId = HarvesterChannels.getHarvestJobChannelId(channel);
-        	int currentCount = getCount(relevantChannelId);
-        	if (currentCount < submittedJobsInQueueThreshold) {
-        		jobDispatcher.submitNextNewJob(channel);
-        	} else {
-        		log.debug("No jobs submitted to channel {} after receiving ready message from {}. "
-        				+ "Already {} jobs submitted to channel ", relevantChannelId, message.getApplicationInstanceId(),
-        				currentCount);
-        	}
-        } else { // If no limit, always submit new job, if a job in status NEW exists scheduled for this channel
-        	jobDispatcher.submitNextNewJob(channel);
+        // Fails for unknown channels
+        harvestChannelDao.getByName(message.getHarvestChannelName());
+        if (harvestChannelRegistry.harvesterReady(message.getHarvestChannelName(), message.getApplicationInstanceId(),
+                message.getHostName())) {
+            log.info("Reregistered the harvester '{}' to channel '{}'", message.getApplicationInstanceId(),
+                    message.getHarvestChannelName());
+        }
+    }
+
+    /**
+     * Dispatches a new job for every idle harvester on the channel, as long as there are new jobs for the channel and,
+     * if limited, the job queue of the channel is not full.
+     *
+     * @param channelName The name of the channel with idle harvesters.
+     */
+    @Override
+    public void capacityAvailable(String channelName) {
+        HarvestChannel channel = harvestChannelDao.getByName(channelName);
+        String harvesterInstanceId;
+        while ((harvesterInstanceId = harvestChannelRegistry.claimIdleHarvester(channelName)) != null) {
+            if (limitSubmittedJobsInQueue) {
+                // Check If already a Message in the JMS queue for this channel
+                ChannelID relevantChannelId = HarvesterChannels.getHarvestJobChannelId(channel);
+                int currentCount = getCount(relevantChannelId);
+                if (currentCount >= submittedJobsInQueueThreshold) {
+                    log.debug("No jobs submitted to channel {} for harvester {}. Already {} jobs submitted to channel",
+                            relevantChannelId, harvesterInstanceId, currentCount);
+                    harvestChannelRegistry.releaseHarvester(harvesterInstanceId);
+                    return;
+                }
+            }
+            // Submit a new job, if a job in status NEW exists scheduled for this channel
+            if (!jobDispatcher.submitNextNewJob(channel)) {
+                harvestChannelRegistry.releaseHarvester(harvesterInstanceId);
+                return;
+            }
         }
     }
 
@@ -83,11 +83,13 @@ public class JobDispatcher {
      * needed. If no jobs are ready for the given priority, nothing is done
      *
      * @param channel the Channel to use for the job.
+     * @return true if a job was submitted
      */
-    protected void submitNextNewJob(HarvestChannel channel) {
+    protected boolean submitNextNewJob(HarvestChannel channel) {
         Job jobToSubmit = prepareNextJobForSubmission(channel);
         if (jobToSubmit == null) {
             log.trace("No {} jobs to be run at this time", channel.getName());
+            return false;
         } else {
             log.debug("Submitting new {} job {}", channel.getName(), jobToSubmit.getJobID());
             try {
@@ -121,6 +123,7 @@ public class JobDispatcher {
                 doOneCrawl(jobToSubmit, hName, hdComments, schedule, channel, hdAudience, metadata);
 
                 log.info("Job #{} submitted", jobToSubmit.getJobID());
+                return true;
             } catch (Throwable t) {
                 String message = "Error while dispatching job " + jobToSubmit.getJobID()
                         + ". Job status changed to FAILED";
@@ -131,6 +134,7 @@ public class JobDispatcher {
                     jobToSubmit.appendHarvestErrorDetails(ExceptionUtils.getStackTrace(t));
                     jobDao.update(jobToSubmit);
                 }
+                return false;
             }
         }
     }
@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import javax.inject.Provider;
+
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import dk.netarkivet.common.distribute.JMSConnection;
+import dk.netarkivet.common.distribute.NetarkivetMessage;
+import dk.netarkivet.common.distribute.indexserver.RequestType;
+import dk.netarkivet.harvester.datamodel.HarvestDefinitionDAO;
+import dk.netarkivet.harvester.datamodel.HeritrixTemplate;
+import dk.netarkivet.harvester.datamodel.Job;
+import dk.netarkivet.harvester.datamodel.JobDAO;
+import dk.netarkivet.harvester.datamodel.JobStatus;
+import dk.netarkivet.harvester.indexserver.distribute.IndexRequestMessage;
+
+public class DeduplicationIndexPrebuilderTest {
+    private JMSConnection jmsConnectionMock = mock(JMSConnection.class);
+    private JobDAO jobDaoMock = mock(JobDAO.class);
+    private HarvestDefinitionDAO hdDaoMock = mock(HarvestDefinitionDAO.class);
+
+    private DeduplicationIndexPrebuilder prebuilder = new DeduplicationIndexPrebuilder(
+            new Provider<JMSConnection>() {
+                @Override
+                public JMSConnection get() {
+                    return jmsConnectionMock;
+                }
+            }, new Provider<JobDAO>() {
+                @Override
+                public JobDAO get() {
+                    return jobDaoMock;
+                }
+            }, new Provider<HarvestDefinitionDAO>() {
+                @Override
+                public HarvestDefinitionDAO get() {
+                    return hdDaoMock;
+                }
+            }, 60);
+
+    @Test
+    public void testRequestsEachJobSetOnce() {
+        List<Long> jobIDs = Arrays.asList(1L, 2L, 3L, 4L);
+        when(jobDaoMock.getAllJobIds(JobStatus.NEW)).thenReturn(jobIDs.iterator(), jobIDs.iterator());
+        mockJob(1L, 10L, true, Arrays.asList(100L, 101L));
+        // Same job set as job 1
+        mockJob(2L, 10L, true, Arrays.asList(101L, 100L));
+        // Snapshot harvest
+        mockJob(3L, 20L, true, Arrays.asList(200L));
+        when(hdDaoMock.isSnapshot(20L)).thenReturn(true);
+        // Deduplication disabled
+        mockJob(4L, 10L, false, Arrays.asList(300L));
+
+        assertEquals(1, prebuilder.requestIndices());
+        ArgumentCaptor<NetarkivetMessage> captor = ArgumentCaptor.forClass(NetarkivetMessage.class);
+        verify(jmsConnectionMock).send(captor.capture());
+        IndexRequestMessage irMsg = (IndexRequestMessage) captor.getValue();
+        assertTrue(irMsg.isPrebuild());
+        assertEquals(RequestType.DEDUP_CRAWL_LOG, irMsg.getRequestType());
+        assertEquals(new HashSet<Long>(Arrays.asList(100L, 101L)), irMsg.getRequestedJobs());
+        assertEquals(Long.valueOf(10L), irMsg.getHarvestId());
+
+        // The jobs have been checked, so nothing more is requested
+        assertEquals(0, prebuilder.requestIndices());
+    }
+
+    private void mockJob(Long jobID, Long harvestId, boolean deduplication, List<Long> jobSet) {
+        Job job = mock(Job.class);
+        HeritrixTemplate template = mock(HeritrixTemplate.class);
+        when(template.IsDeduplicationEnabled()).thenReturn(deduplication);
+        when(job.getOrderXMLdoc()).thenReturn(template);
+        when(job.getOrigHarvestDefinitionID()).thenReturn(harvestId);
+        when(jobDaoMock.read(jobID)).thenReturn(job);
+        when(jobDaoMock.getJobIDsForDuplicateReduction(jobID)).thenReturn(jobSet);
+    }
+}
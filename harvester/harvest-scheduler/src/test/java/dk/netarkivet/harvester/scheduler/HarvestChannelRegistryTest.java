@@ -0,0 +1,146 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class HarvestChannelRegistryTest {
+    private HarvestChannelRegistry registry;
+    private List<String> notifications;
+
+    @Before
+    public void setUp() {
+        registry = new HarvestChannelRegistry(1000L, 10000L);
+        notifications = new ArrayList<String>();
+        registry.addCapacityListener(new HarvestChannelRegistry.CapacityListener() {
+            @Override
+            public void capacityAvailable(String channelName) {
+                notifications.add(channelName);
+            }
+        });
+    }
+
+    @Test
+    public void testRegistration() {
+        assertFalse(registry.isRegistered("FOCUSED"));
+        registry.register("FOCUSED", "h1");
+        assertTrue(registry.isRegistered("FOCUSED"));
+        assertTrue(registry.isRegisteredToChannel("h1", "FOCUSED"));
+        assertEquals("[FOCUSED]", notifications.toString());
+
+        // A restarted harvester on another channel replaces the former registration
+        registry.register("SNAPSHOT", "h1");
+        assertFalse(registry.isRegistered("FOCUSED"));
+        assertTrue(registry.isRegisteredToChannel("h1", "SNAPSHOT"));
+        assertEquals(1, registry.getHarvesters().size());
+    }
+
+    @Test
+    public void testReadyAndClaim() {
+        assertTrue("A ready harvester should be registered", registry.harvesterReady("FOCUSED", "h1", "host1"));
+        assertFalse(registry.harvesterReady("FOCUSED", "h1", "host1"));
+        assertEquals("[FOCUSED, FOCUSED]", notifications.toString());
+        assertEquals("host1", registry.getHarvesters().get(0).getHostName());
+
+        assertNull(registry.claimIdleHarvester("SNAPSHOT"));
+        assertEquals("h1", registry.claimIdleHarvester("FOCUSED"));
+        assertEquals(HarvestChannelRegistry.State.BUSY, registry.getHarvesters().get(0).getState());
+        assertNull("A busy harvester cannot be claimed", registry.claimIdleHarvester("FOCUSED"));
+        registry.releaseHarvester("h1");
+        assertEquals("h1", registry.claimIdleHarvester("FOCUSED"));
+
+        // Busy harvesters become idle when they report that they are ready again
+        registry.harvesterReady("FOCUSED", "h1", "host1");
+        assertEquals(HarvestChannelRegistry.State.IDLE, registry.getHarvesters().get(0).getState());
+    }
+
+    @Test
+    public void testNotifyIdleCapacity() {
+        registry.harvesterReady("FOCUSED", "h1", "host1");
+        registry.harvesterReady("SNAPSHOT", "h2", "host2");
+        registry.harvesterReady("SNAPSHOT", "h3", "host3");
+        assertNotNull(registry.claimIdleHarvester("FOCUSED"));
+        notifications.clear();
+        registry.notifyIdleCapacity();
+        assertEquals("Only channels with idle harvesters should be notified once", "[SNAPSHOT]",
+                notifications.toString());
+    }
+
+    @Test
+    public void testExpireSilentHarvesters() {
+        registry.harvesterReady("FOCUSED", "idle", "host1");
+        registry.harvesterReady("FOCUSED", "busy", "host2");
+        assertNotNull(registry.claimIdleHarvester("FOCUSED"));
+        assertNotNull(registry.claimIdleHarvester("FOCUSED"));
+        registry.releaseHarvester("idle");
+        long now = System.currentTimeMillis();
+        registry.expireSilentHarvesters(now);
+        assertEquals(2, registry.getHarvesters().size());
+        registry.expireSilentHarvesters(now + 5000L);
+        assertFalse(registry.isRegisteredToChannel("idle", "FOCUSED"));
+        assertTrue(registry.isRegisteredToChannel("busy", "FOCUSED"));
+        registry.expireSilentHarvesters(now + 20000L);
+        assertFalse(registry.isRegistered("FOCUSED"));
+    }
+
+    @Test
+    public void testConcurrentClaims() throws Exception {
+        final int harvesterCount = 100;
+        for (int i = 0; i < harvesterCount; i++) {
+            registry.harvesterReady("FOCUSED", "h" + i, "host" + i);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < 8; t++) {
+            results.add(executor.submit(new Callable<Integer>() {
+                public Integer call() {
+                    int claims = 0;
+                    while (registry.claimIdleHarvester("FOCUSED") != null) {
+                        claims++;
+                    }
+                    return claims;
+                }
+            }));
+        }
+        int claims = 0;
+        for (Future<Integer> result : results) {
+            claims += result.get();
+        }
+        executor.shutdown();
+        assertEquals("Every idle harvester should be claimed exactly once", harvesterCount, claims);
+    }
+}
@@ -23,6 +23,7 @@
 package dk.netarkivet.harvester.scheduler;
 
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -60,6 +61,17 @@ public class HarvesterStatusReceiverTest {
         verify(jobDispatcher).submitNextNewJob(highChan);
     }
 
+    @Test
+    public void testOneJobPerReadyHarvester() {
+        HarvestChannel highChan = new HarvestChannel("FOCUSED", false, true, "");
+        when(harvestChannelDao.getByName(highChan.getName())).thenReturn(highChan);
+        when(jobDispatcher.submitNextNewJob(highChan)).thenReturn(true);
+        receiver.onMessage(JMSConnectionMockupMQ.getObjectMessage(new HarvesterReadyMessage("Test", highChan.getName())));
+        verify(jobDispatcher, times(1)).submitNextNewJob(highChan);
+        receiver.onMessage(JMSConnectionMockupMQ.getObjectMessage(new HarvesterReadyMessage("Test2", highChan.getName())));
+        verify(jobDispatcher, times(2)).submitNextNewJob(highChan);
+    }
+
     @Test
     public void testInvalidMessageType() {
         CrawlProgressMessage statusmessage = new CrawlProgressMessage(1, 1);
@@ -228,6 +228,14 @@ public class HarvesterSettings {
      */
     public static String GENERATE_JOBS_PERIOD = "settings.harvester.scheduler.jobgenerationperiode";
 
+    /**
+     * <b>settings.harvester.scheduler.indexprebuildperiode</b>: <br>
+     * The period between checking for new jobs, for which the deduplication index should be requested from the
+     * IndexServer ahead of time, in seconds. Snapshot harvests are not affected, as their index is requested when they
+     * are activated. The value 0 disables pre-building. The default is 60.
+     */
+    public static String INDEX_PREBUILD_PERIOD = "settings.harvester.scheduler.indexprebuildperiode";
+
     /**
      * <b>settings.harvester.harvesting.serverDir</b>: <br>
      * Each job gets a subdir of this dir. Job data is written and Heritrix writes to that subdir. 
@@ -247,6 +255,36 @@ public class HarvesterSettings {
      */
     public static String HARVEST_CONTROLLER_OLDJOBSDIR = "settings.harvester.harvesting.oldjobsDir";
 
+    /**
+     * <b>settings.harvester.harvesting.uploadThreads</b>: <br>
+     * The number of archive files the harvest controller uploads to the archive in parallel after a crawl. Metadata
+     * files are always uploaded after all ARC and WARC files have been uploaded.
+     */
+    public static String HARVEST_CONTROLLER_UPLOAD_THREADS = "settings.harvester.harvesting.uploadThreads";
+
+    /**
+     * <b>settings.harvester.harvesting.uploadRetries</b>: <br>
+     * The number of times the harvest controller retries the upload of a file after the arcrepository client has given
+     * up storing it.
+     */
+    public static String HARVEST_CONTROLLER_UPLOAD_RETRIES = "settings.harvester.harvesting.uploadRetries";
+
+    /**
+     * <b>settings.harvester.harvesting.cdxThreads</b>: <br>
+     * The number of threads the harvest controller uses for generating CDX files for the ARC and WARC files Heritrix
+     * closes while the crawl is running. Zero disables CDX generation during the crawl, so all CDX files are generated
+     * after the crawl.
+     */
+    public static String HARVEST_CONTROLLER_CDX_THREADS = "settings.harvester.harvesting.cdxThreads";
+
+    /**
+     * <b>settings.harvester.harvesting.cdxTimeout</b>: <br>
+     * The maximum number of seconds the harvest controller waits after the crawl for the CDX files being generated
+     * for the files Heritrix closed during the crawl. The CDX files not done by then are generated by the harvest
+     * documentation instead.
+     */
+    public static String HARVEST_CONTROLLER_CDX_TIMEOUT = "settings.harvester.harvesting.cdxTimeout";
+
     /**
      * <b>settings.harvester.harvesting.channel</b>: <br>
      * Harvest channel to take jobs from. This is the default channel assigned to the harvest controller.
@@ -288,6 +326,13 @@ public class HarvesterSettings {
      */
     public static String HARVEST_MONITOR_HISTORY_CHART_GEN_INTERVAL = "settings.harvester.monitor.historyChartGenInterval";
 
+    /**
+     * <b>settings.harvester.monitor.historyChartMaxPoints</b>:<br>
+     * Maximum number of points drawn in the chart of historical data for a running job. Longer histories are
+     * downsampled in memory, keeping the shape of the curves. Default value is 1000.
+     */
+    public static String HARVEST_MONITOR_HISTORY_CHART_MAX_POINTS = "settings.harvester.monitor.historyChartMaxPoints";
+
     /**
      * <b>settings.harvester.monitor.displayedHistorySize</b>:<br>
      * Maximum number of most recent history records displayed on the running job details page.
@@ -341,6 +386,14 @@ public class HarvesterSettings {
      * Default value is: 1
      */
 	public static String SCHEDULER_SUBMITTED_JOBS_IN_QUEUE_LIMIT = "settings.harvester.scheduler.submittedJobsInQueueLimit";
+
+    /**
+     * <b>settings.harvester.scheduler.harvesterTimeout</b>:<br>
+     * Time in seconds after which an idle harvester, that has not sent a {@link HarvesterReadyMessage}, is removed from
+     * the registry of harvesters in the {@link dk.netarkivet.harvester.scheduler.HarvestChannelRegistry}. Busy
+     * harvesters are removed after {@link #JOB_TIMEOUT_TIME}. Default value is 300 seconds.
+     */
+    public static String SCHEDULER_HARVESTER_TIMEOUT = "settings.harvester.scheduler.harvesterTimeout";
 	
     /**
      * <b>settings.harvester.harvesting.frontier.frontierReportWaitTime</b>:<br>
@@ -684,6 +737,36 @@ public class HarvesterSettings {
      */
     public static String INDEXSERVER_INDEXING_MAX_SEGMENTS = "settings.harvester.indexserver.maxsegments";
 
+    /**
+     * <b>settings.harvester.indexserver.writecompactindex</b>: <br>
+     * Setting for whether the crawl log indices shall also contain a compact, memory-mappable copy of the index (see
+     * is.hi.bok.deduplicator.CompactDigestIndex), which the DeDuplicator can use instead of the Lucene index. The
+     * default is false.
+     */
+    public static String INDEXSERVER_INDEXING_WRITE_COMPACT_INDEX = "settings.harvester.indexserver.writecompactindex";
+
+    /**
+     * <b>settings.harvester.indexserver.compaction</b>: <br>
+     * Setting for which records of the crawl log indices to keep when the same URL was harvested with the same content
+     * in several of the jobs. The value "original" keeps only the record with the oldest timestamp, "newest" keeps only
+     * the record with the newest timestamp, and "none" keeps all records. The default is "original".
+     */
+    public static String INDEXSERVER_INDEXING_COMPACTION = "settings.harvester.indexserver.compaction";
+
+    /**
+     * <b>settings.harvester.indexserver.prebuildthreads</b>: <br>
+     * Setting for how many threads the IndexServer uses for building indices that the scheduler requests ahead of time
+     * for new jobs. The default is 1.
+     */
+    public static String INDEXSERVER_INDEXING_PREBUILD_THREADS = "settings.harvester.indexserver.prebuildthreads";
+
+    /**
+     * <b>settings.harvester.indexserver.prebuildqueuesize</b>: <br>
+     * Setting for how many requests for building indices ahead of time the IndexServer queues. Requests arriving when
+     * the queue is full are dropped. The default is 20.
+     */
+    public static String INDEXSERVER_INDEXING_PREBUILD_QUEUESIZE = "settings.harvester.indexserver.prebuildqueuesize";
+
     /**
      * <b>settings.harvester.indexserver.listeningcheckinterval</b>: <br>
      * Setting for the interval between each listening check in milliseconds. The default is 30000 (5 minutes).
@@ -826,4 +909,17 @@ public class HarvesterSettings {
 
     public static String HERITRIX3_MONITOR_TEMP_PATH = "settings.harvester.harvesting.monitor.tempPath";
 
+    /**
+     * <b>settings.harvester.harvesting.monitor.updateInterval</b>: <br>
+     * The number of seconds between updates of the crawl logs of the running jobs cached by the Heritrix3 job monitor.
+     */
+    public static String HERITRIX3_MONITOR_UPDATE_INTERVAL = "settings.harvester.harvesting.monitor.updateInterval";
+
+    /**
+     * <b>settings.harvester.harvesting.monitor.updateThreads</b>: <br>
+     * The number of threads the Heritrix3 job monitor uses for updating the cached crawl logs of the running jobs in
+     * parallel.
+     */
+    public static String HERITRIX3_MONITOR_UPDATE_THREADS = "settings.harvester.harvesting.monitor.updateThreads";
+
 }
@@ -25,6 +25,8 @@ package dk.netarkivet.harvester.datamodel;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -159,6 +161,10 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
             upgradeEavTypeAttributeTable(currentVersion, toVersion);
         } else if (tableName.equals(HarvesterDatabaseTables.EAVATTRIBUTE.getTablename())) {
             upgradeEavAttributeTable(currentVersion, toVersion);
+        } else if (tableName.equals(HarvesterDatabaseTables.IDSEQUENCES.getTablename())) {
+            upgradeIdSequences(currentVersion, toVersion);
+        } else if (tableName.equals(HarvesterDatabaseTables.HARVESTSTATUSINDEXES.getTablename())) {
+            upgradeHarvestStatusIndexes(currentVersion, toVersion);
         } else {
             // Add new if else when other tables need to be upgraded
             throw new NotImplementedException("No method exists for migrating table '" + tableName + "' to version "
@@ -573,6 +579,147 @@ public abstract class DBSpecifics extends SettingsFactory<DBSpecifics> {
      */
     public abstract String getOrderByLimitAndOffsetSubClause(long limit, long offset);
 
+    /**
+     * Create the allocator of ids for the given table. If the database supports sequences and the sequences have been
+     * created, the ids are allocated from the sequence of the table. Otherwise they are allocated from the largest id
+     * in the table, which is only safe within one JVM.
+     * <p>
+     * The allocator keeps state, so each DAO should create its allocator once and keep it.
+     *
+     * @param sequence The table to allocate ids for
+     * @return the allocator
+     */
+    public IdAllocator createIdAllocator(IdSequence sequence) {
+        ArgumentNotValid.checkNotNull(sequence, "IdSequence sequence");
+        if (getNextSequenceValueStatement(sequence) != null) {
+            Connection c = HarvestDBConnection.get();
+            try {
+                if (DBUtils.getTableVersion(c, HarvesterDatabaseTables.IDSEQUENCES.getTablename()) >= 1) {
+                    return new SequenceIdAllocator(this, sequence);
+                }
+            } finally {
+                HarvestDBConnection.release(c);
+            }
+            log.warn("The id sequences have not been created in the database. Allocating ids for '{}' from the "
+                    + "largest id in use, which is not safe across several applications", sequence.getTablename());
+        }
+        return new MaxIdAllocator(sequence);
+    }
+
+    /**
+     * Returns the statement fetching the next value of a sequence, or null if the target RDBMS has no sequences. This
+     * implementation returns null.
+     *
+     * @param sequence The sequence
+     * @return the SQL statement, returning one row with one BIGINT column, or null
+     */
+    protected String getNextSequenceValueStatement(IdSequence sequence) {
+        return null;
+    }
+
+    /**
+     * Returns the statements creating a sequence, which is incremented by the block size of the sequence. Only called
+     * if {@link #getNextSequenceValueStatement(IdSequence)} does not return null.
+     *
+     * @param sequence The sequence to create
+     * @param start The first value of the sequence
+     * @return the SQL statements
+     */
+    protected String[] getCreateIdSequenceStatements(IdSequence sequence, long start) {
+        throw new NotImplementedException("Sequences are not supported by " + getClass().getName());
+    }
+
+    /**
+     * Returns a statement fetching the given number of values of a sequence at once, returning the largest of them, or
+     * null if the values must be fetched one at a time with {@link #getNextSequenceValueStatement(IdSequence)}. Used
+     * for moving a sequence forward past ids reserved elsewhere; since values are only consumed, the sequence never
+     * moves backwards, even while it is used by other connections. This implementation returns null.
+     *
+     * @param sequence The sequence
+     * @param count The number of values to fetch
+     * @return the SQL statement, returning one row with one BIGINT column, or null
+     */
+    protected String getSkipSequenceValuesStatement(IdSequence sequence, long count) {
+        return null;
+    }
+
+    /**
+     * Create the sequences used for allocating ids, see {@link IdSequence}. Each sequence starts after the largest id in
+     * use. If the target RDBMS has no sequences, only the version is registered.
+     *
+     * @param currentVersion the current version of the sequences
+     * @param toVersion the required version of the sequences
+     */
+    private void upgradeIdSequences(int currentVersion, int toVersion) {
+        if (currentVersion == 0 && toVersion >= 1) {
+            List<String> statements = new ArrayList<String>();
+            Connection c = HarvestDBConnection.get();
+            try {
+                for (IdSequence sequence : IdSequence.values()) {
+                    if (getNextSequenceValueStatement(sequence) == null) {
+                        continue;
+                    }
+                    Long maxVal = DBUtils.selectLongValue(c, "SELECT MAX(" + sequence.getIdColumn() + ") FROM "
+                            + sequence.getTablename());
+                    long start = (maxVal == null) ? 1L : maxVal + 1L;
+                    for (String statement : getCreateIdSequenceStatements(sequence, start)) {
+                        statements.add(statement);
+                    }
+                }
+            } finally {
+                HarvestDBConnection.release(c);
+            }
+            HarvestDBConnection.updateTable(HarvesterDatabaseTables.IDSEQUENCES.getTablename(), 1,
+                    statements.toArray(new String[statements.size()]));
+            currentVersion = 1;
+        }
+        if (currentVersion != HarvesterDatabaseTables.IDSEQUENCES.getRequiredVersion()) {
+            throw new NotImplementedException("No method exists for migrating '"
+                    + HarvesterDatabaseTables.IDSEQUENCES.getTablename() + "' from version " + currentVersion
+                    + " to version " + toVersion);
+        }
+    }
+
+    /**
+     * Returns the statements creating the indexes used by the harvest status pages. This implementation creates
+     * indexes on the job status and on the harvest definition of jobs, both followed by the job ID, so a page of jobs
+     * with a given status or from a given harvest can be read from the index in job ID order.
+     *
+     * @param c an open connection to the harvestDatabase
+     * @return the SQL statements
+     */
+    protected String[] getCreateHarvestStatusIndexStatements(Connection c) {
+        return new String[] {"CREATE INDEX jobsstatusjobid ON jobs (status, job_id)",
+                "CREATE INDEX jobsharvestjobid ON jobs (harvest_id, job_id)"};
+    }
+
+    /**
+     * Create the indexes used by the harvest status pages, see
+     * {@link #getCreateHarvestStatusIndexStatements(Connection)}.
+     *
+     * @param currentVersion the current version of the indexes
+     * @param toVersion the required version of the indexes
+     */
+    private void upgradeHarvestStatusIndexes(int currentVersion, int toVersion) {
+        if (currentVersion == 0 && toVersion >= 1) {
+            String[] statements;
+            Connection c = HarvestDBConnection.get();
+            try {
+                statements = getCreateHarvestStatusIndexStatements(c);
+            } finally {
+                HarvestDBConnection.release(c);
+            }
+            HarvestDBConnection.updateTable(HarvesterDatabaseTables.HARVESTSTATUSINDEXES.getTablename(), 1,
+                    statements);
+            currentVersion = 1;
+        }
+        if (currentVersion != HarvesterDatabaseTables.HARVESTSTATUSINDEXES.getRequiredVersion()) {
+            throw new NotImplementedException("No method exists for migrating '"
+                    + HarvesterDatabaseTables.HARVESTSTATUSINDEXES.getTablename() + "' from version "
+                    + currentVersion + " to version " + toVersion);
+        }
+    }
+
     /**
      * Returns true if the target RDBMS supports CLOBs. If possible seedlists will be stored as CLOBs.
      *
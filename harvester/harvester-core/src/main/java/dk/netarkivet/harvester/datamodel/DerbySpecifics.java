@@ -87,6 +87,17 @@ public abstract class DerbySpecifics extends DBSpecifics {
         return "OFFSET " + offset + " ROWS FETCH NEXT " + limit + " ROWS ONLY";
     }
 
+    @Override
+    protected String getNextSequenceValueStatement(IdSequence sequence) {
+        return "VALUES NEXT VALUE FOR " + sequence.getSequenceName();
+    }
+
+    @Override
+    protected String[] getCreateIdSequenceStatements(IdSequence sequence, long start) {
+        return new String[] {"CREATE SEQUENCE " + sequence.getSequenceName() + " AS BIGINT START WITH " + start
+                + " INCREMENT BY " + sequence.getBlockSize()};
+    }
+
     @Override
     public boolean supportsClob() {
         return true;
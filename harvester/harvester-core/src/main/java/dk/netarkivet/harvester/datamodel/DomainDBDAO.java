@@ -55,6 +55,7 @@ import dk.netarkivet.common.utils.FilterIterator;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
+import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldTypes;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValue;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValueDAO;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValueDBDAO;
@@ -747,6 +748,21 @@ public class DomainDBDAO extends DomainDAO {
 
     @Override
     protected synchronized Domain readKnown(Connection c, String domainName) {
+        Domain d = readKnownWithoutExtendedFieldValues(c, domainName);
+        readExtendedFieldValues(c, Collections.singletonList(d));
+        return d;
+    }
+
+    /**
+     * Read a domain known to exist, except for its extended field values, which are left at the defaults set by the
+     * Domain constructor. Use {@link #readExtendedFieldValues(Connection, List)} to read them, for many domains at
+     * once if possible.
+     *
+     * @param c A connection to the database
+     * @param domainName The name of the domain
+     * @return the domain read
+     */
+    private Domain readKnownWithoutExtendedFieldValues(Connection c, String domainName) {
         ArgumentNotValid.checkNotNullOrEmpty(domainName, "domainName");
         ArgumentNotValid.checkTrue(DomainUtils.isValidDomainName(domainName), "Invalid domain name " + domainName);
         Domain result;
@@ -1075,12 +1091,13 @@ public class DomainDBDAO extends DomainDAO {
         Connection c = HarvestDBConnection.get();
         try {
             List<String> domainNames = DBUtils.selectStringList(c, "SELECT name FROM domains ORDER BY name");
-            List<Domain> orderedDomains = new LinkedList<Domain>();
+            List<Domain> orderedDomains = new ArrayList<Domain>(domainNames.size());
             for (String name : domainNames) {
                 if (DomainUtils.isValidDomainName(name)) {
-                    orderedDomains.add(read(c, name));
+                    orderedDomains.add(readKnownWithoutExtendedFieldValues(c, name));
                 }
             }
+            readExtendedFieldValues(c, orderedDomains);
             return orderedDomains.iterator();
         } finally {
             HarvestDBConnection.release(c);
@@ -1404,16 +1421,31 @@ public class DomainDBDAO extends DomainDAO {
      */
     private void saveExtendedFieldValues(Connection c, Domain d) throws SQLException {
         List<ExtendedFieldValue> list = d.getExtendedFieldValues();
-        for (int i = 0; i < list.size(); i++) {
-            ExtendedFieldValue efv = list.get(i);
+        for (ExtendedFieldValue efv : list) {
             efv.setInstanceID(d.getID());
+        }
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        dao.upsertAll(c, list, false);
+    }
 
-            ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
-            if (efv.getExtendedFieldValueID() != null) {
-                dao.update(c, efv, false);
-            } else {
-                dao.create(c, efv, false);
-            }
+    /**
+     * Reads the extended Field values of the given domains from the database, using one query for many domains.
+     *
+     * @param c Connection to Database
+     * @param domains The domains where the loaded extended Field Values will be set. Their IDs must be set.
+     */
+    private void readExtendedFieldValues(Connection c, List<Domain> domains) {
+        if (domains.isEmpty()) {
+            return;
+        }
+        List<Long> domainIds = new ArrayList<Long>(domains.size());
+        for (Domain d : domains) {
+            domainIds.add(d.getID());
+        }
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        Map<Long, List<ExtendedFieldValue>> values = dao.readAll(c, domainIds, ExtendedFieldTypes.DOMAIN);
+        for (Domain d : domains) {
+            d.setExtendedFieldValues(values.get(d.getID()));
         }
     }
 
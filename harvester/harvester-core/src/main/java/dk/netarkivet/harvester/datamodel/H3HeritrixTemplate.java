@@ -82,6 +82,8 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
     public final static String METADATA_ITEMS_PLACEHOLDER = "%{METADATA_ITEMS_PLACEHOLDER}";
     public static final String MAX_TIME_SECONDS_PLACEHOLDER = "%{MAX_TIME_SECONDS_PLACEHOLDER}";
     public static final String CRAWLERTRAPS_PLACEHOLDER = "%{CRAWLERTRAPS_PLACEHOLDER}";
+    /** Placeholder for per-domain crawlertraps grouped as map entries (used by DomainCrawlerTrapsDecideRule). */
+    public static final String DOMAIN_CRAWLERTRAPS_PLACEHOLDER = "%{DOMAIN_CRAWLERTRAPS_PLACEHOLDER}";
 
     public static final Pattern DEDUPLICATION_BEAN_REFERENCE_PATTERN = Pattern.compile(".*ref.*bean.*DeDuplicator.*", Pattern.DOTALL);
 
@@ -453,8 +455,12 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
 	 * With H3 template, we insert the crawlertraps into the template at once.
 	 * They are inserted to be part of a org.archive.modules.deciderules.MatchesListRegexDecideRule
 	 * bean.
+	 * If the template contains the %{DOMAIN_CRAWLERTRAPS_PLACEHOLDER}, the per-domain crawlertraps are instead
+	 * inserted as a map entry keyed by the domain name, to be used by the
+	 * dk.netarkivet.harvester.harvesting.DomainCrawlerTrapsDecideRule bean. The global crawlertraps
+	 * are always inserted in the MatchesListRegexDecideRule bean.
 	 * 
-	 * @param elementName The elementName is currently not used with H3
+	 * @param elementName The name of the domain, or Constants.GLOBAL_CRAWLER_TRAPS_ELEMENT_NAME for the global traps
 	 * @param crawlertraps A list of crawlertraps to be inserted
 	 */
 	public void insertCrawlerTraps(String elementName, List<String> crawlertraps) {
@@ -469,6 +475,18 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
     	if (crawlertraps.isEmpty()) {
     		log.debug("No crawlertraps yet. No insertion is done");
     		return;
+    	} else if (elementName != null && !Constants.GLOBAL_CRAWLER_TRAPS_ELEMENT_NAME.equals(elementName)
+    			&& template.contains(DOMAIN_CRAWLERTRAPS_PLACEHOLDER)) {
+    		log.info("Inserting {} crawlertraps for domain '{}' into the template", crawlertraps.size(), elementName);
+    		StringBuilder sb = new StringBuilder();
+    		sb.append("<entry key=\"" + elementName + "\"><list>\n");
+    		for (String trap: crawlertraps) {
+    			sb.append("<value>" + trap + "</value>\n");
+    		}
+    		sb.append("</list></entry>\n");
+    		// Adding the placeholder again to be able to insert crawlertraps for multiple domains.
+    		sb.append(DOMAIN_CRAWLERTRAPS_PLACEHOLDER + "\n");
+    		this.template = template.replace(DOMAIN_CRAWLERTRAPS_PLACEHOLDER, sb.toString());
     	} else if (!template.contains(CRAWLERTRAPS_PLACEHOLDER)) {	
     		log.warn("The placeholder '" + CRAWLERTRAPS_PLACEHOLDER 
     				+ "' is absent from the template. No insertion is done at all. {} traps were ignored", 
@@ -773,6 +791,7 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
 	public void removePlaceholders() {
 		template = template.replace(METADATA_ITEMS_PLACEHOLDER, "");
 		template = template.replace(CRAWLERTRAPS_PLACEHOLDER, "");
+		template = template.replace(DOMAIN_CRAWLERTRAPS_PLACEHOLDER, "");
 		
 		if (template.contains(METADATA_ITEMS_PLACEHOLDER)) {
 			throw new IllegalState("The placeholder for the property '" + METADATA_ITEMS_PLACEHOLDER  
@@ -782,5 +801,9 @@ public class H3HeritrixTemplate extends HeritrixTemplate implements Serializable
 			throw new IllegalState("The placeholder for the property '" + CRAWLERTRAPS_PLACEHOLDER  
 					+ "' should have been deleted now."); 
 		}		
+		if (template.contains(DOMAIN_CRAWLERTRAPS_PLACEHOLDER)) {
+			throw new IllegalState("The placeholder for the property '" + DOMAIN_CRAWLERTRAPS_PLACEHOLDER
+					+ "' should have been deleted now.");
+		}
 	}
 }
@@ -37,7 +37,6 @@ import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -59,9 +58,6 @@ import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.harvester.datamodel.dao.DAOProviderFactory;
 import dk.netarkivet.harvester.datamodel.eav.EAV;
 import dk.netarkivet.harvester.datamodel.eav.EAV.AttributeAndType;
-import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedField;
-import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldDAO;
-import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldDefaultValue;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldTypes;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValue;
 import dk.netarkivet.harvester.datamodel.extendedfield.ExtendedFieldValueDAO;
@@ -83,6 +79,9 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
     /** The logger. */
     private static final Logger log = LoggerFactory.getLogger(HarvestDefinitionDBDAO.class);
 
+    /** The allocator of harvest definition ids. */
+    private final IdAllocator idAllocator;
+
     /**
      * Comparator used for sorting the UI list of {@link SparseDomainConfiguration}s. Sorts first by domain name
      * alphabetical order, next by configuration name.
@@ -110,6 +109,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.EXTENDEDFIELDTYPE);
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.EXTENDEDFIELD);
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.EXTENDEDFIELDVALUE);
+            idAllocator = DBSpecifics.getInstance().createIdAllocator(IdSequence.HARVESTDEFINITIONS);
         } finally {
             HarvestDBConnection.release(connection);
         }
@@ -132,6 +132,9 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
             try {
                 if (id == null) {
                     id = generateNextID(connection);
+                } else {
+                    // Do not hand out the given id later
+                    idAllocator.reserveUpTo(connection, id);
                 }
 
                 connection.setAutoCommit(false);
@@ -241,18 +244,13 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
     }
 
     /**
-     * Generates the next id of a harvest definition. this implementation retrieves the maximum value of harvest_id in
-     * the DB, and returns this value + 1.
+     * Generates the next id of a harvest definition.
      *
      * @param c An open connection to the harvestDatabase
      * @return The next available ID
      */
-    private synchronized Long generateNextID(Connection c) {
-        Long maxVal = DBUtils.selectLongValue(c, "SELECT max(harvest_id) FROM harvestdefinitions");
-        if (maxVal == null) {
-            maxVal = 0L;
-        }
-        return maxVal + 1L;
+    private Long generateNextID(Connection c) {
+        return idAllocator.nextId(c);
     }
 
     /**
@@ -285,6 +283,24 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      * @see HarvestDefinitionDAO#read(Long)
      */
     private HarvestDefinition read(Connection c, Long harvestDefinitionID) throws UnknownID, IOFailure {
+        HarvestDefinition hd = readWithoutExtendedFieldValues(c, harvestDefinitionID);
+        readExtendedFieldValues(c, Collections.singletonList(hd));
+        return hd;
+    }
+
+    /**
+     * Read the stored harvest definition for the given ID, except for its extended field values, which are left at
+     * the defaults set by the constructor. Use {@link #readExtendedFieldValues(Connection, List)} to read them, for
+     * many harvest definitions at once if possible.
+     *
+     * @param c The used database connection
+     * @param harvestDefinitionID ID number for a harvest definition
+     * @return A harvest definition that has been read from persistent storage.
+     * @throws UnknownID if no entry with that ID exists in the database
+     * @throws IOFailure If DB-failure occurs?
+     */
+    private HarvestDefinition readWithoutExtendedFieldValues(Connection c, Long harvestDefinitionID)
+            throws UnknownID, IOFailure {
         if (!exists(c, harvestDefinitionID)) {
             String message = "Unknown harvest definition " + harvestDefinitionID;
             log.debug(message);
@@ -331,8 +347,6 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
                 fh.setEdition(res.getLong(11));
                 fh.setAudience(res.getString(12));
 
-                readExtendedFieldValues(fh);
-
                 // We found a FullHarvest object, just return it.
                 log.debug("Returned FullHarvest object w/ id {}", harvestDefinitionID);
                 return fh;
@@ -401,8 +415,6 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
                     ph.setChannelId(channelId);
                 }
 
-                readExtendedFieldValues(ph);
-
                 return ph;
             } else {
                 throw new IllegalState("No entries in fullharvests or partialharvests found for id "
@@ -625,10 +637,11 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
             List<Long> hds = DBUtils.selectLongList(c, "SELECT harvest_id FROM harvestdefinitions ORDER BY name");
             log.debug("Getting an iterator for all stored harvestdefinitions.");
 
-            List<HarvestDefinition> orderedList = new LinkedList<HarvestDefinition>();
+            List<HarvestDefinition> orderedList = new ArrayList<HarvestDefinition>(hds.size());
             for (Long id : hds) {
-                orderedList.add(read(c, id));
+                orderedList.add(readWithoutExtendedFieldValues(c, id));
             }
+            readExtendedFieldValues(c, orderedList);
             return orderedList.iterator();
         } finally {
             HarvestDBConnection.release(c);
@@ -919,7 +932,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
                         res.getInt(3), new Date(res.getTimestamp(4).getTime()), res.getBoolean(5), res.getLong(6),
                         res.getString(7), DBUtils.getDateMaybeNull(res, 8), res.getString(9), DBUtils.getLongMaybeNull(
                         res, 10));
-                sph.setExtendedFieldValues(getExtendedFieldValues(sph.getOid()));
+                sph.setExtendedFieldValues(getExtendedFieldValues(c, sph.getOid()));
                 return sph;
             } else {
                 return null;
@@ -1061,7 +1074,7 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
                 long oid = sfh.getOid();
                 List<AttributeAndType> attributesAndTypes = EAV.getInstance().getAttributesAndTypes(EAV.SNAPSHOT_TREE_ID, (int)oid);
                 sfh.setAttributesAndTypes(attributesAndTypes);
-                sfh.setExtendedFieldValues(getExtendedFieldValues(sfh.getOid()));
+                sfh.setExtendedFieldValues(getExtendedFieldValues(c, sfh.getOid()));
                 return sfh;
             } else {
                 return null;
@@ -1382,59 +1395,44 @@ public class HarvestDefinitionDBDAO extends HarvestDefinitionDAO {
      */
     private void saveExtendedFieldValues(Connection c, HarvestDefinition h) throws SQLException {
         List<ExtendedFieldValue> list = h.getExtendedFieldValues();
-        for (int i = 0; i < list.size(); i++) {
-            ExtendedFieldValue efv = list.get(i);
+        for (ExtendedFieldValue efv : list) {
             efv.setInstanceID(h.getOid());
-
-            ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
-            if (efv.getExtendedFieldValueID() != null) {
-                dao.update(c, efv, false);
-            } else {
-                dao.create(c, efv, false);
-            }
         }
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        dao.upsertAll(c, list, false);
     }
 
     /**
-     * Reads all extended Field values from the database for a HarvestDefinition.
+     * Reads all extended Field values from the database for the given HarvestDefinitions, using one query for many
+     * harvest definitions.
      *
-     * @param h HarvestDefinition where loaded extended Field Values will be set
-     * @throws SQLException If database errors occur.
+     * @param c Connection to Database
+     * @param hds HarvestDefinitions where loaded extended Field Values will be set
      */
-    private void readExtendedFieldValues(HarvestDefinition h) throws SQLException {
-        h.setExtendedFieldValues(getExtendedFieldValues(h.getOid()));
+    private void readExtendedFieldValues(Connection c, List<HarvestDefinition> hds) {
+        if (hds.isEmpty()) {
+            return;
+        }
+        List<Long> oids = new ArrayList<Long>(hds.size());
+        for (HarvestDefinition hd : hds) {
+            oids.add(hd.getOid());
+        }
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        Map<Long, List<ExtendedFieldValue>> values = dao.readAll(c, oids, ExtendedFieldTypes.HARVESTDEFINITION);
+        for (HarvestDefinition hd : hds) {
+            hd.setExtendedFieldValues(values.get(hd.getOid()));
+        }
     }
 
     /**
      * Reads all extended Field values from the database for a HarvestDefinitionOid.
      *
+     * @param c Connection to Database
      * @param aOid HarvestDefinition where loaded extended Field Values will be set
      * @return a list of ExtendedFieldValues belonging to the given harvest oid
-     * @throws SQLException If database errors occur.
      */
-    private List<ExtendedFieldValue> getExtendedFieldValues(Long aOid) throws SQLException {
-        List<ExtendedFieldValue> extendedFieldValues = new ArrayList<ExtendedFieldValue>();
-
-        ExtendedFieldDAO dao = ExtendedFieldDAO.getInstance();
-        List<ExtendedField> list = dao.getAll(ExtendedFieldTypes.HARVESTDEFINITION);
-
-        for (int i = 0; i < list.size(); i++) {
-            ExtendedField ef = list.get(i);
-
-            ExtendedFieldValueDAO dao2 = ExtendedFieldValueDAO.getInstance();
-            ExtendedFieldValue efv = dao2.read(ef.getExtendedFieldID(), aOid);
-
-            if (efv == null) {
-                efv = new ExtendedFieldValue();
-                efv.setExtendedFieldID(ef.getExtendedFieldID());
-                efv.setInstanceID(aOid);
-                efv.setContent(new ExtendedFieldDefaultValue(ef.getDefaultValue(), ef.getFormattingPattern(), ef
-                        .getDatatype()).getDBValue());
-            }
-
-            extendedFieldValues.add(efv);
-        }
-
-        return extendedFieldValues;
+    private List<ExtendedFieldValue> getExtendedFieldValues(Connection c, Long aOid) {
+        ExtendedFieldValueDBDAO dao = (ExtendedFieldValueDBDAO) ExtendedFieldValueDAO.getInstance();
+        return dao.readAll(c, Collections.singletonList(aOid), ExtendedFieldTypes.HARVESTDEFINITION).get(aOid);
     }
 }
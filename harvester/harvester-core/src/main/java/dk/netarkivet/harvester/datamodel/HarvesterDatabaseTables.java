@@ -439,6 +439,36 @@ public enum HarvesterDatabaseTables {
             return REQUIRED_VERSION;
         }
 
+        @Override
+        public String getTablename() {
+            return NAME;
+        }
+    },
+    /** Not a table, but the sequences used for allocating ids, see {@link IdSequence}. */
+    IDSEQUENCES {
+        static final String NAME = "id_sequences";
+        static final int REQUIRED_VERSION = 1;
+
+        @Override
+        public int getRequiredVersion() {
+            return REQUIRED_VERSION;
+        }
+
+        @Override
+        public String getTablename() {
+            return NAME;
+        }
+    },
+    /** Not a table, but the indexes used by the harvest status pages, see {@link JobDAO#getStatusInfo}. */
+    HARVESTSTATUSINDEXES {
+        static final String NAME = "harvest_status_indexes";
+        static final int REQUIRED_VERSION = 1;
+
+        @Override
+        public int getRequiredVersion() {
+            return REQUIRED_VERSION;
+        }
+
         @Override
         public String getTablename() {
             return NAME;
@@ -0,0 +1,54 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+
+/**
+ * Allocates ids for new rows in a table of the harvest database. An allocator is safe to use from many threads, and
+ * allocators backed by database sequences are also safe to use from several JVMs sharing the same database.
+ * <p>
+ * The allocator used for a given table is chosen by {@link DBSpecifics#createIdAllocator(IdSequence)}.
+ */
+public interface IdAllocator {
+
+    /**
+     * Allocate a new id. The id has not been handed out before by this or any other allocator for the same table.
+     *
+     * @param c an open connection to the harvestDatabase
+     * @return the new id
+     * @throws dk.netarkivet.common.exceptions.IOFailure If the id cannot be allocated
+     */
+    long nextId(Connection c);
+
+    /**
+     * Make sure that all ids allocated from now on are greater than the given id. Used when rows have been inserted
+     * with explicitly given ids, or when the ids must continue from a given number after restoring a database.
+     *
+     * @param c an open connection to the harvestDatabase
+     * @param id the id which must not be allocated, nor any lower id
+     * @throws dk.netarkivet.common.exceptions.IOFailure If the allocator cannot be advanced
+     */
+    void reserveUpTo(Connection c, long id);
+
+}
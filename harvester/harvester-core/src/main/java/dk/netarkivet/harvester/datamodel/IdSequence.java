@@ -0,0 +1,77 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+/**
+ * The id columns of the harvest database which are allocated by an {@link IdAllocator}, with the database sequences
+ * backing them where the database supports sequences.
+ * <p>
+ * Each sequence is incremented by its block size, and an allocator hands out the ids of a whole block before it
+ * fetches the next value of the sequence. The block size is part of the database schema: changing it requires the
+ * sequence to be recreated.
+ */
+public enum IdSequence {
+
+    /** The ids of jobs. Job generation creates many jobs at a time. */
+    JOBS("jobs", "job_id", 10),
+    /** The ids of harvest definitions. */
+    HARVESTDEFINITIONS("harvestdefinitions", "harvest_id", 1),
+    /** The ids of extended fields. */
+    EXTENDEDFIELD("extendedfield", "extendedfield_id", 1),
+    /** The ids of extended field values, which are created for every domain in bulk imports. */
+    EXTENDEDFIELDVALUE("extendedfieldvalue", "extendedfieldvalue_id", 100);
+
+    /** The table. */
+    private final String tablename;
+    /** The id column of the table. */
+    private final String idColumn;
+    /** The number of ids allocated per value fetched from the sequence. */
+    private final int blockSize;
+
+    IdSequence(String tablename, String idColumn, int blockSize) {
+        this.tablename = tablename;
+        this.idColumn = idColumn;
+        this.blockSize = blockSize;
+    }
+
+    /** @return the name of the table. */
+    public String getTablename() {
+        return tablename;
+    }
+
+    /** @return the name of the id column of the table. */
+    public String getIdColumn() {
+        return idColumn;
+    }
+
+    /** @return the number of ids allocated per value fetched from the sequence, i.e. the increment of the sequence. */
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /** @return the name of the database sequence. */
+    public String getSequenceName() {
+        return tablename + "_" + idColumn + "_seq";
+    }
+
+}
@@ -30,6 +30,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -63,6 +64,13 @@ public class JobDBDAO extends JobDAO {
     /** The logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(JobDBDAO.class);
 
+    /** The allocator of job ids. */
+    private final IdAllocator idAllocator;
+
+    /** The counts of jobs matching the harvest status queries. */
+    private final JobStatusCountCache countCache = new JobStatusCountCache(
+            Settings.getLong(CommonSettings.HARVEST_STATUS_COUNT_CACHE_SECONDS) * 1000L);
+
     /**
      * Create a new JobDAO implemented using database. This constructor also tries to upgrade the jobs and jobs_configs
      * tables in the current database. throws and IllegalState exception, if it is impossible to make the necessary
@@ -73,6 +81,13 @@ public class JobDBDAO extends JobDAO {
         try {
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.JOBS);
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.JOBCONFIGS);
+            idAllocator = DBSpecifics.getInstance().createIdAllocator(IdSequence.JOBS);
+            // Set to zero originally, can be set after admin machine breakdown,
+            // and then used as the point of reference.
+            long restoreId = Settings.getLong(Constants.NEXT_JOB_ID);
+            if (restoreId > 0) {
+                idAllocator.reserveUpTo(connection, restoreId - 1L);
+            }
         } finally {
             HarvestDBConnection.release(connection);
         }
@@ -88,7 +103,7 @@ public class JobDBDAO extends JobDAO {
      * @throws PermissionDenied If a job already exists in persistent storage with the same id as the given job
      * @throws IOFailure If some IOException occurs while writing the job to persistent storage
      */
-    public synchronized void create(Job job) {
+    public void create(Job job) {
         ArgumentNotValid.checkNotNull(job, "Job job");
         // Check that job.getOrigHarvestDefinitionID() refers to existing harvestdefinition.
         Long harvestId = job.getOrigHarvestDefinitionID();
@@ -155,6 +170,7 @@ public class JobDBDAO extends JobDAO {
             createJobConfigsEntries(connection, job);
             connection.commit();
             job.setEdition(initialEdition);
+            countCache.clear();
         } catch (SQLException e) {
             String message = "SQL error creating job " + job + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
@@ -248,24 +264,13 @@ public class JobDBDAO extends JobDAO {
     }
 
     /**
-     * Generates the next id of job.
+     * Generates the next id of job. Ids are never lower than the NEXT_JOB_ID declared in settings.
      *
      * @param c an open connection to the harvestDatabase
      * @return id
      */
     private Long generateNextID(Connection c) {
-        // Set to zero original, can be set after admin machine breakdown,
-        // and the use this as the point of reference.
-        Long restoreId = Settings.getLong(Constants.NEXT_JOB_ID);
-
-        Long maxVal = DBUtils.selectLongValue(c, "SELECT MAX(job_id) FROM jobs");
-        if (maxVal == null) {
-            maxVal = 0L;
-        }
-        // return the largest number of the two numbers: the NEXT_JOB_ID
-        // declared in settings and max value of job_id used
-        // in the jobs table.
-        return ((restoreId > maxVal) ? restoreId : maxVal + 1L);
+        return idAllocator.nextId(c);
     }
 
     /**
@@ -341,6 +346,8 @@ public class JobDBDAO extends JobDAO {
             createJobConfigsEntries(connection, job);
             connection.commit();
             job.setEdition(edition);
+            // The status of the job may have changed
+            countCache.clear();
         } catch (SQLException e) {
             String message = "SQL error updating job " + job + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
@@ -691,6 +698,10 @@ public class JobDBDAO extends JobDAO {
 
     /**
      * Get a list of small and immediately usable status information for given job status and in given job id order.
+     * <p>
+     * If the query is paged and anchored on a job ID, the page is found by seeking from the anchor in the job ID index.
+     * The total number of matching jobs is only counted when it cannot be derived from the page itself, and such
+     * counts are cached for {@link CommonSettings#HARVEST_STATUS_COUNT_CACHE_SECONDS} seconds.
      *
      * @param query the user query
      * @throws IOFailure on trouble getting data from database
@@ -702,21 +713,42 @@ public class JobDBDAO extends JobDAO {
         Connection c = HarvestDBConnection.get();
 
         try {
-            // Obtain total count without limit
-            // NB this will be a performance bottleneck if the table gets big
-            long totalRowsCount = 0;
-
-            final HarvestStatusQueryBuilder harvestStatusQueryBuilder = buildSqlQuery(query, true);
-            log.debug("Unpopulated query is {}.", harvestStatusQueryBuilder);
-            s = harvestStatusQueryBuilder.getPopulatedStatement(c);
+            final HarvestStatusQueryBuilder selectQueryBuilder = buildSqlQuery(query, false);
+            log.debug("Unpopulated query is {}.", selectQueryBuilder);
+            s = selectQueryBuilder.getPopulatedStatement(c);
             log.debug("Query is {}.", s);
-            ResultSet res = s.executeQuery();
-            res.next();
-            totalRowsCount = res.getLong(1);
+            List<JobStatusInfo> jobs = makeJobStatusInfoListFromResultset(s.executeQuery());
+            s.close();
+            if (isPagedBeforeAnchor(query)) {
+                // The page was read in the reverse sort order, seeking back from the anchor
+                Collections.reverse(jobs);
+            }
 
-            s = buildSqlQuery(query, false).getPopulatedStatement(c);
-            res = s.executeQuery();
-            List<JobStatusInfo> jobs = makeJobStatusInfoListFromResultset(res);
+            long totalRowsCount;
+            long pageSize = query.getPageSize();
+            long offset = getPageOffset(query);
+            if (pageSize == HarvestStatusQuery.PAGE_SIZE_NONE) {
+                totalRowsCount = jobs.size();
+            } else if (!isAnchored(query) && jobs.size() < pageSize && (!jobs.isEmpty() || offset == 0)) {
+                // This is the last page
+                totalRowsCount = offset + jobs.size();
+            } else {
+                final HarvestStatusQueryBuilder countQueryBuilder = buildSqlQuery(query, true);
+                totalRowsCount = countCache.getCount(c, countQueryBuilder.getCacheKey(),
+                        new JobStatusCountCache.Counter() {
+                            @Override
+                            public long count(Connection connection) throws SQLException {
+                                PreparedStatement countStatement = countQueryBuilder.getPopulatedStatement(connection);
+                                try {
+                                    ResultSet res = countStatement.executeQuery();
+                                    res.next();
+                                    return res.getLong(1);
+                                } finally {
+                                    DBUtils.closeStatementIfOpen(countStatement);
+                                }
+                            }
+                        });
+            }
 
             log.debug("Harveststatus constructed based on given query.");
             return new HarvestStatus(totalRowsCount, jobs);
@@ -726,10 +758,36 @@ public class JobDBDAO extends JobDAO {
             log.warn(message, e);
             throw new IOFailure(message, e);
         } finally {
+            DBUtils.closeStatementIfOpen(s);
             HarvestDBConnection.release(c);
         }
     }
 
+    /**
+     * @param query the user query
+     * @return true, if the query is paged and the page is anchored on a job ID
+     */
+    private static boolean isAnchored(HarvestStatusQuery query) {
+        return query.getPageSize() != HarvestStatusQuery.PAGE_SIZE_NONE
+                && (query.getAfterJobId() != null || query.getBeforeJobId() != null);
+    }
+
+    /**
+     * @param query the user query
+     * @return true, if the query is paged and the page holds the jobs preceding a job ID
+     */
+    private static boolean isPagedBeforeAnchor(HarvestStatusQuery query) {
+        return isAnchored(query) && query.getBeforeJobId() != null;
+    }
+
+    /**
+     * @param query the user query
+     * @return the number of matching jobs preceding the page, if the page is not anchored on a job ID
+     */
+    private static long getPageOffset(HarvestStatusQuery query) {
+        return Math.max(0L, (query.getStartPageIndex() - 1) * query.getPageSize());
+    }
+
     /**
      * Calculate all jobIDs to use for duplication reduction.
      * <p>
@@ -893,6 +951,8 @@ public class JobDBDAO extends JobDAO {
             statement.setLong(3, oldJobID);
             statement.executeUpdate();
             connection.commit();
+            // Resubmitting is done from the harvest status pages, which should show the new job at once
+            countCache.clear();
         } catch (SQLException e) {
             String message = "SQL error rescheduling job #" + oldJobID + " in database" + "\n"
                     + ExceptionUtils.getSQLExceptionCause(e);
@@ -950,6 +1010,13 @@ public class JobDBDAO extends JobDAO {
             return sqlString;
         }
 
+        /**
+         * @return a key identifying the query and its parameter values
+         */
+        String getCacheKey() {
+            return sqlString + " " + paramValues;
+        }
+
         /**
          * @param sqlString the sqlString to set
          */
@@ -1136,8 +1203,16 @@ public class JobDBDAO extends JobDAO {
     	}
 
         if (!count) {
+            // A page preceding an anchor is read in the reverse order and reversed afterwards
+            boolean ascending = query.isSortAscending() != isPagedBeforeAnchor(query);
+            if (isAnchored(query)) {
+                Long anchor = (query.getAfterJobId() != null) ? query.getAfterJobId() : query.getBeforeJobId();
+                sql.append(ascending ? " AND jobs.job_id > ?" : " AND jobs.job_id < ?");
+                sq.addParameter(Long.class, anchor);
+            }
+
             sql.append(" ORDER BY jobs.job_id");
-            if (!query.isSortAscending()) {
+            if (!ascending) {
                 sql.append(" " + SORT_ORDER.DESC.name());
             } else {
                 sql.append(" " + SORT_ORDER.ASC.name());
@@ -1145,9 +1220,8 @@ public class JobDBDAO extends JobDAO {
 
             long pagesize = query.getPageSize();
             if (pagesize != HarvestStatusQuery.PAGE_SIZE_NONE) {
-                sql.append(" "
-                        + DBSpecifics.getInstance().getOrderByLimitAndOffsetSubClause(pagesize,
-                                (query.getStartPageIndex() - 1) * pagesize));
+                long offset = isAnchored(query) ? 0L : getPageOffset(query);
+                sql.append(" " + DBSpecifics.getInstance().getOrderByLimitAndOffsetSubClause(pagesize, offset));
             }
         }
 
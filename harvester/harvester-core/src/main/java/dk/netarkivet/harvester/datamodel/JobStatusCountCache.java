@@ -0,0 +1,211 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.utils.ExceptionUtils;
+
+/**
+ * A cache of the number of jobs matching the queries of the harvest status pages. Counting all matching jobs is the
+ * most expensive part of showing a page of a large jobs table, and the count is only used for showing the total and
+ * enabling the pagination links.
+ * <p>
+ * A count is computed synchronously the first time a query is seen. When it is older than the maximum age, the old
+ * count is returned while a new count is computed in the background, so at most one page view waits for the count of
+ * a given query. The cache is cleared whenever a job is created or updated, so counts are only kept while the jobs do
+ * not change.
+ */
+class JobStatusCountCache {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(JobStatusCountCache.class);
+
+    /** The maximum number of queries whose counts are cached. */
+    private static final int MAX_ENTRIES = 200;
+
+    /** Computes a count. */
+    interface Counter {
+        /**
+         * @param c an open connection to the harvestDatabase
+         * @return the count
+         * @throws SQLException If the query fails
+         */
+        long count(Connection c) throws SQLException;
+    }
+
+    /** A cached count. */
+    private static final class Entry {
+        /** The count. */
+        final long count;
+        /** When the count was computed. */
+        final long computedAt;
+        /** True while a new count is computed in the background. */
+        boolean refreshing;
+
+        Entry(long count, long computedAt) {
+            this.count = count;
+            this.computedAt = computedAt;
+        }
+    }
+
+    /** The maximum age in milliseconds of a count returned without starting a refresh. */
+    private final long maxAgeMillis;
+    /** The cached counts by query, least recently used first. */
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    /** Incremented when the cache is cleared, so counts started before are not cached. Guarded by entries. */
+    private long generation;
+    /** The single thread computing counts in the background. */
+    private final ExecutorService refresher;
+
+    /**
+     * @param maxAgeMillis The maximum age in milliseconds of a count returned without starting a refresh. If zero or
+     * negative, every count is computed synchronously.
+     */
+    JobStatusCountCache(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60L, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(MAX_ENTRIES), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "JobStatusCountRefresher");
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        this.refresher = executor;
+    }
+
+    /**
+     * Get the count of a query.
+     *
+     * @param c an open connection to the harvestDatabase, used if the count is computed synchronously
+     * @param key A key identifying the query and its parameters
+     * @param counter Computes the count
+     * @return the count, possibly somewhat older than the maximum age
+     * @throws SQLException If computing the count synchronously fails
+     */
+    long getCount(Connection c, final String key, final Counter counter) throws SQLException {
+        if (maxAgeMillis <= 0) {
+            return counter.count(c);
+        }
+        final Entry entry;
+        final long startGeneration;
+        boolean refresh = false;
+        synchronized (entries) {
+            startGeneration = generation;
+            entry = entries.get(key);
+            if (entry != null && !entry.refreshing && System.currentTimeMillis() - entry.computedAt > maxAgeMillis) {
+                entry.refreshing = true;
+                refresh = true;
+            }
+        }
+        if (entry == null) {
+            long count = counter.count(c);
+            put(key, count, startGeneration);
+            return count;
+        }
+        if (refresh) {
+            try {
+                refresher.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        Connection refreshConnection = null;
+                        try {
+                            refreshConnection = HarvestDBConnection.get();
+                            put(key, counter.count(refreshConnection), startGeneration);
+                        } catch (SQLException e) {
+                            log.warn("Failed to refresh the count of jobs for the query '{}'\n{}", key,
+                                    ExceptionUtils.getSQLExceptionCause(e), e);
+                            refreshFailed(entry);
+                        } catch (RuntimeException e) {
+                            log.warn("Failed to refresh the count of jobs for the query '{}'", key, e);
+                            refreshFailed(entry);
+                        } finally {
+                            if (refreshConnection != null) {
+                                HarvestDBConnection.release(refreshConnection);
+                            }
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                log.debug("Too many counts waiting to be refreshed, keeping the count of '{}'", key);
+                refreshFailed(entry);
+            }
+        }
+        return entry.count;
+    }
+
+    /**
+     * Forget all cached counts.
+     */
+    void clear() {
+        synchronized (entries) {
+            entries.clear();
+            generation++;
+        }
+    }
+
+    /**
+     * Cache a count, unless the cache has been cleared since the count was started.
+     *
+     * @param key The key of the query
+     * @param count The count
+     * @param countGeneration The generation of the cache when the count was started
+     */
+    private void put(String key, long count, long countGeneration) {
+        synchronized (entries) {
+            if (countGeneration == generation) {
+                entries.put(key, new Entry(count, System.currentTimeMillis()));
+            }
+        }
+    }
+
+    /**
+     * Allow the next request to start a new refresh.
+     */
+    private void refreshFailed(Entry entry) {
+        synchronized (entries) {
+            entry.refreshing = false;
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+
+import dk.netarkivet.common.utils.DBUtils;
+
+/**
+ * An {@link IdAllocator} for databases without sequences. The next id is one more than the largest id in the table or
+ * the last id allocated, whichever is larger, so ids are only unique within one JVM.
+ */
+class MaxIdAllocator implements IdAllocator {
+
+    /** The table and column. */
+    private final IdSequence sequence;
+    /** The lowest id which may be allocated next. */
+    private long minimumId = 1L;
+
+    /**
+     * @param sequence The table and column to allocate ids for.
+     */
+    MaxIdAllocator(IdSequence sequence) {
+        this.sequence = sequence;
+    }
+
+    @Override
+    public synchronized long nextId(Connection c) {
+        Long maxVal = DBUtils.selectLongValue(c, "SELECT MAX(" + sequence.getIdColumn() + ") FROM "
+                + sequence.getTablename());
+        if (maxVal == null) {
+            maxVal = 0L;
+        }
+        long id = Math.max(maxVal + 1L, minimumId);
+        minimumId = id + 1L;
+        return id;
+    }
+
+    @Override
+    public synchronized void reserveUpTo(Connection c, long id) {
+        minimumId = Math.max(minimumId, id + 1L);
+    }
+
+}
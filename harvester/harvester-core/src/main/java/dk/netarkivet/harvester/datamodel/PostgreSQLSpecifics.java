@@ -26,12 +26,16 @@ package dk.netarkivet.harvester.datamodel;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
 
 /**
  * PostgreSQL-specific implementation of DB methods. Intended for PostgreSQL 8.3 and above.
@@ -95,6 +99,49 @@ public class PostgreSQLSpecifics extends DBSpecifics {
         return "LIMIT " + limit + " OFFSET " + offset;
     }
 
+    @Override
+    protected String getNextSequenceValueStatement(IdSequence sequence) {
+        return "SELECT nextval('" + sequence.getSequenceName() + "')";
+    }
+
+    @Override
+    protected String[] getCreateIdSequenceStatements(IdSequence sequence, long start) {
+        return new String[] {"CREATE SEQUENCE " + sequence.getSequenceName() + " START WITH " + start
+                + " INCREMENT BY " + sequence.getBlockSize()};
+    }
+
+    @Override
+    protected String getSkipSequenceValuesStatement(IdSequence sequence, long count) {
+        return "SELECT MAX(nextval('" + sequence.getSequenceName() + "')) FROM generate_series(1, " + count + ")";
+    }
+
+    /**
+     * In addition to the indexes on jobs, an expression index on the upper case harvest definition names is created for
+     * the case insensitive name filter. If the pg_trgm extension is installed, a trigram index is created as well, so
+     * name filters with leading wildcards can use an index.
+     */
+    @Override
+    protected String[] getCreateHarvestStatusIndexStatements(Connection c) {
+        List<String> statements = new ArrayList<String>(Arrays.asList(super.getCreateHarvestStatusIndexStatements(c)));
+        statements.add("CREATE INDEX harvestdefinitionsuppername ON harvestdefinitions (UPPER(name) "
+                + "varchar_pattern_ops)");
+        boolean hasTrigrams;
+        try {
+            hasTrigrams = DBUtils.selectIntValue(c, "SELECT COUNT(*) FROM pg_extension WHERE extname = 'pg_trgm'") > 0;
+        } catch (IOFailure e) {
+            // pg_extension was introduced in PostgreSQL 9.1
+            hasTrigrams = false;
+        }
+        if (hasTrigrams) {
+            statements.add("CREATE INDEX harvestdefinitionsnametrgm ON harvestdefinitions "
+                    + "USING gin (UPPER(name) gin_trgm_ops)");
+        } else {
+            log.info("The pg_trgm extension is not installed, so harvest definition names with leading wildcards "
+                    + "will be matched without an index");
+        }
+        return statements.toArray(new String[statements.size()]);
+    }
+
     @Override
     public boolean supportsClob() {
         return false;
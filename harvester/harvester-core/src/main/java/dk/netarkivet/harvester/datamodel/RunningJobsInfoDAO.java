@@ -83,6 +83,17 @@ public abstract class RunningJobsInfoDAO implements DAO {
      */
     public abstract StartedJobInfo[] getFullJobHistory(long jobId);
 
+    /**
+     * Returns an array of progress records chronologically sorted for the given job ID, recorded after a given crawl
+     * time. Used to follow the history of a job without reading it all again.
+     *
+     * @param jobId the job id.
+     * @param elapsedSeconds the crawl time (in seconds) after which records are returned.
+     * @return an array of progress records chronologically sorted for the given job ID, with a crawl time greater than
+     * the given one.
+     */
+    public abstract StartedJobInfo[] getJobHistoryAfter(long jobId, long elapsedSeconds);
+
     /**
      * Returns an array of progress records chronologically sorted for the given job ID, starting at a given crawl time,
      * and limited to a given number of records.
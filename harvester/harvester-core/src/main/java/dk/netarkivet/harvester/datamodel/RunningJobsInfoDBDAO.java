@@ -307,6 +307,41 @@ public class RunningJobsInfoDBDAO extends RunningJobsInfoDAO {
         }
     }
 
+    /**
+     * Returns an array of progress records chronologically sorted for the given job ID, recorded after a given crawl
+     * time.
+     *
+     * @param jobId the job id.
+     * @param elapsedSeconds the crawl time (in seconds) after which records are returned.
+     * @return an array of progress records chronologically sorted for the given job ID, with a crawl time greater than
+     * the given one.
+     */
+    @Override
+    public StartedJobInfo[] getJobHistoryAfter(long jobId, long elapsedSeconds) {
+        Connection c = HarvestDBConnection.get();
+        PreparedStatement stm = null;
+        try {
+            stm = c.prepareStatement("SELECT " + HM_COLUMN.getColumnsInOrder() + " FROM runningJobsHistory"
+                    + " WHERE jobId=? AND elapsedSeconds > ?" + " ORDER BY elapsedSeconds ASC");
+            stm.setLong(1, jobId);
+            stm.setLong(2, elapsedSeconds);
+
+            ResultSet rs = stm.executeQuery();
+            List<StartedJobInfo> infosForJob = listFromResultSet(rs);
+
+            return (StartedJobInfo[]) infosForJob.toArray(new StartedJobInfo[infosForJob.size()]);
+
+        } catch (SQLException e) {
+            String message = "SQL error querying runningJobsHistory for job ID " + jobId + " from database" + "\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.closeStatementIfOpen(stm);
+            HarvestDBConnection.release(c);
+        }
+    }
+
     /**
      * Returns the most recent record for every job, partitioned by harvest definition name.
      *
@@ -0,0 +1,140 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.DBUtils;
+
+/**
+ * An {@link IdAllocator} backed by a database sequence. Each value fetched from the sequence starts a block of
+ * {@link IdSequence#getBlockSize()} ids, which are handed out without further round trips to the database. Ids of a
+ * block which is not used up before the JVM stops are never used.
+ * <p>
+ * Ids within a block are handed out without locking; only fetching a new block is serialized.
+ */
+class SequenceIdAllocator implements IdAllocator {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(SequenceIdAllocator.class);
+
+    /** A block of ids. */
+    private static final class Block {
+        /** The next id to hand out. */
+        final AtomicLong next;
+        /** The last id of the block. */
+        final long last;
+
+        Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+
+    /** The database specifics providing the sequence statements. */
+    private final DBSpecifics dbSpecifics;
+    /** The table, column and sequence. */
+    private final IdSequence sequence;
+    /** The block ids are currently handed out from. Initially empty. */
+    private final AtomicReference<Block> block = new AtomicReference<Block>(new Block(1L, 0L));
+
+    /**
+     * @param dbSpecifics The database specifics providing the sequence statements.
+     * @param sequence The table, column and sequence to allocate ids for.
+     */
+    SequenceIdAllocator(DBSpecifics dbSpecifics, IdSequence sequence) {
+        this.dbSpecifics = dbSpecifics;
+        this.sequence = sequence;
+    }
+
+    @Override
+    public long nextId(Connection c) {
+        while (true) {
+            Block current = block.get();
+            long id = current.next.getAndIncrement();
+            if (id <= current.last) {
+                return id;
+            }
+            synchronized (this) {
+                // Another thread may already have fetched the next block
+                if (block.get() == current) {
+                    block.set(fetchBlock(c));
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves the sequence forward past the given id by fetching values from it, so it never moves backwards, even if
+     * other applications use the sequence at the same time.
+     */
+    @Override
+    public synchronized void reserveUpTo(Connection c, long id) {
+        Block fetched = fetchBlock(c);
+        if (fetched.last < id) {
+            log.info("Moving the sequence '{}' forward past {}", sequence.getSequenceName(), id);
+        }
+        while (fetched.last < id) {
+            long blocks = (id - fetched.last + sequence.getBlockSize() - 1L) / sequence.getBlockSize();
+            String skipStatement = dbSpecifics.getSkipSequenceValuesStatement(sequence, blocks);
+            if (skipStatement == null) {
+                fetched = fetchBlock(c);
+            } else {
+                fetched = toBlock(DBUtils.selectLongValue(c, skipStatement));
+            }
+        }
+        if (fetched.next.get() <= id) {
+            fetched.next.set(id + 1L);
+        }
+        block.set(fetched);
+    }
+
+    /**
+     * Fetch the next value of the sequence.
+     *
+     * @param c an open connection to the harvestDatabase
+     * @return the block of ids starting with the value
+     */
+    private Block fetchBlock(Connection c) {
+        return toBlock(DBUtils.selectLongValue(c, dbSpecifics.getNextSequenceValueStatement(sequence)));
+    }
+
+    /**
+     * @param first A value fetched from the sequence
+     * @return the block of ids starting with the value
+     * @throws IOFailure if the value is null
+     */
+    private Block toBlock(Long first) {
+        if (first == null) {
+            throw new IOFailure("No value returned from the sequence '" + sequence.getSequenceName() + "'");
+        }
+        return new Block(first, first + sequence.getBlockSize() - 1L);
+    }
+
+}
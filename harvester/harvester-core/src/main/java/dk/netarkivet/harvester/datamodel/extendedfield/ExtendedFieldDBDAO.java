@@ -37,8 +37,11 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.harvester.datamodel.DBSpecifics;
 import dk.netarkivet.harvester.datamodel.HarvestDBConnection;
 import dk.netarkivet.harvester.datamodel.HarvesterDatabaseTables;
+import dk.netarkivet.harvester.datamodel.IdAllocator;
+import dk.netarkivet.harvester.datamodel.IdSequence;
 
 /**
  * A database-based implementation of the ExtendedFieldDBDAO class.
@@ -48,6 +51,9 @@ public class ExtendedFieldDBDAO extends ExtendedFieldDAO {
     /** The logger for this class. */
     private static final Logger log = LoggerFactory.getLogger(ExtendedFieldDBDAO.class);
 
+    /** The allocator of extended field ids. */
+    private final IdAllocator idAllocator;
+
     /**
      * Constructor for the ExtendedFieldDBDAO object.
      */
@@ -56,6 +62,7 @@ public class ExtendedFieldDBDAO extends ExtendedFieldDAO {
         try {
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.EXTENDEDFIELD);
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.EXTENDEDFIELDVALUE);
+            idAllocator = DBSpecifics.getInstance().createIdAllocator(IdSequence.EXTENDEDFIELD);
         } finally {
             HarvestDBConnection.release(connection);
         }
@@ -116,19 +123,13 @@ public class ExtendedFieldDBDAO extends ExtendedFieldDAO {
     }
 
     /**
-     * Generates the next id of a extended field. this implementation retrieves the maximum value of extendedfield_id in
-     * the DB, and returns this value + 1.
+     * Generates the next id of a extended field.
      *
      * @param c an open connection to the HarvestDatabase
      * @return The next available ID
      */
     private Long generateNextID(Connection c) {
-        // FIXME Synchronization problem, this is why one should always use identity rows or generators.
-        Long maxVal = DBUtils.selectLongValue(c, "SELECT max(extendedfield_id) FROM extendedfield");
-        if (maxVal == null) {
-            maxVal = 0L;
-        }
-        return maxVal + 1L;
+        return idAllocator.nextId(c);
     }
 
     /**
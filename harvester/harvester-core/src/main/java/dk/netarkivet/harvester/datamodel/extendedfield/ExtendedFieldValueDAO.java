@@ -22,6 +22,10 @@
  */
 package dk.netarkivet.harvester.datamodel.extendedfield;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
 /**
  * Interface for creating and accessing extended fields in persistent storage.
  */
@@ -67,6 +71,25 @@ public abstract class ExtendedFieldValueDAO {
      */
     public abstract ExtendedFieldValue read(Long aExtendedFieldID, Long aInstanceID);
 
+    /**
+     * Read the values of all extended fields of the given type for many instances at once. Every instance gets one
+     * value per extended field of the type, in the order of the fields; fields without a stored value get a new,
+     * unsaved value holding the default of the field.
+     *
+     * @param aInstanceIDs The ids of the instances (domains, harvest definitions) to read values for
+     * @param aExtendedFieldType The type of the extended fields, see {@link ExtendedFieldTypes}
+     * @return a map from each of the given instance ids to the list of its extended field values
+     */
+    public abstract Map<Long, List<ExtendedFieldValue>> readAll(Collection<Long> aInstanceIDs, long aExtendedFieldType);
+
+    /**
+     * Save the given ExtendedFieldValues in persistent storage using batched statements. Values without an id are
+     * created and given a new id, values with an id are updated.
+     *
+     * @param aExtendedFieldValues The ExtendedFieldValues to create or update
+     */
+    public abstract void upsertAll(List<ExtendedFieldValue> aExtendedFieldValues);
+
     /**
      * Update a ExtendedFieldValue in persistent storage.
      *
@@ -26,6 +26,13 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -34,8 +41,12 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.ExceptionUtils;
+import dk.netarkivet.harvester.datamodel.DBSpecifics;
 import dk.netarkivet.harvester.datamodel.HarvestDBConnection;
 import dk.netarkivet.harvester.datamodel.HarvesterDatabaseTables;
+import dk.netarkivet.harvester.datamodel.IdAllocator;
+import dk.netarkivet.harvester.datamodel.IdSequence;
 
 /**
  * Implementation class for the ExtendedFieldValueDAO interface.
@@ -45,6 +56,15 @@ public class ExtendedFieldValueDBDAO extends ExtendedFieldValueDAO {
     /** The logger. */
     private static final Logger log = LoggerFactory.getLogger(ExtendedFieldValueDBDAO.class);
 
+    /** The maximum number of instance ids in the IN-list of one query in {@link #readAll(Connection, Collection, long)}. */
+    private static final int MAX_IDS_PER_QUERY = 1000;
+
+    /** The number of statements sent to the database in each batch by {@link #upsertAll(Connection, List, boolean)}. */
+    private static final int BATCH_SIZE = 500;
+
+    /** The allocator of extended field value ids. */
+    private final IdAllocator idAllocator;
+
     /**
      * Constructor for the ExtendedFieldValueDBDAO class.
      */
@@ -54,6 +74,7 @@ public class ExtendedFieldValueDBDAO extends ExtendedFieldValueDAO {
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.EXTENDEDFIELD);
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.EXTENDEDFIELDTYPE);
             HarvesterDatabaseTables.checkVersion(connection, HarvesterDatabaseTables.EXTENDEDFIELDVALUE);
+            idAllocator = DBSpecifics.getInstance().createIdAllocator(IdSequence.EXTENDEDFIELDVALUE);
         } finally {
             HarvestDBConnection.release(connection);
         }
@@ -117,13 +138,7 @@ public class ExtendedFieldValueDBDAO extends ExtendedFieldValueDAO {
      * @return the ID for next extendedvFieldValue inserted.
      */
     private Long generateNextID(Connection c) {
-        // FIXME synchronize or use identity row or generator.
-        Long maxVal = DBUtils.selectLongValue(c, "SELECT max(extendedfieldvalue_id) FROM extendedfieldvalue");
-
-        if (maxVal == null) {
-            maxVal = 0L;
-        }
-        return maxVal + 1L;
+        return idAllocator.nextId(c);
     }
 
     @Override
@@ -277,4 +292,195 @@ public class ExtendedFieldValueDBDAO extends ExtendedFieldValueDAO {
         }
     }
 
+    @Override
+    public Map<Long, List<ExtendedFieldValue>> readAll(Collection<Long> aInstanceIDs, long aExtendedFieldType) {
+        ArgumentNotValid.checkNotNull(aInstanceIDs, "Collection<Long> aInstanceIDs");
+        Connection connection = HarvestDBConnection.get();
+        try {
+            return readAll(connection, aInstanceIDs, aExtendedFieldType);
+        } finally {
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Read the values of all extended fields of the given type for many instances, using one query per
+     * {@value #MAX_IDS_PER_QUERY} instances instead of one query per field and instance.
+     *
+     * @param connection an open connection to the HarvestDatabase
+     * @param aInstanceIDs The ids of the instances to read values for
+     * @param aExtendedFieldType The type of the extended fields, see {@link ExtendedFieldTypes}
+     * @return a map from each of the given instance ids to the list of its extended field values, in the order of the
+     * extended fields. Fields without a stored value get a new value holding the default of the field.
+     */
+    public Map<Long, List<ExtendedFieldValue>> readAll(Connection connection, Collection<Long> aInstanceIDs,
+            long aExtendedFieldType) {
+        ArgumentNotValid.checkNotNull(connection, "Connection connection");
+        ArgumentNotValid.checkNotNull(aInstanceIDs, "Collection<Long> aInstanceIDs");
+        List<Long> instanceIds = new ArrayList<Long>(new LinkedHashSet<Long>(aInstanceIDs));
+        Map<Long, List<ExtendedFieldValue>> result = new LinkedHashMap<Long, List<ExtendedFieldValue>>();
+        if (instanceIds.isEmpty()) {
+            return result;
+        }
+        List<ExtendedField> extendedFields = ExtendedFieldDAO.getInstance().getAll(aExtendedFieldType);
+        Map<String, ExtendedFieldValue> stored = new HashMap<String, ExtendedFieldValue>();
+        if (!extendedFields.isEmpty()) {
+            // Pad the IN-list to a fixed length, so all queries share the same prepared statement
+            int idsPerQuery = Math.min(MAX_IDS_PER_QUERY, instanceIds.size());
+            StringBuilder sql = new StringBuilder("SELECT v.extendedfieldvalue_id, v.extendedfield_id, v.instance_id, "
+                    + "v.content FROM extendedfieldvalue v, extendedfield f "
+                    + "WHERE v.extendedfield_id = f.extendedfield_id AND f.extendedfieldtype_id = ? "
+                    + "AND v.instance_id IN (");
+            for (int i = 0; i < idsPerQuery; i++) {
+                sql.append(i == 0 ? "?" : ", ?");
+            }
+            sql.append(") ORDER BY v.extendedfieldvalue_id");
+            PreparedStatement statement = null;
+            try {
+                statement = connection.prepareStatement(sql.toString());
+                for (int start = 0; start < instanceIds.size(); start += idsPerQuery) {
+                    List<Long> chunk = instanceIds.subList(start, Math.min(start + idsPerQuery, instanceIds.size()));
+                    statement.setLong(1, aExtendedFieldType);
+                    for (int i = 0; i < idsPerQuery; i++) {
+                        statement.setLong(i + 2, chunk.get(Math.min(i, chunk.size() - 1)));
+                    }
+                    ResultSet rs = statement.executeQuery();
+                    try {
+                        while (rs.next()) {
+                            ExtendedFieldValue value = new ExtendedFieldValue(rs.getLong(1), rs.getLong(2),
+                                    rs.getLong(3), rs.getString(4));
+                            // Like read(), use the first stored value if there are duplicates
+                            String key = value.getInstanceID() + ":" + value.getExtendedFieldID();
+                            if (!stored.containsKey(key)) {
+                                stored.put(key, value);
+                            }
+                        }
+                    } finally {
+                        rs.close();
+                    }
+                }
+            } catch (SQLException e) {
+                String message = "SQL error reading extended field values of type " + aExtendedFieldType + " for "
+                        + instanceIds.size() + " instances\n" + ExceptionUtils.getSQLExceptionCause(e);
+                log.warn(message, e);
+                throw new IOFailure(message, e);
+            } finally {
+                DBUtils.closeStatementIfOpen(statement);
+            }
+        }
+        for (Long instanceId : instanceIds) {
+            List<ExtendedFieldValue> values = new ArrayList<ExtendedFieldValue>(extendedFields.size());
+            for (ExtendedField ef : extendedFields) {
+                ExtendedFieldValue value = stored.get(instanceId + ":" + ef.getExtendedFieldID());
+                if (value == null) {
+                    value = new ExtendedFieldValue();
+                    value.setExtendedFieldID(ef.getExtendedFieldID());
+                    value.setInstanceID(instanceId);
+                    value.setContent(new ExtendedFieldDefaultValue(ef.getDefaultValue(), ef.getFormattingPattern(), ef
+                            .getDatatype()).getDBValue());
+                }
+                values.add(value);
+            }
+            result.put(instanceId, values);
+        }
+        return result;
+    }
+
+    @Override
+    public void upsertAll(List<ExtendedFieldValue> aExtendedFieldValues) {
+        ArgumentNotValid.checkNotNull(aExtendedFieldValues, "List<ExtendedFieldValue> aExtendedFieldValues");
+        Connection connection = HarvestDBConnection.get();
+        try {
+            upsertAll(connection, aExtendedFieldValues, true);
+        } catch (SQLException e) {
+            String message = "SQL error saving " + aExtendedFieldValues.size() + " extendedfield values in database\n"
+                    + ExceptionUtils.getSQLExceptionCause(e);
+            log.warn(message, e);
+            throw new IOFailure(message, e);
+        } finally {
+            DBUtils.rollbackIfNeeded(connection, "save extendedfield values", aExtendedFieldValues.size());
+            HarvestDBConnection.release(connection);
+        }
+    }
+
+    /**
+     * Create or update the given ExtendedFieldValues using batched statements. Values without an id are inserted and
+     * given a new id, values with an id are updated.
+     *
+     * @param aConnection an open connection to the HarvestDatabase
+     * @param aExtendedFieldValues The ExtendedFieldValues to save
+     * @param aCommit Should we commit this or not
+     * @throws SQLException In case of database problems.
+     * @throws UnknownID If a value with an id does not exist for its instance in persistent storage.
+     */
+    public void upsertAll(Connection aConnection, List<ExtendedFieldValue> aExtendedFieldValues, boolean aCommit)
+            throws SQLException {
+        ArgumentNotValid.checkNotNull(aConnection, "Connection aConnection");
+        ArgumentNotValid.checkNotNull(aExtendedFieldValues, "List<ExtendedFieldValue> aExtendedFieldValues");
+        List<ExtendedFieldValue> inserts = new ArrayList<ExtendedFieldValue>();
+        List<ExtendedFieldValue> updates = new ArrayList<ExtendedFieldValue>();
+        for (ExtendedFieldValue efv : aExtendedFieldValues) {
+            ArgumentNotValid.checkNotNull(efv, "ExtendedFieldValue efv");
+            if (efv.getExtendedFieldValueID() == null) {
+                inserts.add(efv);
+            } else {
+                updates.add(efv);
+            }
+        }
+        if (inserts.isEmpty() && updates.isEmpty()) {
+            return;
+        }
+        aConnection.setAutoCommit(false);
+        PreparedStatement statement = null;
+        try {
+            if (!inserts.isEmpty()) {
+                statement = aConnection.prepareStatement("INSERT INTO extendedfieldvalue ("
+                        + "extendedfieldvalue_id, extendedfield_id, content, instance_id) VALUES (?, ?, ?, ?)");
+                for (int i = 0; i < inserts.size(); i++) {
+                    ExtendedFieldValue efv = inserts.get(i);
+                    efv.setExtendedFieldValueID(generateNextID(aConnection));
+                    statement.setLong(1, efv.getExtendedFieldValueID());
+                    statement.setLong(2, efv.getExtendedFieldID());
+                    statement.setString(3, efv.getContent());
+                    statement.setLong(4, efv.getInstanceID());
+                    statement.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0 || i == inserts.size() - 1) {
+                        statement.executeBatch();
+                    }
+                }
+                statement.close();
+                statement = null;
+            }
+            if (!updates.isEmpty()) {
+                statement = aConnection.prepareStatement("UPDATE extendedfieldvalue SET extendedfield_id = ?, "
+                        + "instance_id = ?, content = ? WHERE extendedfieldvalue_id = ? AND instance_id = ?");
+                for (int i = 0; i < updates.size(); i++) {
+                    ExtendedFieldValue efv = updates.get(i);
+                    statement.setLong(1, efv.getExtendedFieldID());
+                    statement.setLong(2, efv.getInstanceID());
+                    statement.setString(3, efv.getContent());
+                    statement.setLong(4, efv.getExtendedFieldValueID());
+                    statement.setLong(5, efv.getInstanceID());
+                    statement.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0 || i == updates.size() - 1) {
+                        int[] counts = statement.executeBatch();
+                        int first = i + 1 - counts.length;
+                        for (int j = 0; j < counts.length; j++) {
+                            if (counts[j] == 0) {
+                                throw new UnknownID("Extended Field Value id "
+                                        + updates.get(first + j).getExtendedFieldValueID()
+                                        + " is not known in persistent storage");
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            DBUtils.closeStatementIfOpen(statement);
+        }
+        if (aCommit) {
+            aConnection.commit();
+        }
+    }
+
 }
@@ -57,6 +57,15 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
     /** upload errors encountered with details. */
     private String uploadErrorDetails;
 
+    /** The number of files uploaded after the crawl. */
+    private long uploadedFiles;
+
+    /** The number of bytes uploaded after the crawl. */
+    private long uploadedBytes;
+
+    /** The time in milliseconds spent documenting and uploading the files after the crawl. */
+    private long uploadMillis;
+
     /**
      * Creates an instance of this class corresponding to a job.
      *
@@ -135,7 +144,8 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
             dhr = harvestReport.toString();
         }
 
-        return "CrawlStatusMessage:\n" + "JobID: " + jobID + '\n' + "StatusCode: " + statusCode + '\n' + dhr + '\n'
+        return "CrawlStatusMessage:\n" + "JobID: " + jobID + '\n' + "StatusCode: " + statusCode + '\n' + "Uploaded: "
+                + uploadedFiles + " files, " + uploadedBytes + " bytes in " + uploadMillis + " ms\n" + dhr + '\n'
                 + super.toString();
     }
 
@@ -219,4 +229,45 @@ public class CrawlStatusMessage extends HarvesterMessage implements Serializable
         this.uploadErrorDetails = uploadErrorDetails;
     }
 
+    /**
+     * Set the statistics for the upload of the files of the crawl.
+     *
+     * @param uploadedFiles The number of files uploaded
+     * @param uploadedBytes The number of bytes uploaded
+     * @param uploadMillis The time in milliseconds spent documenting and uploading the files
+     */
+    public void setUploadStatistics(long uploadedFiles, long uploadedBytes, long uploadMillis) {
+        this.uploadedFiles = uploadedFiles;
+        this.uploadedBytes = uploadedBytes;
+        this.uploadMillis = uploadMillis;
+    }
+
+    /**
+     * @return the number of files uploaded after the crawl
+     */
+    public long getUploadedFiles() {
+        return uploadedFiles;
+    }
+
+    /**
+     * @return the number of bytes uploaded after the crawl
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /**
+     * @return the time in milliseconds spent documenting and uploading the files after the crawl
+     */
+    public long getUploadMillis() {
+        return uploadMillis;
+    }
+
+    /**
+     * @return the upload throughput in bytes per second, or 0 if nothing was uploaded
+     */
+    public long getUploadBytesPerSecond() {
+        return uploadMillis > 0 ? uploadedBytes * 1000 / uploadMillis : 0;
+    }
+
 }
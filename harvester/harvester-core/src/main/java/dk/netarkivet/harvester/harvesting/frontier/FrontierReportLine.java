@@ -188,6 +188,16 @@ public class FrontierReportLine implements Serializable, Comparable<FrontierRepo
         this.wakeTime = original.wakeTime;
     }
 
+    /**
+     * Parses a line of a frontier report, in the Heritrix 1 or Heritrix 3 format.
+     *
+     * @param lineToken the string to parse.
+     * @return the parsed line.
+     */
+    public static FrontierReportLine parse(String lineToken) {
+        return new FrontierReportLine(lineToken);
+    }
+
     /**
      * Parses the given string.
      * Handle both heritrix 1 and heritrix 3 frontier report line format
@@ -23,13 +23,10 @@
 package dk.netarkivet.harvester.harvesting.frontier;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringReader;
 import java.util.Iterator;
 
 import javax.xml.parsers.DocumentBuilder;
@@ -382,33 +379,58 @@ public class FullFrontierReport extends AbstractFrontierReport {
     }
     
     /**
-     * Generates an Heritrix frontier report wrapper object by parsing the frontier report returned by the REST API
-     * controller as XML
+     * Builds an empty frontier report wrapper, to which lines are added with {@link #addLine(FrontierReportLine)}.
+     * The {@link #dispose()} method must be called once the report is no longer used.
      *
      * @param jobName the Heritrix job name
-     * @param contentsAsString the text returned by the http REST call
-     * @return the report wrapper object
+     * @return the empty report wrapper object
      */
-    public static FullFrontierReport parseContentsAsXML(String jobName, byte[] contentsAsXML, String tagName) {
+    public static FullFrontierReport createEmpty(String jobName) {
+        return new FullFrontierReport(jobName);
+    }
+
+    /**
+     * Extracts the text of a frontier report from the XML returned by the REST API controller.
+     *
+     * @param contentsAsXML the XML returned by the http REST call
+     * @param tagName the name of the element holding the report
+     * @return the text of the frontier report, or null if it could not be parsed
+     */
+    public static String getContentsFromXML(byte[] contentsAsXML, String tagName) {
     	//FIXME : instanciate an unique dBuilder
     	DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-    	DocumentBuilder dBuilder;
 		try {
-			dBuilder = dbFactory.newDocumentBuilder();
+			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
 			Document doc = dBuilder.parse((new ByteArrayInputStream(contentsAsXML)));
-			
+
 			Element e = doc.getDocumentElement();
 	    	NodeList nList = e.getElementsByTagName(tagName);
 	    	//get first (and normally unique) item
 	    	Node nNode = nList.item(0);
-	    	String contentAsString = nNode.getTextContent();
-	    	return FullFrontierReport.parseContentsAsString(jobName, contentAsString);
+	    	return nNode.getTextContent();
 		} catch (Exception e) {
 			LOG.error("Failed to parse XML content", e);
-			return new FullFrontierReport(jobName);
+			return null;
 		}
     }
 
+    /**
+     * Generates an Heritrix frontier report wrapper object by parsing the frontier report returned by the REST API
+     * controller as XML
+     *
+     * @param jobName the Heritrix job name
+     * @param contentsAsXML the XML returned by the http REST call
+     * @param tagName the name of the element holding the report
+     * @return the report wrapper object
+     */
+    public static FullFrontierReport parseContentsAsXML(String jobName, byte[] contentsAsXML, String tagName) {
+        String contentAsString = getContentsFromXML(contentsAsXML, tagName);
+        if (contentAsString == null) {
+            return new FullFrontierReport(jobName);
+        }
+        return FullFrontierReport.parseContentsAsString(jobName, contentAsString);
+    }
+
     /**
      * Generates an Heritrix frontier report wrapper object by parsing the frontier report returned by the JMX
      * controller as a string.
@@ -421,41 +443,18 @@ public class FullFrontierReport extends AbstractFrontierReport {
 
         FullFrontierReport report = new FullFrontierReport(jobName);
 
-        // First dump this possibly huge string to a file
-        File tmpDir = Settings.getFile(CommonSettings.CACHE_DIR);
-        File tmpFile = new File(tmpDir, jobName + "-" + System.currentTimeMillis() + ".txt");
-        try {
-            tmpFile.createNewFile();
-            BufferedWriter out = new BufferedWriter(new FileWriter(tmpFile));
-            out.write(contentsAsString);
-            out.close();
-        } catch (IOException e) {
-            LOG.error("Failed to create temporary file", e);
-            return report;
-        }
-
-        BufferedReader br;
-        try {
-            br = new BufferedReader(new FileReader(tmpFile));
-        } catch (FileNotFoundException e) {
-            LOG.error("Failed to read temporary file", e);
-            return report;
-        }
-
+        // The report is already in memory, so read the lines directly from it
+        BufferedReader br = new BufferedReader(new StringReader(contentsAsString));
         try {
             String lineToken = br.readLine(); // Discard header line
             while ((lineToken = br.readLine()) != null) {
                 report.addLine(new FrontierReportLine(lineToken));
             }
-
-            br.close();
         } catch (IOException e) {
-            LOG.warn("Failed to close reader", e);
+            LOG.warn("Failed to read frontier report", e);
         } catch (Throwable t) {
             LOG.error("",t);
             t.printStackTrace(System.err);
-        } finally {
-            FileUtils.remove(tmpFile);
         }
 
         return report;
@@ -22,12 +22,25 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.ReportIterator;
 
-abstract class MaxSizeFrontierReportExtract extends AbstractFrontierReportFilter {
+/**
+ * Base class for filters that extract at most a given number of lines matching a predicate, choosing the first lines
+ * according to some order. Such filters are evaluated in a single pass, keeping the best lines seen so far in a
+ * bounded heap.
+ */
+abstract class MaxSizeFrontierReportExtract extends AbstractFrontierReportFilter implements
+        StreamingFrontierReportFilter {
 
     /** The logger to use. */
 	private static final Logger LOG = LoggerFactory.getLogger(MaxSizeFrontierReportExtract.class);
@@ -49,8 +62,53 @@ abstract class MaxSizeFrontierReportExtract extends AbstractFrontierReportFilter
         }
     }
 
+    /**
+     * Determines whether a line should be part of the filtered report.
+     *
+     * @param line a line of the frontier report.
+     * @return true if the line matches the filter.
+     */
+    abstract boolean matches(FrontierReportLine line);
+
+    /**
+     * Returns the order in which the matching lines are chosen, when there are more than the maximum size. Defaults to
+     * the natural order of the lines, i.e. by decreasing totalEnqueues.
+     *
+     * @return the order of the lines.
+     */
+    Comparator<? super FrontierReportLine> getOrder() {
+        return FrontierReportLineNaturalOrder.getInstance();
+    }
+
+    /**
+     * Filters the given frontier report, by iterating once over all its lines.
+     *
+     * @param initialFrontier the report to filter, which must be a {@link FullFrontierReport}.
+     * @return a filtered frontier report.
+     */
     @Override
-    public abstract InMemoryFrontierReport process(FrontierReport initialFrontier);
+    public InMemoryFrontierReport process(FrontierReport initialFrontier) {
+        if (!(initialFrontier instanceof FullFrontierReport)) {
+            throw new ArgumentNotValid(getClass().getSimpleName() + " operates only on "
+                    + FullFrontierReport.class.getSimpleName() + ", not: "
+                    + initialFrontier.getClass().getSimpleName());
+        }
+        LineCollector collector = newCollector(initialFrontier.getJobName());
+        ReportIterator iter = ((FullFrontierReport) initialFrontier).iterateOnTotalEnqueues();
+        try {
+            while (iter.hasNext()) {
+                collector.accept(new FrontierReportLine(iter.next()));
+            }
+        } finally {
+            iter.close();
+        }
+        return collector.getReport();
+    }
+
+    @Override
+    public LineCollector newCollector(String jobName) {
+        return new TopLinesCollector(jobName);
+    }
 
     /**
      * Returns the list maximum size.
@@ -61,4 +119,54 @@ abstract class MaxSizeFrontierReportExtract extends AbstractFrontierReportFilter
         return maxSize;
     }
 
+    /**
+     * Keeps the first matching lines according to the order of the filter in a heap, whose head is the last of the
+     * lines kept.
+     */
+    private class TopLinesCollector implements LineCollector {
+
+        private final String jobName;
+        private final int size = getMaxSize();
+        private final Comparator<? super FrontierReportLine> order = getOrder();
+        private final PriorityQueue<FrontierReportLine> kept;
+        private long matchCount;
+
+        TopLinesCollector(String jobName) {
+            this.jobName = jobName;
+            this.kept = new PriorityQueue<FrontierReportLine>(Math.max(1, Math.min(size, 1024)),
+                    Collections.reverseOrder(order));
+        }
+
+        @Override
+        public void accept(FrontierReportLine line) {
+            if (!matches(line)) {
+                return;
+            }
+            matchCount++;
+            if (kept.size() < size) {
+                kept.add(line);
+            } else if (size > 0 && order.compare(line, kept.peek()) < 0) {
+                kept.poll();
+                kept.add(line);
+            }
+        }
+
+        @Override
+        public long getMatchCount() {
+            return matchCount;
+        }
+
+        @Override
+        public InMemoryFrontierReport getReport() {
+            InMemoryFrontierReport report = new InMemoryFrontierReport(jobName);
+            List<FrontierReportLine> lines = new ArrayList<FrontierReportLine>(kept);
+            Collections.sort(lines, order);
+            for (FrontierReportLine line : lines) {
+                report.addLine(line);
+            }
+            return report;
+        }
+
+    }
+
 }
@@ -22,34 +22,22 @@
  */
 package dk.netarkivet.harvester.harvesting.frontier;
 
-import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport.ReportIterator;
+import java.util.Comparator;
 
+/**
+ * Filters a frontier report to include only lines that represent retired queues, i.e. queues over budget. The queues
+ * with the smallest spent budget are chosen first.
+ */
 public class RetiredQueuesFilter extends MaxSizeFrontierReportExtract {
 
-    @Override
-    public InMemoryFrontierReport process(FrontierReport initialFrontier) {
-        InMemoryFrontierReport result = new InMemoryFrontierReport(initialFrontier.getJobName());
-
-        FullFrontierReport full = (FullFrontierReport) initialFrontier;
-        ReportIterator iter = full.iterateOnSpentBudget();
-        try {
-            int addedLines = 0;
-            int maxSize = getMaxSize();
-            while (addedLines <= maxSize && iter.hasNext()) {
-                FrontierReportLine l = iter.next();
-                if (isOverBudget(l)) {
-                    result.addLine(new FrontierReportLine(l));
-                    addedLines++;
-                }
-            }
-        } finally {
-            if (iter != null) {
-                iter.close();
-            }
+    /** Orders lines by increasing totalSpend, then by their natural order. */
+    private static final Comparator<FrontierReportLine> BY_SPENT_BUDGET = new Comparator<FrontierReportLine>() {
+        @Override
+        public int compare(FrontierReportLine l1, FrontierReportLine l2) {
+            int spendComp = Long.valueOf(l1.getTotalSpend()).compareTo(l2.getTotalSpend());
+            return spendComp != 0 ? spendComp : l1.compareTo(l2);
         }
-
-        return result;
-    }
+    };
 
     /**
      * Determines whether a given frontier queue is retired, e.g. over budget.
@@ -58,9 +46,15 @@ public class RetiredQueuesFilter extends MaxSizeFrontierReportExtract {
      * @return true if the queue is retired, false otherwise.
      * @see WorkQueue#isOverBudget()
      */
-    private boolean isOverBudget(FrontierReportLine l) {
+    @Override
+    boolean matches(FrontierReportLine l) {
         long totalBudget = l.getTotalBudget();
         return totalBudget >= 0 && l.getTotalSpend() >= totalBudget;
     }
 
+    @Override
+    Comparator<? super FrontierReportLine> getOrder() {
+        return BY_SPENT_BUDGET;
+    }
+
 }
@@ -0,0 +1,72 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+/**
+ * A frontier report filter that can be evaluated in a single pass over the lines of a frontier report, as they are
+ * parsed, without storing the full report.
+ * <p>
+ * Such a filter keeps a bounded amount of state per pass, e.g. the top N lines according to some order, so any number
+ * of them can be evaluated together in the same pass. Filters that need random access to the full report implement
+ * only {@link FrontierReportFilter}, and are given a {@link FullFrontierReport}.
+ */
+public interface StreamingFrontierReportFilter extends FrontierReportFilter {
+
+    /**
+     * Collects the lines of one frontier report. A collector is only used by one thread.
+     */
+    interface LineCollector {
+
+        /**
+         * Offer a line of the frontier report to the filter.
+         *
+         * @param line a line of the frontier report.
+         */
+        void accept(FrontierReportLine line);
+
+        /**
+         * Returns the number of lines that matched the filter, including those left out of the report because of its
+         * maximum size.
+         *
+         * @return the number of matching lines.
+         */
+        long getMatchCount();
+
+        /**
+         * Returns the filtered report, once all lines have been offered.
+         *
+         * @return the filtered frontier report.
+         */
+        InMemoryFrontierReport getReport();
+
+    }
+
+    /**
+     * Start a new pass over a frontier report.
+     *
+     * @param jobName the Heritrix job name of the frontier report.
+     * @return a collector for the lines of the report.
+     */
+    LineCollector newCollector(String jobName);
+
+}
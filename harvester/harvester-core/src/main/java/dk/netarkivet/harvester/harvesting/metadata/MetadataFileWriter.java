@@ -27,6 +27,8 @@ import java.io.FilenameFilter;
 import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Collections;
+import java.util.Map;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -179,6 +181,19 @@ public abstract class MetadataFileWriter {
      */
     public abstract void writeFileTo(File file, String uri, String mime);
 
+    /**
+     * Write the given file to the metadata file, using an already known SHA1 digest of its content. Formats which
+     * record a digest of the content use the given digest instead of reading the file an extra time to compute it.
+     *
+     * @param file A given file with metadata to write to the metadata archive file.
+     * @param uri The uri associated with the piece of metadata
+     * @param mime The mimetype associated with the piece of metadata
+     * @param sha1Digest The SHA1 digest of the content of the file, or null if it is not known
+     */
+    public void writeFileTo(File file, String uri, String mime, byte[] sha1Digest) {
+        writeFileTo(file, uri, mime);
+    }
+
     /**
      * Writes a File to an ARCWriter, if available, otherwise logs the failure to the class-logger.
      *
@@ -214,13 +229,32 @@ public abstract class MetadataFileWriter {
      * @param jobId The jobId of the harvest 
      */
     public void insertFiles(File parentDir, FilenameFilter filter, String mimetype, long harvestId, long jobId) {
+        insertFiles(parentDir, filter, mimetype, harvestId, jobId, Collections.<File, byte[]>emptyMap());
+    }
+
+    /**
+     * Append the files contained in the directory to the metadata archive file, but only if the filename matches the
+     * supplied filter. SHA1 digests already computed for some of the files, e.g. while they were generated, are handed
+     * on to the writer so these files are only read once.
+     *
+     * @param parentDir directory containing the files to append to metadata
+     * @param filter filter describing which files to accept and which to ignore
+     * @param mimetype The content-type to write along with the files in the metadata output
+     * @param harvestId The harvestId of the harvest
+     * @param jobId The jobId of the harvest
+     * @param sha1Digests The known SHA1 digests of the files, by file
+     */
+    public void insertFiles(File parentDir, FilenameFilter filter, String mimetype, long harvestId, long jobId,
+            Map<File, byte[]> sha1Digests) {
+        ArgumentNotValid.checkNotNull(sha1Digests, "Map<File, byte[]> sha1Digests");
         // For each metadata source file in the parentDir that matches the filter ..
         File[] metadataSourceFiles = parentDir.listFiles(filter);
         log.debug("Now inserting " + metadataSourceFiles.length + " files from " + parentDir.getAbsolutePath() + "'.");
         for (File metadataSourceFile : metadataSourceFiles) {
             // ...write its content to the MetadataFileWriter
             log.debug("Inserting the file '{}'", metadataSourceFile.getAbsolutePath());
-            writeFileTo(metadataSourceFile, getURIforFileName(metadataSourceFile, harvestId, jobId).toASCIIString(), mimetype);
+            writeFileTo(metadataSourceFile, getURIforFileName(metadataSourceFile, harvestId, jobId).toASCIIString(),
+                    mimetype, sha1Digests.get(metadataSourceFile));
             // ...and delete it afterwards
             try {
                 FileUtils.remove(metadataSourceFile);
@@ -23,7 +23,6 @@
 
 package dk.netarkivet.harvester.harvesting.metadata;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -119,6 +118,15 @@ public class MetadataFileWriterArc extends MetadataFileWriter {
         writeTo(file, uri, mime);
     }
 
+    /**
+     * ARC records carry no digest of their content, so the digest is not needed and the file is read only once
+     * regardless.
+     */
+    @Override
+    public void writeFileTo(File file, String uri, String mime, byte[] sha1Digest) {
+        writeTo(file, uri, mime);
+    }
+
     /**
      * Writes a File to an ArcWriter, if available, otherwise logs the failure to the class-logger.
      *
@@ -160,7 +168,6 @@ public class MetadataFileWriterArc extends MetadataFileWriter {
     @Override
     public void write(String uri, String contentType, String hostIP, long fetchBeginTimeStamp, byte[] payload)
             throws IOException {
-        ByteArrayInputStream in = null;
         try {
             ArcRecordBase record = ArcRecord.createRecord(writer.writer);
             ArcHeader header = record.header;
@@ -169,14 +176,11 @@ public class MetadataFileWriterArc extends MetadataFileWriter {
             header.ipAddressStr = hostIP;
             header.archiveLength = new Long(payload.length);
             header.contentTypeStr = contentType;
-            in = new ByteArrayInputStream(payload);
             writer.writer.writeHeader(record);
-            writer.writer.streamPayload(in);
+            writer.writer.writePayload(payload);
             writer.writer.closeRecord();
         } catch (IOException e) {
             throw new IOFailure("Epic IO fail while writing payload to ARC file.", e);
-        } finally {
-            IOUtils.closeQuietly(in);
         }
     }
 
@@ -22,13 +22,13 @@
  */
 package dk.netarkivet.harvester.harvesting.metadata;
 
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URISyntaxException;
+import java.nio.file.Files;
 import java.util.Date;
 import java.util.UUID;
 
@@ -63,6 +63,12 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
     /** Writer to this jobs metadatafile. This is closed when the metadata is marked as ready. */
     private WarcFileWriter writer = null;
 
+    /**
+     * Files of at most this size, which have no known digest, are read into memory and digested from there, so they
+     * are only read from disk once.
+     */
+    static final long MAX_BUFFERED_PAYLOAD_SIZE = 16L * 1024 * 1024;
+
     /** The ID of the Warcinfo record. Set when calling the insertInfoRecord method. */
     private Uri warcInfoUID = null;
 
@@ -120,17 +126,11 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
         if (filename.endsWith(WarcFileWriter.ACTIVE_SUFFIX)) {
         	filename = filename.substring(0, filename.length() - WarcFileWriter.ACTIVE_SUFFIX.length());
         }
-        Uri recordId;
-        try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
-        } catch (URISyntaxException e) {
-            throw new IllegalState("Epic fail creating URI from UUID!", e);
-        }
+        Uri recordId = createRecordId();
         warcInfoUID = recordId;
         try {
             byte[] payloadAsBytes = payloadToInfoRecord.getUTF8Bytes();
-            byte[] blockDigestBytes = ChecksumCalculator.digestInputStream(new ByteArrayInputStream(payloadAsBytes), "SHA1");
-            WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
+            WarcDigest blockDigest = createBlockDigest(digest(payloadAsBytes));
             WarcRecord record = WarcRecord.createRecord(writer.writer);
             WarcHeader header = record.header;
             header.warcTypeIdx = WarcConstants.RT_IDX_WARCINFO;
@@ -141,8 +141,7 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
             header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payloadAsBytes.length), null);
             header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
             writer.writer.writeHeader(record);
-            ByteArrayInputStream bin = new ByteArrayInputStream(payloadAsBytes);
-            writer.writer.streamPayload(bin);
+            writer.writer.writePayload(payloadAsBytes);
             writer.writer.closeRecord();
         } catch (IOException e) {
             throw new IllegalState("Error inserting warcinfo record", e);
@@ -154,8 +153,29 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
         writeTo(file, uri, mime);
     }
 
+    @Override
+    public void writeFileTo(File file, String uri, String mime, byte[] sha1Digest) {
+        writeTo(file, uri, mime, sha1Digest);
+    }
+
     @Override
     public boolean writeTo(File fileToArchive, String URL, String mimetype) {
+        return writeTo(fileToArchive, URL, mimetype, null);
+    }
+
+    /**
+     * Writes a File to the WARC file as a resource record. The block digest is written in the record header before
+     * the content, so it must be known up front. If no digest is given, files of up to
+     * {@link #MAX_BUFFERED_PAYLOAD_SIZE} bytes are read into memory once and digested from there, while larger files
+     * are read twice: once to digest them and once to copy them.
+     *
+     * @param fileToArchive the File to archive
+     * @param URL the URL with which it is stored in the WARC file
+     * @param mimetype The mimetype of the File-contents
+     * @param sha1Digest The SHA1 digest of the content of the file, or null if it is not known
+     * @return true, if file exists, and is written to the WARC file.
+     */
+    public boolean writeTo(File fileToArchive, String URL, String mimetype, byte[] sha1Digest) {
         if (!fileToArchive.isFile()) {
             throw new IOFailure("Not a file: " + fileToArchive.getPath());
         }
@@ -163,30 +183,43 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
             throw new IllegalState("An WarcInfo record has not been inserted yet");
         }
         log.info("{} {}", fileToArchive, fileToArchive.length());
-        byte[] blockDigestBytes = ChecksumCalculator.digestFile(fileToArchive, "SHA1");
-        WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
-        Uri recordId;
-        try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
-        } catch (URISyntaxException e) {
-            throw new IllegalState("Epic fail creating URI from UUID!", e);
+        byte[] payload = null;
+        byte[] blockDigestBytes = sha1Digest;
+        if (blockDigestBytes == null) {
+            if (fileToArchive.length() <= MAX_BUFFERED_PAYLOAD_SIZE) {
+                try {
+                    payload = Files.readAllBytes(fileToArchive.toPath());
+                } catch (IOException e) {
+                    throw new IOFailure("Unable to read file: " + fileToArchive.getPath(), e);
+                }
+                blockDigestBytes = digest(payload);
+            } else {
+                log.debug("No digest known for the {} bytes in '{}', reading it twice", fileToArchive.length(),
+                        fileToArchive);
+                blockDigestBytes = ChecksumCalculator.digestFile(fileToArchive, ChecksumCalculator.SHA1);
+            }
         }
+        long contentLength = payload != null ? payload.length : fileToArchive.length();
         InputStream in = null;
         try {
             WarcRecord record = WarcRecord.createRecord(writer.writer);
             WarcHeader header = record.header;
             header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
-            header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
+            header.addHeader(WarcConstants.FN_WARC_RECORD_ID, createRecordId(), null);
             header.addHeader(WarcConstants.FN_WARC_DATE, new Date(), null);
             header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoUID, null);
             header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, SystemUtils.getLocalIP());
             header.addHeader(WarcConstants.FN_WARC_TARGET_URI, URL);
-            header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
+            header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, createBlockDigest(blockDigestBytes), null);
             header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(mimetype), null);
-            header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(fileToArchive.length()), null);
+            header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(contentLength), null);
             writer.writer.writeHeader(record);
-            in = new FileInputStream(fileToArchive);
-            writer.writer.streamPayload(in);
+            if (payload != null) {
+                writer.writer.writePayload(payload);
+            } else {
+                in = new FileInputStream(fileToArchive);
+                writer.writer.streamPayload(in);
+            }
             writer.writer.closeRecord();
         } catch (FileNotFoundException e) {
             throw new IOFailure("Unable to open file: " + fileToArchive.getPath(), e);
@@ -200,31 +233,48 @@ public class MetadataFileWriterWarc extends MetadataFileWriter {
 
     @Override
     public void write(String uri, String contentType, String hostIP, long fetchBeginTimeStamp, byte[] payload)
-            throws java.io.IOException {    	
-        ByteArrayInputStream in = new ByteArrayInputStream(payload);
-        byte[] blockDigestBytes = ChecksumCalculator.digestInputStream(in, "SHA1");
-        WarcDigest blockDigest = WarcDigest.createWarcDigest("SHA1", blockDigestBytes, "base32", Base32.encode(blockDigestBytes));
-        Uri recordId;
-        try {
-            recordId = new Uri("urn:uuid:" + UUID.randomUUID().toString());
-        } catch (URISyntaxException e) {
-            throw new IllegalState("Epic fail creating URI from UUID!", e);
-        }
+            throws java.io.IOException {
         WarcRecord record = WarcRecord.createRecord(writer.writer);
         WarcHeader header = record.header;
         header.warcTypeIdx = WarcConstants.RT_IDX_RESOURCE;
-        header.addHeader(WarcConstants.FN_WARC_RECORD_ID, recordId, null);
+        header.addHeader(WarcConstants.FN_WARC_RECORD_ID, createRecordId(), null);
         header.addHeader(WarcConstants.FN_WARC_DATE, new Date(fetchBeginTimeStamp), null);
         header.addHeader(WarcConstants.FN_WARC_WARCINFO_ID, warcInfoUID, null);
         header.addHeader(WarcConstants.FN_WARC_IP_ADDRESS, hostIP);
         header.addHeader(WarcConstants.FN_WARC_TARGET_URI, uri);
-        header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, blockDigest, null);
+        header.addHeader(WarcConstants.FN_WARC_BLOCK_DIGEST, createBlockDigest(digest(payload)), null);
         header.addHeader(WarcConstants.FN_CONTENT_TYPE, ContentType.parseContentType(contentType), null);
         header.addHeader(WarcConstants.FN_CONTENT_LENGTH, new Long(payload.length), null);
         writer.writer.writeHeader(record);
-        in = new ByteArrayInputStream(payload); // A re-read is necessary here!
-        writer.writer.streamPayload(in);
+        writer.writer.writePayload(payload);
         writer.writer.closeRecord();
     }
 
+    /**
+     * @return a new unique WARC record ID
+     */
+    private static Uri createRecordId() {
+        try {
+            return new Uri("urn:uuid:" + UUID.randomUUID().toString());
+        } catch (URISyntaxException e) {
+            throw new IllegalState("Epic fail creating URI from UUID!", e);
+        }
+    }
+
+    /**
+     * @param payload The content of a record
+     * @return the SHA1 digest of the content
+     */
+    private static byte[] digest(byte[] payload) {
+        return ChecksumCalculator.getMessageDigest(ChecksumCalculator.SHA1).digest(payload);
+    }
+
+    /**
+     * @param sha1Digest A SHA1 digest
+     * @return the digest as a base32 encoded WARC-Block-Digest
+     */
+    private static WarcDigest createBlockDigest(byte[] sha1Digest) {
+        return WarcDigest.createWarcDigest("SHA1", sha1Digest, "base32", Base32.encode(sha1Digest));
+    }
+
 }
@@ -0,0 +1,213 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.monitor;
+
+import java.util.Arrays;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+
+/**
+ * The progress history of a running job, as charted by {@link StartedJobHistoryChartGen}: the progress percentage and
+ * the queued URI count over the crawl time.
+ * <p>
+ * New records are appended as they arrive, and the series is kept to a bounded number of points by downsampling it
+ * with the largest-triangle-three-buckets algorithm, which keeps the visual shape of the curves, including spikes.
+ * Memory use is therefore independent of the length of the crawl.
+ */
+final class JobHistorySeries {
+
+    /** The maximum number of points returned by {@link #getPoints()}. */
+    private final int maxPoints;
+
+    /** The crawl time of the points, in seconds. */
+    private double[] times;
+    /** The progress percentage of the points. */
+    private double[] progress;
+    /** The queued URI count of the points. */
+    private double[] queued;
+    /** The number of points held. */
+    private int size;
+
+    /** The crawl time of the last record appended, or -1 if none. */
+    private long lastElapsedSeconds = -1;
+
+    /**
+     * Create an empty series.
+     *
+     * @param maxPoints the maximum number of points returned by {@link #getPoints()}, at least 3.
+     */
+    JobHistorySeries(int maxPoints) {
+        ArgumentNotValid.checkTrue(maxPoints >= 3, "maxPoints must be at least 3");
+        this.maxPoints = maxPoints;
+        // Up to twice the number of points are held, so downsampling is only done once per maxPoints records
+        this.times = new double[2 * maxPoints];
+        this.progress = new double[2 * maxPoints];
+        this.queued = new double[2 * maxPoints];
+    }
+
+    /**
+     * Append records to the series. Records not more recent than the last record appended are ignored.
+     *
+     * @param infos progress records, in chronological order.
+     */
+    synchronized void append(StartedJobInfo[] infos) {
+        for (StartedJobInfo sji : infos) {
+            if (sji.getElapsedSeconds() <= lastElapsedSeconds) {
+                continue;
+            }
+            if (size == times.length) {
+                downsample(maxPoints);
+            }
+            times[size] = sji.getElapsedSeconds();
+            progress[size] = sji.getProgress();
+            queued[size] = sji.getQueuedFilesCount();
+            size++;
+            lastElapsedSeconds = sji.getElapsedSeconds();
+        }
+    }
+
+    /**
+     * @return the crawl time of the last record appended, or -1 if none.
+     */
+    synchronized long getLastElapsedSeconds() {
+        return lastElapsedSeconds;
+    }
+
+    /**
+     * @return the number of points currently held, at most twice the maximum number of points.
+     */
+    synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Returns the points to chart, downsampled to at most the maximum number of points.
+     *
+     * @return three arrays of the same length: the crawl times in seconds, the progress percentages and the queued URI
+     * counts.
+     */
+    synchronized double[][] getPoints() {
+        int[] selected = selectPoints(times, new double[][] {progress, queued}, size, maxPoints);
+        double[][] points = new double[3][selected.length];
+        for (int i = 0; i < selected.length; i++) {
+            points[0][i] = times[selected[i]];
+            points[1][i] = progress[selected[i]];
+            points[2][i] = queued[selected[i]];
+        }
+        return points;
+    }
+
+    /**
+     * Downsample the points held, in place.
+     *
+     * @param threshold the number of points to keep.
+     */
+    private void downsample(int threshold) {
+        int[] selected = selectPoints(times, new double[][] {progress, queued}, size, threshold);
+        for (int i = 0; i < selected.length; i++) {
+            times[i] = times[selected[i]];
+            progress[i] = progress[selected[i]];
+            queued[i] = queued[selected[i]];
+        }
+        size = selected.length;
+    }
+
+    /**
+     * Selects the points to keep with the largest-triangle-three-buckets algorithm. The first and last points are
+     * always kept. The points in between are split into buckets, and from each bucket the point forming the largest
+     * triangle with the previously selected point and the average of the next bucket is kept. With several series, the
+     * areas of the triangles in each series are added after scaling each series to its range of values.
+     *
+     * @param x the x values, in increasing order.
+     * @param ys the y value series.
+     * @param size the number of points.
+     * @param threshold the number of points to select.
+     * @return the indices of the selected points, in increasing order.
+     */
+    static int[] selectPoints(double[] x, double[][] ys, int size, int threshold) {
+        if (size <= threshold || threshold < 3) {
+            int[] all = new int[size];
+            for (int i = 0; i < size; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        double[] scales = new double[ys.length];
+        for (int s = 0; s < ys.length; s++) {
+            double min = Double.POSITIVE_INFINITY;
+            double max = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < size; i++) {
+                min = Math.min(min, ys[s][i]);
+                max = Math.max(max, ys[s][i]);
+            }
+            scales[s] = max > min ? 1 / (max - min) : 1;
+        }
+
+        int[] selected = new int[threshold];
+        int count = 0;
+        selected[count++] = 0;
+        double bucketSize = (double) (size - 2) / (threshold - 2);
+        int a = 0;
+        double[] avgY = new double[ys.length];
+        for (int bucket = 0; bucket < threshold - 2; bucket++) {
+            // The average of the next bucket (the last point for the last bucket)
+            int avgStart = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            int avgEnd = Math.min((int) Math.floor((bucket + 2) * bucketSize) + 1, size);
+            double avgX = 0;
+            Arrays.fill(avgY, 0);
+            for (int i = avgStart; i < avgEnd; i++) {
+                avgX += x[i];
+                for (int s = 0; s < ys.length; s++) {
+                    avgY[s] += ys[s][i];
+                }
+            }
+            int avgCount = avgEnd - avgStart;
+            avgX /= avgCount;
+            for (int s = 0; s < ys.length; s++) {
+                avgY[s] /= avgCount;
+            }
+
+            // The point of this bucket forming the largest triangle
+            int rangeStart = (int) Math.floor(bucket * bucketSize) + 1;
+            int rangeEnd = (int) Math.floor((bucket + 1) * bucketSize) + 1;
+            double maxArea = -1;
+            int next = rangeStart;
+            for (int i = rangeStart; i < rangeEnd; i++) {
+                double area = 0;
+                for (int s = 0; s < ys.length; s++) {
+                    double[] y = ys[s];
+                    area += Math.abs((x[a] - avgX) * (y[i] - y[a]) - (x[a] - x[i]) * (avgY[s] - y[a])) * scales[s];
+                }
+                if (area > maxArea) {
+                    maxArea = area;
+                    next = i;
+                }
+            }
+            selected[count++] = next;
+            a = next;
+        }
+        selected[count++] = size - 1;
+        return selected;
+    }
+
+}
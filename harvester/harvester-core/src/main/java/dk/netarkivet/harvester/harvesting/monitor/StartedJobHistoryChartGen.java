@@ -25,9 +25,16 @@ package dk.netarkivet.harvester.harvesting.monitor;
 import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.text.DecimalFormat;
-import java.util.LinkedList;
 import java.util.Locale;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jfree.chart.ChartUtilities;
 import org.jfree.chart.JFreeChart;
@@ -47,15 +54,12 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
-import dk.netarkivet.common.exceptions.IOFailure;
-import dk.netarkivet.common.lifecycle.PeriodicTaskExecutor;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.I18n;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
 import dk.netarkivet.harvester.HarvesterSettings;
-import dk.netarkivet.harvester.datamodel.NumberUtils;
 import dk.netarkivet.harvester.datamodel.RunningJobsInfoDAO;
 
 /**
@@ -138,7 +142,8 @@ class StartedJobHistoryChartGen {
     }
 
     /**
-     * A chart generation task. Generates a PNG image for a job progress history.
+     * A chart generation task. Appends the new progress records of the job to its history series, and generates a PNG
+     * image for it.
      */
     private static class ChartGen implements Runnable {
         /** The process that generates the Charts. */
@@ -156,31 +161,39 @@ class StartedJobHistoryChartGen {
 
         @Override
         public void run() {
-
-            synchronized (gen) {
-                gen.chartFile = null;
+            // An exception would cancel the following executions, so log it instead
+            try {
+                generate();
+            } catch (Throwable t) {
+                LOG.warn("Failed to generate history chart for job {}", gen.jobId, t);
             }
+        }
 
+        /**
+         * Append the new records, and render the chart if the history has changed.
+         */
+        private void generate() {
             long jobId = gen.jobId;
+            JobHistorySeries series = gen.series;
 
-            StartedJobInfo[] fullHistory = RunningJobsInfoDAO.getInstance().getFullJobHistory(jobId);
-
-            LinkedList<Double> timeValues = new LinkedList<Double>();
-            LinkedList<Double> progressValues = new LinkedList<Double>();
-            LinkedList<Double> urlValues = new LinkedList<Double>();
-
-            for (StartedJobInfo sji : fullHistory) {
-                timeValues.add((double) sji.getElapsedSeconds());
-                progressValues.add(sji.getProgress());
-                urlValues.add((double) sji.getQueuedFilesCount());
+            StartedJobInfo[] newRecords = RunningJobsInfoDAO.getInstance().getJobHistoryAfter(jobId,
+                    series.getLastElapsedSeconds());
+            series.append(newRecords);
+            if (newRecords.length == 0 && gen.getChartFile() != null) {
+                LOG.trace("No new history records for job {}, chart is up to date.", jobId);
+                return;
             }
+            double[][] points = series.getPoints();
 
             // Refresh the history png image for the job.
+            FileUtils.createDir(gen.outputFolder);
             File pngFile = new File(gen.outputFolder, jobId + "-history.png");
 
             File newPngFile;
             try {
-                newPngFile = File.createTempFile(jobId + "-history", "." + System.currentTimeMillis() + ".png");
+                // In the same folder, so it can be renamed to the chart file
+                newPngFile = File.createTempFile(jobId + "-history", "." + System.currentTimeMillis() + ".png",
+                        gen.outputFolder);
             } catch (IOException e) {
                 LOG.warn("Failed to create temp PNG file for job " + jobId);
                 return;
@@ -195,30 +208,34 @@ class StartedJobHistoryChartGen {
                     I18N.getString(gen.locale, "running.job.details.chart.legend.crawlTime"),
                     new String[] {I18N.getString(gen.locale, "running.job.details.chart.legend.progress"),
                             I18N.getString(gen.locale, "running.job.details.chart.legend.queuedUris")},
-                    NumberUtils.toPrimitiveArray(timeValues),
+                    points[0],
                     new double[][] {new double[] {0, 100}, null},
-                    new double[][] {NumberUtils.toPrimitiveArray(progressValues),
-                            NumberUtils.toPrimitiveArray(urlValues)}, new Color[] {Color.blue, Color.green.darker()},
+                    new double[][] {points[1], points[2]}, new Color[] {Color.blue, Color.green.darker()},
                     new String[] {"%", ""}, false, Color.lightGray.brighter().brighter());
 
             long genTime = System.currentTimeMillis() - startTime;
             LOG.info(
-                    "Generated history chart for job {} in {}.",
+                    "Generated history chart for job {} with {} points in {}.",
                     jobId,
+                    points[0].length,
                     (genTime < TimeUtils.SECOND_IN_MILLIS ? genTime + " ms" : StringUtils.formatDuration(genTime
                             / TimeUtils.SECOND_IN_MILLIS)));
 
-            synchronized (gen) {
-                // Overwrite old file, then delete temp file
+            // Replace the old file in one step, so the web page never sees a partially written chart
+            try {
                 try {
-                    FileUtils.copyFile(newPngFile, pngFile);
-                    FileUtils.remove(newPngFile);
-                } catch (IOFailure e) {
-                    LOG.error("IOFailure while copying PNG file", e);
+                    Files.move(newPngFile.toPath(), pngFile.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                } catch (AtomicMoveNotSupportedException e) {
+                    Files.move(newPngFile.toPath(), pngFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
                 }
+            } catch (IOException e) {
+                LOG.error("IOException while moving PNG file", e);
+                FileUtils.remove(newPngFile);
+                return;
+            }
+            synchronized (gen) {
                 gen.chartFile = pngFile;
             }
-
         }
 
     }
@@ -232,6 +249,17 @@ class StartedJobHistoryChartGen {
     private static final long GEN_INTERVAL = Settings
             .getLong(HarvesterSettings.HARVEST_MONITOR_HISTORY_CHART_GEN_INTERVAL);
 
+    /**
+     * Maximum number of points drawn in a chart.
+     */
+    private static final int MAX_POINTS = Settings.getInt(HarvesterSettings.HARVEST_MONITOR_HISTORY_CHART_MAX_POINTS);
+
+    /** The number of threads generating the charts of all running jobs. */
+    private static final int CHART_GEN_THREADS = 2;
+
+    /** The scheduler shared by the chart generators of all jobs, created when first needed. */
+    private static ScheduledThreadPoolExecutor scheduler;
+
     /**
      * The chart image resolution.
      */
@@ -258,8 +286,11 @@ class StartedJobHistoryChartGen {
      * The locale for internationalizing the chart. The locale is set to the system default.
      */
     private final Locale locale;
-    /** The process controlling the cyclic regeneration of charts. */
-    private PeriodicTaskExecutor genExec = null;
+    /** The downsampled history of the job. */
+    private final JobHistorySeries series = new JobHistorySeries(MAX_POINTS);
+
+    /** The scheduled cyclic regeneration of charts. */
+    private ScheduledFuture<?> genTask = null;
 
     /**
      * Constructor. Start generating charts for data belonging to the given job.
@@ -276,7 +307,27 @@ class StartedJobHistoryChartGen {
         // Set the locale to the system default
         this.locale = Locale.getDefault();
 
-        genExec = new PeriodicTaskExecutor("ChartGen", new ChartGen(this), 0, GEN_INTERVAL);
+        genTask = getScheduler().scheduleWithFixedDelay(new ChartGen(this), 0, GEN_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the scheduler shared by the chart generators of all jobs.
+     */
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (scheduler == null) {
+            scheduler = new ScheduledThreadPoolExecutor(CHART_GEN_THREADS, new ThreadFactory() {
+                private final AtomicInteger threadNr = new AtomicInteger(1);
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ChartGen-" + threadNr.getAndIncrement());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            scheduler.setRemoveOnCancelPolicy(true);
+        }
+        return scheduler;
     }
 
     /**
@@ -293,14 +344,16 @@ class StartedJobHistoryChartGen {
      */
     public void cleanup() {
 
-        if (chartFile != null && chartFile.exists()) {
-            if (!chartFile.delete()) {
-                chartFile.deleteOnExit();
-            }
+        if (genTask != null) {
+            genTask.cancel(true);
         }
 
-        if (genExec != null) {
-            genExec.shutdown();
+        synchronized (this) {
+            if (chartFile != null && chartFile.exists()) {
+                if (!chartFile.delete()) {
+                    chartFile.deleteOnExit();
+                }
+            }
         }
     }
 
@@ -23,20 +23,19 @@
 
 package dk.netarkivet.harvester.indexserver;
 
-import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
-import java.io.IOException;
-import java.util.Collection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
 import dk.netarkivet.common.distribute.indexserver.JobIndexCache;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.NotImplementedException;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.cdx.CDXMergingReader;
 
 /**
  * A cache that serves CDX index files for job IDs.
@@ -45,8 +44,10 @@ import dk.netarkivet.common.utils.FileUtils;
  * to what was asked for. For instance, if asking for data for IDs 2, 3, and 4, and 3 fails, a cached file for IDs 2 and
  * 4 will be returned. There is currently no way to tell if you got everything you asked for.
  * <p>
- * This cache uses the Unix sort(1) command as an external process call, as that one is optimized for handling large,
- * disk-based sorts.
+ * The CDX data of each job is sorted once into a segment, which is the cached index file of that job alone. The index
+ * of a set of jobs is made by merging the sorted segments of its jobs, so a job set never re-sorts data already sorted
+ * for an earlier job set. The segments are sorted with the Unix sort(1) command as an external process call, as that
+ * one is optimized for handling large, disk-based sorts.
  */
 public class CDXIndexCache extends CombiningMultiFileBasedCache<Long> implements JobIndexCache {
 
@@ -61,57 +62,49 @@ public class CDXIndexCache extends CombiningMultiFileBasedCache<Long> implements
     }
 
     /**
-     * Combine parts of an index into one big index.
+     * Combine parts of an index into one big index. The index of a single job is its data sorted, which is the segment
+     * of the job. The index of several jobs is made by merging their segments, which are sorted through this cache
+     * unless already done for an earlier index.
      *
      * @param filesFound A map of IDs and the files caching their content.
      */
     protected void combine(Map<Long, File> filesFound) {
         File resultFile = getCacheFile(filesFound.keySet());
-        concatenateFiles(filesFound.values(), resultFile);
+        // Write into a work file first, so a cached file is always complete
         File workFile = new File(resultFile.getAbsolutePath() + WORK_SUFFIX);
         workFile.deleteOnExit();
         try {
-            FileUtils.sortCDX(resultFile, workFile);
-            workFile.renameTo(resultFile);
+            if (filesFound.size() == 1) {
+                FileUtils.sortCDX(filesFound.values().iterator().next(), workFile);
+            } else {
+                // Merge the segments in job order, so equal lines always come out in the same order
+                Map<Long, File> sortedFiles = new TreeMap<Long, File>(filesFound);
+                List<File> segments = new ArrayList<File>(sortedFiles.size());
+                for (Long id : sortedFiles.keySet()) {
+                    segments.add(getSegment(id));
+                }
+                CDXMergingReader.merge(segments, workFile);
+            }
+            FileUtils.moveFile(workFile, resultFile);
         } finally {
             FileUtils.remove(workFile);
         }
     }
 
     /**
-     * Concatenate a set of files into a single file.
+     * Get the sorted CDX data of one job. The segment is the cached index file of the job alone, so it is made under
+     * the lock of that cache entry and shared with requests for that job.
      *
-     * @param files The files to concatenate.
-     * @param resultFile The file where the files are concatenated into.
+     * @param id The ID of a job
+     * @return the file with the sorted CDX data of the job
+     * @throws IOFailure if the CDX data of the job could not be sorted
      */
-    private static void concatenateFiles(Collection<File> files, File resultFile) {
-        try {
-            BufferedWriter out = null;
-            try {
-                out = new BufferedWriter(new FileWriter(resultFile));
-                for (File f : files) {
-                    BufferedReader in = null;
-                    try {
-                        in = new BufferedReader(new FileReader(f));
-                        String s;
-                        while ((s = in.readLine()) != null) {
-                            out.write(s);
-                            out.newLine();
-                        }
-                    } finally {
-                        if (in != null) {
-                            in.close();
-                        }
-                    }
-                }
-            } finally {
-                if (out != null) {
-                    out.close();
-                }
-            }
-        } catch (IOException e) {
-            throw new IOFailure("Couldn't combine indexes for " + files.size() + " jobs into " + resultFile, e);
+    private File getSegment(Long id) {
+        Set<Long> jobSet = Collections.singleton(id);
+        if (!jobSet.equals(cache(jobSet))) {
+            throw new IOFailure("Could not get the sorted CDX data of job " + id);
         }
+        return getCacheFile(jobSet);
     }
 
     @Override
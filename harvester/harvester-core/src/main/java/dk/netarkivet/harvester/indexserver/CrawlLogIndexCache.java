@@ -39,6 +39,8 @@ import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.SimpleFSDirectory;
@@ -52,6 +54,7 @@ import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.TimeUtils;
 import dk.netarkivet.common.utils.ZipUtils;
 import dk.netarkivet.harvester.HarvesterSettings;
+import is.hi.bok.deduplicator.CompactDigestIndex;
 import is.hi.bok.deduplicator.CrawlDataIterator;
 import is.hi.bok.deduplicator.DigestIndexer;
 
@@ -256,11 +259,18 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
             subindices.clear();
 
             log.info("Adding operation completed (combine task #{})!", indexingJobCount);
+            CrawlLogIndexCompactor.Policy compaction = CrawlLogIndexCompactor.Policy.parse(Settings
+                    .get(HarvesterSettings.INDEXSERVER_INDEXING_COMPACTION));
+            new CrawlLogIndexCompactor(compaction).compact(totalIndex, maxSegments);
             long docsInIndex = totalIndex.numDocs();
 
             indexer.close();
             log.info("Closed index (related to combine task #{}", indexingJobCount);
 
+            if (Settings.getBoolean(HarvesterSettings.INDEXSERVER_INDEXING_WRITE_COMPACT_INDEX)) {
+                writeCompactIndex(indexLocation, indexingJobCount);
+            }
+
             // Now the index is made, gzip it up.
             File totalIndexDir = new File(indexLocation);
             log.info("Gzip-compressing the individual {} index files of combine task # {}",
@@ -281,6 +291,31 @@ public abstract class CrawlLogIndexCache extends CombiningMultiFileBasedCache<Lo
         }
     }
 
+    /**
+     * Write a compact copy of the finished Lucene index into the index directory, so it is shipped together with the
+     * Lucene files.
+     *
+     * @param indexLocation The directory of the finished Lucene index
+     * @param indexingJobCount The number of the combine task, used for logging
+     * @throws IOException If reading the index or writing the compact index fails
+     */
+    private static void writeCompactIndex(String indexLocation, int indexingJobCount) throws IOException {
+        File compactIndexFile = new File(indexLocation, CompactDigestIndex.FILENAME);
+        Directory luceneDir = new SimpleFSDirectory(new File(indexLocation));
+        try {
+            IndexReader reader = DirectoryReader.open(luceneDir);
+            try {
+                long records = CompactDigestIndex.writeFromLuceneIndex(reader, compactIndexFile);
+                log.info("Wrote compact index with {} records of size {} (combine task #{})", records,
+                        FileUtils.getHumanReadableFileSize(compactIndexFile), indexingJobCount);
+            } finally {
+                reader.close();
+            }
+        } finally {
+            luceneDir.close();
+        }
+    }
+
     /**
      * Try to release all resources connected to the given ThreadPoolExecutor.
      *
@@ -0,0 +1,239 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.FileUtils;
+import is.hi.bok.deduplicator.DigestIndexer;
+
+/**
+ * Removes superfluous records from a combined deduplication index. A URL that was harvested with the same content in
+ * many jobs has a record for each of these jobs in the combined index, but the DeDuplicator only needs one of them.
+ * <p>
+ * The (URL, digest, timestamp) of every document is written to a temporary file, which is sorted with the external
+ * Unix sort, so the index never needs to fit in memory. All but one document of each (URL, digest) group are then
+ * deleted from the index, and the index is merged to expunge the deleted documents.
+ */
+public class CrawlLogIndexCompactor {
+
+    /** The log. */
+    private static final Logger log = LoggerFactory.getLogger(CrawlLogIndexCompactor.class);
+
+    /** Separates the fields in the temporary key files. Sorts before any character allowed in a URL. */
+    private static final char SEPARATOR = '\t';
+
+    /** The stored fields read from each document. */
+    private static final Set<String> KEY_FIELDS = new HashSet<String>(Arrays.asList(DigestIndexer.FIELD_URL,
+            DigestIndexer.FIELD_DIGEST, DigestIndexer.FIELD_TIMESTAMP));
+
+    /** Which record of each (URL, digest) group to keep. */
+    public enum Policy {
+        /** Keep all records, i.e. do not compact the index. */
+        NONE,
+        /** Keep the record with the oldest timestamp, i.e. the original harvest of the content. */
+        ORIGINAL,
+        /** Keep the record with the newest timestamp. */
+        NEWEST;
+
+        /**
+         * Parse a policy name, ignoring case.
+         *
+         * @param name The name of a policy, e.g. "original"
+         * @return the policy
+         * @throws ArgumentNotValid if the name is not the name of a policy
+         */
+        public static Policy parse(String name) {
+            ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
+            try {
+                return valueOf(name.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ArgumentNotValid("Unknown index compaction policy '" + name + "'. Expected one of "
+                        + Arrays.toString(values()), e);
+            }
+        }
+    }
+
+    /** The policy used. */
+    private final Policy policy;
+
+    /**
+     * Create a compactor.
+     *
+     * @param policy Which record of each (URL, digest) group to keep
+     */
+    public CrawlLogIndexCompactor(Policy policy) {
+        ArgumentNotValid.checkNotNull(policy, "Policy policy");
+        this.policy = policy;
+    }
+
+    /**
+     * Compact the index of the given writer. All changes to the index must have been committed. Documents without a
+     * URL, digest or timestamp are always kept.
+     *
+     * @param writer The writer of the combined index
+     * @param maxSegments The maximum number of segments in the index after compaction
+     * @return the number of deleted documents
+     * @throws IOException If reading or updating the index fails
+     */
+    public long compact(IndexWriter writer, int maxSegments) throws IOException {
+        ArgumentNotValid.checkNotNull(writer, "IndexWriter writer");
+        if (policy == Policy.NONE) {
+            return 0;
+        }
+        long start = System.currentTimeMillis();
+        File keyFile = File.createTempFile("dedupkeys", ".txt", FileUtils.getTempDir());
+        File sortedKeyFile = File.createTempFile("dedupkeys", ".sorted", FileUtils.getTempDir());
+        long deleted = 0;
+        // The document numbers are only valid for a reader opened on the writer itself
+        DirectoryReader reader = DirectoryReader.open(writer, false);
+        try {
+            int before = reader.numDocs();
+            writeKeys(reader, keyFile);
+            FileUtils.sortFile(keyFile, sortedKeyFile);
+            FileUtils.remove(keyFile);
+            deleted = deleteSuperfluous(writer, reader, sortedKeyFile);
+            if (deleted > 0) {
+                writer.forceMergeDeletes();
+                writer.forceMerge(maxSegments);
+                writer.commit();
+            }
+            log.info("Compacted deduplication index keeping the {} record of each URL and digest: {} documents "
+                    + "before, {} after ({} ms)", policy.name().toLowerCase(Locale.ROOT), before, before - deleted,
+                    System.currentTimeMillis() - start);
+        } finally {
+            reader.close();
+            FileUtils.remove(keyFile);
+            FileUtils.remove(sortedKeyFile);
+        }
+        return deleted;
+    }
+
+    /**
+     * Write a line "URL, digest, timestamp, document number" for each live document with all three fields.
+     */
+    private static void writeKeys(DirectoryReader reader, File keyFile) throws IOException {
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        BufferedWriter out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(keyFile), "UTF-8"));
+        try {
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                if (liveDocs != null && !liveDocs.get(i)) {
+                    continue;
+                }
+                Document doc = reader.document(i, KEY_FIELDS);
+                String url = doc.get(DigestIndexer.FIELD_URL);
+                String digest = doc.get(DigestIndexer.FIELD_DIGEST);
+                String timestamp = doc.get(DigestIndexer.FIELD_TIMESTAMP);
+                if (!isKeyField(url) || !isKeyField(digest) || !isKeyField(timestamp)) {
+                    continue;
+                }
+                line.setLength(0);
+                line.append(url).append(SEPARATOR).append(digest).append(SEPARATOR).append(timestamp)
+                        .append(SEPARATOR).append(i).append('\n');
+                out.append(line);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return true if the value can be written as a field of a key line
+     */
+    private static boolean isKeyField(String value) {
+        if (value == null || value.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < value.length(); i++) {
+            if (value.charAt(i) <= SEPARATOR || value.charAt(i) == '\n' || value.charAt(i) == '\r') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Go through the sorted keys and delete all but the kept document of each (URL, digest) group.
+     *
+     * @return the number of deleted documents
+     */
+    private long deleteSuperfluous(IndexWriter writer, DirectoryReader reader, File sortedKeyFile)
+            throws IOException {
+        long deleted = 0;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(sortedKeyFile), "UTF-8"));
+        try {
+            String groupKey = null;
+            int pending = -1;
+            String line;
+            while ((line = in.readLine()) != null) {
+                int docStart = line.lastIndexOf(SEPARATOR) + 1;
+                int keyEnd = line.lastIndexOf(SEPARATOR, docStart - 2);
+                String key = line.substring(0, keyEnd);
+                int doc = Integer.parseInt(line.substring(docStart));
+                if (!key.equals(groupKey)) {
+                    // Lines of a group are sorted by timestamp, so the first one is the original record
+                    groupKey = key;
+                    pending = doc;
+                    continue;
+                }
+                int superfluous;
+                if (policy == Policy.ORIGINAL) {
+                    superfluous = doc;
+                } else {
+                    superfluous = pending;
+                    pending = doc;
+                }
+                if (!writer.tryDeleteDocument(reader, superfluous)) {
+                    log.warn("The index changed during compaction. Stopping after deleting {} documents", deleted);
+                    return deleted;
+                }
+                deleted++;
+            }
+        } finally {
+            in.close();
+        }
+        return deleted;
+    }
+
+}
@@ -23,12 +23,25 @@
 package dk.netarkivet.harvester.indexserver.distribute;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.EnumMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -47,6 +60,7 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.IllegalState;
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.LargeFileGZIPInputStream;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
@@ -101,6 +115,37 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
      */
     public static final String INDEXREQUEST_USE_LOCAL_FTPSERVER = "settings.common.indexClient.useLocalFtpServer";
 
+    /**
+     * <b>settings.common.indexClient.unzipThreads</b>: <br>
+     * Setting for the number of files of received indexes that are downloaded and unzipped in parallel. The threads
+     * are shared by all index requests of the application.
+     */
+    public static final String INDEXREQUEST_UNZIP_THREADS = "settings.common.indexClient.unzipThreads";
+
+    /**
+     * <b>settings.common.indexClient.sharedCacheDir</b>: <br>
+     * Setting for a directory where received indexes are shared between all applications on the same host, so each
+     * index is only downloaded once per host. The directory should be on the same file system as the cache dir, so
+     * the indexes can be hard-linked rather than copied. Empty by default, which disables the shared cache.
+     */
+    public static final String INDEXREQUEST_SHARED_CACHE_DIR = "settings.common.indexClient.sharedCacheDir";
+
+    /**
+     * <b>settings.common.indexClient.sharedCacheMaxSize</b>: <br>
+     * Setting for the maximum size in bytes of the indexes of each type in the shared cache. The least recently used
+     * indexes are evicted when it is exceeded. 0 means no limit.
+     */
+    public static final String INDEXREQUEST_SHARED_CACHE_MAX_SIZE = "settings.common.indexClient.sharedCacheMaxSize";
+
+    /** Size of the buffer used when unzipping a received index file. */
+    private static final int UNZIP_BUFFER_SIZE = 64 * 1024;
+
+    /** The threads downloading and unzipping received index files, created on first use. */
+    private static ExecutorService unzipExecutor;
+
+    /** The host level cache shared with other applications, or null if not configured. */
+    private final SharedIndexCache sharedCache;
+
     /**
      * Initialise this client, handling requests of a given type. Start listening to channel if not done yet.
      *
@@ -109,6 +154,13 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
     private IndexRequestClient(RequestType type) {
         super(type.name());
         this.requestType = type;
+        String sharedCacheDir = Settings.get(INDEXREQUEST_SHARED_CACHE_DIR);
+        if (sharedCacheDir.trim().isEmpty()) {
+            sharedCache = null;
+        } else {
+            sharedCache = new SharedIndexCache(new File(sharedCacheDir, type.name()),
+                    Settings.getLong(INDEXREQUEST_SHARED_CACHE_MAX_SIZE));
+        }
     }
 
     /**
@@ -147,6 +199,9 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
      * effect of caching the index, is done using this communication with the server. The resulting files will be
      * unzipped into the cache dir.
      * <p>
+     * If a shared cache is configured, the index is taken from it when another application on the host has already
+     * received it, and otherwise published in it after it has been received.
+     * <p>
      * This method should not be called directly! Instead call cache() or getIndex().
      *
      * @param jobSet The set of job IDs.
@@ -159,7 +214,37 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
      */
     protected Set<Long> cacheData(Set<Long> jobSet) throws IOFailure, IllegalState, ArgumentNotValid {
         ArgumentNotValid.checkNotNull(jobSet, "Set<Long> id");
+        if (sharedCache == null) {
+            return requestData(jobSet);
+        }
+        File cacheFile = getCacheFile(jobSet);
+        // Hold the lock while downloading, so other applications on this host wait for the index instead of
+        // downloading it too.
+        SharedIndexCache.EntryLock lock = sharedCache.lock(cacheFile.getName());
+        try {
+            if (sharedCache.fetch(cacheFile.getName(), cacheFile)) {
+                return jobSet;
+            }
+            Set<Long> foundJobs = requestData(jobSet);
+            if (foundJobs.equals(jobSet)) {
+                sharedCache.publish(cacheFile.getName(), cacheFile);
+            }
+            return foundJobs;
+        } finally {
+            lock.release();
+        }
+    }
 
+    /**
+     * Request the index from the index server and unzip it into the cache dir.
+     *
+     * @param jobSet The set of job IDs.
+     * @return The set of found job IDs.
+     * @throws ArgumentNotValid on null argument; or on wrong parameters in replied message.
+     * @throws IOFailure on trouble in communication or invalid reply types.
+     * @throws IllegalState if message is not OK.
+     */
+    private Set<Long> requestData(Set<Long> jobSet) throws IOFailure, IllegalState, ArgumentNotValid {
         if (log.isInfoEnabled()) {
             log.info("Requesting an index of type '{}' for the jobs [{}]", this.requestType,
                     StringUtils.conjoin(",", jobSet));
@@ -212,8 +297,10 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
     }
 
     /**
-     * Gunzip a list of RemoteFiles into a given directory. The actual unzipping takes place in a temporary directory
-     * which gets renamed, so the directory appears to be created atomically.
+     * Gunzip a list of RemoteFiles into a given directory. The files are downloaded and unzipped in parallel. The actual
+     * unzipping takes place in a temporary directory which gets renamed, so the directory appears to be created
+     * atomically. If one of the files fails, the files not started yet are skipped, and the temporary directory is
+     * removed once the files being unzipped are done.
      *
      * @param files List of RemoteFiles to gunzip. The RemoteFiles will be deleted as part of the process.
      * @param toDir The directory that the gunzipped files will eventually be placed in. This directory will be created
@@ -222,51 +309,166 @@ public class IndexRequestClient extends MultiFileBasedCache<Long> implements Job
      */
     private void gunzipToDir(List<RemoteFile> files, File toDir) throws IOFailure {
         File tmpDir = FileUtils.createUniqueTempDir(toDir.getParentFile(), toDir.getName());
+        ExecutorService executor = getUnzipExecutor();
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        // Counted down by every submitted task when it is done, whether it unzipped its file or skipped it
+        final CountDownLatch finished = new CountDownLatch(files.size());
+        final AtomicBoolean stopped = new AtomicBoolean();
         try {
             FileUtils.createDir(tmpDir);
-            for (RemoteFile f : files) {
+            for (final RemoteFile f : files) {
                 String destFileName = f.getName();
                 destFileName = destFileName.substring(0, destFileName.length() - ZipUtils.GZIP_SUFFIX.length());
-                File destFile = new File(tmpDir, destFileName);
-                unzipAndDeleteRemoteFile(f, destFile);
+                final File destFile = new File(tmpDir, destFileName);
+                results.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        try {
+                            if (!stopped.get()) {
+                                unzipAndDeleteRemoteFile(f, destFile);
+                            }
+                            return null;
+                        } finally {
+                            finished.countDown();
+                        }
+                    }
+                }));
+            }
+            for (Future<Void> result : results) {
+                try {
+                    result.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOFailure("Interrupted while unzipping index into '" + tmpDir + "'", e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOFailure) {
+                        throw (IOFailure) e.getCause();
+                    }
+                    throw new IOFailure("Error unzipping index into '" + tmpDir + "'", e.getCause());
+                }
             }
             if (!tmpDir.renameTo(toDir)) {
                 throw new IOFailure("Error renaming temp dir '" + tmpDir + "' to target directory '"
                         + toDir.getAbsolutePath() + "'");
             }
         } finally {
+            // Skip the remaining files of a failed index, and wait for the files being unzipped before removing them
+            stopped.set(true);
+            awaitUninterruptibly(finished, files.size() - results.size());
             FileUtils.removeRecursively(tmpDir);
         }
     }
 
     /**
-     * Unzip a RemoteFile to a given file, deleting the RemoteFile afterwards. Problems arising while deleting are
-     * logged, but do not cause exceptions.
+     * Wait for the tasks of an index to finish, even if interrupted, keeping the interrupt for the caller.
+     *
+     * @param finished The latch counted down by each task
+     * @param notSubmitted The number of tasks that were never submitted, e.g. because submitting failed
+     */
+    private static void awaitUninterruptibly(CountDownLatch finished, int notSubmitted) {
+        for (int i = 0; i < notSubmitted; i++) {
+            finished.countDown();
+        }
+        boolean interrupted = false;
+        while (true) {
+            try {
+                finished.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Get the threads used for downloading and unzipping received index files, creating them on first use.
+     *
+     * @return The executor shared by all index requests
+     */
+    private static synchronized ExecutorService getUnzipExecutor() {
+        if (unzipExecutor == null) {
+            unzipExecutor = Executors.newFixedThreadPool(Math.max(1, Settings.getInt(INDEXREQUEST_UNZIP_THREADS)),
+                    new ThreadFactory() {
+                        private final AtomicInteger threadNr = new AtomicInteger(1);
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread t = new Thread(r, "IndexRequestClient-unzip-" + threadNr.getAndIncrement());
+                            t.setDaemon(true);
+                            return t;
+                        }
+                    });
+        }
+        return unzipExecutor;
+    }
+
+    /**
+     * Unzip a RemoteFile to a given file directly from its input stream, deleting the RemoteFile afterwards. Problems
+     * arising while deleting are logged, but do not cause exceptions. The destination file is removed if unzipping
+     * fails.
      *
      * @param remoteFile A file to download. This file will be attempted deleted after successfull unzipping.
      * @param destFile A place to put the unzipped file.
-     * @throws IOFailure on any I/O error, e.g. disk full
+     * @throws IOFailure on any I/O error, e.g. disk full, or if the checksum of the downloaded data is wrong
      */
     private void unzipAndDeleteRemoteFile(RemoteFile remoteFile, File destFile) throws IOFailure {
-        File tmpFile = null;
+        InputStream remoteIn = remoteFile.getInputStream();
+        InputStream in = remoteIn;
+        boolean success = false;
         try {
-            // We cannot unzip directly from a stream, so we make a temp file.
-            tmpFile = File.createTempFile("remotefile-unzip", ".gz", FileUtils.getTempDir());
-            remoteFile.copyTo(tmpFile);
-            ZipUtils.gunzipFile(tmpFile, destFile);
             try {
-                remoteFile.cleanup();
-            } catch (IOFailure e) {
-                log.debug("Trouble deleting file '" + remoteFile.getName() + "' from FTP server after saving it", e);
+                in = new LargeFileGZIPInputStream(remoteIn);
+                OutputStream out = new FileOutputStream(destFile);
+                try {
+                    byte[] buffer = new byte[UNZIP_BUFFER_SIZE];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        out.write(buffer, 0, read);
+                    }
+                    // Read any bytes after the gzip trailer, so the checksum of the whole file is verified on close.
+                    while (remoteIn.read(buffer) != -1) {
+                        // Discard
+                    }
+                } finally {
+                    out.close();
+                }
+            } catch (IOException | RuntimeException e) {
+                closeAfterFailure(in, e);
+                throw e;
             }
+            // Closing the gzip stream closes the remote stream, which verifies the checksum.
+            in.close();
+            success = true;
         } catch (IOException e) {
             // All other IOExceptions have already been turned into IOFailure
-            throw new IOFailure("Error making temporary file in " + FileUtils.getTempDir(), e);
+            throw new IOFailure("Error unzipping '" + remoteFile.getName() + "' into '" + destFile + "'", e);
         } finally {
-            if (tmpFile != null) {
-                FileUtils.remove(tmpFile);
+            if (!success) {
+                FileUtils.remove(destFile);
             }
         }
+        try {
+            remoteFile.cleanup();
+        } catch (IOFailure e) {
+            log.debug("Trouble deleting file '" + remoteFile.getName() + "' from FTP server after saving it", e);
+        }
+    }
+
+    /**
+     * Close a stream after reading it failed, keeping any error from closing it as suppressed by the failure.
+     *
+     * @param in The stream to close
+     * @param failure The failure that occurred while reading the stream
+     */
+    private static void closeAfterFailure(InputStream in, Exception failure) {
+        try {
+            in.close();
+        } catch (IOException | RuntimeException e) {
+            failure.addSuppressed(e);
+        }
     }
 
     /**
@@ -86,6 +86,12 @@ public class IndexRequestMessage extends HarvesterMessage {
      */
     private Long harvestId;
 
+    /**
+     * If true, the index is requested ahead of time for a job that has not been started yet. Neither the index nor an
+     * IndexReadyMessage is sent back.
+     */
+    private boolean prebuild;
+
     /**
      * Optionally, the client can decide which connection settings to use for the RemoteFile. Only applicable when using
      * FTPRemoteFile.
@@ -156,6 +162,23 @@ public class IndexRequestMessage extends HarvesterMessage {
         return this.shouldReturnIndex;
     }
 
+    /**
+     * @return true, if this is a request to build the index ahead of time for a job that has not been started yet
+     */
+    public boolean isPrebuild() {
+        return this.prebuild;
+    }
+
+    /**
+     * Mark this request as a request to build the index ahead of time. The index server builds such indices with a
+     * lower priority, and sends no reply.
+     *
+     * @param prebuild true, if this is a pre-build request
+     */
+    public void setPrebuild(boolean prebuild) {
+        this.prebuild = prebuild;
+    }
+
     /**
      * Calls visit on the visitor.
      *
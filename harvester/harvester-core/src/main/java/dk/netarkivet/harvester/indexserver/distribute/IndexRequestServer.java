@@ -29,6 +29,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -37,7 +38,15 @@ import java.util.Map;
 import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.apache.commons.io.IOUtils;
 import org.slf4j.Logger;
@@ -106,6 +115,24 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
      */
     private File requestDir;
 
+    /** The executor building indices requested ahead of time. Its queue is bounded, excess requests are dropped. */
+    private final ThreadPoolExecutor prebuildExecutor;
+
+    /** The type and checksum of the job sets for which a pre-build is queued or in progress. */
+    private final Set<String> prebuildsInProgress = Collections
+            .newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** The number of requests for an index to be returned. */
+    private final AtomicLong indexRequests = new AtomicLong();
+    /** The number of requests for an index to be returned, where the index was already cached. */
+    private final AtomicLong indexRequestsAlreadyCached = new AtomicLong();
+    /** The number of pre-build requests queued. */
+    private final AtomicLong prebuildsQueued = new AtomicLong();
+    /** The number of pre-build requests dropped because the queue was full. */
+    private final AtomicLong prebuildsDropped = new AtomicLong();
+    /** The number of indices pre-built. */
+    private final AtomicLong prebuildsCompleted = new AtomicLong();
+
     /**
      * Initialise index request server with no handlers, listening to the index JMS channel.
      */
@@ -120,6 +147,23 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
         handlers = new EnumMap<RequestType, FileBasedCache<Set<Long>>>(RequestType.class);
         conn = JMSConnectionFactory.getInstance();
         checkIflisteningTimer = new Timer();
+
+        int prebuildThreads = Math.max(1, Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_PREBUILD_THREADS));
+        int prebuildQueueSize = Math.max(1,
+                Settings.getInt(HarvesterSettings.INDEXSERVER_INDEXING_PREBUILD_QUEUESIZE));
+        prebuildExecutor = new ThreadPoolExecutor(prebuildThreads, prebuildThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(prebuildQueueSize), new ThreadFactory() {
+                    private final AtomicInteger count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "IndexPrebuilder-" + count.incrementAndGet());
+                        t.setDaemon(true);
+                        // Indices needed by a waiting harvester take precedence
+                        t.setPriority(Thread.MIN_PRIORITY);
+                        return t;
+                    }
+                });
     }
 
     /**
@@ -208,6 +252,10 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
      */
     public synchronized void visit(final IndexRequestMessage irMsg) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(irMsg, "IndexRequestMessage irMsg");
+        if (irMsg.isPrebuild()) {
+            queuePrebuild(irMsg);
+            return;
+        }
         // save new msg to requestDir
         try {
             saveMsg(irMsg);
@@ -247,6 +295,104 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
         }
     }
 
+    /**
+     * Queue a request to build an index ahead of time. Pre-build requests are not stored in the requestDir, do not count
+     * towards the max number of concurrent jobs and are never replied to. If the pre-build queue is full, or the same
+     * index is already being pre-built, the request is dropped; the index is then built when it is requested.
+     *
+     * @param irMsg A pre-build request
+     */
+    private void queuePrebuild(final IndexRequestMessage irMsg) {
+        try {
+            checkMessage(irMsg);
+        } catch (RuntimeException e) {
+            log.warn("Ignoring invalid request for pre-building an index", e);
+            return;
+        }
+        final String key = irMsg.getRequestType() + "-" + getChecksum(irMsg.getRequestedJobs());
+        if (!prebuildsInProgress.add(key)) {
+            log.debug("A pre-build of the index of type '{}' for the jobs [{}] is already queued",
+                    irMsg.getRequestType(), StringUtils.conjoin(",", irMsg.getRequestedJobs()));
+            return;
+        }
+        try {
+            prebuildExecutor.execute(new Runnable() {
+                public void run() {
+                    try {
+                        doPrebuild(irMsg);
+                    } finally {
+                        prebuildsInProgress.remove(key);
+                    }
+                }
+            });
+            prebuildsQueued.incrementAndGet();
+        } catch (RejectedExecutionException e) {
+            prebuildsInProgress.remove(key);
+            prebuildsDropped.incrementAndGet();
+            log.info("The pre-build queue is full. Dropping the pre-build of the index of type '{}' for the {} jobs "
+                    + "of harvest #{}", irMsg.getRequestType(), irMsg.getRequestedJobs().size(), irMsg.getHarvestId());
+        }
+    }
+
+    /**
+     * Build an index requested ahead of time, unless it is already cached. If data is missing for some of the jobs,
+     * but the satisfactory threshold is reached, the index of the jobs with data is built, so only the copying is left
+     * when the index is requested.
+     *
+     * @param irMsg A pre-build request
+     */
+    private void doPrebuild(IndexRequestMessage irMsg) {
+        RequestType type = irMsg.getRequestType();
+        Set<Long> jobIDs = irMsg.getRequestedJobs();
+        FileBasedCache<Set<Long>> handler = handlers.get(type);
+        if (handler == null) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        try {
+            synchronized (getChecksum(jobIDs).intern()) {
+                if (handler.getCacheFile(jobIDs).exists()) {
+                    log.debug("The index of type '{}' for the {} jobs of harvest #{} is already cached", type,
+                            jobIDs.size(), irMsg.getHarvestId());
+                    return;
+                }
+                Set<Long> foundIDs = handler.cache(jobIDs);
+                if (!foundIDs.equals(jobIDs) && satisfactoryTresholdReached(foundIDs, jobIDs)) {
+                    handler.cache(foundIDs);
+                }
+            }
+            prebuildsCompleted.incrementAndGet();
+            log.info("Pre-built the index of type '{}' for the {} jobs of harvest #{} in {} ms", type, jobIDs.size(),
+                    irMsg.getHarvestId(), System.currentTimeMillis() - start);
+        } catch (Throwable t) {
+            log.warn("Unable to pre-build the index of type '" + type + "' for the jobs ["
+                    + StringUtils.conjoin(",", jobIDs) + "]", t);
+        }
+    }
+
+    /**
+     * Record whether a requested index was already cached when the request was processed, and log the statistics.
+     *
+     * @param alreadyCached true, if the index was cached
+     */
+    private void recordIndexRequest(boolean alreadyCached) {
+        long requests = indexRequests.incrementAndGet();
+        long cached = alreadyCached ? indexRequestsAlreadyCached.incrementAndGet() : indexRequestsAlreadyCached.get();
+        log.info("{} of {} requested indices ({}%) were already cached. Pre-builds queued: {}, dropped: {}, "
+                + "completed: {}", cached, requests, cached * 100 / requests, prebuildsQueued.get(),
+                prebuildsDropped.get(), prebuildsCompleted.get());
+    }
+
+    /**
+     * @param jobIDs A set of job IDs
+     * @return the checksum identifying the index of these jobs
+     */
+    private static String getChecksum(Set<Long> jobIDs) {
+        List<Long> sortedList = new ArrayList<Long>(jobIDs);
+        String allIDsString = StringUtils.conjoin("-", sortedList);
+        return ChecksumCalculator.calculateMd5(allIDsString.getBytes());
+    }
+
     /**
      * Save a IndexRequestMessage to disk.
      *
@@ -324,15 +470,16 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
 
             // Here we need to make sure that we don't accidentally process more than
             // one message at the time before the whole process is over
-            List<Long> sortedList = new ArrayList<Long>(jobIDs);
-            String allIDsString = StringUtils.conjoin("-", sortedList);
-            String checksum = ChecksumCalculator.calculateMd5(allIDsString.getBytes());
+            String checksum = getChecksum(jobIDs);
             log.debug("Waiting to enter the synchronization zone for the indexing job of size {} with checksum '{}'",
                     jobIDs.size(), checksum);
             // Begin synchronization
             synchronized (checksum.intern()) {
                 log.debug("The indexing job of size {} with checksum '{}' is now in the synchronization zone",
                         jobIDs.size(), checksum);
+                if (mustReturnIndex) {
+                    recordIndexRequest(handler.getCacheFile(jobIDs).exists());
+                }
                 Set<Long> foundIDs = handler.cache(jobIDs);
                 irMsg.setFoundJobs(foundIDs);
                 if (foundIDs.equals(jobIDs)) {
@@ -514,6 +661,7 @@ public final class IndexRequestServer extends HarvesterMessageHandler implements
     public void cleanup() {
         // shutdown listening timer.
         checkIflisteningTimer.cancel();
+        prebuildExecutor.shutdownNow();
         conn.removeListener(Channels.getTheIndexServer(), this);
         handlers.clear();
 
@@ -0,0 +1,325 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver.distribute;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * A read-only cache of indexes shared by all applications on a host, so co-located harvesters only download an index
+ * once.
+ * <p>
+ * Entries are published by hard-linking the files of a local cache entry into the shared directory, and fetched by
+ * hard-linking them back into the local cache of another application. Hard links make the file system count the
+ * references, so an entry can be evicted from the shared directory while applications still use their links to it;
+ * the disk space is only released when the last link is gone. If hard links cannot be made, e.g. because the
+ * directories are on different file systems, the files are copied instead.
+ * <p>
+ * The least recently used entries are evicted when the total size of the shared directory exceeds the maximum size.
+ * Operations on an entry are serialized between processes with a file lock, see {@link #lock(String)}.
+ */
+public class SharedIndexCache {
+
+    /** The logger for this class. */
+    private static final Logger log = LoggerFactory.getLogger(SharedIndexCache.class);
+
+    /** Suffix of the lock files. */
+    private static final String LOCK_SUFFIX = ".lock";
+
+    /** The shared directory. */
+    private final File cacheDir;
+
+    /** The maximum total size of the entries in bytes, 0 for no limit. */
+    private final long maxSize;
+
+    /**
+     * Create a shared cache.
+     *
+     * @param cacheDir The shared directory, created if it does not exist
+     * @param maxSize The maximum total size of the entries in bytes, 0 for no limit
+     */
+    public SharedIndexCache(File cacheDir, long maxSize) {
+        ArgumentNotValid.checkNotNull(cacheDir, "File cacheDir");
+        ArgumentNotValid.checkNotNegative(maxSize, "long maxSize");
+        this.cacheDir = cacheDir.getAbsoluteFile();
+        this.maxSize = maxSize;
+        FileUtils.createDir(this.cacheDir);
+    }
+
+    /**
+     * A lock on one entry of the shared cache, held by this process.
+     */
+    public static class EntryLock {
+        private final RandomAccessFile lockFile;
+        private final FileLock lock;
+
+        private EntryLock(RandomAccessFile lockFile, FileLock lock) {
+            this.lockFile = lockFile;
+            this.lock = lock;
+        }
+
+        /**
+         * Release the lock.
+         */
+        public void release() {
+            try {
+                lock.release();
+            } catch (IOException e) {
+                log.debug("Could not release lock", e);
+            } finally {
+                try {
+                    lockFile.close();
+                } catch (IOException e) {
+                    log.debug("Could not close lock file", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Lock an entry, waiting while another process holds the lock. Callers hold the lock while fetching, downloading
+     * and publishing an entry, so only one process on the host downloads it.
+     *
+     * @param name The name of the entry
+     * @return the lock, to be released by the caller
+     * @throws IOFailure if the lock cannot be obtained
+     */
+    public EntryLock lock(String name) {
+        ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
+        File lockFile = new File(cacheDir, name + LOCK_SUFFIX);
+        RandomAccessFile raf = null;
+        try {
+            raf = new RandomAccessFile(lockFile, "rw");
+            return new EntryLock(raf, raf.getChannel().lock());
+        } catch (IOException e) {
+            if (raf != null) {
+                try {
+                    raf.close();
+                } catch (IOException e1) {
+                    log.debug("Could not close lock file '{}'", lockFile, e1);
+                }
+            }
+            throw new IOFailure("Could not lock shared cache entry '" + lockFile + "'", e);
+        }
+    }
+
+    /**
+     * Make an entry of the shared cache available as the given local file or directory. The local copy appears
+     * atomically.
+     *
+     * @param name The name of the entry
+     * @param toFile The local file or directory, which must not exist
+     * @return true if the entry was found in the shared cache, false otherwise
+     */
+    public boolean fetch(String name, File toFile) {
+        ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
+        ArgumentNotValid.checkNotNull(toFile, "File toFile");
+        File entry = new File(cacheDir, name);
+        if (!entry.exists()) {
+            return false;
+        }
+        try {
+            linkInto(entry, toFile);
+        } catch (IOException e) {
+            log.warn("Could not fetch '{}' from the shared index cache", entry, e);
+            return false;
+        }
+        // Remember the use for the LRU eviction.
+        entry.setLastModified(System.currentTimeMillis());
+        log.info("Fetched '{}' from the shared index cache '{}'", name, cacheDir);
+        return true;
+    }
+
+    /**
+     * Publish a local file or directory as an entry of the shared cache, and evict the least recently used entries if
+     * the cache has grown too large. Failures are logged, but do not cause exceptions.
+     *
+     * @param name The name of the entry
+     * @param fromFile The local file or directory
+     */
+    public void publish(String name, File fromFile) {
+        ArgumentNotValid.checkNotNullOrEmpty(name, "String name");
+        ArgumentNotValid.checkNotNull(fromFile, "File fromFile");
+        File entry = new File(cacheDir, name);
+        if (entry.exists() || !fromFile.exists()) {
+            return;
+        }
+        try {
+            linkInto(fromFile, entry);
+            entry.setLastModified(System.currentTimeMillis());
+            log.info("Published '{}' in the shared index cache '{}'", name, cacheDir);
+        } catch (IOException e) {
+            log.warn("Could not publish '{}' in the shared index cache", entry, e);
+            return;
+        }
+        evict(entry);
+    }
+
+    /**
+     * Remove the least recently used entries until the total size is within the maximum size. The given entry is never
+     * removed. Entries locked by another process are skipped.
+     *
+     * @param keep The entry to keep
+     */
+    protected synchronized void evict(File keep) {
+        if (maxSize <= 0) {
+            return;
+        }
+        File[] entries = cacheDir.listFiles();
+        if (entries == null) {
+            return;
+        }
+        List<File> candidates = new ArrayList<File>();
+        long totalSize = 0;
+        for (File entry : entries) {
+            if (entry.getName().endsWith(LOCK_SUFFIX) || entry.getName().startsWith(".")) {
+                continue;
+            }
+            totalSize += sizeOf(entry);
+            if (!entry.equals(keep)) {
+                candidates.add(entry);
+            }
+        }
+        Collections.sort(candidates, new Comparator<File>() {
+            @Override
+            public int compare(File f1, File f2) {
+                return Long.compare(f1.lastModified(), f2.lastModified());
+            }
+        });
+        for (File entry : candidates) {
+            if (totalSize <= maxSize) {
+                break;
+            }
+            File lockFile = new File(cacheDir, entry.getName() + LOCK_SUFFIX);
+            try {
+                RandomAccessFile raf = new RandomAccessFile(lockFile, "rw");
+                try {
+                    FileLock lock = raf.getChannel().tryLock();
+                    if (lock == null) {
+                        continue;
+                    }
+                    try {
+                        long size = sizeOf(entry);
+                        FileUtils.removeRecursively(entry);
+                        totalSize -= size;
+                        log.info("Evicted '{}' ({} bytes) from the shared index cache", entry.getName(), size);
+                    } finally {
+                        lock.release();
+                    }
+                } finally {
+                    raf.close();
+                }
+            } catch (Exception e) {
+                log.debug("Could not evict '{}' from the shared index cache", entry, e);
+            }
+        }
+    }
+
+    /**
+     * Hard-link, or if that is not possible copy, a file or a directory of files into a new location. The new file or
+     * directory is created under a temporary name and renamed into place.
+     *
+     * @param from The file or directory to link
+     * @param to The new file or directory, which must not exist
+     * @throws IOException if the files could not be linked or copied
+     */
+    static void linkInto(File from, File to) throws IOException {
+        File parent = to.getAbsoluteFile().getParentFile();
+        FileUtils.createDir(parent);
+        File tmp = new File(parent, "." + to.getName() + "." + System.nanoTime() + ".tmp");
+        try {
+            if (from.isDirectory()) {
+                FileUtils.createDir(tmp);
+                File[] files = from.listFiles();
+                if (files == null) {
+                    throw new IOException("Could not list '" + from + "'");
+                }
+                Arrays.sort(files);
+                for (File f : files) {
+                    if (f.isFile()) {
+                        linkOrCopy(f, new File(tmp, f.getName()));
+                    }
+                }
+            } else {
+                linkOrCopy(from, tmp);
+            }
+            if (!tmp.renameTo(to)) {
+                throw new IOException("Could not rename '" + tmp + "' to '" + to + "'");
+            }
+        } finally {
+            if (tmp.exists()) {
+                FileUtils.removeRecursively(tmp);
+            }
+        }
+    }
+
+    /**
+     * Hard-link a file, copying it if a link cannot be made.
+     *
+     * @param from The existing file
+     * @param to The new file
+     * @throws IOException if the file could neither be linked nor copied
+     */
+    private static void linkOrCopy(File from, File to) throws IOException {
+        try {
+            Files.createLink(to.toPath(), from.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            log.debug("Could not hard-link '{}' to '{}', copying it instead", from, to, e);
+            Files.copy(from.toPath(), to.toPath());
+        }
+    }
+
+    /**
+     * @param f A file or directory
+     * @return the total size of the file, or of the files in the directory
+     */
+    private static long sizeOf(File f) {
+        if (f.isFile()) {
+            return f.length();
+        }
+        long size = 0;
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                size += sizeOf(child);
+            }
+        }
+        return size;
+    }
+
+}
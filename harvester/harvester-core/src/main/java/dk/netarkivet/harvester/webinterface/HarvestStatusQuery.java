@@ -58,6 +58,10 @@ import dk.netarkivet.harvester.datamodel.JobStatus;
  * <p>
  * Additionally a sort order (applied to job IDs) can be set (ascending or descending), and the query can be limited to
  * a certain row number and a start index.
+ * <p>
+ * When moving from one page to the next or previous one, the page can be anchored on the last or first job ID of the
+ * current page. The jobs are then found by seeking from the anchor in the job ID index instead of skipping all rows
+ * of the preceding pages.
  */
 public class HarvestStatusQuery {
 
@@ -127,6 +131,10 @@ public class HarvestStatusQuery {
         PAGE_SIZE(Settings.get(CommonSettings.HARVEST_STATUS_DFT_PAGE_SIZE)),
         /** The starting page. Default is 1. */
         START_PAGE_INDEX("1"),
+        /** The page holds the jobs following this job ID in the sort order. No default. */
+        AFTER_JOB_ID(""),
+        /** The page holds the jobs preceding this job ID in the sort order. No default. */
+        BEFORE_JOB_ID(""),
         /** The number of Jobs to resubmit identified by ID. No default. */
         RESUBMIT_JOB_IDS("");
 
@@ -202,6 +210,10 @@ public class HarvestStatusQuery {
     private long pageSize;
     /** The start page. */
     private long startPageIndex;
+    /** The page holds the jobs following this job ID in the sort order, or null. */
+    private Long afterJobId;
+    /** The page holds the jobs preceding this job ID in the sort order, or null. */
+    private Long beforeJobId;
     /** Is the harvest name case sensitive. The default is yes. */
     private boolean caseSensitiveHarvestName = true;
 
@@ -334,6 +346,17 @@ public class HarvestStatusQuery {
             throw new ArgumentNotValid("Invalid number!", e);
         }
 
+        try {
+            String afterJobIdStr = UI_FIELD.AFTER_JOB_ID.getValue(req);
+            this.afterJobId = afterJobIdStr.isEmpty() ? null : Long.parseLong(afterJobIdStr);
+            String beforeJobIdStr = UI_FIELD.BEFORE_JOB_ID.getValue(req);
+            this.beforeJobId = beforeJobIdStr.isEmpty() ? null : Long.parseLong(beforeJobIdStr);
+        } catch (NumberFormatException e) {
+            throw new ArgumentNotValid("Invalid number!", e);
+        }
+        if (afterJobId != null && beforeJobId != null) {
+            throw new ArgumentNotValid("A page cannot be anchored both after and before a job ID");
+        }
     }
 
     /**
@@ -476,6 +499,34 @@ public class HarvestStatusQuery {
         return startPageIndex;
     }
 
+    /**
+     * @return the job ID which the jobs of the page follow in the sort order, or null if the page is not anchored
+     * after a job
+     */
+    public Long getAfterJobId() {
+        return afterJobId;
+    }
+
+    /**
+     * @return the job ID which the jobs of the page precede in the sort order, or null if the page is not anchored
+     * before a job
+     */
+    public Long getBeforeJobId() {
+        return beforeJobId;
+    }
+
+    /**
+     * Anchor the page on a job ID. The start page index is still used for numbering the results shown.
+     *
+     * @param jobId The job ID to anchor the page on, or null for no anchor
+     * @param after If true, the page holds the jobs following the given job ID in the sort order, otherwise the jobs
+     * preceding it.
+     */
+    public void setPageAnchor(Long jobId, boolean after) {
+        this.afterJobId = after ? jobId : null;
+        this.beforeJobId = after ? null : jobId;
+    }
+
     /**
      * Define whether or not the harvest name is case sensitive.
      *
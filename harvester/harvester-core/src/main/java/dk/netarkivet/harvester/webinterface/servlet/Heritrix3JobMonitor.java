@@ -3,6 +3,8 @@ package dk.netarkivet.harvester.webinterface.servlet;
 import java.io.File;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -51,9 +53,39 @@ public class Heritrix3JobMonitor implements Pageable {
 
     public RandomAccessFile idxRaf;
 
-    public long lastIndexed = 0;
-    
-    public long totalCachedLines = 0;
+    public volatile long lastIndexed = 0;
+
+    public volatile long totalCachedLines = 0;
+
+    /** Number of bytes fetched from Heritrix per crawl log request. */
+    protected static final int CRAWLLOG_BUFFER_SIZE = 1024 * 1024;
+
+    /** Number of line offsets collected before they are appended to the index file in one write. */
+    protected static final int INDEX_BATCH_SIZE = 8192;
+
+    /** Serializes crawl log updates, so the lock on this object is only held while writing to the cached files. */
+    protected final Object updateLock = new Object();
+
+    /** Buffer used to fetch this job's crawl log, allocated on the first update. */
+    protected byte[] crawlLogBuf;
+
+    /** Line offsets waiting to be appended to the index file. */
+    protected final ByteBuffer idxBuf = ByteBuffer.allocate(INDEX_BATCH_SIZE * 8);
+
+    /** Number of crawl log bytes mirrored in the local log file. */
+    public volatile long mirroredLength = 0;
+
+    /** Length of the crawl log on the Heritrix server, as reported by the latest request. */
+    public volatile long remoteLogLength = 0;
+
+    /** Time the latest crawl log update finished, or 0 if the crawl log has not been updated yet. */
+    public volatile long lastUpdateTime = 0;
+
+    /** Duration in milliseconds of the latest crawl log update. */
+    public volatile long lastUpdateDuration = 0;
+
+    /** Number of lines added by the latest crawl log update. */
+    public volatile long lastUpdateLines = 0;
 
     protected Heritrix3JobMonitor() {
     }
@@ -96,6 +128,7 @@ public class Heritrix3JobMonitor implements Pageable {
                     logRaf = new RandomAccessFile(logFile, "rw");
                     idxRaf = new RandomAccessFile(idxFile, "rw");
                     idxRaf.writeLong(0);
+                    mirroredLength = logRaf.length();
                     bInitialized = true;
                 }
             }
@@ -121,65 +154,131 @@ public class Heritrix3JobMonitor implements Pageable {
     	}
     }
 
-    public synchronized void updateCrawlLog(byte[] tmpBuf) {
+    /**
+     * Update the cached crawl log using a buffer owned by this job, so several jobs can be updated in parallel.
+     */
+    public void updateCrawlLog() {
+        synchronized (updateLock) {
+            if (crawlLogBuf == null) {
+                crawlLogBuf = new byte[CRAWLLOG_BUFFER_SIZE];
+            }
+            updateCrawlLog(crawlLogBuf);
+        }
+    }
+
+    /**
+     * Fetch the part of the crawl log appended since the last update and append it to the cached crawl log and its
+     * line index. Only one update runs at a time; page reads are only blocked while a fetched chunk is written.
+     *
+     * @param tmpBuf buffer used for fetching the crawl log, its length is the size of each range request
+     */
+    public void updateCrawlLog(byte[] tmpBuf) {
+        long started = System.currentTimeMillis();
+        long lines = 0;
         long pos;
-        long to;
-        int idx;
+        long requested;
+        int read;
+        int filled;
         boolean bLoop;
         ByteRange byteRange;
-        try {
-            if (bActive && !bInitialized) {
-                init();
-            }
-            if (bActive && bInitialized) {
-                bLoop = true;
+        synchronized (updateLock) {
+            try {
+                if (bActive && !bInitialized) {
+                    init();
+                }
+                bLoop = bActive && bInitialized;
                 while (bLoop) {
-                    idxRaf.seek(idxRaf.length());
-                    pos = logRaf.length();
-                    to = pos;
-                    if (jobResult != null && jobResult.job != null && jobResult.job.crawlLogFilePath != null) {
-                        StreamResult anypathResult = h3wrapper.anypath(jobResult.job.crawlLogFilePath, pos, pos + tmpBuf.length - 1);
+                    bLoop = false;
+                    JobResult tmpJobResult = jobResult;
+                    if (tmpJobResult != null && tmpJobResult.job != null && tmpJobResult.job.crawlLogFilePath != null) {
+                        pos = mirroredLength;
+                        requested = pos;
+                        StreamResult anypathResult = h3wrapper.anypath(tmpJobResult.job.crawlLogFilePath, pos, pos + tmpBuf.length - 1);
                         if (anypathResult != null && anypathResult.byteRange != null && anypathResult.in != null) {
                             byteRange = anypathResult.byteRange;
+                            remoteLogLength = byteRange.contentLength;
                             if (byteRange.contentLength > 0) {
-                                logRaf.seek(pos);
-                                int read;
+                                filled = 0;
                                 try {
-                                    while ((read = anypathResult.in.read(tmpBuf)) != -1) {
-                                        logRaf.write(tmpBuf, 0, read);
-                                        to += read;
-                                        idx = 0;
-                                        while (read > 0) {
-                                            ++pos;
-                                            --read;
-                                            if (tmpBuf[idx++] == '\n') {
-                                                idxRaf.writeLong(pos);
-                                                lastIndexed = pos;
-                                                totalCachedLines++;
-                                            }
+                                    while ((read = anypathResult.in.read(tmpBuf, filled, tmpBuf.length - filled)) != -1) {
+                                        filled += read;
+                                        if (filled == tmpBuf.length) {
+                                            lines += appendCrawlLog(tmpBuf, filled, pos);
+                                            pos += filled;
+                                            filled = 0;
                                         }
                                     }
                                 }
                                 catch (IOException e) {
                                     e.printStackTrace();
                                 }
-                                IOUtils.closeQuietly(anypathResult);
-                                if (byteRange.contentLength == to) {
-                                    bLoop = false;
+                                if (filled > 0) {
+                                    lines += appendCrawlLog(tmpBuf, filled, pos);
+                                    pos += filled;
                                 }
-                            } else {
-                                bLoop = false;
+                                IOUtils.closeQuietly(anypathResult);
+                                // Continue while the crawl log grows and the previous request made progress.
+                                bLoop = pos > requested && pos < byteRange.contentLength;
                             }
-                        } else {
-                            bLoop = false;
                         }
-                    } else {
-                        bLoop = false;
                     }
                 }
+            } catch (Throwable t) {
+            }
+            lastUpdateLines = lines;
+            lastUpdateDuration = System.currentTimeMillis() - started;
+            lastUpdateTime = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * Append a chunk of the crawl log to the cached log file and the offsets of the lines ending in it to the index
+     * file. Offsets are collected in a buffer and written in batches instead of one write per line.
+     *
+     * @param buf the crawl log bytes
+     * @param len number of bytes in the buffer
+     * @param pos offset of the chunk in the crawl log
+     * @return the number of lines ending in this chunk
+     * @throws IOException if writing to the cached files fails
+     */
+    protected synchronized long appendCrawlLog(byte[] buf, int len, long pos) throws IOException {
+        FileChannel logChannel = logRaf.getChannel();
+        ByteBuffer src = ByteBuffer.wrap(buf, 0, len);
+        long writePos = pos;
+        while (src.hasRemaining()) {
+            writePos += logChannel.write(src, writePos);
+        }
+        long lines = 0;
+        idxBuf.clear();
+        for (int idx = 0; idx < len; ++idx) {
+            if (buf[idx] == '\n') {
+                if (!idxBuf.hasRemaining()) {
+                    flushIndex();
+                }
+                lastIndexed = pos + idx + 1;
+                idxBuf.putLong(lastIndexed);
+                ++lines;
             }
-        } catch (Throwable t) {
         }
+        flushIndex();
+        mirroredLength = pos + len;
+        totalCachedLines += lines;
+        return lines;
+    }
+
+    /**
+     * Append the buffered line offsets to the index file.
+     *
+     * @throws IOException if writing to the index file fails
+     */
+    protected void flushIndex() throws IOException {
+        FileChannel idxChannel = idxRaf.getChannel();
+        long idxPos = idxChannel.size();
+        idxBuf.flip();
+        while (idxBuf.hasRemaining()) {
+            idxPos += idxChannel.write(idxBuf, idxPos);
+        }
+        idxBuf.clear();
     }
 
     public synchronized void cleanup(List<File> oldFilesList) {
@@ -192,6 +291,8 @@ public class Heritrix3JobMonitor implements Pageable {
             jobResult = null;
             crawlLogFilePath = null;
             totalCachedLines = 0;
+            mirroredLength = 0;
+            remoteLogLength = 0;
             IOUtils.closeQuietly(logRaf);
             IOUtils.closeQuietly(idxRaf);
             oldFilesList.add(logFile);
@@ -223,6 +324,22 @@ public class Heritrix3JobMonitor implements Pageable {
     	return totalCachedLines;
     }
 
+    /**
+     * @return the number of crawl log bytes on the Heritrix server not yet mirrored in the cached crawl log
+     */
+    public long getLagBytes() {
+        return Math.max(0, remoteLogLength - mirroredLength);
+    }
+
+    /**
+     * @return the number of milliseconds since the cached crawl log was last updated, or -1 if it has never been
+     * updated
+     */
+    public long getLagMillis() {
+        long tmpLastUpdateTime = lastUpdateTime;
+        return tmpLastUpdateTime > 0 ? System.currentTimeMillis() - tmpLastUpdateTime : -1;
+    }
+
     @Override
     public synchronized byte[] readPage(long page, long itemsPerPage, boolean descending) throws IOException {
         return StringIndexFile.readPage(idxRaf, logRaf, page, itemsPerPage, descending);
@@ -14,6 +14,11 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.netarchivesuite.heritrix3wrapper.Heritrix3Wrapper;
 import org.slf4j.Logger;
@@ -90,7 +95,8 @@ public class Heritrix3JobMonitorThread implements Runnable {
     public void run() {
         Map<Long, Heritrix3JobMonitor> tmpJobMonitorMap;
         Iterator<Heritrix3JobMonitor> jobmonitorIter;
-        byte[] tmpBuf = new byte[1024 * 1024];
+        List<Callable<Void>> updateTasks = new ArrayList<Callable<Void>>();
+        ExecutorService updateExecutor = createUpdateExecutor();
         try {
             LOG.info("Heritrix3 Job Monitor Thread started.");
 
@@ -169,6 +175,7 @@ public class Heritrix3JobMonitorThread implements Runnable {
                      * On thread start all cached files are added to old files even though they might still be running.
                      */
                     jobmonitorIter = runningJobMonitorMap.values().iterator();
+                    updateTasks.clear();
                     while (jobmonitorIter.hasNext()) {
                         jobmonitor = jobmonitorIter.next();
                         if (oldFilesMap != null) {
@@ -181,7 +188,16 @@ public class Heritrix3JobMonitorThread implements Runnable {
                         checkH3HostnamePort(jobmonitor);
                         isH3HostnamePortEnabled(jobmonitor);
                         if (jobmonitor.bPull) {
-                            jobmonitor.updateCrawlLog(tmpBuf);
+                            updateTasks.add(new CrawlLogUpdateTask(jobmonitor));
+                        }
+                    }
+                    /*
+                     * Tail the crawl logs of the running jobs in parallel, each job with its own buffer.
+                     */
+                    if (!updateTasks.isEmpty()) {
+                        try {
+                            updateExecutor.invokeAll(updateTasks);
+                        } catch (InterruptedException e) {
                         }
                     }
                     if (oldFilesMap != null) {
@@ -198,7 +214,7 @@ public class Heritrix3JobMonitorThread implements Runnable {
                     }
                 }
                 try {
-                    Thread.sleep(60 * 1000);
+                    Thread.sleep(environment.h3MonitorUpdateInterval * 1000L);
                 } catch (InterruptedException e) {
                 }
             }
@@ -207,6 +223,45 @@ public class Heritrix3JobMonitorThread implements Runnable {
             // Save throwable so we can show it in the restart GUI.
             throwable = t;
             LOG.error("Heritrix3 Job Monitor Thread stopped unexpectedly!.", t);
+        } finally {
+            updateExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return a pool of daemon threads used for updating the cached crawl logs of the running jobs
+     */
+    protected ExecutorService createUpdateExecutor() {
+        return Executors.newFixedThreadPool(Math.max(1, environment.h3MonitorUpdateThreads), new ThreadFactory() {
+            private final AtomicInteger threadNr = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "Heritrix3 Job Monitor Update Thread " + threadNr.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    /**
+     * Updates the cached crawl log of one job and logs how far the cache is behind the crawl log on the Heritrix
+     * server.
+     */
+    protected static class CrawlLogUpdateTask implements Callable<Void> {
+
+        protected final Heritrix3JobMonitor jobmonitor;
+
+        protected CrawlLogUpdateTask(Heritrix3JobMonitor jobmonitor) {
+            this.jobmonitor = jobmonitor;
+        }
+
+        @Override
+        public Void call() {
+            jobmonitor.updateCrawlLog();
+            LOG.debug("Updated crawl log of job {} with {} lines in {} ms, {} bytes behind Heritrix.", jobmonitor.jobId,
+                    jobmonitor.lastUpdateLines, jobmonitor.lastUpdateDuration, jobmonitor.getLagBytes());
+            return null;
         }
     }
 
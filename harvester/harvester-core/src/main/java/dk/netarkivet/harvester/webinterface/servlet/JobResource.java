@@ -653,8 +653,7 @@ public class JobResource implements ResourceAbstract {
             String actionStr = req.getParameter("action");
             
             if ("update".equalsIgnoreCase(actionStr)) {
-                byte[] tmpBuf = new byte[1024 * 1024];
-                h3Job.updateCrawlLog(tmpBuf);
+                h3Job.updateCrawlLog();
             }
             
             long totalCachedLines = h3Job.getTotalCachedLines();
@@ -687,6 +686,9 @@ public class JobResource implements ResourceAbstract {
             sb.append(" URIs<br />\n");
             sb.append("Total cached size: ");
             sb.append(totalCachedSize);
+            sb.append(" bytes<br />\n");
+            sb.append("Behind Heritrix: ");
+            sb.append(h3Job.getLagBytes());
             sb.append(" bytes\n");
             sb.append("</div>\n");
             
@@ -49,6 +49,12 @@ public class NASEnvironment {
 
     public String h3AdminName;
 
+    /** Seconds between updates of the cached crawl logs of the running jobs. */
+    public int h3MonitorUpdateInterval;
+
+    /** Number of threads updating the cached crawl logs of the running jobs in parallel. */
+    public int h3MonitorUpdateThreads;
+
     public String h3AdminPassword;
 
     protected Heritrix3JobMonitorThread h3JobMonitorThread;
@@ -129,6 +135,9 @@ public class NASEnvironment {
             tempPath = new File(System.getProperty("java.io.tmpdir"));
         }
 
+        h3MonitorUpdateInterval = Settings.getInt(HarvesterSettings.HERITRIX3_MONITOR_UPDATE_INTERVAL);
+        h3MonitorUpdateThreads = Settings.getInt(HarvesterSettings.HERITRIX3_MONITOR_UPDATE_THREADS);
+
         h3AdminName = Settings.get(HarvesterSettings.HERITRIX_ADMIN_NAME);
         h3AdminPassword = Settings.get(HarvesterSettings.HERITRIX_ADMIN_PASSWORD);
 
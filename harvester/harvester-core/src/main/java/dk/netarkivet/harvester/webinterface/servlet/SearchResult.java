@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
+import java.util.Arrays;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -25,8 +26,24 @@ public class SearchResult implements Pageable {
 
     protected RandomAccessFile srIdxRaf;
 
+    /** Number of bytes of the job's cached crawl log searched so far. */
     protected long lastIndexed;
 
+    /** Initial size of the buffer used for reading the job's cached crawl log. */
+    protected static final int BUFFER_SIZE = 1024 * 1024;
+
+    /** Number of line offsets collected before they are appended to the index file in one write. */
+    protected static final int INDEX_BATCH_SIZE = 8192;
+
+    /** Buffer used for reading the job's cached crawl log, allocated on the first update. */
+    protected byte[] bytes;
+
+    /** Matching lines waiting to be appended to the search result log file. */
+    protected ByteBuffer outBuf;
+
+    /** Offsets of the matching lines waiting to be appended to the index file. */
+    protected final ByteBuffer idxBuf = ByteBuffer.allocate(INDEX_BATCH_SIZE * 8);
+
     public SearchResult(NASEnvironment environment, Heritrix3JobMonitor h3Job, String q, int searchResultNr) throws IOException {
         this.h3Job = h3Job;
         p = Pattern.compile(q, Pattern.CASE_INSENSITIVE);
@@ -42,56 +59,103 @@ public class SearchResult implements Pageable {
         lastIndexed = 0;
     }
 
+    /**
+     * Search the lines appended to the job's cached crawl log since the last update and append the matching lines to
+     * this search result. Only complete lines already indexed by the job monitor are searched, and the matching lines
+     * and their offsets are written in batches.
+     *
+     * @throws IOException if reading the cached crawl log or writing the search result fails
+     */
     public synchronized void update() throws IOException {
+        long end = h3Job.getLastIndexed();
+        if (end <= lastIndexed) {
+            return;
+        }
+        if (bytes == null) {
+            bytes = new byte[BUFFER_SIZE];
+            outBuf = ByteBuffer.allocate(BUFFER_SIZE);
+        }
         RandomAccessFile logRaf = new RandomAccessFile(h3Job.logFile, "r");
-        logRaf.seek(lastIndexed);
-        srLogRaf.seek(srLogRaf.length());
-        srIdxRaf.seek(srIdxRaf.length());
-        FileChannel logChannel = logRaf.getChannel();
-        byte[] bytes = new byte[1024*1024];
-        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
-        String tmpStr;
-        //long index = lastIndex;
-        long index = srLogRaf.length();
-        int pos;
-        int to;
-        int mark;
-        int limit;
-        boolean b;
-        while (logChannel.read(byteBuffer) != -1) {
-            byteBuffer.flip();
-            pos = byteBuffer.position();
-            mark = pos;
-            limit = byteBuffer.limit();
-            b = true;
-            while (b) {
-                if (pos < limit) {
+        try {
+            FileChannel logChannel = logRaf.getChannel();
+            ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+            long readPos = lastIndexed;
+            long index = srLogRaf.getChannel().size();
+            String tmpStr;
+            int read;
+            int pos;
+            int to;
+            int mark;
+            int limit;
+            while (readPos < end) {
+                byteBuffer.limit((int) Math.min(bytes.length, byteBuffer.position() + end - readPos));
+                read = logChannel.read(byteBuffer, readPos);
+                if (read == -1) {
+                    break;
+                }
+                readPos += read;
+                byteBuffer.flip();
+                pos = byteBuffer.position();
+                mark = pos;
+                limit = byteBuffer.limit();
+                while (pos < limit) {
                     if (bytes[pos++] == '\n') {
                         to = pos - 1;
-                        if (bytes[to - 1] == '\r') {
+                        if (to > mark && bytes[to - 1] == '\r') {
                             --to;
                         }
                         tmpStr = new String(bytes, mark, to - mark, "UTF-8");
                         m.reset(tmpStr);
                         if (m.matches()) {
-                            srLogRaf.write(bytes, mark, pos - mark);
+                            if (!idxBuf.hasRemaining()) {
+                                flush();
+                            }
+                            outBuf.put(bytes, mark, pos - mark);
                             index += pos - mark;
-                            srIdxRaf.writeLong(index);
+                            idxBuf.putLong(index);
                         }
                         lastIndexed += pos - mark;
-                        // next
                         mark = pos;
-                        //index += pos - mark;
-                        //lastIndex = index;
                     }
-                } else {
-                    b = false;
+                }
+                // Matching lines are copied out of the read buffer, so write them before it is reused.
+                flush();
+                byteBuffer.position(mark);
+                byteBuffer.compact();
+                if (!byteBuffer.hasRemaining()) {
+                    // A line longer than the buffer, grow it.
+                    bytes = Arrays.copyOf(bytes, bytes.length * 2);
+                    outBuf = ByteBuffer.allocate(bytes.length);
+                    int remaining = byteBuffer.position();
+                    byteBuffer = ByteBuffer.wrap(bytes);
+                    byteBuffer.position(remaining);
                 }
             }
-            byteBuffer.position(mark);
-            byteBuffer.compact();
+        } finally {
+            logRaf.close();
+        }
+    }
+
+    /**
+     * Append the buffered matching lines to the search result log file and then their offsets to the index file.
+     *
+     * @throws IOException if writing the search result fails
+     */
+    protected void flush() throws IOException {
+        FileChannel srLogChannel = srLogRaf.getChannel();
+        long writePos = srLogChannel.size();
+        outBuf.flip();
+        while (outBuf.hasRemaining()) {
+            writePos += srLogChannel.write(outBuf, writePos);
+        }
+        outBuf.clear();
+        FileChannel srIdxChannel = srIdxRaf.getChannel();
+        writePos = srIdxChannel.size();
+        idxBuf.flip();
+        while (idxBuf.hasRemaining()) {
+            writePos += srIdxChannel.write(idxBuf, writePos);
         }
-        logRaf.close();
+        idxBuf.clear();
     }
 
     @Override
@@ -111,6 +175,7 @@ public class SearchResult implements Pageable {
 
     public synchronized void cleanup() {
         IOUtils.closeQuietly(srIdxRaf);
+        IOUtils.closeQuietly(srLogRaf);
     }
 
 }
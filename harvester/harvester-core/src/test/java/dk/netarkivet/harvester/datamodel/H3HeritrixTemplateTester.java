@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.util.Arrays;
 
 import org.junit.Test;
 
@@ -82,4 +83,20 @@ public class H3HeritrixTemplateTester {
 		}
 	}
 
+	@Test
+	public void testInsertCrawlerTrapsGroupedByDomain() {
+		String xml = "<beans xmlns=\"http://www.springframework.org/schema/beans\">\n<list>\n"
+				+ H3HeritrixTemplate.CRAWLERTRAPS_PLACEHOLDER + "\n</list>\n<map>\n"
+				+ H3HeritrixTemplate.DOMAIN_CRAWLERTRAPS_PLACEHOLDER + "\n</map>\n</beans>";
+		H3HeritrixTemplate template = new H3HeritrixTemplate(100L, xml);
+		template.insertCrawlerTraps("netarkivet.dk", Arrays.asList(".*calendar.*", ".*print.*"));
+		template.insertCrawlerTraps(Constants.GLOBAL_CRAWLER_TRAPS_ELEMENT_NAME, Arrays.asList(".*global.*"));
+		template.removePlaceholders();
+		String result = template.getXML();
+		assertTrue("Domain traps should be grouped by domain: " + result, result.contains(
+				"<entry key=\"netarkivet.dk\"><list>\n<value>.*calendar.*</value>\n<value>.*print.*</value>\n</list></entry>"));
+		assertTrue("Global traps should go in the flat list: " + result,
+				result.contains("<list>\n<value>.*global.*</value>"));
+	}
+
 }
@@ -22,15 +22,24 @@
  */
 package dk.netarkivet.harvester.harvesting.metadata;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang.StringUtils;
+import org.archive.io.ArchiveRecord;
+import org.archive.io.ArchiveRecordHeader;
+import org.archive.io.warc.WARCReader;
+import org.archive.io.warc.WARCReaderFactory;
+import org.archive.util.Base32;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Rule;
@@ -39,6 +48,7 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TestName;
 import org.jwat.common.ANVLRecord;
 
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.SlowTest;
 import dk.netarkivet.testutils.TestResourceUtils;
@@ -112,6 +122,57 @@ public class MetadataFileWriterTester {
         }
     }
 
+    /**
+     * Verifies the block digests written for files with and without a known digest, and for byte array payloads.
+     */
+    @Test
+    public void testMetadataFileWriterWarcBlockDigests() throws IOException {
+        File metafile = getOutputArcFile("digests.warc");
+        MetadataFileWriterWarc mdfw = (MetadataFileWriterWarc) MetadataFileWriterWarc.createWriter(metafile);
+        mdfw.insertInfoRecord(new ANVLRecord());
+        Map<String, byte[]> contents = new HashMap<String, byte[]>();
+        for (File f : logsDir.listFiles()) {
+            if (!f.isFile()) {
+                continue;
+            }
+            String uri = "metadata://netarkivet.dk/crawl/logs/" + f.getName();
+            byte[] content = FileUtils.readBinaryFile(f);
+            contents.put(uri, content);
+            mdfw.writeFileTo(f, uri, "text/plain");
+            // The same file with its digest handed down
+            mdfw.writeFileTo(f, uri + "?digest", "text/plain",
+                    ChecksumCalculator.digestFile(f, ChecksumCalculator.SHA1));
+            contents.put(uri + "?digest", content);
+        }
+        byte[] payload = new byte[8192];
+        new SecureRandom().nextBytes(payload);
+        mdfw.write("http://www.netarkivet.dk/", "application/binary", "127.0.0.1", System.currentTimeMillis(),
+                payload);
+        contents.put("http://www.netarkivet.dk/", payload);
+        mdfw.close();
+
+        WARCReader reader = WARCReaderFactory.get(metafile);
+        int records = 0;
+        try {
+            for (ArchiveRecord record : reader) {
+                ArchiveRecordHeader header = record.getHeader();
+                byte[] expected = contents.get(header.getUrl());
+                if (expected == null) {
+                    continue;
+                }
+                byte[] block = IOUtils.toByteArray(record);
+                Assert.assertArrayEquals(expected, block);
+                Assert.assertEquals("Wrong block digest for " + header.getUrl(),
+                        "sha1:" + Base32.encode(ChecksumCalculator.digestInputStream(new ByteArrayInputStream(block),
+                                ChecksumCalculator.SHA1)), header.getHeaderValue("WARC-Block-Digest"));
+                records++;
+            }
+        } finally {
+            reader.close();
+        }
+        Assert.assertEquals(contents.size(), records);
+    }
+
     /**
      * This is not run automatically, as this takes a long time to complete (15 seconds).
      */
@@ -0,0 +1,267 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.utils.SlowTest;
+import dk.netarkivet.harvester.webinterface.HarvestStatus;
+import dk.netarkivet.harvester.webinterface.HarvestStatusQuery;
+import dk.netarkivet.harvester.webinterface.HarvestStatusQuery.UI_FIELD;
+import dk.netarkivet.harvester.webinterface.HarvestStatusTester;
+
+/**
+ * Tests paging through the harvest status with {@link JobDAO#getStatusInfo(HarvestStatusQuery)} on a generated set of
+ * jobs.
+ */
+public class HarvestStatusPagingTester extends DataModelTestCase {
+
+    private static final Logger log = LoggerFactory.getLogger(HarvestStatusPagingTester.class);
+
+    /** The first id of the generated harvest definitions and jobs, above the ids of the test database. */
+    private static final long FIRST_ID = 1000000L;
+    /** The number of generated harvest definitions. */
+    private static final int HARVEST_DEFINITIONS = 100;
+
+    @Test
+    public void testAnchoredPagesMatchOffsetPages() throws Exception {
+        generateJobs(3000);
+        for (String order : new String[] {"ASC", "DESC"}) {
+            for (String status : new String[] {HarvestStatusQuery.JOBSTATUS_ALL, JobStatus.DONE.name()}) {
+                for (String harvestName : new String[] {HarvestStatusQuery.HARVEST_NAME_ALL, "*STATUS 4*"}) {
+                    checkPaging(order, status, harvestName, 20);
+                }
+            }
+        }
+    }
+
+    /**
+     * Generates a million jobs, or the number given in the system property harveststatus.benchmark.jobs, and checks
+     * the contents and counts of pages at both ends of the harvest status. The time taken to find the first page and
+     * the middle and last pages anchored on a job is logged.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testPagesWithManyJobs() throws Exception {
+        final int jobs = Integer.getInteger("harveststatus.benchmark.jobs", 1000000);
+        final long pageSize = 100;
+        final long anchor = FIRST_ID + jobs / 2;
+        final String all = HarvestStatusQuery.JOBSTATUS_ALL;
+        final String allNames = HarvestStatusQuery.HARVEST_NAME_ALL;
+        final String nameFilter = "*status 4*";
+        JobDAO dao = JobDAO.getInstance();
+        long existingJobs = dao.getStatusInfo(query("DESC", all, allNames, pageSize, 1, null, true))
+                .getFullResultsCount();
+        long existingDone = dao.getStatusInfo(query("DESC", JobStatus.DONE.name(), allNames, pageSize, 1, null, true))
+                .getFullResultsCount();
+        long existingNamed = dao.getStatusInfo(query("DESC", all, nameFilter, pageSize, 1, null, true))
+                .getFullResultsCount();
+        generateJobs(jobs);
+
+        long start = System.nanoTime();
+        HarvestStatus result = dao.getStatusInfo(query("DESC", all, allNames, pageSize, 1, null, true));
+        long firstPageNanos = System.nanoTime() - start;
+        long count = existingJobs + jobs;
+        assertEquals(count, result.getFullResultsCount());
+        assertEquals(generatedIds(FIRST_ID + jobs - 1, pageSize, all, null), jobIds(result));
+
+        long lastPage = (count + pageSize - 1) / pageSize;
+        start = System.nanoTime();
+        result = dao.getStatusInfo(query("DESC", all, allNames, pageSize, lastPage / 2, anchor, true));
+        long middlePageNanos = System.nanoTime() - start;
+        assertEquals(count, result.getFullResultsCount());
+        assertEquals(generatedIds(anchor - 1, pageSize, all, null), jobIds(result));
+
+        result = dao.getStatusInfo(query("DESC", all, allNames, pageSize, lastPage, null, true));
+        assertEquals(count, result.getFullResultsCount());
+        assertEquals(count - (lastPage - 1) * pageSize, result.getJobStatusInfo().size());
+
+        start = System.nanoTime();
+        result = dao.getStatusInfo(query("DESC", all, allNames, pageSize, lastPage, FIRST_ID + pageSize, true));
+        long lastPageNanos = System.nanoTime() - start;
+        assertEquals(count, result.getFullResultsCount());
+        assertEquals(generatedIds(FIRST_ID + pageSize - 1, pageSize, all, null), jobIds(result));
+
+        result = dao.getStatusInfo(query("DESC", JobStatus.DONE.name(), allNames, pageSize, 10, anchor, true));
+        assertEquals(existingDone + generatedIds(FIRST_ID + jobs - 1, jobs, JobStatus.DONE.name(), null).size(),
+                result.getFullResultsCount());
+        assertEquals(generatedIds(anchor - 1, pageSize, JobStatus.DONE.name(), null), jobIds(result));
+
+        result = dao.getStatusInfo(query("DESC", all, nameFilter, pageSize, 10, anchor, true));
+        assertEquals(existingNamed + generatedIds(FIRST_ID + jobs - 1, jobs, all, "status 4").size(),
+                result.getFullResultsCount());
+        assertEquals(generatedIds(anchor - 1, pageSize, all, "status 4"), jobIds(result));
+        log.info("Harvest status pages of {} jobs: first page {} ms, middle page {} ms, last page {} ms", count,
+                firstPageNanos / 1000000L, middlePageNanos / 1000000L, lastPageNanos / 1000000L);
+    }
+
+    /**
+     * Find the ids of the generated jobs matching a status and a harvest name, in descending order.
+     *
+     * @param fromId The highest id to include
+     * @param max The maximum number of ids to return
+     * @param status The name of a job status, or {@link HarvestStatusQuery#JOBSTATUS_ALL}
+     * @param harvestName A part of the harvest name compared case insensitively, or null for all names
+     * @return the ids of the matching generated jobs
+     */
+    private static List<Long> generatedIds(long fromId, long max, String status, String harvestName) {
+        JobStatus[] states = JobStatus.values();
+        List<Long> ids = new ArrayList<Long>();
+        for (long id = fromId; id >= FIRST_ID && ids.size() < max; id--) {
+            int i = (int) (id - FIRST_ID);
+            boolean statusMatches = HarvestStatusQuery.JOBSTATUS_ALL.equals(status)
+                    || states[i % states.length].name().equals(status);
+            boolean nameMatches = harvestName == null
+                    || ("Status " + i % HARVEST_DEFINITIONS).toLowerCase().contains(harvestName);
+            if (statusMatches && nameMatches) {
+                ids.add(id);
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Walk forwards through all pages anchored on the last job of the previous page, and backwards anchored on the
+     * first job of the following page, and compare each page to the page found by offset.
+     */
+    private void checkPaging(String order, String status, String harvestName, long pageSize) {
+        JobDAO dao = JobDAO.getInstance();
+        List<List<Long>> offsetPages = new ArrayList<List<Long>>();
+        long count = -1;
+        for (long page = 1; count < 0 || (page - 1) * pageSize < count; page++) {
+            HarvestStatus result = dao.getStatusInfo(query(order, status, harvestName, pageSize, page, null, true));
+            if (count < 0) {
+                count = result.getFullResultsCount();
+            }
+            assertEquals(count, result.getFullResultsCount());
+            offsetPages.add(jobIds(result));
+        }
+        long expectedCount = 0;
+        for (List<Long> page : offsetPages) {
+            expectedCount += page.size();
+        }
+        assertEquals("The count should match the jobs found for " + order + ", " + status + ", " + harvestName,
+                expectedCount, count);
+        assertTrue("The generated jobs should match " + status + ", " + harvestName, count > pageSize);
+
+        Long anchor = null;
+        for (int page = 0; page < offsetPages.size(); page++) {
+            HarvestStatus result = dao.getStatusInfo(query(order, status, harvestName, pageSize, page + 1, anchor,
+                    true));
+            assertEquals("Page " + (page + 1) + " after " + anchor, offsetPages.get(page), jobIds(result));
+            assertEquals(count, result.getFullResultsCount());
+            anchor = offsetPages.get(page).get(offsetPages.get(page).size() - 1);
+        }
+        for (int page = offsetPages.size() - 2; page >= 0; page--) {
+            anchor = offsetPages.get(page + 1).get(0);
+            HarvestStatus result = dao.getStatusInfo(query(order, status, harvestName, pageSize, page + 1, anchor,
+                    false));
+            assertEquals("Page " + (page + 1) + " before " + anchor, offsetPages.get(page), jobIds(result));
+        }
+    }
+
+    private static HarvestStatusQuery query(String order, String status, String harvestName, long pageSize,
+            long page, Long anchor, boolean after) {
+        Map<String, String[]> params = new HashMap<String, String[]>();
+        params.put(UI_FIELD.JOB_ID_ORDER.name(), new String[] {order});
+        params.put(UI_FIELD.JOB_STATUS.name(), new String[] {status});
+        params.put(UI_FIELD.HARVEST_NAME.name(), new String[] {harvestName});
+        params.put(UI_FIELD.PAGE_SIZE.name(), new String[] {Long.toString(pageSize)});
+        params.put(UI_FIELD.START_PAGE_INDEX.name(), new String[] {Long.toString(page)});
+        if (anchor != null) {
+            UI_FIELD anchorField = after ? UI_FIELD.AFTER_JOB_ID : UI_FIELD.BEFORE_JOB_ID;
+            params.put(anchorField.name(), new String[] {anchor.toString()});
+        }
+        HarvestStatusQuery query = HarvestStatusTester.getTestQuery(params);
+        query.setCaseSensitiveHarvestName(false);
+        return query;
+    }
+
+    private static List<Long> jobIds(HarvestStatus result) {
+        List<Long> ids = new ArrayList<Long>();
+        for (JobStatusInfo info : result.getJobStatusInfo()) {
+            ids.add(info.getJobID());
+        }
+        return ids;
+    }
+
+    /**
+     * Insert harvest definitions named "Status N" and the given number of jobs, spread evenly over the harvest
+     * definitions and the job states.
+     */
+    private static void generateJobs(int jobs) throws Exception {
+        final int batchSize = 1000;
+        Timestamp now = new Timestamp(System.currentTimeMillis());
+        Connection c = HarvestDBConnection.get();
+        try {
+            c.setAutoCommit(false);
+            PreparedStatement s = c.prepareStatement("INSERT INTO harvestdefinitions"
+                    + " (harvest_id, name, numevents, submitted, isactive, edition) VALUES (?, ?, 0, ?, 1, 1)");
+            for (int i = 0; i < HARVEST_DEFINITIONS; i++) {
+                s.setLong(1, FIRST_ID + i);
+                s.setString(2, "Status " + i);
+                s.setTimestamp(3, now);
+                s.addBatch();
+            }
+            s.executeBatch();
+            s.close();
+            s = c.prepareStatement("INSERT INTO jobs (job_id, harvest_id, status, orderxml, orderxmldoc, seedlist,"
+                    + " harvest_num, edition, snapshot, startdate) VALUES (?, ?, ?, 'default_orderxml', '<crawl-order/>',"
+                    + " 'http://www.netarkivet.dk/', 0, 1, ?, ?)");
+            JobStatus[] states = JobStatus.values();
+            for (int i = 0; i < jobs; i++) {
+                s.setLong(1, FIRST_ID + i);
+                s.setLong(2, FIRST_ID + i % HARVEST_DEFINITIONS);
+                s.setInt(3, states[i % states.length].ordinal());
+                s.setBoolean(4, i % 2 == 0);
+                s.setTimestamp(5, now);
+                s.addBatch();
+                if ((i + 1) % batchSize == 0) {
+                    s.executeBatch();
+                    c.commit();
+                }
+            }
+            s.executeBatch();
+            c.commit();
+            s.close();
+        } finally {
+            c.setAutoCommit(true);
+            HarvestDBConnection.release(c);
+        }
+    }
+
+}
@@ -0,0 +1,152 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.datamodel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import dk.netarkivet.common.utils.DBUtils;
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Tests of the {@link IdAllocator} implementations.
+ */
+public class IdAllocatorTester extends DataModelTestCase {
+
+    @Test
+    public void testSequencesAreUsedOnDerby() {
+        Connection c = HarvestDBConnection.get();
+        try {
+            IdAllocator allocator = DBSpecifics.getInstance().createIdAllocator(IdSequence.JOBS);
+            assertTrue("Derby supports sequences", allocator instanceof SequenceIdAllocator);
+            Long maxJobId = DBUtils.selectLongValue(c, "SELECT MAX(job_id) FROM jobs");
+            long first = allocator.nextId(c);
+            assertTrue("The sequence should start after the existing jobs", maxJobId == null || first > maxJobId);
+            for (int i = 1; i <= 2 * IdSequence.JOBS.getBlockSize(); i++) {
+                assertEquals("Ids from one allocator should be consecutive", first + i, allocator.nextId(c));
+            }
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    @Test
+    public void testReserveUpTo() {
+        Connection c = HarvestDBConnection.get();
+        try {
+            IdAllocator allocator = DBSpecifics.getInstance().createIdAllocator(IdSequence.JOBS);
+            allocator.nextId(c);
+            allocator.reserveUpTo(c, 5000L);
+            assertEquals(5001L, allocator.nextId(c));
+            // A new allocator, e.g. after a restart, must not go below the reserved ids either
+            IdAllocator restarted = DBSpecifics.getInstance().createIdAllocator(IdSequence.JOBS);
+            long next = restarted.nextId(c);
+            assertTrue(next > 5001L);
+            // Reserving ids below the ones handed out must never move the sequence backwards
+            allocator.reserveUpTo(c, 10L);
+            assertTrue("The sequence should not move backwards", allocator.nextId(c) > next);
+            IdAllocator another = DBSpecifics.getInstance().createIdAllocator(IdSequence.JOBS);
+            assertTrue("The sequence should not move backwards", another.nextId(c) > next);
+
+            IdAllocator maxAllocator = new MaxIdAllocator(IdSequence.JOBS);
+            long first = maxAllocator.nextId(c);
+            assertEquals("Ids not yet inserted should not be handed out again", first + 1, maxAllocator.nextId(c));
+            maxAllocator.reserveUpTo(c, first + 100);
+            assertEquals(first + 101, maxAllocator.nextId(c));
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+    }
+
+    /**
+     * Inserts 100000 rows with allocated ids from 32 threads, using two allocators as two applications sharing the
+     * database would. The primary key of the table makes any collision fail the insert.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testConcurrentAllocationWithoutCollisions() throws Exception {
+        final int threads = 32;
+        final int rowsPerThread = 3125;
+        final int batchSize = 500;
+        Connection c = HarvestDBConnection.get();
+        try {
+            DBUtils.executeSQL(c, "CREATE TABLE idallocatortest (id BIGINT NOT NULL PRIMARY KEY)");
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+        final IdAllocator[] allocators = new IdAllocator[] {
+                DBSpecifics.getInstance().createIdAllocator(IdSequence.EXTENDEDFIELDVALUE),
+                DBSpecifics.getInstance().createIdAllocator(IdSequence.EXTENDEDFIELDVALUE)};
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Void>> results = new ArrayList<Future<Void>>();
+        for (int t = 0; t < threads; t++) {
+            final IdAllocator allocator = allocators[t % allocators.length];
+            results.add(executor.submit(new Callable<Void>() {
+                public Void call() throws Exception {
+                    for (int inserted = 0; inserted < rowsPerThread; inserted += batchSize) {
+                        Connection connection = HarvestDBConnection.get();
+                        try {
+                            PreparedStatement s = connection.prepareStatement(
+                                    "INSERT INTO idallocatortest (id) VALUES (?)");
+                            for (int i = inserted; i < Math.min(inserted + batchSize, rowsPerThread); i++) {
+                                s.setLong(1, allocator.nextId(connection));
+                                s.addBatch();
+                            }
+                            s.executeBatch();
+                            s.close();
+                        } finally {
+                            HarvestDBConnection.release(connection);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> result : results) {
+            result.get();
+        }
+        executor.shutdown();
+
+        c = HarvestDBConnection.get();
+        try {
+            assertEquals(Long.valueOf(threads * rowsPerThread),
+                    DBUtils.selectLongValue(c, "SELECT COUNT(DISTINCT id) FROM idallocatortest"));
+        } finally {
+            HarvestDBConnection.release(c);
+        }
+    }
+
+}
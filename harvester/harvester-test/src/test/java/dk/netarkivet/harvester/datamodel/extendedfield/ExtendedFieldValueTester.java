@@ -24,18 +24,32 @@
 package dk.netarkivet.harvester.datamodel.extendedfield;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.exceptions.UnknownID;
 import dk.netarkivet.common.utils.SlowTest;
 import dk.netarkivet.harvester.datamodel.DataModelTestCase;
 import dk.netarkivet.harvester.webinterface.ExtendedFieldConstants;
 
 public class ExtendedFieldValueTester extends DataModelTestCase {
 
+    private static final Logger log = LoggerFactory.getLogger(ExtendedFieldValueTester.class);
+
     @Before
     public void setUp() throws Exception {
         super.setUp();
@@ -78,4 +92,146 @@ public class ExtendedFieldValueTester extends DataModelTestCase {
         assertEquals(extFieldVal.getInstanceID(), Long.valueOf(100));
         assertEquals(extFieldVal.getContent(), "bar");
     }
+
+    @Category(SlowTest.class)
+    @Test
+    public void testReadAllAndUpsertAll() {
+        ExtendedFieldDAO extDAO = ExtendedFieldDBDAO.getInstance();
+        ExtendedField first = new ExtendedField(null, (long) ExtendedFieldTypes.DOMAIN, "First", "", 1, false, 1,
+                "default1", "", ExtendedFieldConstants.MAXLEN_EXTF_NAME);
+        extDAO.create(first);
+        ExtendedField second = new ExtendedField(null, (long) ExtendedFieldTypes.DOMAIN, "Second", "", 1, false, 2,
+                "default2", "", ExtendedFieldConstants.MAXLEN_EXTF_NAME);
+        extDAO.create(second);
+        ExtendedField other = new ExtendedField(null, (long) ExtendedFieldTypes.HARVESTDEFINITION, "Other", "", 1,
+                false, 1, "default3", "", ExtendedFieldConstants.MAXLEN_EXTF_NAME);
+        extDAO.create(other);
+
+        ExtendedFieldValueDAO extValDAO = ExtendedFieldValueDBDAO.getInstance();
+        List<ExtendedFieldValue> values = new ArrayList<ExtendedFieldValue>();
+        values.add(new ExtendedFieldValue(null, second.getExtendedFieldID(), 100L, "foo"));
+        values.add(new ExtendedFieldValue(null, first.getExtendedFieldID(), 101L, "bar"));
+        values.add(new ExtendedFieldValue(null, other.getExtendedFieldID(), 100L, "baz"));
+        extValDAO.upsertAll(values);
+        for (ExtendedFieldValue value : values) {
+            assertTrue("Created values should get an id", value.getExtendedFieldValueID() != null);
+        }
+
+        Map<Long, List<ExtendedFieldValue>> read = extValDAO.readAll(Arrays.asList(100L, 101L, 102L),
+                ExtendedFieldTypes.DOMAIN);
+        assertEquals(3, read.size());
+        assertContents(read.get(100L), "default1", "foo");
+        assertNull("Default values should not have an id", read.get(100L).get(0).getExtendedFieldValueID());
+        assertEquals(values.get(0).getExtendedFieldValueID(), read.get(100L).get(1).getExtendedFieldValueID());
+        assertContents(read.get(101L), "bar", "default2");
+        assertContents(read.get(102L), "default1", "default2");
+        assertContents(extValDAO.readAll(Collections.singletonList(100L), ExtendedFieldTypes.HARVESTDEFINITION)
+                .get(100L), "baz");
+        assertTrue(extValDAO.readAll(Collections.<Long>emptyList(), ExtendedFieldTypes.DOMAIN).isEmpty());
+
+        // Save the read values again: the stored ones are updated, the defaults are created
+        read.get(100L).get(1).setContent("foo2");
+        List<ExtendedFieldValue> toSave = new ArrayList<ExtendedFieldValue>(read.get(100L));
+        extValDAO.upsertAll(toSave);
+        assertContents(extValDAO.readAll(Collections.singletonList(100L), ExtendedFieldTypes.DOMAIN).get(100L),
+                "default1", "foo2");
+        assertEquals("foo2", extValDAO.read(second.getExtendedFieldID(), 100L).getContent());
+        assertEquals("default1", extValDAO.read(first.getExtendedFieldID(), 100L).getContent());
+
+        try {
+            extValDAO.upsertAll(Collections.singletonList(new ExtendedFieldValue(999999L, first.getExtendedFieldID(),
+                    100L, "unknown")));
+            fail("Updating an unknown value should throw UnknownID");
+        } catch (UnknownID e) {
+            // expected
+        }
+    }
+
+    /**
+     * Compares the old one-value-at-a-time path with the batched path on many instances, and logs the time taken by
+     * each.
+     */
+    @Category(SlowTest.class)
+    @Test
+    public void testBatchedReadAndWriteMatchesSingleValues() {
+        final int fieldCount = 5;
+        final int instanceCount = 2000;
+        ExtendedFieldDAO extDAO = ExtendedFieldDBDAO.getInstance();
+        for (int f = 0; f < fieldCount; f++) {
+            extDAO.create(new ExtendedField(null, (long) ExtendedFieldTypes.DOMAIN, "Field" + f, "", 1, false, f,
+                    "default" + f, "", ExtendedFieldConstants.MAXLEN_EXTF_NAME));
+        }
+        List<ExtendedField> fields = extDAO.getAll(ExtendedFieldTypes.DOMAIN);
+        ExtendedFieldValueDAO extValDAO = ExtendedFieldValueDBDAO.getInstance();
+
+        // Instances 1..n are written one value at a time, instances n+1..2n in batches
+        List<Long> singleIds = new ArrayList<Long>();
+        List<Long> batchIds = new ArrayList<Long>();
+        List<ExtendedFieldValue> batch = new ArrayList<ExtendedFieldValue>();
+        long start = System.nanoTime();
+        for (long i = 1; i <= instanceCount; i++) {
+            singleIds.add(i);
+            for (int f = 1; f < fieldCount; f++) {
+                extValDAO.create(new ExtendedFieldValue(null, fields.get(f).getExtendedFieldID(), i, "value" + i));
+            }
+        }
+        long singleWriteNanos = System.nanoTime() - start;
+        for (long i = instanceCount + 1; i <= 2 * instanceCount; i++) {
+            batchIds.add(i);
+            for (int f = 1; f < fieldCount; f++) {
+                batch.add(new ExtendedFieldValue(null, fields.get(f).getExtendedFieldID(), i, "value" + i));
+            }
+        }
+        start = System.nanoTime();
+        extValDAO.upsertAll(batch);
+        long batchWriteNanos = System.nanoTime() - start;
+
+        List<Long> allIds = new ArrayList<Long>(singleIds);
+        allIds.addAll(batchIds);
+        start = System.nanoTime();
+        List<List<ExtendedFieldValue>> singleRead = new ArrayList<List<ExtendedFieldValue>>();
+        for (Long id : allIds) {
+            List<ExtendedFieldValue> values = new ArrayList<ExtendedFieldValue>();
+            for (ExtendedField field : fields) {
+                ExtendedFieldValue value = extValDAO.read(field.getExtendedFieldID(), id);
+                values.add(value);
+            }
+            singleRead.add(values);
+        }
+        long singleReadNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        Map<Long, List<ExtendedFieldValue>> batchRead = extValDAO.readAll(allIds, ExtendedFieldTypes.DOMAIN);
+        long batchReadNanos = System.nanoTime() - start;
+
+        assertEquals(allIds.size(), batchRead.size());
+        for (int i = 0; i < allIds.size(); i++) {
+            List<ExtendedFieldValue> batchValues = batchRead.get(allIds.get(i));
+            assertEquals(fieldCount, batchValues.size());
+            for (int f = 0; f < fieldCount; f++) {
+                ExtendedFieldValue singleValue = singleRead.get(i).get(f);
+                ExtendedFieldValue batchValue = batchValues.get(f);
+                if (singleValue == null) {
+                    assertEquals("default" + f, batchValue.getContent());
+                    assertNull(batchValue.getExtendedFieldValueID());
+                } else {
+                    assertEquals(singleValue.getExtendedFieldValueID(), batchValue.getExtendedFieldValueID());
+                    assertEquals(singleValue.getContent(), batchValue.getContent());
+                }
+                assertEquals(fields.get(f).getExtendedFieldID(), batchValue.getExtendedFieldID());
+                assertEquals(allIds.get(i), batchValue.getInstanceID());
+            }
+        }
+        log.info("Writing {} extended field values: one at a time {} ms, batched {} ms",
+                instanceCount * (fieldCount - 1), singleWriteNanos / 1000000, batchWriteNanos / 1000000);
+        log.info("Reading {} extended field values: one at a time {} ms, batched {} ms", allIds.size() * fieldCount,
+                singleReadNanos / 1000000, batchReadNanos / 1000000);
+    }
+
+    private static void assertContents(List<ExtendedFieldValue> values, String... contents) {
+        assertEquals(contents.length, values.size());
+        for (int i = 0; i < contents.length; i++) {
+            assertEquals(contents[i], values.get(i).getContent());
+        }
+    }
+
 }
@@ -116,6 +116,21 @@ public class CrawlStatusMessageTester {
         assertEquals("Deserialization error for CrawlStatusMessage", relevantState(csm), relevantState(csm2));
     }
 
+    /**
+     * Test that the upload statistics survive serialization and give the throughput.
+     */
+    @Test
+    public void testUploadStatistics() throws IOException, ClassNotFoundException {
+        CrawlStatusMessage csm = new CrawlStatusMessage(0l, JobStatus.DONE, null);
+        assertEquals(0, csm.getUploadBytesPerSecond());
+        csm.setUploadStatistics(3, 6000000L, 2000L);
+        CrawlStatusMessage csm2 = (CrawlStatusMessage) Serial.serial(csm);
+        assertEquals(3, csm2.getUploadedFiles());
+        assertEquals(6000000L, csm2.getUploadedBytes());
+        assertEquals(2000L, csm2.getUploadMillis());
+        assertEquals(3000000L, csm2.getUploadBytesPerSecond());
+    }
+
     /**
      * Returns a string representation of the information to be serialized in a CrawlStatusMessage
      *
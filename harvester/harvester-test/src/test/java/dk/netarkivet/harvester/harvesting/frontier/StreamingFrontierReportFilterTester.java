@@ -0,0 +1,119 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.frontier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import dk.netarkivet.harvester.harvesting.frontier.StreamingFrontierReportFilter.LineCollector;
+
+/**
+ * Compares the reports of the frontier report filters evaluated in a single streaming pass with the reports obtained
+ * by sorting all lines.
+ */
+public class StreamingFrontierReportFilterTester {
+
+    private static final int QUEUES = 5000;
+    private static final int MAX_SIZE = 50;
+
+    @Test
+    public void testTopTotalEnqueues() {
+        checkFilter(new TopTotalEnqueuesFilter());
+    }
+
+    @Test
+    public void testExhaustedQueues() {
+        checkFilter(new ExhaustedQueuesFilter());
+    }
+
+    @Test
+    public void testRetiredQueues() {
+        checkFilter(new RetiredQueuesFilter());
+    }
+
+    @Test
+    public void testFewerMatchesThanMaxSize() {
+        TopTotalEnqueuesFilter filter = new TopTotalEnqueuesFilter();
+        filter.init(new String[] {"10"});
+        LineCollector collector = filter.newCollector("job");
+        List<FrontierReportLine> lines = createLines(5);
+        for (FrontierReportLine line : lines) {
+            collector.accept(line);
+        }
+        InMemoryFrontierReport report = collector.getReport();
+        assertEquals(collector.getMatchCount(), report.getSize());
+        assertEquals("job", report.getJobName());
+    }
+
+    private void checkFilter(MaxSizeFrontierReportExtract filter) {
+        filter.init(new String[] {Integer.toString(MAX_SIZE)});
+        List<FrontierReportLine> lines = createLines(QUEUES);
+
+        LineCollector collector = filter.newCollector("job");
+        for (FrontierReportLine line : lines) {
+            collector.accept(line);
+        }
+        InMemoryFrontierReport streamed = collector.getReport();
+
+        List<FrontierReportLine> matching = new ArrayList<FrontierReportLine>();
+        for (FrontierReportLine line : lines) {
+            if (filter.matches(line)) {
+                matching.add(line);
+            }
+        }
+        Collections.sort(matching, filter.getOrder());
+        InMemoryFrontierReport expected = new InMemoryFrontierReport("job");
+        for (FrontierReportLine line : matching.subList(0, Math.min(MAX_SIZE, matching.size()))) {
+            expected.addLine(line);
+        }
+
+        assertEquals(matching.size(), collector.getMatchCount());
+        assertEquals(Math.min(MAX_SIZE, matching.size()), streamed.getSize());
+        assertArrayEquals(expected.getLines(), streamed.getLines());
+    }
+
+    private static List<FrontierReportLine> createLines(int count) {
+        Random random = new Random(42);
+        List<FrontierReportLine> lines = new ArrayList<FrontierReportLine>();
+        for (int i = 0; i < count; i++) {
+            FrontierReportLine line = new FrontierReportLine();
+            line.setDomainName("domain" + i + ".dk");
+            line.setTotalEnqueues(random.nextInt(1000));
+            line.setCurrentSize(random.nextInt(4) == 0 ? 0 : random.nextInt(500));
+            line.setSessionBalance(random.nextInt(10) == 0 ? 0 : random.nextInt(100));
+            long budget = random.nextInt(5) == 0 ? Constants.HERITRIX_MAXOBJECTS_INFINITY : 100 + random.nextInt(100);
+            line.setTotalBudget(budget);
+            line.setTotalSpend(random.nextInt(250));
+            lines.add(line);
+        }
+        return lines;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting.monitor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the incremental downsampling of job histories in {@link JobHistorySeries}.
+ */
+public class JobHistorySeriesTest {
+
+    @Test
+    public void testShortHistoryIsNotDownsampled() {
+        JobHistorySeries series = new JobHistorySeries(100);
+        series.append(records(0, 50));
+        double[][] points = series.getPoints();
+        assertEquals(50, points[0].length);
+        assertEquals(49.0, points[0][49], 0);
+        assertEquals(49, series.getLastElapsedSeconds());
+    }
+
+    @Test
+    public void testAppendIgnoresOlderRecords() {
+        JobHistorySeries series = new JobHistorySeries(100);
+        series.append(records(0, 10));
+        series.append(records(5, 15));
+        assertEquals(15, series.size());
+        assertEquals(14, series.getLastElapsedSeconds());
+    }
+
+    @Test
+    public void testLongHistoryIsBounded() {
+        int maxPoints = 500;
+        JobHistorySeries series = new JobHistorySeries(maxPoints);
+        // A long crawl, appended in small increments, with a single spike in queued URIs
+        int total = 200000;
+        int spikeAt = 123457;
+        for (int start = 0; start < total; start += 37) {
+            StartedJobInfo[] records = records(start, Math.min(start + 37, total));
+            for (StartedJobInfo sji : records) {
+                if (sji.getElapsedSeconds() == spikeAt) {
+                    sji.setQueuedFilesCount(10000000);
+                }
+            }
+            series.append(records);
+            assertTrue(series.size() <= 2 * maxPoints);
+        }
+        double[][] points = series.getPoints();
+        assertEquals(maxPoints, points[0].length);
+        assertEquals("The first point should be kept", 0.0, points[0][0], 0);
+        assertEquals("The last point should be kept", total - 1, points[0][maxPoints - 1], 0);
+        boolean spikeKept = false;
+        for (int i = 1; i < maxPoints; i++) {
+            assertTrue("Points should be in chronological order", points[0][i] > points[0][i - 1]);
+            spikeKept |= points[0][i] == spikeAt;
+        }
+        assertTrue("The spike should be kept", spikeKept);
+    }
+
+    @Test
+    public void testSelectPointsKeepsExtremes() {
+        double[] x = new double[] {0, 1, 2, 3, 4, 5, 6, 7, 8, 9};
+        double[] y = new double[] {0, 0, 0, 0, 9, 0, 0, 0, 0, 0};
+        int[] selected = JobHistorySeries.selectPoints(x, new double[][] {y}, x.length, 3);
+        assertArrayEquals(new int[] {0, 4, 9}, selected);
+    }
+
+    private static StartedJobInfo[] records(int from, int to) {
+        StartedJobInfo[] records = new StartedJobInfo[to - from];
+        for (int i = from; i < to; i++) {
+            StartedJobInfo sji = new StartedJobInfo("test", 1);
+            sji.setElapsedSeconds(i);
+            sji.setProgress(100.0 * i / (to + 1));
+            sji.setQueuedFilesCount(1000 + (i % 100));
+            records[i - from] = sji;
+        }
+        return records;
+    }
+
+}
@@ -22,9 +22,15 @@
  */
 package dk.netarkivet.harvester.indexserver;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
 import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -72,4 +78,34 @@ public class CDXIndexCacheTester extends CacheTestCase {
         FileAsserts.assertFileContains("Must have lines sorted", "metadata file 3 block 2\nmetadata file 4 block 1",
                 cacheFile);
     }
+
+    @Test
+    public void testCombineReusesSortedSegments() throws Exception {
+        CDXIndexCache cache = new CDXIndexCache();
+        Map<Long, File> files = new HashMap<Long, File>();
+        files.put(3L, TestInfo.METADATA_FILE_3);
+        files.put(4L, TestInfo.METADATA_FILE_4);
+        cache.combine(files);
+        File cacheFile = cache.getCacheFile(files.keySet());
+
+        // The data of each job is sorted into the cache file of that job alone
+        List<String> allLines = new ArrayList<String>();
+        for (Map.Entry<Long, File> entry : files.entrySet()) {
+            File segment = cache.getCacheFile(Collections.singleton(entry.getKey()));
+            assertTrue("Should have cached the sorted data of job " + entry.getKey(), segment.exists());
+            List<String> lines = FileUtils.readListFromFile(entry.getValue());
+            allLines.addAll(lines);
+            Collections.sort(lines);
+            assertEquals(lines, FileUtils.readListFromFile(segment));
+        }
+        Collections.sort(allLines);
+        assertEquals("The merged index should hold all lines sorted", allLines, FileUtils.readListFromFile(cacheFile));
+
+        // A new combination of the jobs uses the sorted data, not the raw data
+        FileUtils.remove(cacheFile);
+        files.put(3L, new File(TestInfo.WORKING_DIR, "no-such-file-3"));
+        files.put(4L, new File(TestInfo.WORKING_DIR, "no-such-file-4"));
+        cache.combine(files);
+        assertEquals(allLines, FileUtils.readListFromFile(cacheFile));
+    }
 }
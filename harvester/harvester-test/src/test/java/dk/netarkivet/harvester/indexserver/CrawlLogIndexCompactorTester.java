@@ -0,0 +1,147 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.FileUtils;
+import is.hi.bok.deduplicator.CrawlDataItem;
+import is.hi.bok.deduplicator.CrawlDataIterator;
+import is.hi.bok.deduplicator.DigestIndexer;
+
+/**
+ * Unit tests for the class CrawlLogIndexCompactor.
+ */
+public class CrawlLogIndexCompactorTester {
+
+    private File indexDir;
+
+    @Before
+    public void setUp() throws Exception {
+        indexDir = new File(FileUtils.getTempDir(), "compactortest");
+        FileUtils.removeRecursively(indexDir);
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(indexDir);
+    }
+
+    @Test
+    public void testKeepOriginal() throws Exception {
+        Map<String, String> kept = compact(CrawlLogIndexCompactor.Policy.ORIGINAL, 4);
+        assertEquals("20170101120000000", kept.get("http://www.netarkivet.dk/ AAAA"));
+        assertEquals("20170102120000000", kept.get("http://www.netarkivet.dk/ BBBB"));
+        assertEquals("20170103120000000", kept.get("http://www.netarkivet.dk/a AAAA"));
+    }
+
+    @Test
+    public void testKeepNewest() throws Exception {
+        Map<String, String> kept = compact(CrawlLogIndexCompactor.Policy.NEWEST, 4);
+        assertEquals("20170301120000000", kept.get("http://www.netarkivet.dk/ AAAA"));
+        assertEquals("20170102120000000", kept.get("http://www.netarkivet.dk/ BBBB"));
+        assertEquals("20170103120000000", kept.get("http://www.netarkivet.dk/a AAAA"));
+    }
+
+    @Test
+    public void testKeepAll() throws Exception {
+        compact(CrawlLogIndexCompactor.Policy.NONE, 6);
+    }
+
+    @Test(expected = ArgumentNotValid.class)
+    public void testParseUnknownPolicy() {
+        CrawlLogIndexCompactor.Policy.parse("latest");
+    }
+
+    /**
+     * Index the same URL and digest three times, a few other records and one record without a digest, and compact the
+     * index with the given policy.
+     *
+     * @return the timestamp of the remaining document for each "URL digest" key
+     */
+    private Map<String, String> compact(CrawlLogIndexCompactor.Policy policy, int expectedDocs) throws Exception {
+        assertEquals(policy, CrawlLogIndexCompactor.Policy.parse(policy.name().toLowerCase()));
+        final List<CrawlDataItem> items = new ArrayList<CrawlDataItem>();
+        items.add(item("http://www.netarkivet.dk/", "AAAA", "20170201120000000"));
+        items.add(item("http://www.netarkivet.dk/", "AAAA", "20170101120000000"));
+        items.add(item("http://www.netarkivet.dk/", "BBBB", "20170102120000000"));
+        items.add(item("http://www.netarkivet.dk/a", "AAAA", "20170103120000000"));
+        items.add(item("http://www.netarkivet.dk/", "AAAA", "20170301120000000"));
+        items.add(item("http://www.netarkivet.dk/?", "", "20170103120000000"));
+        DigestIndexer indexer = CrawlLogIndexCache.createStandardIndexer(indexDir.getAbsolutePath());
+        final Iterator<CrawlDataItem> it = items.iterator();
+        indexer.writeToIndex(new CrawlDataIterator("test") {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public CrawlDataItem next() {
+                return it.next();
+            }
+
+            public void close() {
+            }
+
+            public String getSourceType() {
+                return "Test items";
+            }
+        }, "^text/.*", true, "", false);
+        long deleted = new CrawlLogIndexCompactor(policy).compact(indexer.getIndex(), 1);
+        assertEquals(6 - expectedDocs, deleted);
+        indexer.close();
+
+        Map<String, String> kept = new HashMap<String, String>();
+        DirectoryReader reader = DirectoryReader.open(FSDirectory.open(indexDir));
+        try {
+            assertEquals(expectedDocs, reader.numDocs());
+            for (int i = 0; i < reader.maxDoc(); i++) {
+                Document doc = reader.document(i);
+                kept.put(doc.get(DigestIndexer.FIELD_URL) + " " + doc.get(DigestIndexer.FIELD_DIGEST),
+                        doc.get(DigestIndexer.FIELD_TIMESTAMP));
+            }
+        } finally {
+            reader.close();
+        }
+        return kept;
+    }
+
+    private static CrawlDataItem item(String url, String digest, String timestamp) {
+        return new CrawlDataItem(url, digest, timestamp, null, "image/gif", "1-1-test.warc,1234", false);
+    }
+
+}
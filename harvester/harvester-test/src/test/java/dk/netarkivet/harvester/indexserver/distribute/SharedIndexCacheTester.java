@@ -0,0 +1,108 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.indexserver.distribute;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Unit tests for the SharedIndexCache.
+ */
+public class SharedIndexCacheTester {
+
+    private File workDir;
+
+    @Before
+    public void setUp() throws Exception {
+        workDir = Files.createTempDirectory("sharedindexcache").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(workDir);
+    }
+
+    @Test
+    public void testPublishAndFetchDirectory() throws Exception {
+        SharedIndexCache cache = new SharedIndexCache(new File(workDir, "shared"), 0);
+        File localIndex = createIndexDir(new File(workDir, "local1"), "1-2-cache", 100);
+        File otherIndex = new File(workDir, "local2/1-2-cache");
+        assertFalse("Nothing should be fetched before it is published", cache.fetch("1-2-cache", otherIndex));
+        cache.publish("1-2-cache", localIndex);
+        assertTrue(cache.fetch("1-2-cache", otherIndex));
+        for (String name : new String[] {"_0.cfs", "segments_1"}) {
+            File file = new File(otherIndex, name);
+            assertEquals(100, file.length());
+            assertTrue("The fetched file should be a link to the published file",
+                    Files.isSameFile(file.toPath(), new File(localIndex, name).toPath()));
+        }
+        // Removing the published copy must not affect the fetched one
+        FileUtils.removeRecursively(localIndex);
+        assertEquals(100, new File(otherIndex, "_0.cfs").length());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        SharedIndexCache cache = new SharedIndexCache(new File(workDir, "shared"), 700);
+        File sharedDir = new File(workDir, "shared");
+        for (int i = 0; i < 3; i++) {
+            cache.publish("index-" + i, createIndexDir(new File(workDir, "local"), "index-" + i, 100));
+            new File(sharedDir, "index-" + i).setLastModified(System.currentTimeMillis() - (10 - i) * 60000L);
+        }
+        // Use the oldest entry, making index-1 the least recently used
+        assertTrue(cache.fetch("index-0", new File(workDir, "fetched/index-0")));
+        cache.publish("index-3", createIndexDir(new File(workDir, "local"), "index-3", 100));
+        assertFalse("The least recently used entry should be evicted", new File(sharedDir, "index-1").exists());
+        assertTrue(new File(sharedDir, "index-0").exists());
+        assertTrue(new File(sharedDir, "index-2").exists());
+        assertTrue(new File(sharedDir, "index-3").exists());
+        // The fetched copy survives the eviction of other entries
+        assertEquals(100, new File(workDir, "fetched/index-0/_0.cfs").length());
+    }
+
+    @Test
+    public void testLockIsReentrantAfterRelease() {
+        SharedIndexCache cache = new SharedIndexCache(new File(workDir, "shared"), 0);
+        cache.lock("index").release();
+        cache.lock("index").release();
+    }
+
+    private static File createIndexDir(File parent, String name, int fileSize) throws Exception {
+        File dir = new File(parent, name);
+        FileUtils.createDir(dir);
+        Files.write(new File(dir, "_0.cfs").toPath(), new byte[fileSize]);
+        Files.write(new File(dir, "segments_1").toPath(), new byte[fileSize]);
+        return dir;
+    }
+
+}
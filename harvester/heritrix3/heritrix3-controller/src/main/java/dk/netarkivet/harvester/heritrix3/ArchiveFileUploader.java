@@ -0,0 +1,258 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.Settings;
+import dk.netarkivet.harvester.HarvesterSettings;
+
+/**
+ * Uploads the files of a finished crawl to the archive, with a bounded number of uploads in progress at a time. Files
+ * can be submitted while earlier files are still being uploaded. As a successful upload deletes the local file, the
+ * (W)ARC files are only submitted once the metadata file holding their CDX indexes has been written, so the uploads do
+ * not overlap the CDX generation; they run in parallel with each other and with the rest of the post-processing.
+ * <p>
+ * Each file is only uploaded once, no matter how many times it is submitted. Errors are collected and handed over by
+ * {@link #awaitUploads(StringBuilder, List)}, which callers use to make sure all (W)ARC files have been uploaded
+ * before the metadata files are submitted.
+ */
+public class ArchiveFileUploader {
+
+    /** The logger to use. */
+    private static final Logger log = LoggerFactory.getLogger(ArchiveFileUploader.class);
+
+    /** The ArcRepositoryClient used to store the files. */
+    private final HarvesterArcRepositoryClient arcRepController;
+
+    /** The number of times a failed upload is retried. */
+    private final int retries;
+
+    /** The threads doing the uploads. */
+    private final ExecutorService executor;
+
+    /** The files submitted so far. */
+    private final Set<File> submittedFiles = new HashSet<File>();
+
+    /** The uploads not yet awaited. */
+    private final List<Future<?>> pendingUploads = new ArrayList<Future<?>>();
+
+    /** Error messages for failed uploads not yet handed over. */
+    private final StringBuilder errorMessage = new StringBuilder();
+
+    /** Failed files not yet handed over. */
+    private final List<File> failedFiles = new ArrayList<File>();
+
+    /** The number of files uploaded successfully. */
+    private final AtomicLong uploadedFiles = new AtomicLong();
+
+    /** The number of bytes uploaded successfully. */
+    private final AtomicLong uploadedBytes = new AtomicLong();
+
+    /** The time this uploader was created. */
+    private final long startTime = System.currentTimeMillis();
+
+    /**
+     * Create an uploader with the number of threads and retries given by the settings.
+     *
+     * @param arcRepController The ArcRepositoryClient used to store the files
+     */
+    public ArchiveFileUploader(HarvesterArcRepositoryClient arcRepController) {
+        this(arcRepController, Settings.getInt(HarvesterSettings.HARVEST_CONTROLLER_UPLOAD_THREADS), Settings
+                .getInt(HarvesterSettings.HARVEST_CONTROLLER_UPLOAD_RETRIES));
+    }
+
+    /**
+     * Create an uploader.
+     *
+     * @param arcRepController The ArcRepositoryClient used to store the files
+     * @param threads The maximum number of uploads in progress at a time
+     * @param retries The number of times a failed upload is retried
+     * @throws ArgumentNotValid if arcRepController is null or threads is not positive
+     */
+    public ArchiveFileUploader(HarvesterArcRepositoryClient arcRepController, int threads, int retries) {
+        ArgumentNotValid.checkNotNull(arcRepController, "HarvesterArcRepositoryClient arcRepController");
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        this.arcRepController = arcRepController;
+        this.retries = Math.max(0, retries);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadNr = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, "ArchiveFileUploader-" + threadNr.getAndIncrement());
+            }
+        });
+    }
+
+    /**
+     * Schedule a file for upload, unless it has already been submitted.
+     *
+     * @param file The file to upload
+     */
+    public synchronized void submit(final File file) {
+        ArgumentNotValid.checkNotNull(file, "File file");
+        if (!submittedFiles.add(file.getAbsoluteFile())) {
+            return;
+        }
+        final int count = submittedFiles.size();
+        pendingUploads.add(executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                upload(file, count);
+            }
+        }));
+    }
+
+    /**
+     * Schedule files for upload, skipping files already submitted.
+     *
+     * @param files The files to upload
+     */
+    public void submitAll(List<File> files) {
+        if (files != null) {
+            for (File f : files) {
+                submit(f);
+            }
+        }
+    }
+
+    /**
+     * @return the number of files submitted so far
+     */
+    public synchronized int getSubmittedCount() {
+        return submittedFiles.size();
+    }
+
+    /**
+     * Wait until all files submitted so far have been uploaded or have failed, and hand over the errors collected
+     * since the last call.
+     *
+     * @param errorMessage Accumulator for error messages
+     * @param failedFiles Accumulator for failed files
+     */
+    public void awaitUploads(StringBuilder errorMessage, List<File> failedFiles) {
+        List<Future<?>> uploads;
+        synchronized (this) {
+            uploads = new ArrayList<Future<?>>(pendingUploads);
+            pendingUploads.clear();
+        }
+        for (Future<?> upload : uploads) {
+            try {
+                upload.get();
+            } catch (InterruptedException e) {
+                log.warn("Interrupted while waiting for uploads to finish", e);
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                // Not expected, upload() catches everything.
+                log.warn("Unexpected error during upload", e);
+            }
+        }
+        synchronized (this) {
+            errorMessage.append(this.errorMessage);
+            this.errorMessage.setLength(0);
+            failedFiles.addAll(this.failedFiles);
+            this.failedFiles.clear();
+        }
+    }
+
+    /**
+     * Upload a file, retrying it the configured number of times if the arcrepository client gives up.
+     *
+     * @param f The file to upload
+     * @param count The number of the file, for logging
+     */
+    private void upload(File f, int count) {
+        long size = f.length();
+        for (int attempt = 0;; attempt++) {
+            try {
+                log.info("Uploading file #{} - '{}' to arcrepository.", count, f.getName());
+                arcRepController.store(f);
+                log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
+                uploadedFiles.incrementAndGet();
+                uploadedBytes.addAndGet(size);
+                return;
+            } catch (Exception e) {
+                if (attempt < retries && f.isFile()) {
+                    log.warn("Upload of file '{}' failed, retrying ({} of {})", f.getName(), attempt + 1, retries, e);
+                    continue;
+                }
+                File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
+                String errorMsg = "Error uploading file '" + f.getAbsolutePath()
+                        + "' Will be moved to the oldjobs directory '" + oldJobsDir.getAbsolutePath() + "'";
+                log.warn(errorMsg, e);
+                synchronized (this) {
+                    errorMessage.append(errorMsg).append("\n").append(e.toString()).append("\n");
+                    failedFiles.add(f);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the number of files uploaded successfully
+     */
+    public long getUploadedFiles() {
+        return uploadedFiles.get();
+    }
+
+    /**
+     * @return the number of bytes uploaded successfully
+     */
+    public long getUploadedBytes() {
+        return uploadedBytes.get();
+    }
+
+    /**
+     * @return the number of milliseconds since this uploader was created
+     */
+    public long getElapsedMillis() {
+        return System.currentTimeMillis() - startTime;
+    }
+
+    /**
+     * Stop the upload threads once the submitted uploads are done. No files can be submitted afterwards.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,212 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.exceptions.ArgumentNotValid;
+import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.cdx.CDXUtils;
+
+/**
+ * Generates CDX files for the ARC and WARC files of a running crawl as soon as Heritrix has closed them, so the harvest
+ * documentation after the crawl only has to index the last few files.
+ * <p>
+ * The archive directories are scanned by calling {@link #scan()}, typically once per turn of the crawl control loop.
+ * Files still being written end in ".open" and are skipped. The CDX files are written to
+ * {@link Heritrix3Files#getCdxDir()}, and a CDX file only becomes visible there once it is complete.
+ */
+public class CrawlTimeCDXGenerator {
+
+    /** The logger to use. */
+    private static final Logger log = LoggerFactory.getLogger(CrawlTimeCDXGenerator.class);
+
+    /** The directories Heritrix writes archive files to. */
+    private final File[] archiveDirs;
+
+    /** The directory the finished CDX files are moved to. */
+    private final File cdxDir;
+
+    /** The directory CDX files are written to while being generated. */
+    private final File tmpCdxDir;
+
+    /** The threads generating CDX files. */
+    private final ExecutorService executor;
+
+    /** Names of the archive files already scheduled for indexing. */
+    private final Set<String> scheduledFiles = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    /** The number of CDX files generated. */
+    private final AtomicInteger generatedFiles = new AtomicInteger();
+
+    /**
+     * Create a generator for the archive files of a crawl.
+     *
+     * @param files The Heritrix3Files of the crawl
+     * @param threads The maximum number of CDX files generated in parallel
+     * @throws ArgumentNotValid if files is null or threads is not positive
+     */
+    public CrawlTimeCDXGenerator(Heritrix3Files files, int threads) {
+        this(getArchiveDirs(files), getCdxDir(files), threads);
+    }
+
+    /**
+     * Create a generator for the archive files in the given directories.
+     *
+     * @param archiveDirs The directories Heritrix writes archive files to
+     * @param cdxDir The directory to place the CDX files in
+     * @param threads The maximum number of CDX files generated in parallel
+     * @throws ArgumentNotValid if a directory is null or threads is not positive
+     */
+    CrawlTimeCDXGenerator(File[] archiveDirs, File cdxDir, int threads) {
+        ArgumentNotValid.checkNotNull(archiveDirs, "File[] archiveDirs");
+        ArgumentNotValid.checkNotNull(cdxDir, "File cdxDir");
+        ArgumentNotValid.checkPositive(threads, "int threads");
+        this.archiveDirs = archiveDirs.clone();
+        this.cdxDir = cdxDir;
+        this.tmpCdxDir = new File(cdxDir, "tmp");
+        FileUtils.createDir(tmpCdxDir);
+        this.executor = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            private final AtomicInteger threadNr = new AtomicInteger(1);
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "CrawlTimeCDXGenerator-" + threadNr.getAndIncrement());
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    private static File[] getArchiveDirs(Heritrix3Files files) {
+        ArgumentNotValid.checkNotNull(files, "Heritrix3Files files");
+        return new File[] {files.getArcsDir(), files.getWarcsDir()};
+    }
+
+    private static File getCdxDir(Heritrix3Files files) {
+        ArgumentNotValid.checkNotNull(files, "Heritrix3Files files");
+        return files.getCdxDir();
+    }
+
+    /**
+     * Schedule CDX generation for the archive files closed since the last scan.
+     *
+     * @return the number of files scheduled by this scan, which is 0 once the generator has been shut down
+     */
+    public synchronized int scan() {
+        if (executor.isShutdown()) {
+            return 0;
+        }
+        int scheduled = 0;
+        for (File archiveDir : archiveDirs) {
+            File[] archiveFiles = archiveDir.listFiles(FileUtils.WARCS_ARCS_FILTER);
+            if (archiveFiles == null) {
+                continue;
+            }
+            for (final File archiveFile : archiveFiles) {
+                if (scheduledFiles.add(archiveFile.getName()) && !isCurrent(archiveFile, getCDXFile(cdxDir, archiveFile))) {
+                    executor.submit(new Runnable() {
+                        @Override
+                        public void run() {
+                            generate(archiveFile);
+                        }
+                    });
+                    scheduled++;
+                }
+            }
+        }
+        if (scheduled > 0) {
+            log.debug("Scheduled CDX generation for {} closed archive files", scheduled);
+        }
+        return scheduled;
+    }
+
+    /**
+     * Generate the CDX file for one archive file, and move it to the CDX directory when it is complete.
+     *
+     * @param archiveFile The archive file
+     */
+    private void generate(File archiveFile) {
+        try {
+            File tmpCdxFile = CDXUtils.generateCDX(archiveFile, tmpCdxDir);
+            FileUtils.moveFile(tmpCdxFile, getCDXFile(cdxDir, archiveFile));
+            generatedFiles.incrementAndGet();
+        } catch (Exception e) {
+            // Not fatal, the CDX file is generated by the harvest documentation instead.
+            log.warn("Could not generate CDX file for '{}' during the crawl", archiveFile.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Scan a last time, and wait for the scheduled CDX generation to finish.
+     *
+     * @param timeoutSecs The maximum number of seconds to wait
+     */
+    public void shutdown(long timeoutSecs) {
+        synchronized (this) {
+            scan();
+            executor.shutdown();
+        }
+        try {
+            if (!executor.awaitTermination(timeoutSecs, TimeUnit.SECONDS)) {
+                log.warn("CDX generation did not finish within {} seconds, leaving the rest to the harvest documentation",
+                        timeoutSecs);
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        log.info("Generated {} CDX files during the crawl", generatedFiles.get());
+    }
+
+    /**
+     * @param cdxDir A directory with CDX files
+     * @param archiveFile An archive file
+     * @return the CDX file for the archive file in the given directory
+     */
+    public static File getCDXFile(File cdxDir, File archiveFile) {
+        return new File(cdxDir, archiveFile.getName() + FileUtils.CDX_EXTENSION);
+    }
+
+    /**
+     * @param archiveFile An archive file
+     * @param cdxFile A CDX file
+     * @return true if the CDX file exists and has been generated after the archive file was last modified
+     */
+    public static boolean isCurrent(File archiveFile, File cdxFile) {
+        return cdxFile.isFile() && cdxFile.lastModified() >= archiveFile.lastModified();
+    }
+
+}
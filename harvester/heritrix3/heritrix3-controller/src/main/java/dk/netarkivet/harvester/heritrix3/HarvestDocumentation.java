@@ -26,11 +26,14 @@ package dk.netarkivet.harvester.heritrix3;
 import java.io.File;
 import java.io.FileFilter;
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
@@ -42,6 +45,7 @@ import dk.netarkivet.common.Constants;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.PermissionDenied;
+import dk.netarkivet.common.utils.ChecksumCalculator;
 import dk.netarkivet.common.utils.FileUtils;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.SystemUtils;
@@ -81,6 +85,22 @@ public class HarvestDocumentation {
      * @throws IOFailure if - reading ARC files or temporary files fails - writing a file to arcFilesDir fails
      */
     public static void documentHarvest(IngestableFiles ingestables) throws IOFailure {
+        documentHarvest(ingestables, null);
+    }
+
+    /**
+     * Documents the harvest as {@link #documentHarvest(IngestableFiles)}, and submits the ARC/WARC files to the given
+     * uploader as soon as the metadata file holding their CDX indexes has been written, so the uploads can run while
+     * the caller finishes the post-processing. As a successful upload deletes the local file, files are never
+     * submitted before that, and files whose CDX index could not be generated are not submitted. The metadata file is
+     * not submitted. Files are not submitted if the metadata file already exists.
+     *
+     * @param ingestables Information about the finished crawl (crawldir, jobId, harvestID).
+     * @param uploader The uploader to submit indexed ARC/WARC files to, or null to not upload any files
+     * @throws ArgumentNotValid if crawlDir is null or does not exist, or if jobID or harvestID is negative.
+     * @throws IOFailure if - reading ARC files or temporary files fails - writing a file to arcFilesDir fails
+     */
+    public static void documentHarvest(IngestableFiles ingestables, ArchiveFileUploader uploader) throws IOFailure {
         ArgumentNotValid.checkNotNull(ingestables, "ingestables");
 
         File crawlDir = ingestables.getCrawlDir();
@@ -135,17 +155,19 @@ public class HarvestDocumentation {
             filesAddedAndNowDeletable = writeHarvestDetails(jobID, harvestID, ingestables, mdfw, Constants.getHeritrix3VersionString());
             
             boolean cdxGenerationSucceeded = false;
+            // The archive files whose CDX indexes have been written to the metadata
+            List<File> indexedFiles = new ArrayList<File>();
 
             // Try to create CDXes over ARC and WARC files.
             File arcFilesDir = ingestables.getArcsDir();
             File warcFilesDir = ingestables.getWarcsDir();
 
             if (arcFilesDir.isDirectory() && FileUtils.hasFiles(arcFilesDir)) {
-                addCDXes(ingestables, arcFilesDir, mdfw, ArchiveProfile.ARC_PROFILE);
+                indexedFiles.addAll(addCDXes(ingestables, arcFilesDir, mdfw, ArchiveProfile.ARC_PROFILE));
                 cdxGenerationSucceeded = true;
             }
             if (warcFilesDir.isDirectory() && FileUtils.hasFiles(warcFilesDir)) {
-                addCDXes(ingestables, warcFilesDir, mdfw, ArchiveProfile.WARC_PROFILE);
+                indexedFiles.addAll(addCDXes(ingestables, warcFilesDir, mdfw, ArchiveProfile.WARC_PROFILE));
                 cdxGenerationSucceeded = true;
             }
             
@@ -154,6 +176,9 @@ public class HarvestDocumentation {
                         arcFilesDir.getAbsolutePath(), warcFilesDir.getAbsolutePath());
             }
             ingestables.setMetadataGenerationSucceeded(true);
+            if (uploader != null) {
+                uploader.submitAll(indexedFiles);
+            }
         } finally {
             // If at this point metadata is not ready, an error occurred.
             if (!ingestables.isMetadataReady()) {
@@ -167,13 +192,45 @@ public class HarvestDocumentation {
         }
     }
 
-    private static void addCDXes(IngestableFiles files, File archiveDir, MetadataFileWriter writer,
+    /**
+     * Write CDX indexes of the archive files in a directory to the metadata, reusing the CDX files generated during
+     * the crawl.
+     *
+     * @param files Information about the files produced by heritrix
+     * @param archiveDir The directory with the archive files
+     * @param writer The writer of the metadata file
+     * @param profile The profile of the archive files
+     * @return the archive files whose CDX indexes have been written
+     */
+    private static List<File> addCDXes(IngestableFiles files, File archiveDir, MetadataFileWriter writer,
             ArchiveProfile profile) {
         moveAwayForeignFiles(profile, archiveDir, files);
         File cdxFilesDir = FileUtils.createUniqueTempDir(files.getTmpMetadataDir(), "cdx");
-        CDXUtils.generateCDX(profile, archiveDir, cdxFilesDir);
+        List<File> indexedFiles = new ArrayList<File>();
+        int reused = 0;
+        // The digests of the CDX files generated here, so they need not be read again when written to the metadata
+        Map<File, byte[]> cdxDigests = new HashMap<File, byte[]>();
+        MessageDigest digest = ChecksumCalculator.getMessageDigest(ChecksumCalculator.SHA1);
+        for (File archiveFile : archiveDir.listFiles(profile.filename_filter)) {
+            File crawlTimeCdxFile = CrawlTimeCDXGenerator.getCDXFile(files.getCdxDir(), archiveFile);
+            if (CrawlTimeCDXGenerator.isCurrent(archiveFile, crawlTimeCdxFile)) {
+                FileUtils.moveFile(crawlTimeCdxFile, CrawlTimeCDXGenerator.getCDXFile(cdxFilesDir, archiveFile));
+                indexedFiles.add(archiveFile);
+                reused++;
+            } else {
+                try {
+                    File cdxFile = CDXUtils.generateCDX(archiveFile, cdxFilesDir, digest);
+                    cdxDigests.put(cdxFile, digest.digest());
+                    indexedFiles.add(archiveFile);
+                } catch (IOException e) {
+                    log.debug("Could not create cdxfile for '{}'", archiveFile.getAbsolutePath(), e);
+                }
+            }
+        }
+        log.debug("Reused {} CDX files generated during the crawl for the files in '{}'", reused, archiveDir);
         writer.insertFiles(cdxFilesDir, FileUtils.CDX_FILE_FILTER, Constants.CDX_MIME_TYPE, 
-        		files.getHarvestID(), files.getJobId());
+        		files.getHarvestID(), files.getJobId(), cdxDigests);
+        return indexedFiles;
     }
 
     /**
@@ -27,6 +27,7 @@ import java.io.File;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.netarkivet.common.Constants;
 import dk.netarkivet.common.exceptions.ArgumentNotValid;
 import dk.netarkivet.common.exceptions.IOFailure;
 import dk.netarkivet.common.exceptions.UnknownID;
@@ -235,6 +236,27 @@ public class Heritrix3Files {
 		return h3BaseDir;
 	}
 
+	/**
+	 * @return the arcs dir of the Heritrix3 job
+	 */
+	public File getArcsDir() {
+		return new File(h3JobDir, "latest/" + Constants.ARCDIRECTORY_NAME);
+	}
+
+	/**
+	 * @return the warcs dir of the Heritrix3 job
+	 */
+	public File getWarcsDir() {
+		return new File(h3JobDir, "latest/" + Constants.WARCDIRECTORY_NAME);
+	}
+
+	/**
+	 * @return the directory where CDX files are generated for the archive files Heritrix has closed during the crawl
+	 */
+	public File getCdxDir() {
+		return new File(crawlDir, "cdx");
+	}
+
 	public String getJobname() {
 		return this.jobName;
 	}
@@ -277,6 +299,7 @@ public class Heritrix3Files {
 	/**
 	 * Considered as disposable files are the following:
 	 * crawlDir/checkpoints
+	 * crawlDir/cdx
 	 * h3JobDir/state
 	 * h3JobDir/scratch
 	 * h3BaseDir/bin
@@ -288,6 +311,7 @@ public class Heritrix3Files {
 	public File[] getDisposableFiles() {
         return new File[] {
         		new File(crawlDir, "checkpoints"),
+        		getCdxDir(),
         		new File(h3JobDir, "state"), 
         		new File(h3JobDir, "scratch"),
         		new File(h3BaseDir, "bin"),
@@ -76,6 +76,10 @@ public class IngestableFiles {
     private Long harvestId;
 
     private File heritrixJobDir;	
+
+    /** The directory with the CDX files generated during the crawl. */
+    private File cdxDir;
+
     /**
      * Constructor for this class. HeritrixFiles contains information about crawlDir, jobId, and harvestnameprefix for a
      * specific finished harvestjob.
@@ -89,6 +93,7 @@ public class IngestableFiles {
         ArgumentNotValid.checkPositive(files.getJobID(), "jobID");
         ArgumentNotValid.checkNotNullOrEmpty(files.getArchiveFilePrefix(), "harvestnamePrefix");
         this.heritrixJobDir = files.getHeritrixJobDir();
+        this.cdxDir = files.getCdxDir();
         this.crawlDir = files.getCrawlDir();
         if (!crawlDir.exists()) {
             throw new ArgumentNotValid("The given crawlDir (" + crawlDir.getAbsolutePath() + ") does not exist");
@@ -285,6 +290,13 @@ public class IngestableFiles {
         }
     }
     
+    /**
+     * @return the directory with the CDX files generated for the archive files while the crawl was running
+     */
+    public File getCdxDir() {
+        return cdxDir;
+    }
+
     public File getHeritrix3JobDir() {
     	return this.heritrixJobDir;
     }
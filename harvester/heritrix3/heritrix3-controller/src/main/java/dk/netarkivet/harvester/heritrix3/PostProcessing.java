@@ -155,10 +155,12 @@ public class PostProcessing {
         List<File> failedFiles = new ArrayList<File>();
 
         Heritrix3Files files = Heritrix3Files.getH3HeritrixFiles(crawlDir, harvestInfo);
-        
+        ArchiveFileUploader uploader = null;
+
         try {
             log.info("Store files in directory '{}' " + "from jobID: {}.", crawlDir, jobID);
-            dhr = storeFiles(files, errorMessage, failedFiles);
+            uploader = new ArchiveFileUploader(arcRepController);
+            dhr = storeFiles(files, uploader, errorMessage, failedFiles);
         } catch (Exception e) {
             String msg = "Trouble occurred during postprocessing (including upload of files) in '" + crawlDir.getAbsolutePath() + "'";
             log.warn(msg, e);
@@ -181,6 +183,12 @@ public class PostProcessing {
                 csm = new CrawlStatusMessage(jobID, JobStatus.FAILED, dhr);
                 setErrorMessages(csm, crawlException, errorMessage.toString(), dhr == null, failedFiles.size());
             }
+            if (uploader != null) {
+                csm.setUploadStatistics(uploader.getUploadedFiles(), uploader.getUploadedBytes(),
+                        uploader.getElapsedMillis());
+                log.info("Uploaded {} files ({} bytes) for job {} in {} ms", uploader.getUploadedFiles(),
+                        uploader.getUploadedBytes(), jobID, uploader.getElapsedMillis());
+            }
             
             try { // TODO What kind of errors are we actually catching here if any
             	if (jmsConnection != null) {
@@ -240,17 +248,21 @@ public class PostProcessing {
      * The crawl.log is parsed and information for each domain is generated and stored in a AbstractHarvestReport object
      * which is sent along in the crawlstatusmessage.
      * <p>
-     * Additionally, any leftover open ARC files are closed and harvest documentation is extracted before upload starts.
+     * Additionally, any leftover open ARC files are closed and harvest documentation is extracted. The ARC/WARC files
+     * are uploaded as soon as the metadata file with their indexes has been written, with a bounded number of uploads
+     * in parallel. The metadata files are uploaded once all ARC/WARC files have been uploaded.
      *
      * @param files The HeritrixFiles object for this crawl. Not Null.
+     * @param uploader The uploader to use. Not Null.
      * @param errorMessage A place where error messages accumulate. Not Null.
      * @param failedFiles List of files that failed to upload. Not Null.
      * @return An object containing info about the domains harvested.
      * @throws ArgumentNotValid if an argument isn't valid.
      */
-    private HarvestReport storeFiles(Heritrix3Files files, StringBuilder errorMessage, List<File> failedFiles)
-            throws ArgumentNotValid {
+    private HarvestReport storeFiles(Heritrix3Files files, ArchiveFileUploader uploader, StringBuilder errorMessage,
+            List<File> failedFiles) throws ArgumentNotValid {
         ArgumentNotValid.checkNotNull(files, "Heritrix3Files files");
+        ArgumentNotValid.checkNotNull(uploader, "ArchiveFileUploader uploader");
         ArgumentNotValid.checkNotNull(errorMessage, "StringBuilder errorMessage");
         ArgumentNotValid.checkNotNull(failedFiles, "List<File> failedFiles");
         long jobID = files.getJobID();
@@ -259,32 +271,35 @@ public class PostProcessing {
             IngestableFiles inf = new IngestableFiles(files);
 
             inf.closeOpenFiles(WAIT_FOR_HERITRIX_TIMEOUT_SECS);
-            // Create a metadata archive file
-            HarvestDocumentation.documentHarvest(inf);
+            // Create a metadata archive file, submitting the indexed ARC/WARC files for upload once it is written
+            HarvestDocumentation.documentHarvest(inf, uploader);
             // Upload all files 
 
             // Check, if arcsdir or warcsdir is empty
             // Send a notification, if this is the case
-            if (inf.getArcFiles().isEmpty() && inf.getWarcFiles().isEmpty()) {
+            if (uploader.getSubmittedCount() == 0 && inf.getArcFiles().isEmpty() && inf.getWarcFiles().isEmpty()) {
                 String errMsg = "Probable error in Heritrix job setup. "
                         + "No arcfiles or warcfiles generated by Heritrix for job " + jobID;
                 log.warn(errMsg);
                 NotificationsFactory.getInstance().notify(errMsg, NotificationType.WARNING);
             } else {
+                // Files already submitted during the harvest documentation are skipped by the uploader
                 if (!inf.getArcFiles().isEmpty()) {
                 	log.info("Beginning upload of {} ARC files", inf.getArcFiles().size());
-                    uploadFiles(inf.getArcFiles(), errorMessage, failedFiles);
+                    uploader.submitAll(inf.getArcFiles());
                 }
                 if (!inf.getWarcFiles().isEmpty()) {
                 	log.info("Beginning upload of {} WARC files", inf.getWarcFiles().size());
-                    uploadFiles(inf.getWarcFiles(), errorMessage, failedFiles);
+                    uploader.submitAll(inf.getWarcFiles());
                 }
+                uploader.awaitUploads(errorMessage, failedFiles);
             }
 
             // Now the ARC/WARC files have been uploaded,
             // we finally upload the metadata archive file.
             log.info("Beginning upload of the {} metadafile(s) ", inf.getMetadataArcFiles().size());
-            uploadFiles(inf.getMetadataArcFiles(), errorMessage, failedFiles);
+            uploader.submitAll(inf.getMetadataArcFiles());
+            uploader.awaitUploads(errorMessage, failedFiles);
             
             // Make the harvestReport ready for transfer back to the scheduler 
             DomainStatsReport dsr =  HarvestReportGenerator.getDomainStatsReport(files);
@@ -294,35 +309,10 @@ public class PostProcessing {
             String errMsg = "IOFailure occurred, while trying to upload files";
             log.warn(errMsg, e);
             throw new IOFailure(errMsg, e);
-        }
-    }
-
-    /**
-     * Upload given files to the archive repository.
-     *
-     * @param files List of (ARC/WARC) files to upload.
-     * @param errorMessage Accumulator for error messages.
-     * @param failedFiles Accumulator for failed files.
-     */
-    private void uploadFiles(List<File> files, StringBuilder errorMessage, List<File> failedFiles) {
-        // Upload all archive files
-        if (files != null) {
-        	int count=0;
-            for (File f : files) {
-            	count++;
-                try {
-                    log.info("Uploading file #{} - '{}' to arcrepository.", count, f.getName());
-                    arcRepController.store(f);
-                    log.info("File '{}' uploaded successfully to the arcrepository.", f.getName());
-                } catch (Exception e) {
-                    File oldJobsDir = new File(Settings.get(HarvesterSettings.HARVEST_CONTROLLER_OLDJOBSDIR));
-                    String errorMsg = "Error uploading file '" + f.getAbsolutePath() + "' Will be moved to the oldjobs directory '"
-                            + oldJobsDir.getAbsolutePath() + "'";
-                    errorMessage.append(errorMsg).append("\n").append(e.toString()).append("\n");
-                    log.warn(errorMsg, e);
-                    failedFiles.add(f);
-                }
-            }
+        } finally {
+            // Never leave uploads running when the crawl dir is cleaned up
+            uploader.awaitUploads(errorMessage, failedFiles);
+            uploader.shutdown();
         }
     }
 
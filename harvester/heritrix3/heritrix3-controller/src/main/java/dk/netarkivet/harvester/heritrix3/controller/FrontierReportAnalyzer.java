@@ -22,41 +22,122 @@
  */
 package dk.netarkivet.harvester.heritrix3.controller;
 
-import java.util.LinkedList;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.distribute.JMSConnectionFactory;
 import dk.netarkivet.common.exceptions.HarvestingAbort;
+import dk.netarkivet.common.management.SingleMBeanObject;
 import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.common.utils.StringUtils;
 import dk.netarkivet.common.utils.TimeUtils;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.harvesting.distribute.FrontierReportMessage;
 import dk.netarkivet.harvester.harvesting.frontier.FrontierReportFilter;
+import dk.netarkivet.harvester.harvesting.frontier.FrontierReportLine;
 import dk.netarkivet.harvester.harvesting.frontier.FullFrontierReport;
 import dk.netarkivet.harvester.harvesting.frontier.InMemoryFrontierReport;
+import dk.netarkivet.harvester.harvesting.frontier.StreamingFrontierReportFilter;
+import dk.netarkivet.harvester.harvesting.frontier.StreamingFrontierReportFilter.LineCollector;
 import dk.netarkivet.harvester.harvesting.monitor.HarvestMonitor;
 
 /**
  * Implements the analysis of a full frontier report obtained from Heritrix3, as the execution of a sequence of
  * user-defined filters, that each generate a smaller, in-memory frontier report that are sent in a JMS message to the
  * {@link HarvestMonitor}.
+ * <p>
+ * Filters implementing {@link StreamingFrontierReportFilter} are all evaluated in a single pass over the lines of the
+ * report as they are parsed. The report is only stored in a {@link FullFrontierReport} if some filter needs random
+ * access to it. The time spent is published over JMX.
  */
-public class FrontierReportAnalyzer implements Runnable {
+public class FrontierReportAnalyzer implements Runnable, FrontierReportAnalyzerMBean {
 
     /** The logger to use. */
 	private static final Logger LOG = LoggerFactory.getLogger(FrontierReportAnalyzer.class);
+    /** The JMX domain of the MBean. */
+    static final String JMX_DOMAIN = "dk.netarkivet.harvester.heritrix3";
     /** The controller used to communicate with the Heritrix3 instance. */
     private final HeritrixController heritrixController;
     /** The last time this Analyzer was executed. */
     private long lastExecTime = System.currentTimeMillis();
 
+    /**
+     * The filters to apply to the full report, as defined in the settings.
+     *
+     * @see HarvesterSettings#FRONTIER_REPORT_FILTER_CLASS
+     * @see HarvesterSettings#FRONTIER_REPORT_FILTER_ARGS
+     */
+    private final List<FilterRun> filters = new ArrayList<FilterRun>();
+
+    /** True if some filter needs the report stored in a {@link FullFrontierReport}. */
+    private final boolean needsFullReport;
+
+    /** The number of analyses done. */
+    private volatile long analysisCount;
+    /** The number of queues in the last report. */
+    private volatile long queueCount;
+    /** The time spent fetching the last report. */
+    private volatile long fetchTime;
+    /** The time spent parsing the last report. */
+    private volatile long parseTime;
+    /** Whether the last report was stored. */
+    private volatile boolean fullReportStored;
+
+    /** The MBean registration, or null if not registered. */
+    private SingleMBeanObject<FrontierReportAnalyzerMBean> mBean;
+
+    /**
+     * A filter, and the time spent in it.
+     */
+    private static final class FilterRun {
+        private final FrontierReportFilter filter;
+        private final boolean streaming;
+        private volatile long lastNanos;
+        private volatile long totalNanos;
+        private volatile long lastMatchCount = -1;
+        private LineCollector collector;
+
+        FilterRun(FrontierReportFilter filter) {
+            this.filter = filter;
+            this.streaming = filter instanceof StreamingFrontierReportFilter;
+        }
+
+        /**
+         * Start timing a new analysis.
+         */
+        void start() {
+            lastNanos = 0;
+        }
+
+        /**
+         * Finish timing an analysis.
+         *
+         * @param nanos the time spent in the filter since the lines were parsed.
+         */
+        void finish(long nanos) {
+            lastNanos += nanos;
+            totalNanos += lastNanos;
+        }
+
+        @Override
+        public String toString() {
+            return filter.getFilterId() + ": " + TimeUnit.NANOSECONDS.toMillis(lastNanos) + " ms (total "
+                    + TimeUnit.NANOSECONDS.toMillis(totalNanos) + " ms)"
+                    + (lastMatchCount >= 0 ? ", " + lastMatchCount + " matching queues" : "");
+        }
+    }
+
     /**
      * Builds an analyzer, given an Heritrix3 controller instance.
-     * calls heritrixController.getFullFrontierReport().
+     * calls heritrixController.getFrontierReportContents().
      *
      * @param heritrixController the controller allowing communication with the Heritrix3 crawler instance.
      */
@@ -69,6 +150,7 @@ public class FrontierReportAnalyzer implements Runnable {
         String[] filterClasses = Settings.getAll(HarvesterSettings.FRONTIER_REPORT_FILTER_CLASS);
         String[] filterArgs = Settings.getAll(HarvesterSettings.FRONTIER_REPORT_FILTER_ARGS);
 
+        boolean needsFull = false;
         for (int i = 0; i < filterClasses.length; i++) {
             String fClass = filterClasses[i];
             String[] fArgs = filterArgs[i].split(";");
@@ -76,7 +158,9 @@ public class FrontierReportAnalyzer implements Runnable {
             try {
                 FrontierReportFilter filter = (FrontierReportFilter) Class.forName(fClass).newInstance();
                 filter.init(fArgs);
-                filters.add(filter);
+                FilterRun run = new FilterRun(filter);
+                needsFull |= !run.streaming;
+                filters.add(run);
             } catch (InstantiationException e) {
                 LOG.error("Failed to instantiate filter of class " + fClass, e);
             } catch (IllegalAccessException e) {
@@ -85,15 +169,41 @@ public class FrontierReportAnalyzer implements Runnable {
                 LOG.error("Failed to instantiate filter of class " + fClass, e);
             }
         }
+        this.needsFullReport = needsFull;
     }
 
     /**
-     * The filters to apply to the full report, as defined in the settings.
-     *
-     * @see HarvesterSettings#FRONTIER_REPORT_FILTER_CLASS
-     * @see HarvesterSettings#FRONTIER_REPORT_FILTER_ARGS
+     * Register the analyzer in the platform MBean server. Failure to register is logged, but otherwise ignored.
      */
-    private List<FrontierReportFilter> filters = new LinkedList<FrontierReportFilter>();
+    public synchronized void register() {
+        if (mBean != null) {
+            return;
+        }
+        try {
+            SingleMBeanObject<FrontierReportAnalyzerMBean> bean = new SingleMBeanObject<FrontierReportAnalyzerMBean>(
+                    JMX_DOMAIN, this, FrontierReportAnalyzerMBean.class, ManagementFactory.getPlatformMBeanServer());
+            bean.getNameProperties().put("name", "FrontierReportAnalyzer");
+            bean.register();
+            mBean = bean;
+        } catch (Exception e) {
+            LOG.warn("Could not register the frontier report analyzer as an MBean", e);
+        }
+    }
+
+    /**
+     * Unregister the analyzer from the platform MBean server, if registered.
+     */
+    public synchronized void unregister() {
+        if (mBean == null) {
+            return;
+        }
+        try {
+            mBean.unregister();
+        } catch (Exception e) {
+            LOG.warn("Could not unregister the frontier report analyzer MBean", e);
+        }
+        mBean = null;
+    }
 
     @Override
     public void run() {
@@ -102,37 +212,141 @@ public class FrontierReportAnalyzer implements Runnable {
         LOG.info("Will generate full Heritrix frontier report, "
                 + StringUtils.formatDuration(elapsed / TimeUtils.SECOND_IN_MILLIS)
                 + " elapsed since last generation started.");
-        FullFrontierReport ffr = null;
+        String contents = null;
         LOG.debug("Trying to retrieve full frontier-reports from Heritrix3");
         try {
-            ffr = heritrixController.getFullFrontierReport();
+            contents = heritrixController.getFrontierReportContents();
         } catch (HarvestingAbort e) {
             LOG.debug("Unable to retrieve full frontier-reports from Heritrix3", e);
             return;
         }
         long endTime = System.currentTimeMillis();
         elapsed = endTime - startTime;
-        LOG.info("Generated full Heritrix frontier report in "
-                + (elapsed < TimeUtils.SECOND_IN_MILLIS ? elapsed + " ms" : StringUtils.formatDuration(elapsed
-                        / TimeUtils.SECOND_IN_MILLIS)) + ".");
+        fetchTime = elapsed;
+        LOG.info("Generated full Heritrix frontier report in " + formatElapsed(elapsed) + ".");
 
         lastExecTime = endTime;
 
-        for (FrontierReportFilter filter : filters) {
+        String jobName = heritrixController.getJobName();
+        FullFrontierReport ffr = needsFullReport ? FullFrontierReport.createEmpty(jobName) : null;
+        try {
             startTime = System.currentTimeMillis();
-            InMemoryFrontierReport filtered = filter.process(ffr);
-            endTime = System.currentTimeMillis();
-            elapsed = endTime - startTime;
-            LOG.info("Applied filter "
-                    + filter.getClass().getName()
-                    + " to full frontier report, this took "
-                    + (elapsed < TimeUtils.SECOND_IN_MILLIS ? elapsed + " ms" : StringUtils.formatDuration(elapsed
-                            / TimeUtils.SECOND_IN_MILLIS)) + ".");
+            for (FilterRun run : filters) {
+                run.start();
+                if (run.streaming) {
+                    run.collector = ((StreamingFrontierReportFilter) run.filter).newCollector(jobName);
+                }
+            }
+            long lines = parse(contents, ffr);
+            elapsed = System.currentTimeMillis() - startTime;
+            parseTime = elapsed;
+            queueCount = lines;
+            fullReportStored = ffr != null;
+            LOG.info("Parsed {} frontier queues in a single pass{}, this took {}.", lines,
+                    ffr != null ? " and stored them" : "", formatElapsed(elapsed));
+
             Long jobId = heritrixController.getFiles().getJobID();
-            JMSConnectionFactory.getInstance().send(new FrontierReportMessage(filter, filtered, jobId));
+            for (FilterRun run : filters) {
+                InMemoryFrontierReport filtered;
+                long start = System.nanoTime();
+                if (run.streaming) {
+                    filtered = run.collector.getReport();
+                    run.lastMatchCount = run.collector.getMatchCount();
+                    run.collector = null;
+                } else {
+                    filtered = run.filter.process(ffr);
+                }
+                run.finish(System.nanoTime() - start);
+                LOG.info("Applied filter " + run.filter.getClass().getName() + " to full frontier report, this took "
+                        + formatElapsed(TimeUnit.NANOSECONDS.toMillis(run.lastNanos)) + ".");
+                JMSConnectionFactory.getInstance().send(new FrontierReportMessage(run.filter, filtered, jobId));
+            }
+            analysisCount++;
+        } finally {
+            if (ffr != null) {
+                ffr.dispose();
+            }
+        }
+    }
+
+    /**
+     * Parse the lines of the frontier report, offer each to the streaming filters and store it in the full report.
+     *
+     * @param contents the text of the frontier report, or null if none was received.
+     * @param ffr the full report to store the lines in, or null if no filter needs it.
+     * @return the number of lines parsed.
+     */
+    private long parse(String contents, FullFrontierReport ffr) {
+        if (contents == null) {
+            return 0;
         }
+        long count = 0;
+        BufferedReader br = new BufferedReader(new StringReader(contents));
+        try {
+            String lineToken = br.readLine(); // Discard header line
+            while ((lineToken = br.readLine()) != null) {
+                FrontierReportLine line;
+                try {
+                    line = FrontierReportLine.parse(lineToken);
+                } catch (RuntimeException e) {
+                    LOG.warn("Skipping unparsable frontier report line '{}'", lineToken, e);
+                    continue;
+                }
+                count++;
+                if (ffr != null) {
+                    ffr.addLine(line);
+                }
+                for (FilterRun run : filters) {
+                    if (run.collector != null) {
+                        long start = System.nanoTime();
+                        run.collector.accept(line);
+                        run.lastNanos += System.nanoTime() - start;
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to read frontier report", e);
+        }
+        return count;
+    }
+
+    private static String formatElapsed(long elapsed) {
+        return elapsed < TimeUtils.SECOND_IN_MILLIS ? elapsed + " ms" : StringUtils.formatDuration(elapsed
+                / TimeUtils.SECOND_IN_MILLIS);
+    }
+
+    @Override
+    public long getAnalysisCount() {
+        return analysisCount;
+    }
+
+    @Override
+    public long getQueueCount() {
+        return queueCount;
+    }
+
+    @Override
+    public long getFetchTime() {
+        return fetchTime;
+    }
 
-        ffr.dispose();
+    @Override
+    public long getParseTime() {
+        return parseTime;
+    }
+
+    @Override
+    public boolean isFullReportStored() {
+        return fullReportStored;
+    }
+
+    @Override
+    public String[] getFilterTimes() {
+        String[] times = new String[filters.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = filters.get(i).toString();
+        }
+        return times;
     }
 
 }
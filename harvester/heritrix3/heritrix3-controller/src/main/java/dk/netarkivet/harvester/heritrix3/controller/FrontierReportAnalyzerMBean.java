@@ -0,0 +1,63 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library, 
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3.controller;
+
+/**
+ * The timings of the frontier report analysis exposed over JMX. All durations are in milliseconds, and refer to the
+ * last analysis, unless stated otherwise.
+ */
+public interface FrontierReportAnalyzerMBean {
+
+    /**
+     * @return The number of frontier reports analyzed.
+     */
+    long getAnalysisCount();
+
+    /**
+     * @return The number of queues in the last frontier report.
+     */
+    long getQueueCount();
+
+    /**
+     * @return The time spent fetching the frontier report from Heritrix.
+     */
+    long getFetchTime();
+
+    /**
+     * @return The time spent parsing the frontier report and passing its lines to the streaming filters, and storing
+     * them if needed.
+     */
+    long getParseTime();
+
+    /**
+     * @return True if the last frontier report was stored on disk, because a filter needs random access to it.
+     */
+    boolean isFullReportStored();
+
+    /**
+     * @return For each filter, the time spent in it in the last analysis and in total, and the number of matching
+     * lines.
+     */
+    String[] getFilterTimes();
+
+}
@@ -529,12 +529,33 @@ public class HeritrixController extends AbstractRestHeritrixController {
         jStatus.setActiveToeCount(currentActiveToecount);
     }
 
+    /**
+     * @return the name of the Heritrix job.
+     */
+    public String getJobName() {
+        return jobName;
+    }
+
     /**
      * Generates a full frontier report from H3 using an REST call (Groovy script)
      *
      * @return a Full frontier report.
      */
     public FullFrontierReport getFullFrontierReport() {
+        String contents = getFrontierReportContents();
+        if (contents == null) {
+            return FullFrontierReport.createEmpty(jobName);
+        }
+        return FullFrontierReport.parseContentsAsString(jobName, contents);
+    }
+
+    /**
+     * Fetches the text of a full frontier report from H3 using an REST call (Groovy script), without storing it.
+     *
+     * @return the text of the frontier report, one line per queue after a header line, or null if the response could
+     * not be parsed.
+     */
+    public String getFrontierReportContents() {
     	//construct script request to send
     	HttpPost postRequest = new HttpPost(baseUrl + "job/" + jobName + "/script");
         StringEntity postEntity = null;
@@ -547,8 +568,8 @@ public class HeritrixController extends AbstractRestHeritrixController {
         postRequest.addHeader("Accept", "application/xml");
         postRequest.setEntity(postEntity);
     	ScriptResult result = h3wrapper.scriptResult(postRequest);
-        return FullFrontierReport.parseContentsAsXML(
-                jobName, result.response, dk.netarkivet.harvester.heritrix3.Constants.XML_RAWOUT_TAG);
+        return FullFrontierReport.getContentsFromXML(result.response,
+                dk.netarkivet.harvester.heritrix3.Constants.XML_RAWOUT_TAG);
     }
 
     @Override
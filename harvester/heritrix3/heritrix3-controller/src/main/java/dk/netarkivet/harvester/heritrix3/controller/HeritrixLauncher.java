@@ -33,6 +33,7 @@ import dk.netarkivet.common.utils.Settings;
 import dk.netarkivet.harvester.HarvesterSettings;
 import dk.netarkivet.harvester.harvesting.distribute.CrawlProgressMessage;
 import dk.netarkivet.harvester.harvesting.monitor.HarvestMonitor;
+import dk.netarkivet.harvester.heritrix3.CrawlTimeCDXGenerator;
 import dk.netarkivet.harvester.heritrix3.Heritrix3Files;
 import dk.netarkivet.harvester.heritrix3.Heritrix3Settings;
 import dk.netarkivet.harvester.heritrix3.HeritrixLauncherAbstract;
@@ -94,7 +95,9 @@ public class HeritrixLauncher extends HeritrixLauncherAbstract {
     public void doCrawl() throws IOFailure {
         setupOrderfile(getHeritrixFiles());
         heritrixController = new HeritrixController(getHeritrixFiles(), jobName);
-        
+        CrawlTimeCDXGenerator cdxGenerator = null;
+        FrontierReportAnalyzer fra = null;
+
         try {
             // Initialize Heritrix settings according to the crawler-beans.cxml file.
             heritrixController.initialize();
@@ -102,12 +105,21 @@ public class HeritrixLauncher extends HeritrixLauncherAbstract {
             heritrixController.requestCrawlStart();
                 
             log.info("Starting periodic CrawlControl with CRAWL_CONTROL_WAIT_PERIOD={} seconds", CRAWL_CONTROL_WAIT_PERIOD);            
-          
+            int cdxThreads = Settings.getInt(HarvesterSettings.HARVEST_CONTROLLER_CDX_THREADS);
+            if (cdxThreads > 0) {
+                cdxGenerator = new CrawlTimeCDXGenerator(getHeritrixFiles(), cdxThreads);
+            }
+
+            fra = new FrontierReportAnalyzer(heritrixController);
+            fra.register();
+
             while (!crawlIsOver) {
                 CrawlControl cc = new CrawlControl();
                 cc.run();
-                FrontierReportAnalyzer fra = new FrontierReportAnalyzer(heritrixController);
                 fra.run();
+                if (cdxGenerator != null) {
+                    cdxGenerator.scan();
+                }
                 if (!crawlIsOver) {
                     try {
                     Thread.sleep(CRAWL_CONTROL_WAIT_PERIOD*1000L);
@@ -124,8 +136,19 @@ public class HeritrixLauncher extends HeritrixLauncherAbstract {
             log.warn("Exception during crawl", e);
             throw new RuntimeException("Exception during crawl", e);
         } finally {
-            if (heritrixController != null) {
-                heritrixController.cleanup(getHeritrixFiles().getCrawlDir());
+            if (fra != null) {
+                fra.unregister();
+            }
+            try {
+                // The CDX files already scheduled are generated in the background while Heritrix shuts down
+                if (heritrixController != null) {
+                    heritrixController.cleanup(getHeritrixFiles().getCrawlDir());
+                }
+            } finally {
+                if (cdxGenerator != null) {
+                    // Index the files Heritrix closed when shutting down, and wait for the rest to finish
+                    cdxGenerator.shutdown(Settings.getLong(HarvesterSettings.HARVEST_CONTROLLER_CDX_TIMEOUT));
+                }
             }
         }
         log.debug("Heritrix3 has finished crawling...");
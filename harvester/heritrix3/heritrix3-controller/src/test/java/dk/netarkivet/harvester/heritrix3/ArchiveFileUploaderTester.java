@@ -0,0 +1,218 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.distribute.arcrepository.HarvesterArcRepositoryClient;
+import dk.netarkivet.common.exceptions.IOFailure;
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Tests of the parallel upload of the files of a finished crawl, using an ArcRepositoryClient stub.
+ */
+public class ArchiveFileUploaderTester {
+
+    private File workDir;
+    private ArchiveFileUploader uploader;
+
+    @Before
+    public void setUp() throws IOException {
+        workDir = Files.createTempDirectory("archivefileuploader").toFile();
+    }
+
+    @After
+    public void tearDown() {
+        if (uploader != null) {
+            uploader.shutdown();
+        }
+        FileUtils.removeRecursively(workDir);
+    }
+
+    /**
+     * Tests that files are uploaded in parallel: the stub only lets a store finish when all three are in progress.
+     */
+    @Test
+    public void testUploadsRunInParallel() {
+        StubClient client = new StubClient(new CountDownLatch(3));
+        uploader = new ArchiveFileUploader(client, 3, 0);
+        List<File> files = Arrays.asList(writeFile("1.warc", 10), writeFile("2.warc", 20), writeFile("3.warc", 30));
+        uploader.submitAll(files);
+
+        StringBuilder errorMessage = new StringBuilder();
+        List<File> failedFiles = new ArrayList<File>();
+        uploader.awaitUploads(errorMessage, failedFiles);
+
+        assertEquals("All uploads should have been in progress at the same time", 3, client.maxInProgress.get());
+        assertEquals("No errors should be reported", "", errorMessage.toString());
+        assertTrue("No files should fail", failedFiles.isEmpty());
+        assertEquals(new HashSet<File>(files), new HashSet<File>(client.stored));
+        assertEquals(3, uploader.getUploadedFiles());
+        assertEquals(60, uploader.getUploadedBytes());
+    }
+
+    /**
+     * Tests that a file submitted more than once is only uploaded once.
+     */
+    @Test
+    public void testFileIsUploadedOnce() {
+        StubClient client = new StubClient(null);
+        uploader = new ArchiveFileUploader(client, 2, 0);
+        File f = writeFile("1.warc", 10);
+        uploader.submit(f);
+        uploader.submitAll(Arrays.asList(f, new File(workDir, "1.warc")));
+        uploader.awaitUploads(new StringBuilder(), new ArrayList<File>());
+
+        assertEquals(1, uploader.getSubmittedCount());
+        assertEquals(1, client.attempts.get("1.warc").get());
+        assertEquals(1, uploader.getUploadedFiles());
+    }
+
+    /**
+     * Tests that a failing upload is retried, and then reported once by awaitUploads without stopping the other
+     * uploads.
+     */
+    @Test
+    public void testFailedUploadIsReported() {
+        StubClient client = new StubClient(null);
+        client.failing.add("bad.warc");
+        uploader = new ArchiveFileUploader(client, 2, 2);
+        File good = writeFile("good.warc", 10);
+        File bad = writeFile("bad.warc", 20);
+        uploader.submitAll(Arrays.asList(good, bad));
+
+        StringBuilder errorMessage = new StringBuilder();
+        List<File> failedFiles = new ArrayList<File>();
+        uploader.awaitUploads(errorMessage, failedFiles);
+
+        assertEquals("The failed upload should be retried", 3, client.attempts.get("bad.warc").get());
+        assertEquals(Collections.singletonList(bad), failedFiles);
+        assertTrue("The error message should name the file: " + errorMessage,
+                errorMessage.toString().contains(bad.getAbsolutePath()));
+        assertTrue("The error message should contain the cause: " + errorMessage,
+                errorMessage.toString().contains("Store of bad.warc failed"));
+        assertEquals(Collections.singletonList(good), client.stored);
+        assertEquals(1, uploader.getUploadedFiles());
+        assertEquals(10, uploader.getUploadedBytes());
+
+        StringBuilder laterErrorMessage = new StringBuilder();
+        List<File> laterFailedFiles = new ArrayList<File>();
+        uploader.awaitUploads(laterErrorMessage, laterFailedFiles);
+        assertEquals("Errors should only be handed over once", "", laterErrorMessage.toString());
+        assertTrue("Failed files should only be handed over once", laterFailedFiles.isEmpty());
+    }
+
+    /**
+     * Tests that a file which has disappeared is not retried.
+     */
+    @Test
+    public void testMissingFileIsNotRetried() {
+        StubClient client = new StubClient(null);
+        client.failing.add("gone.warc");
+        uploader = new ArchiveFileUploader(client, 1, 2);
+        File gone = new File(workDir, "gone.warc");
+        uploader.submit(gone);
+
+        List<File> failedFiles = new ArrayList<File>();
+        uploader.awaitUploads(new StringBuilder(), failedFiles);
+        assertEquals(1, client.attempts.get("gone.warc").get());
+        assertEquals(Collections.singletonList(gone), failedFiles);
+    }
+
+    private File writeFile(String name, int size) {
+        File f = new File(workDir, name);
+        FileUtils.writeBinaryFile(f, new byte[size]);
+        return f;
+    }
+
+    /**
+     * An ArcRepositoryClient that records the stores, fails for the files named in {@link #failing}, and can hold
+     * each store until a given number of stores are in progress.
+     */
+    private static class StubClient implements HarvesterArcRepositoryClient {
+        /** Counted down by each store, which then waits for it to reach zero. May be null. */
+        private final CountDownLatch started;
+        private final Set<String> failing = Collections.synchronizedSet(new HashSet<String>());
+        private final ConcurrentHashMap<String, AtomicInteger> attempts =
+                new ConcurrentHashMap<String, AtomicInteger>();
+        private final List<File> stored = Collections.synchronizedList(new ArrayList<File>());
+        private final AtomicInteger inProgress = new AtomicInteger();
+        private final AtomicInteger maxInProgress = new AtomicInteger();
+
+        StubClient(CountDownLatch started) {
+            this.started = started;
+        }
+
+        @Override
+        public void store(File file) {
+            AtomicInteger count = new AtomicInteger();
+            AtomicInteger existing = attempts.putIfAbsent(file.getName(), count);
+            (existing == null ? count : existing).incrementAndGet();
+            int current = inProgress.incrementAndGet();
+            try {
+                int max;
+                do {
+                    max = maxInProgress.get();
+                } while (current > max && !maxInProgress.compareAndSet(max, current));
+                if (started != null) {
+                    started.countDown();
+                    try {
+                        started.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                if (failing.contains(file.getName())) {
+                    throw new IOFailure("Store of " + file.getName() + " failed");
+                }
+                stored.add(file);
+            } finally {
+                inProgress.decrementAndGet();
+            }
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,163 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.heritrix3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Tests of the CDX generation for the archive files Heritrix closes during a crawl, on a fake job directory.
+ */
+public class CrawlTimeCDXGeneratorTester {
+
+    private File jobDir;
+    private File arcsDir;
+    private File warcsDir;
+    private File cdxDir;
+    private CrawlTimeCDXGenerator generator;
+
+    @Before
+    public void setUp() throws IOException {
+        jobDir = Files.createTempDirectory("crawltimecdx").toFile();
+        arcsDir = new File(jobDir, "arcs");
+        warcsDir = new File(jobDir, "warcs");
+        cdxDir = new File(jobDir, "cdx");
+        FileUtils.createDir(arcsDir);
+        FileUtils.createDir(warcsDir);
+        generator = new CrawlTimeCDXGenerator(new File[] {arcsDir, warcsDir}, cdxDir, 2);
+    }
+
+    @After
+    public void tearDown() {
+        generator.shutdown(60);
+        FileUtils.removeRecursively(jobDir);
+    }
+
+    /**
+     * Tests that closed files are indexed once, and files still open are left until they are closed.
+     */
+    @Test
+    public void testScanSkipsOpenFiles() throws IOException {
+        File closedArc = writeArc(new File(arcsDir, "1-1-20170101000000-00000-test.arc"), "http://netarkivet.dk/a");
+        File openArc = writeArc(new File(arcsDir, "1-1-20170101000000-00001-test.arc.open"), "http://netarkivet.dk/b");
+        File closedWarc = writeWarc(new File(warcsDir, "1-1-20170101000000-00002-test.warc"));
+        File openWarc = writeWarc(new File(warcsDir, "1-1-20170101000000-00003-test.warc.open"));
+
+        assertEquals("The closed files should be scheduled", 2, generator.scan());
+        assertEquals("Files already scheduled should not be scheduled again", 0, generator.scan());
+
+        File reopenedArc = new File(arcsDir, "1-1-20170101000000-00001-test.arc");
+        assertTrue(openArc.renameTo(reopenedArc));
+        assertEquals("A file should be scheduled when it is closed", 1, generator.scan());
+        generator.shutdown(60);
+
+        assertCdx(closedArc, "http://netarkivet.dk/a");
+        assertCdx(reopenedArc, "http://netarkivet.dk/b");
+        assertTrue("A CDX file should be generated for the closed WARC file",
+                CrawlTimeCDXGenerator.getCDXFile(cdxDir, closedWarc).isFile());
+        assertFalse("No CDX file should be generated for an open file",
+                CrawlTimeCDXGenerator.getCDXFile(cdxDir, openWarc).exists());
+        assertEquals("Only finished CDX files should be left", 0, new File(cdxDir, "tmp").list().length);
+    }
+
+    /**
+     * Tests that a file with a current CDX file is not indexed again.
+     */
+    @Test
+    public void testScanSkipsFilesWithCurrentCdx() throws IOException {
+        File arc = writeArc(new File(arcsDir, "1-1-20170101000000-00000-test.arc"), "http://netarkivet.dk/a");
+        File cdxFile = CrawlTimeCDXGenerator.getCDXFile(cdxDir, arc);
+        FileUtils.writeBinaryFile(cdxFile, "existing\n".getBytes());
+        assertTrue(cdxFile.setLastModified(arc.lastModified()));
+
+        assertEquals("A file with a current CDX file should not be scheduled", 0, generator.scan());
+        generator.shutdown(60);
+        assertEquals("existing", FileUtils.readFile(cdxFile).trim());
+    }
+
+    @Test
+    public void testIsCurrent() throws IOException {
+        File arc = writeArc(new File(arcsDir, "1-1-20170101000000-00000-test.arc"), "http://netarkivet.dk/a");
+        File cdxFile = CrawlTimeCDXGenerator.getCDXFile(cdxDir, arc);
+        assertFalse("A missing CDX file is not current", CrawlTimeCDXGenerator.isCurrent(arc, cdxFile));
+
+        FileUtils.writeBinaryFile(cdxFile, new byte[0]);
+        assertTrue(arc.setLastModified(cdxFile.lastModified() - 1000));
+        assertTrue("A CDX file newer than the archive file is current", CrawlTimeCDXGenerator.isCurrent(arc, cdxFile));
+
+        assertTrue(arc.setLastModified(cdxFile.lastModified() + 1000));
+        assertFalse("A CDX file older than the archive file is not current",
+                CrawlTimeCDXGenerator.isCurrent(arc, cdxFile));
+    }
+
+    /**
+     * Tests that shutdown indexes the files closed after the last scan, and waits for the indexing to finish.
+     */
+    @Test
+    public void testShutdownScansALastTime() throws IOException {
+        assertEquals(0, generator.scan());
+        File arc = writeArc(new File(arcsDir, "1-1-20170101000000-00000-test.arc"), "http://netarkivet.dk/a");
+        generator.shutdown(60);
+        assertCdx(arc, "http://netarkivet.dk/a");
+    }
+
+    private void assertCdx(File archiveFile, String url) throws IOException {
+        File cdxFile = CrawlTimeCDXGenerator.getCDXFile(cdxDir, archiveFile);
+        assertTrue("A CDX file should be generated for " + archiveFile.getName(), cdxFile.isFile());
+        assertTrue("The CDX file should index " + url, FileUtils.readFile(cdxFile).contains(url));
+    }
+
+    /**
+     * Write an ARC file with one record of the given URL.
+     */
+    private static File writeArc(File f, String url) {
+        FileUtils.writeBinaryFile(f, ("filedesc://dummy.arc 0.0.0.0 20060130162235 text/plain 77\n"
+                + "1 0 InternetArchive\n" + "URL IP-address Archive-date Content-type Archive-length\n\n" + url
+                + " 130.226.220.101 26050906102242 text/plain 19\n" + "First test content.\n").getBytes());
+        return f;
+    }
+
+    /**
+     * Write a WARC file with one resource record.
+     */
+    private static File writeWarc(File f) {
+        FileUtils.writeBinaryFile(f, ("WARC/1.0\r\n" + "WARC-Type: resource\r\n"
+                + "WARC-Target-URI: http://netarkivet.dk/c\r\n" + "WARC-Date: 2017-01-01T00:00:00Z\r\n"
+                + "WARC-Record-ID: <urn:uuid:6f3c4c4e-1d2b-4c3a-9a3e-0e6d1f0c2a11>\r\n"
+                + "Content-Type: text/plain\r\n" + "Content-Length: 19\r\n\r\n" + "First test content.\r\n\r\n")
+                .getBytes());
+        return f;
+    }
+
+}
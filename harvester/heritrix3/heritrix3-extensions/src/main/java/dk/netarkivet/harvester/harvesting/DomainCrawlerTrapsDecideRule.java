@@ -0,0 +1,244 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.apache.commons.httpclient.URIException;
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.PredicatedDecideRule;
+
+import dk.netarkivet.common.utils.DomainUtils;
+
+/**
+ * Crawler trap decide rule that groups the regular expressions by domain.
+ * <p>
+ * With the org.archive.modules.deciderules.MatchesListRegexDecideRule every candidate URI is matched against
+ * the crawler traps of every domain in the job. This rule instead looks up the domain of the URI using the
+ * domain definition of NetarchiveSuite (see {@link DomainUtils#domainNameFromHostname(String)}) and only
+ * evaluates the precompiled crawler traps registered for that domain.
+ * <p>
+ * The rule is configured in the crawler-beans.cxml file like this:
+ * <pre>
+ * &lt;bean class="dk.netarkivet.harvester.harvesting.DomainCrawlerTrapsDecideRule"&gt;
+ *   &lt;property name="regexListByDomain"&gt;
+ *     &lt;map&gt;
+ *       &lt;entry key="netarkivet.dk"&gt;&lt;list&gt;&lt;value&gt;.*calendar\?month=.*&lt;/value&gt;&lt;/list&gt;&lt;/entry&gt;
+ *     &lt;/map&gt;
+ *   &lt;/property&gt;
+ * &lt;/bean&gt;
+ * </pre>
+ * The map entries are normally inserted by the H3HeritrixTemplate at the %{DOMAIN_CRAWLERTRAPS_PLACEHOLDER}.
+ * <p>
+ * Like the MatchesListRegexDecideRule, a URI is matched if the entire URI matches one of the regular expressions.
+ */
+public class DomainCrawlerTrapsDecideRule extends PredicatedDecideRule {
+
+    /** UUID. */
+    private static final long serialVersionUID = -4815383233766411297L;
+
+    /** Logger instance. */
+    private static final Logger logger = Logger.getLogger(DomainCrawlerTrapsDecideRule.class.getName());
+
+    /** Matches a numbered or named back reference, which makes it unsafe to combine patterns. */
+    private static final Pattern BACK_REFERENCE_PATTERN = Pattern.compile("\\\\([1-9]|k<)");
+
+    /** The crawler traps as configured, indexed by domain name. */
+    protected Map<String, List<String>> regexListByDomain = Collections.emptyMap();
+
+    /** The compiled crawler traps indexed by (lowercase) domain name. Built lazily on first use. */
+    protected transient volatile Map<String, Pattern[]> compiledPatternsByDomain;
+
+    /**
+     * Enable/Disable combining all crawler traps of a domain into one alternation pattern.
+     * Domains with traps containing back references are never combined.
+     */
+    protected boolean combinePatterns = true;
+
+    /**
+     * Constructor for the class DomainCrawlerTrapsDecideRule. The default decision is REJECT.
+     */
+    public DomainCrawlerTrapsDecideRule() {
+        setDecision(DecideResult.REJECT);
+    }
+
+    public Map<String, List<String>> getRegexListByDomain() {
+        return regexListByDomain;
+    }
+
+    public void setRegexListByDomain(Map<String, List<String>> regexListByDomain) {
+        this.regexListByDomain = regexListByDomain;
+        this.compiledPatternsByDomain = null;
+    }
+
+    public boolean getCombinePatterns() {
+        return combinePatterns;
+    }
+
+    public void setCombinePatterns(boolean combinePatterns) {
+        this.combinePatterns = combinePatterns;
+        this.compiledPatternsByDomain = null;
+    }
+
+    @Override
+    protected boolean evaluate(CrawlURI curi) {
+        Map<String, Pattern[]> patternsByDomain = getCompiledPatternsByDomain();
+        if (patternsByDomain.isEmpty()) {
+            return false;
+        }
+        String domain = domainOf(curi);
+        if (domain == null) {
+            return false;
+        }
+        Pattern[] patterns = patternsByDomain.get(domain);
+        if (patterns == null) {
+            return false;
+        }
+        String uri = curi.toString();
+        for (Pattern p : patterns) {
+            if (p.matcher(uri).matches()) {
+                if (logger.isLoggable(Level.FINER)) {
+                    logger.finer("Crawler trap '" + p.pattern() + "' of domain '" + domain + "' matched " + uri);
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the domain of the given URI according to the domain definition of NetarchiveSuite.
+     * @param curi A CrawlURI
+     * @return The lowercase domain name or null, if the URI has no valid domain
+     */
+    protected static String domainOf(CrawlURI curi) {
+        String host;
+        try {
+            host = curi.getUURI().getReferencedHost();
+        } catch (URIException e) {
+            return null;
+        }
+        if (host == null || host.isEmpty()) {
+            return null;
+        }
+        String domain = DomainUtils.domainNameFromHostname(host);
+        if (domain == null) {
+            return null;
+        }
+        return domain.toLowerCase();
+    }
+
+    /**
+     * @return the compiled crawler traps indexed by domain, compiling them if necessary
+     */
+    protected Map<String, Pattern[]> getCompiledPatternsByDomain() {
+        Map<String, Pattern[]> compiled = compiledPatternsByDomain;
+        if (compiled == null) {
+            synchronized (this) {
+                compiled = compiledPatternsByDomain;
+                if (compiled == null) {
+                    compiled = compilePatterns(regexListByDomain, combinePatterns);
+                    compiledPatternsByDomain = compiled;
+                }
+            }
+        }
+        return compiled;
+    }
+
+    /**
+     * Compile the given crawler traps. Traps of the same domain (compared case insensitively) are merged and invalid
+     * regular expressions are logged and skipped.
+     * @param regexListByDomain The crawler traps indexed by domain name
+     * @param combine If true, the traps of each domain are combined into one pattern where possible
+     * @return An unmodifiable map from lowercase domain name to the compiled patterns of the domain
+     */
+    protected static Map<String, Pattern[]> compilePatterns(Map<String, List<String>> regexListByDomain,
+            boolean combine) {
+        if (regexListByDomain == null || regexListByDomain.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Map<String, List<String>> regexesByDomain = new HashMap<String, List<String>>();
+        for (Map.Entry<String, List<String>> entry : regexListByDomain.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                continue;
+            }
+            String domain = entry.getKey().trim().toLowerCase();
+            List<String> regexes = regexesByDomain.get(domain);
+            if (regexes == null) {
+                regexes = new ArrayList<String>();
+                regexesByDomain.put(domain, regexes);
+            }
+            for (String regex : entry.getValue()) {
+                if (regex != null && !regex.trim().isEmpty() && !regexes.contains(regex.trim())) {
+                    regexes.add(regex.trim());
+                }
+            }
+        }
+        Map<String, Pattern[]> result = new HashMap<String, Pattern[]>();
+        int trapCount = 0;
+        for (Map.Entry<String, List<String>> entry : regexesByDomain.entrySet()) {
+            List<Pattern> patterns = new ArrayList<Pattern>();
+            boolean combinable = combine && entry.getValue().size() > 1;
+            for (String regex : entry.getValue()) {
+                try {
+                    patterns.add(Pattern.compile(regex));
+                } catch (PatternSyntaxException e) {
+                    logger.warning("Ignoring invalid crawler trap '" + regex + "' for domain '" + entry.getKey()
+                            + "': " + e.getMessage());
+                    continue;
+                }
+                if (BACK_REFERENCE_PATTERN.matcher(regex).find()) {
+                    combinable = false;
+                }
+            }
+            if (patterns.isEmpty()) {
+                continue;
+            }
+            trapCount += patterns.size();
+            if (combinable && patterns.size() > 1) {
+                StringBuilder sb = new StringBuilder();
+                for (Pattern p : patterns) {
+                    if (sb.length() > 0) {
+                        sb.append('|');
+                    }
+                    sb.append("(?:").append(p.pattern()).append(')');
+                }
+                result.put(entry.getKey(), new Pattern[] {Pattern.compile(sb.toString())});
+            } else {
+                result.put(entry.getKey(), patterns.toArray(new Pattern[patterns.size()]));
+            }
+        }
+        logger.info("Compiled " + trapCount + " crawler traps for " + result.size() + " domains");
+        return Collections.unmodifiableMap(result);
+    }
+
+}
@@ -31,11 +31,18 @@ import java.io.File;
 import java.io.IOException;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
-import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -327,6 +334,46 @@ public class DeDuplicator extends Processor implements InitializingBean {
     public Boolean getRevisitInWarcs() {
         return (Boolean) kp.get(ATTR_REVISIT_IN_WARCS);
     }
+
+    /* Should the index be loaded into memory, if it is small enough? */
+    public final static String ATTR_LOAD_INDEX_IN_MEMORY = "load-index-in-memory";
+    {
+        setLoadIndexInMemory(Boolean.FALSE);
+    }
+    public Boolean getLoadIndexInMemory() {
+        return (Boolean) kp.get(ATTR_LOAD_INDEX_IN_MEMORY);
+    }
+    /** SPRING SETTER */
+    public void setLoadIndexInMemory(Boolean loadIndexInMemory) {
+        kp.put(ATTR_LOAD_INDEX_IN_MEMORY, loadIndexInMemory);
+    }
+
+    /* The maximum number of documents in an index that is loaded into memory */
+    public final static String ATTR_MAX_DOCS_IN_MEMORY = "max-docs-in-memory";
+    public final static int DEFAULT_MAX_DOCS_IN_MEMORY = 5000000;
+    {
+        setMaxDocsInMemory(DEFAULT_MAX_DOCS_IN_MEMORY);
+    }
+    public Integer getMaxDocsInMemory() {
+        return (Integer) kp.get(ATTR_MAX_DOCS_IN_MEMORY);
+    }
+    /** SPRING SETTER */
+    public void setMaxDocsInMemory(Integer maxDocsInMemory) {
+        kp.put(ATTR_MAX_DOCS_IN_MEMORY, maxDocsInMemory);
+    }
+
+    /* Should the compact index be used instead of the Lucene index, if the index directory contains one? */
+    public final static String ATTR_USE_COMPACT_INDEX = "use-compact-index";
+    {
+        setUseCompactIndex(Boolean.FALSE);
+    }
+    public Boolean getUseCompactIndex() {
+        return (Boolean) kp.get(ATTR_USE_COMPACT_INDEX);
+    }
+    /** SPRING SETTER */
+    public void setUseCompactIndex(Boolean useCompactIndex) {
+        kp.put(ATTR_USE_COMPACT_INDEX, useCompactIndex);
+    }
     
     // Spring configured access to Heritrix resources
     
@@ -345,6 +392,10 @@ public class DeDuplicator extends Processor implements InitializingBean {
     // Member variables.
     protected IndexSearcher indexSearcher = null;
     protected IndexReader indexReader = null;
+    /* In-memory copy of the index, or null if lookups are done in the Lucene index. */
+    protected InMemoryDigestIndex inMemoryIndex = null;
+    /* Memory-mapped compact index, or null if lookups are done in the Lucene index. */
+    protected CompactDigestIndex compactIndex = null;
     
     
     protected boolean lookupByURL = true;
@@ -355,7 +406,16 @@ public class DeDuplicator extends Processor implements InitializingBean {
     protected boolean useOriginFromIndex = false;
 
     protected Statistics stats = null;
-    protected HashMap<String, Statistics> perHostStats = null;
+    protected ConcurrentMap<String, Statistics> perHostStats = null;
+
+    /* The stored fields needed to compare content digests. */
+    private static final Set<String> DIGEST_FIELD = Collections.singleton(DigestIndexer.FIELD_DIGEST);
+    /* The stored fields needed to compare URLs. */
+    private static final Set<String> URL_FIELDS = new HashSet<String>(Arrays.asList(DigestIndexer.FIELD_URL,
+            DigestIndexer.FIELD_URL_NORMALIZED));
+    /* The stored fields needed for the timestamp analysis. */
+    private static final Set<String> TIMESTAMP_FIELDS = new HashSet<String>(Arrays.asList(DigestIndexer.FIELD_URL,
+            DigestIndexer.FIELD_TIMESTAMP));
 
 
     public void afterPropertiesSet() throws Exception {
@@ -365,7 +425,17 @@ public class DeDuplicator extends Processor implements InitializingBean {
         }
         // Index location
         String indexLocation = getIndexLocation();
-        try {
+        File compactIndexFile = new File(indexLocation, CompactDigestIndex.FILENAME);
+        if (getUseCompactIndex() && compactIndexFile.isFile()) {
+            try {
+                compactIndex = new CompactDigestIndex(compactIndexFile);
+                logger.info("Using compact index " + compactIndexFile + " with " + compactIndex.size() + " records");
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to open compact index " + compactIndexFile
+                        + ". Lookups are done in the Lucene index", e);
+            }
+        }
+        if (compactIndex == null) try {
         	FSDirectory indexDir = FSDirectory.open(new File(indexLocation));
             // https://issues.apache.org/jira/browse/LUCENE-1566
             // Reduce chunksize to avoid OOM to half the size of the default (=100 MB)
@@ -395,10 +465,60 @@ public class DeDuplicator extends Processor implements InitializingBean {
             }
         }
         
+        if (compactIndex != null && getTryEquivalent()) {
+            logger.warning("The compact index does not contain normalized URLs. Equivalent matches are not found");
+        }
+
+        // Load the index into memory, if requested and small enough
+        if (compactIndex == null && getLoadIndexInMemory()) {
+            int numDocs = indexReader.numDocs();
+            if (numDocs <= getMaxDocsInMemory()) {
+                inMemoryIndex = new InMemoryDigestIndex(indexReader, lookupByURL || getAnalyzeTimestamp(),
+                        lookupByURL && getTryEquivalent(), !lookupByURL);
+                // All lookups are now done in memory, so release the index on disk
+                indexSearcher = null;
+                try {
+                    indexReader.close();
+                } catch (IOException e) {
+                    logger.log(Level.WARNING, "Unable to close index at " + indexLocation, e);
+                }
+                indexReader = null;
+            } else {
+                logger.info("Index at " + indexLocation + " contains " + numDocs + " documents, more than the "
+                        + getMaxDocsInMemory() + " allowed in memory. Lookups are done in the index on disk");
+            }
+        }
+        
         // Initialize some internal variables:
         stats = new Statistics();
         if (statsPerHost) {
-            perHostStats = new HashMap<String, Statistics>();
+            perHostStats = new ConcurrentHashMap<String, Statistics>();
+        }
+    }
+
+    /**
+     * Release the index on disk, so its file handles and memory mappings are not kept when the crawl job is torn down
+     * or rebuilt.
+     */
+    @Override
+    public void stop() {
+        super.stop();
+        indexSearcher = null;
+        if (compactIndex != null) {
+            try {
+                compactIndex.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to close compact index at " + getIndexLocation(), e);
+            }
+            compactIndex = null;
+        }
+        if (indexReader != null) {
+            try {
+                indexReader.close();
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Unable to close index at " + getIndexLocation(), e);
+            }
+            indexReader = null;
         }
     }
     
@@ -494,20 +614,21 @@ public class DeDuplicator extends Processor implements InitializingBean {
         logger.finest("Processing " + curi.toString() + "(" + 
                 curi.getContentType() + ")");
 
-        stats.handledNumber++;
-        stats.totalAmount += curi.getContentSize();
+        stats.handledNumber.increment();
+        stats.totalAmount.add(curi.getContentSize());
         Statistics currHostStats = null;
         if(statsPerHost){
-            synchronized (perHostStats) {
-                String host = getServerCache().getHostFor(curi.getUURI()).getHostName();
-                currHostStats = perHostStats.get(host);
-                if(currHostStats==null){
-                    currHostStats = new Statistics();
-                    perHostStats.put(host,currHostStats);
+            String host = getServerCache().getHostFor(curi.getUURI()).getHostName();
+            currHostStats = perHostStats.get(host);
+            if(currHostStats==null){
+                Statistics newHostStats = new Statistics();
+                currHostStats = perHostStats.putIfAbsent(host, newHostStats);
+                if (currHostStats == null) {
+                    currHostStats = newHostStats;
                 }
             }
-            currHostStats.handledNumber++;
-            currHostStats.totalAmount += curi.getContentSize();
+            currHostStats.handledNumber.increment();
+            currHostStats.totalAmount.add(curi.getContentSize());
         }
         
         Document duplicate = null; 
@@ -542,11 +663,11 @@ public class DeDuplicator extends Processor implements InitializingBean {
 
 
             // Increment statistics counters
-            stats.duplicateAmount += curi.getContentSize();
-            stats.duplicateNumber++;
+            stats.duplicateAmount.add(curi.getContentSize());
+            stats.duplicateNumber.increment();
             if(statsPerHost){ 
-                currHostStats.duplicateAmount+=curi.getContentSize();
-                currHostStats.duplicateNumber++;
+                currHostStats.duplicateAmount.add(curi.getContentSize());
+                currHostStats.duplicateNumber.increment();
             }
 
             String jumpTo = getJumpTo(); 
@@ -606,6 +727,10 @@ public class DeDuplicator extends Processor implements InitializingBean {
      * @return The result of the lookup (a Lucene document). If a duplicate is not found null is returned.
      */
     protected Document lookupByURL(CrawlURI curi, Statistics currHostStats) {
+        String currentDigest = getDigestAsString(curi);
+        if (inMemoryIndex != null || compactIndex != null) {
+            return lookupByURLInMemory(curi, currentDigest, currHostStats);
+        }
         // Look the CrawlURI's URL up in the index.
         try {
             Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
@@ -613,29 +738,26 @@ public class DeDuplicator extends Processor implements InitializingBean {
             indexSearcher.search(query, collectAllCollector);
 
             List<ScoreDoc> hits = collectAllCollector.getHits();
-            Document doc = null;
-            String currentDigest = getDigestAsString(curi);
             if (hits != null && hits.size() > 0) {
                 // Typically there should only be one it, but we'll allow for
                 // multiple hits.
                 for (ScoreDoc hit : hits) {
-                    // for(int i=0 ; i < hits.size() ; i++){
                     // Multiple hits on same exact URL should be rare
-                    // See if any have matching content digests
+                    // See if any have matching content digests.
+                    // Only the digest is loaded, the full document is only loaded on a match.
                     int docId = hit.doc;
-                    doc = indexSearcher.doc(docId);
-                    String oldDigest = doc.get(DigestIndexer.FIELD_DIGEST);
+                    String oldDigest = indexSearcher.doc(docId, DIGEST_FIELD).get(DigestIndexer.FIELD_DIGEST);
 
-                    if (oldDigest.equalsIgnoreCase(currentDigest)) {
-                        stats.exactURLDuplicates++;
+                    if (oldDigest != null && oldDigest.equalsIgnoreCase(currentDigest)) {
+                        stats.exactURLDuplicates.increment();
                         if (statsPerHost) {
-                            currHostStats.exactURLDuplicates++;
+                            currHostStats.exactURLDuplicates.increment();
                         }
 
                         logger.finest("Found exact match for " + curi.toString());
 
                         // If we found a hit, no need to look at other hits.
-                        return doc;
+                        return indexSearcher.doc(docId);
                     }
                 }
             }
@@ -648,23 +770,12 @@ public class DeDuplicator extends Processor implements InitializingBean {
                 hits = collectAllCollector.getHits();
 
                 for (ScoreDoc hit : hits) {
-                    // int i=0 ; i < hits.length ; i++){
-
                     int docId = hit.doc;
-                    Document doc1 = indexSearcher.doc(docId);
-                    String indexDigest = doc1.get(DigestIndexer.FIELD_DIGEST);
-                    if (indexDigest.equals(currentDigest)) {
-                        // Make note in log
-                        String equivURL = doc1.get(DigestIndexer.FIELD_URL);
-                        curi.getAnnotations().add("equivalentURL:\"" + equivURL + "\"");
-                        // Increment statistics counters
-                        stats.equivalentURLDuplicates++;
-                        if (statsPerHost) {
-                            currHostStats.equivalentURLDuplicates++;
-                        }
-                        logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
-                                + normalizedURL + ". Equivalent to: " + equivURL);
-
+                    String indexDigest = indexSearcher.doc(docId, DIGEST_FIELD).get(DigestIndexer.FIELD_DIGEST);
+                    if (indexDigest != null && indexDigest.equals(currentDigest)) {
+                        Document doc1 = indexSearcher.doc(docId);
+                        equivalentURLDuplicateFound(curi, normalizedURL, doc1.get(DigestIndexer.FIELD_URL),
+                                currHostStats);
                         // If we found a hit, no need to look at more.
                         return doc1;
                     }
@@ -676,6 +787,85 @@ public class DeDuplicator extends Processor implements InitializingBean {
         // If we make it here then this is not a duplicate.
         return null;
     }
+
+    /**
+     * Process a CrawlURI looking up in the in-memory copy of the index by URL.
+     *
+     * @param curi The CrawlURI to process
+     * @param currentDigest The content digest of the CrawlURI
+     * @param currHostStats A statistics object for the current host, or null if per host statistics are not tracked
+     * @return The result of the lookup (a Lucene document). If a duplicate is not found null is returned.
+     */
+    protected Document lookupByURLInMemory(CrawlURI curi, String currentDigest, Statistics currHostStats) {
+        for (InMemoryDigestIndex.Entry entry : entriesByURL(curi.toString())) {
+            if (entry.digest != null && entry.digest.equalsIgnoreCase(currentDigest)) {
+                stats.exactURLDuplicates.increment();
+                if (statsPerHost) {
+                    currHostStats.exactURLDuplicates.increment();
+                }
+                logger.finest("Found exact match for " + curi.toString());
+                return entry.toDocument();
+            }
+        }
+        if (getTryEquivalent() && inMemoryIndex != null) {
+            String normalizedURL = DigestIndexer.stripURL(curi.toString());
+            for (InMemoryDigestIndex.Entry entry : inMemoryIndex.lookupByNormalizedURL(normalizedURL)) {
+                if (entry.digest != null && entry.digest.equals(currentDigest)) {
+                    equivalentURLDuplicateFound(curi, normalizedURL, entry.url, currHostStats);
+                    return entry.toDocument();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param url A URL
+     * @return the entries with this URL in the in-memory or compact index, never null
+     */
+    private InMemoryDigestIndex.Entry[] entriesByURL(String url) {
+        if (inMemoryIndex != null) {
+            return inMemoryIndex.lookupByURL(url);
+        }
+        return toEntries(compactIndex.lookupByURL(url));
+    }
+
+    /**
+     * @param digest A content digest
+     * @return the entries with this digest in the in-memory or compact index, never null
+     */
+    private InMemoryDigestIndex.Entry[] entriesByDigest(String digest) {
+        if (inMemoryIndex != null) {
+            return inMemoryIndex.lookupByDigest(digest);
+        }
+        return toEntries(compactIndex.lookupByDigest(digest));
+    }
+
+    private static InMemoryDigestIndex.Entry[] toEntries(List<CompactDigestIndex.Record> records) {
+        InMemoryDigestIndex.Entry[] entries = new InMemoryDigestIndex.Entry[records.size()];
+        for (int i = 0; i < entries.length; i++) {
+            CompactDigestIndex.Record r = records.get(i);
+            entries[i] = new InMemoryDigestIndex.Entry(r.getURL(), null, r.getDigest(), r.getTimestamp(),
+                    r.getOrigin(), null);
+        }
+        return entries;
+    }
+
+    /**
+     * Annotate the CrawlURI and update the statistics when an equivalent URL with the same content digest was found.
+     */
+    private void equivalentURLDuplicateFound(CrawlURI curi, String normalizedURL, String equivURL,
+            Statistics currHostStats) {
+        // Make note in log
+        curi.getAnnotations().add("equivalentURL:\"" + equivURL + "\"");
+        // Increment statistics counters
+        stats.equivalentURLDuplicates.increment();
+        if (statsPerHost) {
+            currHostStats.equivalentURLDuplicates.increment();
+        }
+        logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
+                + normalizedURL + ". Equivalent to: " + equivURL);
+    }
     
     /**
      * Process a CrawlURI looking up in the index by content digest
@@ -695,6 +885,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
             logger.warning("Digest received from CrawlURI is null. Null Document returned");
             return null;
         }
+        if (inMemoryIndex != null || compactIndex != null) {
+            return lookupByDigestInMemory(curi, currentDigest, currHostStats);
+        }
 
         Query query = queryField(DigestIndexer.FIELD_DIGEST, currentDigest);
         try {
@@ -714,47 +907,19 @@ public class DeDuplicator extends Processor implements InitializingBean {
                 while (hitsIterator.hasNext() && duplicate == null) {
                     ScoreDoc hit = hitsIterator.next();
                     int docId = hit.doc;
-                    Document doc = indexSearcher.doc(docId);
+                    // Only the URLs are loaded, the full document is only loaded on a match.
+                    Document doc = indexSearcher.doc(docId, URL_FIELDS);
                     String indexURL = doc.get(DigestIndexer.FIELD_URL);
-                    // See if the current hit is an exact match.
-                    if (curi.toString().equals(indexURL)) {
-                        duplicate = doc;
-                        stats.exactURLDuplicates++;
-                        if (statsPerHost) {
-                            currHostStats.exactURLDuplicates++;
-                        }
-                        logger.finest("Found exact match for " + curi.toString());
-                    }
-
-                    // If not, then check if it is an equivalent match (if
-                    // equivalent matches are allowed).
-                    if (duplicate == null && getTryEquivalent()) {
-                        String normalURL = DigestIndexer.stripURL(curi.toString());
-                        String indexNormalURL = doc.get(DigestIndexer.FIELD_URL_NORMALIZED);
-                        if (normalURL.equals(indexNormalURL)) {
-                            duplicate = doc;
-                            stats.equivalentURLDuplicates++;
-                            if (statsPerHost) {
-                                currHostStats.equivalentURLDuplicates++;
-                            }
-                            curi.getAnnotations().add("equivalentURL:\"" + indexURL + "\"");
-                            logger.finest("Found equivalent match for " + curi.toString() + ". Normalized: "
-                                    + normalURL + ". Equivalent to: " + indexURL);
-                        }
-                    }
-
-                    if (duplicate == null) {
+                    if (isDigestMatch(curi, indexURL, doc.get(DigestIndexer.FIELD_URL_NORMALIZED), currHostStats)) {
+                        duplicate = indexSearcher.doc(docId);
+                    } else {
                         // Will only be used if no exact (or equivalent) match
                         // is found.
                         mirrors.append(indexURL + " ");
                     }
                 }
                 if (duplicate == null) {
-                    stats.mirrorNumber++;
-                    if (statsPerHost) {
-                        currHostStats.mirrorNumber++;
-                    }
-                    logger.log(Level.FINEST, "Found mirror URLs for " + curi.toString() + ". " + mirrors);
+                    mirrorFound(curi, mirrors, currHostStats);
                 }
             }
         } catch (IOException e) {
@@ -763,6 +928,71 @@ public class DeDuplicator extends Processor implements InitializingBean {
         return duplicate;
     }
 
+    /**
+     * Process a CrawlURI looking up in the in-memory copy of the index by content digest.
+     *
+     * @param curi The CrawlURI to process
+     * @param currentDigest The content digest of the CrawlURI
+     * @param currHostStats A statistics object for the current host, or null if per host statistics are not tracked
+     * @return The result of the lookup (a Lucene document). If a duplicate is not found null is returned.
+     */
+    protected Document lookupByDigestInMemory(CrawlURI curi, String currentDigest, Statistics currHostStats) {
+        InMemoryDigestIndex.Entry[] hits = entriesByDigest(currentDigest);
+        if (hits.length == 0) {
+            return null;
+        }
+        StringBuffer mirrors = new StringBuffer();
+        mirrors.append("mirrors: ");
+        for (InMemoryDigestIndex.Entry entry : hits) {
+            if (isDigestMatch(curi, entry.url, entry.normalizedUrl, currHostStats)) {
+                return entry.toDocument();
+            }
+            mirrors.append(entry.url + " ");
+        }
+        mirrorFound(curi, mirrors, currHostStats);
+        return null;
+    }
+
+    /**
+     * Check if a hit in a lookup by digest has the same URL or an equivalent URL (if equivalent matches are allowed)
+     * as the CrawlURI, and update the statistics accordingly.
+     *
+     * @return true, if the hit is an exact or equivalent match
+     */
+    private boolean isDigestMatch(CrawlURI curi, String indexURL, String indexNormalURL,
+            Statistics currHostStats) {
+        // See if the current hit is an exact match.
+        if (curi.toString().equals(indexURL)) {
+            stats.exactURLDuplicates.increment();
+            if (statsPerHost) {
+                currHostStats.exactURLDuplicates.increment();
+            }
+            logger.finest("Found exact match for " + curi.toString());
+            return true;
+        }
+        // If not, then check if it is an equivalent match (if
+        // equivalent matches are allowed).
+        if (getTryEquivalent()) {
+            String normalURL = DigestIndexer.stripURL(curi.toString());
+            if (normalURL.equals(indexNormalURL)) {
+                equivalentURLDuplicateFound(curi, normalURL, indexURL, currHostStats);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Update the statistics when only non-equivalent URLs with the same content digest were found.
+     */
+    private void mirrorFound(CrawlURI curi, StringBuffer mirrors, Statistics currHostStats) {
+        stats.mirrorNumber.increment();
+        if (statsPerHost) {
+            currHostStats.mirrorNumber.increment();
+        }
+        logger.log(Level.FINEST, "Found mirror URLs for " + curi.toString() + ". " + mirrors);
+    }
+
     public String report() {
         StringBuffer ret = new StringBuffer();
         ret.append("Processor: is.hi.bok.digest.DeDuplicator\n");
@@ -774,30 +1004,30 @@ public class DeDuplicator extends Processor implements InitializingBean {
         }
         ret.append("                     - Lookup by " + 
         		(lookupByURL?"url":"digest") + " in use\n");
-        ret.append("  Total handled:     " + stats.handledNumber + "\n");
-        ret.append("  Duplicates found:  " + stats.duplicateNumber + " " + 
-        		getPercentage(stats.duplicateNumber,stats.handledNumber) + "\n");
-        ret.append("  Bytes total:       " + stats.totalAmount + " (" + 
-        		ArchiveUtils.formatBytesForDisplay(stats.totalAmount) + ")\n");
-        ret.append("  Bytes discarded:   " + stats.duplicateAmount + " (" + 
-        		ArchiveUtils.formatBytesForDisplay(stats.duplicateAmount) + ") " + 
-        		getPercentage(stats.duplicateAmount, stats.totalAmount) + "\n");
+        ret.append("  Total handled:     " + stats.handledNumber.sum() + "\n");
+        ret.append("  Duplicates found:  " + stats.duplicateNumber.sum() + " " + 
+        		getPercentage(stats.duplicateNumber.sum(),stats.handledNumber.sum()) + "\n");
+        ret.append("  Bytes total:       " + stats.totalAmount.sum() + " (" + 
+        		ArchiveUtils.formatBytesForDisplay(stats.totalAmount.sum()) + ")\n");
+        ret.append("  Bytes discarded:   " + stats.duplicateAmount.sum() + " (" + 
+        		ArchiveUtils.formatBytesForDisplay(stats.duplicateAmount.sum()) + ") " + 
+        		getPercentage(stats.duplicateAmount.sum(), stats.totalAmount.sum()) + "\n");
         
-    	ret.append("  New (no hits):     " + (stats.handledNumber-
-    			(stats.mirrorNumber+stats.exactURLDuplicates+stats.equivalentURLDuplicates)) + "\n");
-    	ret.append("  Exact hits:        " + stats.exactURLDuplicates + "\n");
-    	ret.append("  Equivalent hits:   " + stats.equivalentURLDuplicates + "\n");
+    	ret.append("  New (no hits):     " + (stats.handledNumber.sum()-
+    			(stats.mirrorNumber.sum()+stats.exactURLDuplicates.sum()+stats.equivalentURLDuplicates.sum())) + "\n");
+    	ret.append("  Exact hits:        " + stats.exactURLDuplicates.sum() + "\n");
+    	ret.append("  Equivalent hits:   " + stats.equivalentURLDuplicates.sum() + "\n");
         if(lookupByURL==false){
-        	ret.append("  Mirror hits:       " + stats.mirrorNumber + "\n");
+        	ret.append("  Mirror hits:       " + stats.mirrorNumber.sum() + "\n");
         }
         
         if(getAnalyzeTimestamp()){
         	ret.append("  Timestamp predicts: (Where exact URL existed in the index)\n");
-        	ret.append("  Change correctly:  " + stats.timestampChangeCorrect + "\n");
-        	ret.append("  Change falsely:     " + stats.timestampChangeFalse + "\n");
-        	ret.append("  Non-change correct:" + stats.timestampNoChangeCorrect + "\n");
-        	ret.append("  Non-change falsely: " + stats.timestampNoChangeFalse + "\n");
-        	ret.append("  Missing timpestamp:" + stats.timestampMissing + "\n");
+        	ret.append("  Change correctly:  " + stats.timestampChangeCorrect.sum() + "\n");
+        	ret.append("  Change falsely:     " + stats.timestampChangeFalse.sum() + "\n");
+        	ret.append("  Non-change correct:" + stats.timestampNoChangeCorrect.sum() + "\n");
+        	ret.append("  Non-change falsely: " + stats.timestampNoChangeFalse.sum() + "\n");
+        	ret.append("  Missing timpestamp:" + stats.timestampMissing.sum() + "\n");
         	
         }
         
@@ -813,48 +1043,45 @@ public class DeDuplicator extends Processor implements InitializingBean {
                 ret.append(" [no timestamp]");
             }
             ret.append("\n");
-            synchronized (perHostStats) {
-                Iterator<String> it = perHostStats.keySet().iterator();
-                while(it.hasNext()){
-                    String key = it.next();
-                    Statistics curr = perHostStats.get(key);
-                    ret.append("  " +key);
-                    ret.append(" ");
-                    ret.append(curr.handledNumber);
+            for (Map.Entry<String, Statistics> hostStats : perHostStats.entrySet()) {
+                String key = hostStats.getKey();
+                Statistics curr = hostStats.getValue();
+                ret.append("  " +key);
+                ret.append(" ");
+                ret.append(curr.handledNumber.sum());
+                ret.append(" ");
+                ret.append(curr.duplicateNumber.sum());
+                ret.append(" ");
+                ret.append(curr.totalAmount.sum());
+                ret.append(" ");
+                ret.append(curr.duplicateAmount.sum());
+                ret.append(" ");
+                ret.append(curr.handledNumber.sum()-
+                        (curr.mirrorNumber.sum()+
+                         curr.exactURLDuplicates.sum()+
+                         curr.equivalentURLDuplicates.sum()));
+                ret.append(" ");
+                ret.append(curr.exactURLDuplicates.sum());
+                ret.append(" ");
+                ret.append(curr.equivalentURLDuplicates.sum());
+
+                if(lookupByURL==false){
                     ret.append(" ");
-                    ret.append(curr.duplicateNumber);
+                    ret.append(curr.mirrorNumber.sum());
+                }    
+                if(getAnalyzeTimestamp()){
                     ret.append(" ");
-                    ret.append(curr.totalAmount);
+                    ret.append(curr.timestampChangeCorrect.sum());
                     ret.append(" ");
-                    ret.append(curr.duplicateAmount);
+                    ret.append(curr.timestampChangeFalse.sum());
                     ret.append(" ");
-                    ret.append(curr.handledNumber-
-                            (curr.mirrorNumber+
-                             curr.exactURLDuplicates+
-                             curr.equivalentURLDuplicates));
+                    ret.append(curr.timestampNoChangeCorrect.sum());
                     ret.append(" ");
-                    ret.append(curr.exactURLDuplicates);
+                    ret.append(curr.timestampNoChangeFalse.sum());
                     ret.append(" ");
-                    ret.append(curr.equivalentURLDuplicates);
-
-                    if(lookupByURL==false){
-                        ret.append(" ");
-                        ret.append(curr.mirrorNumber);
-                    }    
-                    if(getAnalyzeTimestamp()){
-                        ret.append(" ");
-                        ret.append(curr.timestampChangeCorrect);
-                        ret.append(" ");
-                        ret.append(curr.timestampChangeFalse);
-                        ret.append(" ");
-                        ret.append(curr.timestampNoChangeCorrect);
-                        ret.append(" ");
-                        ret.append(curr.timestampNoChangeFalse);
-                        ret.append(" ");
-                        ret.append(curr.timestampMissing);
-                    }
-                    ret.append("\n");
+                    ret.append(curr.timestampMissing.sum());
                 }
+                ret.append("\n");
             }
         }
         
@@ -886,6 +1113,20 @@ public class DeDuplicator extends Processor implements InitializingBean {
 
 	protected void doAnalysis(CrawlURI curi, Statistics currHostStats,
             boolean isDuplicate) {
+		if (inMemoryIndex != null || compactIndex != null) {
+			// If there are multiple hits, use the one with the most
+			// recent date.
+			InMemoryDigestIndex.Entry entryToEval = null;
+			for (InMemoryDigestIndex.Entry entry : entriesByURL(curi.toString())) {
+				if (entryToEval == null || isPreferredTimestamp(entry.timestamp, entryToEval.timestamp)) {
+					entryToEval = entry;
+				}
+			}
+			if (entryToEval != null) {
+				doTimestampAnalysis(curi, entryToEval.toDocument(), currHostStats, isDuplicate);
+			}
+			return;
+		}
 		try{
     		Query query = queryField(DigestIndexer.FIELD_URL, curi.toString());
             AllDocsCollector collectAllCollector = new AllDocsCollector();
@@ -900,12 +1141,14 @@ public class DeDuplicator extends Processor implements InitializingBean {
                 Document docToEval = null;
                 for (ScoreDoc hit : hits) {
                     int docId = hit.doc;
-                    doc = indexSearcher.doc(docId);
+                    // Only the fields needed for the analysis are loaded
+                    doc = indexSearcher.doc(docId, TIMESTAMP_FIELDS);
                     // The format of the timestamp ("yyyyMMddHHmmssSSS") allows
                     // us to do a greater then (later) or lesser than (earlier)
                     // comparison of the strings.
                     String timestamp = doc.get(DigestIndexer.FIELD_TIMESTAMP);
-                    if (docToEval == null || docToEval.get(DigestIndexer.FIELD_TIMESTAMP).compareTo(timestamp) > 0) {
+                    if (docToEval == null
+                            || isPreferredTimestamp(timestamp, docToEval.get(DigestIndexer.FIELD_TIMESTAMP))) {
                         // Found a more recent hit.
                         docToEval = doc;
                     }
@@ -918,6 +1161,19 @@ public class DeDuplicator extends Processor implements InitializingBean {
 	}
 	
 		
+	/**
+	 * Decide whether an index hit with the given timestamp should be used for the timestamp analysis instead of the
+	 * hit chosen so far. Hits without a timestamp are only used if no hit has one, in the Lucene index as well as in
+	 * the in-memory and compact indexes.
+	 *
+	 * @param candidate The timestamp of the hit, or null
+	 * @param current The timestamp of the hit chosen so far, or null
+	 * @return true if the hit should be used instead
+	 */
+	static boolean isPreferredTimestamp(String candidate, String current) {
+		return candidate != null && (current == null || current.compareTo(candidate) > 0);
+	}
+
 	protected void doTimestampAnalysis(CrawlURI curi, Document urlHit, 
             Statistics currHostStats, boolean isDuplicate){
         
@@ -938,19 +1194,23 @@ public class DeDuplicator extends Processor implements InitializingBean {
 				return;
 			}
         } else {
-            stats.timestampMissing++;
+            stats.timestampMissing.increment();
             if (statsPerHost) {
-                currHostStats.timestampMissing++;
+                currHostStats.timestampMissing.increment();
                 logger.finest("Missing timestamp on " + curi.toString());
             }
         	return;
         }
         
+        String indexedTimestamp = urlHit.get(DigestIndexer.FIELD_TIMESTAMP);
+        if (indexedTimestamp == null) {
+            logger.finest("No indexed timestamp for " + curi.toString());
+            return;
+        }
         SimpleDateFormat sdf = new SimpleDateFormat("yyyyMMddHHmmssSSS");
         Date lastFetch = null;
         try {
-			lastFetch = sdf.parse(
-					urlHit.get(DigestIndexer.FIELD_TIMESTAMP));
+			lastFetch = sdf.parse(indexedTimestamp);
 		} catch (ParseException e) {
 			logger.log(Level.WARNING,"Exception parsing indexed date for " + 
 					urlHit.get(DigestIndexer.FIELD_URL),e);
@@ -961,16 +1221,16 @@ public class DeDuplicator extends Processor implements InitializingBean {
 			// Header predicts change
 			if(isDuplicate){
 				// But the DeDuplicator did not notice a change.
-                stats.timestampChangeFalse++;
+                stats.timestampChangeFalse.increment();
                 if (statsPerHost){
-                    currHostStats.timestampChangeFalse++;
+                    currHostStats.timestampChangeFalse.increment();
                 }
                 logger.finest("Last-modified falsly predicts change on " + 
                         curi.toString());
 			} else {
-                stats.timestampChangeCorrect++;
+                stats.timestampChangeCorrect.increment();
                 if (statsPerHost){
-                    currHostStats.timestampChangeCorrect++;
+                    currHostStats.timestampChangeCorrect.increment();
                 }
                 logger.finest("Last-modified correctly predicts change on " + 
                         curi.toString());
@@ -979,9 +1239,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 			// Header does not predict change.
 			if(isDuplicate){
 				// And the DeDuplicator verifies that no change had occurred
-                stats.timestampNoChangeCorrect++;
+                stats.timestampNoChangeCorrect.increment();
                 if (statsPerHost){
-                    currHostStats.timestampNoChangeCorrect++;
+                    currHostStats.timestampNoChangeCorrect.increment();
                 }
                 logger.finest("Last-modified correctly predicts no-change on " + 
                         curi.toString());
@@ -991,9 +1251,9 @@ public class DeDuplicator extends Processor implements InitializingBean {
 						"no-change on " + curi.toString() + " " + 
 						curi.getContentType() + ". last-modified: " + 
                         lastModified + ". Last fetched: " + lastFetch);
-                stats.timestampNoChangeFalse++;
+                stats.timestampNoChangeFalse.increment();
                 if (statsPerHost){
-                    currHostStats.timestampNoChangeFalse++;
+                    currHostStats.timestampNoChangeFalse.increment();
                 }
 			}
 		}
@@ -1021,57 +1281,60 @@ public class DeDuplicator extends Processor implements InitializingBean {
 	
 }
 
+/**
+ * Statistics counters, updated concurrently by all ToeThreads without locking.
+ */
 class Statistics{
     // General statistics
     
     /** Number of URIs that make it through the processors exclusion rules
      *  and are processed by it.
      */
-    long handledNumber = 0;
+    final LongAdder handledNumber = new LongAdder();
     
     /** Number of URIs that are deemed duplicates and further processing is
      *  aborted
      */
-    long duplicateNumber = 0;
+    final LongAdder duplicateNumber = new LongAdder();
     
     /** Then number of URIs that turned out to have exact URL and content 
      *  digest matches.
      */
-    long exactURLDuplicates = 0;
+    final LongAdder exactURLDuplicates = new LongAdder();
     
     /** The number of URIs that turned out to have equivalent URL and content
      *  digest matches.
      */
-    long equivalentURLDuplicates = 0;
+    final LongAdder equivalentURLDuplicates = new LongAdder();
     
     /** The number of URIs that, while having no exact or equivalent matches,  
      *  do have exact content digest matches against non-equivalent URIs.
      */
-    long mirrorNumber = 0;
+    final LongAdder mirrorNumber = new LongAdder();
     
     /** The total amount of data represented by the documents who were deemed
      *  duplicates and excluded from further processing.
      */
-    long duplicateAmount = 0;
+    final LongAdder duplicateAmount = new LongAdder();
     
     /** The total amount of data represented by all the documents processed **/
-    long totalAmount = 0;
+    final LongAdder totalAmount = new LongAdder();
     
     // Timestamp analysis
     
-    long timestampChangeCorrect = 0;
-    long timestampChangeFalse = 0;
-    long timestampNoChangeCorrect = 0;
-    long timestampNoChangeFalse = 0;
-    long timestampMissing = 0;
+    final LongAdder timestampChangeCorrect = new LongAdder();
+    final LongAdder timestampChangeFalse = new LongAdder();
+    final LongAdder timestampNoChangeCorrect = new LongAdder();
+    final LongAdder timestampNoChangeFalse = new LongAdder();
+    final LongAdder timestampMissing = new LongAdder();
 
     // ETag analysis;
     
-    long ETagChangeCorrect = 0;
-    long ETagChangeFalse = 0;
-    long ETagNoChangeCorrect = 0;
-    long ETagNoChangeFalse = 0;
-    long ETagMissingIndex = 0;
-    long ETagMissingCURI = 0;
+    final LongAdder ETagChangeCorrect = new LongAdder();
+    final LongAdder ETagChangeFalse = new LongAdder();
+    final LongAdder ETagNoChangeCorrect = new LongAdder();
+    final LongAdder ETagNoChangeFalse = new LongAdder();
+    final LongAdder ETagMissingIndex = new LongAdder();
+    final LongAdder ETagMissingCURI = new LongAdder();
 }
 
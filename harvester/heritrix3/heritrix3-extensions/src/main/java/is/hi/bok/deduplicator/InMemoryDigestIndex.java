@@ -0,0 +1,238 @@
+/* InMemoryDigestIndex
+ *
+ * This file is part of the DeDuplicator (Heritrix add-on module).
+ *
+ * DeDuplicator is free software; you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser Public License as published by
+ * the Free Software Foundation; either version 2.1 of the License, or
+ * any later version.
+ *
+ * DeDuplicator is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser Public License
+ * along with DeDuplicator; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package is.hi.bok.deduplicator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.StoredField;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.util.Bits;
+
+/**
+ * A read-only, in-memory copy of the stored fields of a deduplication index, used by the {@link DeDuplicator} when
+ * the index is small enough to fit in RAM.
+ * <p>
+ * Only the fields used by the DeDuplicator are kept, and only the lookup tables needed by the configured matching
+ * method are built. The tables are never modified after construction, so lookups are safe from any number of
+ * threads without locking.
+ */
+public class InMemoryDigestIndex {
+
+    private static final Logger logger = Logger.getLogger(InMemoryDigestIndex.class.getName());
+
+    /** Name of the field holding the WARC record ID of the original capture. */
+    static final String FIELD_ORIGINAL_RECORD_ID = "orig_record_id";
+
+    /** The stored fields loaded from the index. */
+    private static final Set<String> FIELDS_TO_LOAD = new HashSet<String>(Arrays.asList(DigestIndexer.FIELD_URL,
+            DigestIndexer.FIELD_URL_NORMALIZED, DigestIndexer.FIELD_DIGEST, DigestIndexer.FIELD_TIMESTAMP,
+            DigestIndexer.FIELD_ORIGIN, FIELD_ORIGINAL_RECORD_ID));
+
+    private static final Entry[] NO_ENTRIES = new Entry[0];
+
+    /** Entries indexed by URL, or null if not built. */
+    private final Map<String, Entry[]> byUrl;
+    /** Entries indexed by normalized URL, or null if not built. */
+    private final Map<String, Entry[]> byNormalizedUrl;
+    /** Entries indexed by content digest, or null if not built. */
+    private final Map<String, Entry[]> byDigest;
+    /** The number of entries loaded. */
+    private final int size;
+
+    /**
+     * The stored fields of one document in the deduplication index.
+     */
+    public static final class Entry {
+        final String url;
+        final String normalizedUrl;
+        final String digest;
+        final String timestamp;
+        final String origin;
+        final String originalRecordId;
+
+        Entry(String url, String normalizedUrl, String digest, String timestamp, String origin,
+                String originalRecordId) {
+            this.url = url;
+            this.normalizedUrl = normalizedUrl;
+            this.digest = digest;
+            this.timestamp = timestamp;
+            this.origin = origin;
+            this.originalRecordId = originalRecordId;
+        }
+
+        /**
+         * @return a Lucene document with the same stored fields as the indexed document
+         */
+        Document toDocument() {
+            Document doc = new Document();
+            addIfPresent(doc, DigestIndexer.FIELD_URL, url);
+            addIfPresent(doc, DigestIndexer.FIELD_URL_NORMALIZED, normalizedUrl);
+            addIfPresent(doc, DigestIndexer.FIELD_DIGEST, digest);
+            addIfPresent(doc, DigestIndexer.FIELD_TIMESTAMP, timestamp);
+            addIfPresent(doc, DigestIndexer.FIELD_ORIGIN, origin);
+            addIfPresent(doc, FIELD_ORIGINAL_RECORD_ID, originalRecordId);
+            return doc;
+        }
+
+        private static void addIfPresent(Document doc, String name, String value) {
+            if (value != null) {
+                doc.add(new StoredField(name, value));
+            }
+        }
+    }
+
+    /**
+     * Load the given index into memory.
+     *
+     * @param reader An open reader on the deduplication index
+     * @param indexUrl Build the lookup table by URL
+     * @param indexNormalizedUrl Build the lookup table by normalized URL
+     * @param indexDigest Build the lookup table by content digest
+     * @throws IOException If reading the index fails
+     */
+    public InMemoryDigestIndex(IndexReader reader, boolean indexUrl, boolean indexNormalizedUrl, boolean indexDigest)
+            throws IOException {
+        Map<String, Object> urls = indexUrl ? new HashMap<String, Object>() : null;
+        Map<String, Object> normalizedUrls = indexNormalizedUrl ? new HashMap<String, Object>() : null;
+        Map<String, Object> digests = indexDigest ? new HashMap<String, Object>() : null;
+        Map<String, String> digestPool = new HashMap<String, String>();
+        Bits liveDocs = MultiFields.getLiveDocs(reader);
+        int count = 0;
+        for (int i = 0; i < reader.maxDoc(); i++) {
+            if (liveDocs != null && !liveDocs.get(i)) {
+                continue;
+            }
+            Document doc = reader.document(i, FIELDS_TO_LOAD);
+            String digest = doc.get(DigestIndexer.FIELD_DIGEST);
+            if (digest != null) {
+                // The same digest typically occurs many times, so share the instances
+                String pooled = digestPool.get(digest);
+                if (pooled == null) {
+                    digestPool.put(digest, digest);
+                } else {
+                    digest = pooled;
+                }
+            }
+            Entry entry = new Entry(doc.get(DigestIndexer.FIELD_URL), doc.get(DigestIndexer.FIELD_URL_NORMALIZED),
+                    digest, doc.get(DigestIndexer.FIELD_TIMESTAMP), doc.get(DigestIndexer.FIELD_ORIGIN),
+                    doc.get(FIELD_ORIGINAL_RECORD_ID));
+            add(urls, entry.url, entry);
+            add(normalizedUrls, entry.normalizedUrl, entry);
+            add(digests, entry.digest, entry);
+            count++;
+        }
+        this.byUrl = freeze(urls);
+        this.byNormalizedUrl = freeze(normalizedUrls);
+        this.byDigest = freeze(digests);
+        this.size = count;
+        logger.info("Loaded " + count + " documents of the deduplication index into memory");
+    }
+
+    /**
+     * Add an entry to a lookup table being loaded. A key with a single entry maps directly to the entry, a key with
+     * more entries maps to a growable list of them, so loading stays linear for keys with many entries.
+     */
+    @SuppressWarnings("unchecked")
+    private static void add(Map<String, Object> map, String key, Entry entry) {
+        if (map == null || key == null) {
+            return;
+        }
+        Object existing = map.get(key);
+        if (existing == null) {
+            map.put(key, entry);
+        } else if (existing instanceof Entry) {
+            List<Entry> entries = new ArrayList<Entry>(4);
+            entries.add((Entry) existing);
+            entries.add(entry);
+            map.put(key, entries);
+        } else {
+            ((List<Entry>) existing).add(entry);
+        }
+    }
+
+    /**
+     * Convert a loaded lookup table in place to its final form, with an array of entries per key.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Map<String, Entry[]> freeze(Map<String, Object> map) {
+        if (map == null) {
+            return null;
+        }
+        for (Map.Entry<String, Object> e : map.entrySet()) {
+            Object value = e.getValue();
+            if (value instanceof Entry) {
+                e.setValue(new Entry[] {(Entry) value});
+            } else {
+                List<Entry> entries = (List<Entry>) value;
+                e.setValue(entries.toArray(new Entry[entries.size()]));
+            }
+        }
+        return (Map) map;
+    }
+
+    private static Entry[] get(Map<String, Entry[]> map, String key) {
+        if (map == null || key == null) {
+            return NO_ENTRIES;
+        }
+        Entry[] entries = map.get(key);
+        return entries == null ? NO_ENTRIES : entries;
+    }
+
+    /**
+     * @param url A URL
+     * @return the entries with exactly this URL, never null
+     */
+    public Entry[] lookupByURL(String url) {
+        return get(byUrl, url);
+    }
+
+    /**
+     * @param normalizedUrl A URL normalized with {@link DigestIndexer#stripURL(String)}
+     * @return the entries with this normalized URL, never null
+     */
+    public Entry[] lookupByNormalizedURL(String normalizedUrl) {
+        return get(byNormalizedUrl, normalizedUrl);
+    }
+
+    /**
+     * @param digest A content digest
+     * @return the entries with this content digest, never null
+     */
+    public Entry[] lookupByDigest(String digest) {
+        return get(byDigest, digest);
+    }
+
+    /**
+     * @return the number of documents loaded into memory
+     */
+    public int size() {
+        return size;
+    }
+
+}
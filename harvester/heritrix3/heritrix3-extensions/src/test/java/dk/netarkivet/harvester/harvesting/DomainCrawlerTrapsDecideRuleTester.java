@@ -0,0 +1,203 @@
+/*
+ * #%L
+ * Netarchivesuite - harvester - test
+ * %%
+ * Copyright (C) 2005 - 2017 The Royal Danish Library,
+ *             the National Library of France and the Austrian National Library.
+ * %%
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation, either version 2.1 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Lesser Public License for more details.
+ *
+ * You should have received a copy of the GNU General Lesser Public
+ * License along with this program.  If not, see
+ * <http://www.gnu.org/licenses/lgpl-2.1.html>.
+ * #L%
+ */
+package dk.netarkivet.harvester.harvesting;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+import org.archive.modules.CrawlURI;
+import org.archive.modules.deciderules.DecideResult;
+import org.archive.modules.deciderules.MatchesListRegexDecideRule;
+import org.archive.net.UURIFactory;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.netarkivet.common.utils.SlowTest;
+
+/**
+ * Unit tests for the class DomainCrawlerTrapsDecideRule.
+ */
+public class DomainCrawlerTrapsDecideRuleTester {
+
+    private static final Logger log = LoggerFactory.getLogger(DomainCrawlerTrapsDecideRuleTester.class);
+
+    @Test
+    public void testMatchesOnlyTrapsOfOwnDomain() throws Exception {
+        Map<String, List<String>> traps = new HashMap<String, List<String>>();
+        traps.put("netarkivet.dk", Arrays.asList(".*calendar.*", ".*/(\\w+)/\\1/.*"));
+        traps.put("TV2.dk", Arrays.asList(".*\\?sort=.*"));
+        for (boolean combine : new boolean[] {true, false}) {
+            DomainCrawlerTrapsDecideRule rule = new DomainCrawlerTrapsDecideRule();
+            rule.setCombinePatterns(combine);
+            rule.setRegexListByDomain(traps);
+            assertEquals(DecideResult.REJECT, rule.decisionFor(curi("http://www.netarkivet.dk/calendar/2017")));
+            assertEquals(DecideResult.REJECT, rule.decisionFor(curi("http://netarkivet.dk/a/b/b/c")));
+            assertEquals(DecideResult.NONE, rule.decisionFor(curi("http://netarkivet.dk/a/b/c/d")));
+            assertEquals(DecideResult.REJECT, rule.decisionFor(curi("http://sporten.tv2.dk/index.php?sort=asc")));
+            // The traps of netarkivet.dk must not be applied to tv2.dk and vice versa
+            assertEquals(DecideResult.NONE, rule.decisionFor(curi("http://www.tv2.dk/calendar/2017")));
+            assertEquals(DecideResult.NONE, rule.decisionFor(curi("http://netarkivet.dk/index.php?sort=asc")));
+        }
+    }
+
+    @Test
+    public void testCompilePatterns() {
+        Map<String, List<String>> traps = new HashMap<String, List<String>>();
+        traps.put("netarkivet.dk", Arrays.asList(".*a.*", ".*b.*", "", ".*[.*"));
+        traps.put("kb.dk", Arrays.asList(".*(x)\\1.*", ".*y.*"));
+        Map<String, Pattern[]> compiled = DomainCrawlerTrapsDecideRule.compilePatterns(traps, true);
+        assertEquals("Valid traps should be combined into one pattern", 1, compiled.get("netarkivet.dk").length);
+        assertEquals("Traps with back references should not be combined", 2, compiled.get("kb.dk").length);
+        compiled = DomainCrawlerTrapsDecideRule.compilePatterns(traps, false);
+        assertEquals(2, compiled.get("netarkivet.dk").length);
+        assertTrue(DomainCrawlerTrapsDecideRule.compilePatterns(null, true).isEmpty());
+    }
+
+    @Test
+    public void testDomainOf() throws Exception {
+        assertEquals("tv2.dk", DomainCrawlerTrapsDecideRule.domainOf(curi("http://sporten.TV2.dk/fodbold/")));
+        assertEquals("bbc.co.uk", DomainCrawlerTrapsDecideRule.domainOf(curi("http://www.bbc.co.uk/")));
+        assertEquals("kb.dk", DomainCrawlerTrapsDecideRule.domainOf(curi("http://kb.dk/")));
+    }
+
+    /**
+     * Compares the decisions of the grouped rule with the flat MatchesListRegexDecideRule for a job with many domains,
+     * each with a few crawler traps.
+     */
+    @Test
+    public void testSameDecisionsAsFlatList() throws Exception {
+        final int domainCount = 2000;
+        Map<String, List<String>> traps = manyDomainTraps(domainCount);
+        DomainCrawlerTrapsDecideRule groupedRule = new DomainCrawlerTrapsDecideRule();
+        groupedRule.setRegexListByDomain(traps);
+        MatchesListRegexDecideRule flatRule = flatRule(traps);
+
+        List<CrawlURI> uris = manyDomainUris(200, domainCount);
+        for (CrawlURI uri : uris) {
+            assertEquals("Decisions should be identical for " + uri, flatRule.decisionFor(uri),
+                    groupedRule.decisionFor(uri));
+        }
+
+        int rejected = 0;
+        for (CrawlURI uri : uris) {
+            if (groupedRule.decisionFor(uri) == DecideResult.REJECT) {
+                rejected++;
+            }
+        }
+        // The calendar and session URIs of the domains with traps are rejected, the rest are not
+        assertEquals(400, rejected);
+    }
+
+    /**
+     * Times the grouped rule against the flat MatchesListRegexDecideRule for a job with many domains, checking that
+     * both make the same decisions.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testThroughputComparedToFlatList() throws Exception {
+        final int domainCount = 5000;
+        Map<String, List<String>> traps = manyDomainTraps(domainCount);
+        DomainCrawlerTrapsDecideRule groupedRule = new DomainCrawlerTrapsDecideRule();
+        groupedRule.setRegexListByDomain(traps);
+        MatchesListRegexDecideRule flatRule = flatRule(traps);
+        List<CrawlURI> uris = manyDomainUris(2000, domainCount);
+
+        List<DecideResult> flatDecisions = new ArrayList<DecideResult>(uris.size());
+        long start = System.nanoTime();
+        for (CrawlURI uri : uris) {
+            flatDecisions.add(flatRule.decisionFor(uri));
+        }
+        long flatNanos = System.nanoTime() - start;
+        List<DecideResult> groupedDecisions = new ArrayList<DecideResult>(uris.size());
+        start = System.nanoTime();
+        for (CrawlURI uri : uris) {
+            groupedDecisions.add(groupedRule.decisionFor(uri));
+        }
+        long groupedNanos = System.nanoTime() - start;
+
+        assertEquals("The grouped rule should make the same decisions as the flat list", flatDecisions,
+                groupedDecisions);
+        log.info("Decisions/second with {} crawler traps: flat list {}, grouped by domain {}",
+                flatRule.getRegexList().size(), uris.size() * 1000000000L / Math.max(1, flatNanos),
+                uris.size() * 1000000000L / Math.max(1, groupedNanos));
+    }
+
+    /**
+     * Make three crawler traps for each of the domains domain0.dk, domain1.dk, ...
+     */
+    private static Map<String, List<String>> manyDomainTraps(int domainCount) {
+        Map<String, List<String>> traps = new HashMap<String, List<String>>();
+        for (int i = 0; i < domainCount; i++) {
+            traps.put("domain" + i + ".dk", Arrays.asList(".*domain" + i + "\\.dk/calendar/.*",
+                    ".*domain" + i + "\\.dk/.*\\?session=.*", ".*domain" + i + "\\.dk/print/.*"));
+        }
+        return traps;
+    }
+
+    /**
+     * Make a MatchesListRegexDecideRule rejecting URIs matching any of the given traps, regardless of domain.
+     */
+    private static MatchesListRegexDecideRule flatRule(Map<String, List<String>> traps) {
+        List<Pattern> flatList = new ArrayList<Pattern>();
+        for (List<String> domainTraps : traps.values()) {
+            for (String trap : domainTraps) {
+                flatList.add(Pattern.compile(trap));
+            }
+        }
+        MatchesListRegexDecideRule flatRule = new MatchesListRegexDecideRule();
+        flatRule.setDecision(DecideResult.REJECT);
+        flatRule.setListLogicalOr(true);
+        flatRule.setRegexList(flatList);
+        return flatRule;
+    }
+
+    /**
+     * Make URIs of the domains of {@link #manyDomainTraps(int)}, half of them matching a trap, and URIs of other
+     * domains matching the path of a trap.
+     */
+    private static List<CrawlURI> manyDomainUris(int count, int domainCount) throws Exception {
+        List<CrawlURI> uris = new ArrayList<CrawlURI>();
+        for (int i = 0; i < count; i++) {
+            int d = (i * 7) % domainCount;
+            uris.add(curi("http://www.domain" + d + ".dk/calendar/" + i));
+            uris.add(curi("http://www.domain" + d + ".dk/page" + i + ".html"));
+            uris.add(curi("http://www.domain" + d + ".dk/index.php?session=" + i));
+            uris.add(curi("http://www.example" + d + ".org/print/" + i));
+        }
+        return uris;
+    }
+
+    private static CrawlURI curi(String uri) throws Exception {
+        return new CrawlURI(UURIFactory.getInstance(uri));
+    }
+
+}
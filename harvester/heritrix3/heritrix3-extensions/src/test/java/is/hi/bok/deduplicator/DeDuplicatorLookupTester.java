@@ -0,0 +1,326 @@
+package is.hi.bok.deduplicator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.store.FSDirectory;
+import org.archive.modules.CrawlURI;
+import org.archive.net.UURIFactory;
+import org.archive.util.Base32;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.netarkivet.common.utils.FileUtils;
+
+/**
+ * Tests lookups in the DeDuplicator, in the Lucene index, in the in-memory copy of it and in the compact index, from
+ * many concurrent threads.
+ */
+public class DeDuplicatorLookupTester {
+
+    private static final int INDEXED_URLS = 5000;
+    private static final int THREADS = 50;
+    private static final int LOOKUPS_PER_THREAD = 2000;
+
+    private File indexDir;
+
+    @Before
+    public void setUp() throws Exception {
+        indexDir = Files.createTempDirectory("dedupindex").toFile();
+        final List<CrawlDataItem> items = new ArrayList<CrawlDataItem>();
+        for (int i = 0; i < INDEXED_URLS; i++) {
+            items.add(new CrawlDataItem(url(i), digest(i), "20170101120000000", null, "image/gif",
+                    "1-1-20170101120000-00000-test.warc,1234,20170101120000000", false));
+        }
+        writeIndex(indexDir, true, false, items);
+        IndexReader reader = DirectoryReader.open(FSDirectory.open(indexDir));
+        try {
+            assertEquals(INDEXED_URLS,
+                    CompactDigestIndex.writeFromLuceneIndex(reader, new File(indexDir, CompactDigestIndex.FILENAME)));
+        } finally {
+            reader.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        FileUtils.removeRecursively(indexDir);
+    }
+
+    @Test
+    public void testConcurrentLookupsByURL() throws Exception {
+        for (boolean inMemory : new boolean[] {false, true}) {
+            DeDuplicator deduplicator = createDeDuplicator(DeDuplicator.MatchingMethod.URL, inMemory, false);
+            runLookups(deduplicator, "URL lookups " + (inMemory ? "in memory" : "in Lucene index"));
+        }
+        runLookups(createCompactDeDuplicator(DeDuplicator.MatchingMethod.URL), "URL lookups in compact index");
+    }
+
+    @Test
+    public void testConcurrentLookupsByDigest() throws Exception {
+        for (boolean inMemory : new boolean[] {false, true}) {
+            DeDuplicator deduplicator = createDeDuplicator(DeDuplicator.MatchingMethod.DIGEST, inMemory, false);
+            runLookups(deduplicator, "Digest lookups " + (inMemory ? "in memory" : "in Lucene index"));
+        }
+        runLookups(createCompactDeDuplicator(DeDuplicator.MatchingMethod.DIGEST), "Digest lookups in compact index");
+    }
+
+    @Test
+    public void testCompactIndexLookups() throws Exception {
+        CompactDigestIndex index = new CompactDigestIndex(new File(indexDir, CompactDigestIndex.FILENAME));
+        try {
+            assertEquals(INDEXED_URLS, index.size());
+            List<CompactDigestIndex.Record> records = index.lookupByURL(url(42));
+            assertEquals(1, records.size());
+            assertEquals(digest(42), records.get(0).getDigest());
+            assertEquals("20170101120000000", records.get(0).getTimestamp());
+            assertEquals(url(42), index.lookupByDigest(digest(42)).get(0).getURL());
+            assertTrue(index.lookupByURL("http://www.example.dk/unknown").isEmpty());
+            assertTrue(index.lookupByDigest(digest(-1)).isEmpty());
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Test that a compact index written in many sorted chunks, which are merged on close, gives the same lookups as
+     * one sorted in memory, and that the chunks are written to a work directory outside the index directory.
+     */
+    @Test
+    public void testCompactIndexWrittenInChunks() throws Exception {
+        File file = new File(indexDir, "chunked.idx");
+        CompactDigestIndex.Writer writer = new CompactDigestIndex.Writer(file, 7);
+        for (int i = 0; i < 1000; i++) {
+            writer.add(url(i), digest(i % 100), "20170101120000000", null);
+        }
+        assertTrue("The sorted chunks should be in the work directory", writer.workDir.list().length > 2);
+        assertEquals("The index directory should not hold temporary files", 0,
+                indexDir.list(new FilenameFilter() {
+                    public boolean accept(File dir, String name) {
+                        return name.startsWith("chunked.idx");
+                    }
+                }).length);
+        writer.close();
+        assertFalse("The work directory should be removed", writer.workDir.exists());
+        assertEquals("Only the index file should be left", 0,
+                indexDir.list(new FilenameFilter() {
+                    public boolean accept(File dir, String name) {
+                        return name.startsWith("chunked.idx.");
+                    }
+                }).length);
+        CompactDigestIndex index = new CompactDigestIndex(file);
+        try {
+            assertEquals(1000, index.size());
+            for (int i = 0; i < 1000; i++) {
+                List<CompactDigestIndex.Record> records = index.lookupByURL(url(i));
+                assertEquals(1, records.size());
+                assertEquals(digest(i % 100), records.get(0).getDigest());
+            }
+            assertEquals(10, index.lookupByDigest(digest(42)).size());
+        } finally {
+            index.close();
+        }
+    }
+
+    @Test
+    public void testStopClosesIndex() throws Exception {
+        DeDuplicator deduplicator = createCompactDeDuplicator(DeDuplicator.MatchingMethod.URL);
+        deduplicator.stop();
+        assertNull("The compact index should be closed", deduplicator.compactIndex);
+        deduplicator = createDeDuplicator(DeDuplicator.MatchingMethod.URL, false, false);
+        deduplicator.stop();
+        assertNull("The Lucene index should be closed", deduplicator.indexReader);
+        assertNull(deduplicator.indexSearcher);
+    }
+
+    @Test
+    public void testEquivalentMatchInMemory() throws Exception {
+        DeDuplicator deduplicator = createDeDuplicator(DeDuplicator.MatchingMethod.URL, true, true);
+        CrawlURI curi = curi("http://www2.example.dk/page7?session=1", 7);
+        assertNotNull(deduplicator.lookupByURL(curi, null));
+        assertEquals(1, deduplicator.stats.equivalentURLDuplicates.sum());
+        assertNull(deduplicator.lookupByURL(curi("http://www.example.dk/page7", 8), null));
+    }
+
+    /**
+     * Tests that index hits without a timestamp are treated the same in the Lucene index and in memory: the timestamp
+     * analysis uses a hit with a timestamp if the URL has one, and skips the URL otherwise.
+     */
+    @Test
+    public void testTimestampAnalysisWithoutIndexedTimestamp() throws Exception {
+        File dir = Files.createTempDirectory("dedupindex-notimestamp").toFile();
+        try {
+            String origin = "1-1-20170101120000-00000-test.warc,1234,20170101120000000";
+            writeIndex(dir, false, false, Arrays.asList(
+                    new CrawlDataItem(url(1), digest(1), null, null, "image/gif", origin, false),
+                    new CrawlDataItem(url(2), digest(2), null, null, "image/gif", origin, false)));
+            writeIndex(dir, true, true, Arrays.asList(
+                    new CrawlDataItem(url(1), digest(1), "20170101120000000", null, "image/gif", origin, false)));
+            for (boolean inMemory : new boolean[] {false, true}) {
+                String description = inMemory ? "In memory" : "In Lucene index";
+                DeDuplicator deduplicator = new DeDuplicator();
+                deduplicator.setIndexLocation(dir.getAbsolutePath());
+                deduplicator.setMatchingMethod(DeDuplicator.MatchingMethod.URL);
+                deduplicator.setAnalysisMode(DeDuplicator.AnalysisMode.TIMESTAMP);
+                deduplicator.setLoadIndexInMemory(inMemory);
+                deduplicator.afterPropertiesSet();
+                assertEquals(inMemory, deduplicator.inMemoryIndex != null);
+                try {
+                    // Modified before the indexed fetch, so the hit with a timestamp predicts no change
+                    deduplicator.doAnalysis(lastModified(curi(url(1), 1), "Sun, 01 Jan 2017 00:00:00 GMT"), null,
+                            true);
+                    assertEquals(description, 1, deduplicator.stats.timestampNoChangeCorrect.sum());
+                    // The only hit has no timestamp, so nothing is predicted
+                    deduplicator.doAnalysis(lastModified(curi(url(2), 2), "Sun, 01 Jan 2017 00:00:00 GMT"), null,
+                            true);
+                    assertEquals(description, 1, deduplicator.stats.timestampNoChangeCorrect.sum());
+                    assertEquals(description, 0, deduplicator.stats.timestampNoChangeFalse.sum()
+                            + deduplicator.stats.timestampChangeCorrect.sum()
+                            + deduplicator.stats.timestampChangeFalse.sum());
+                    deduplicator.doAnalysis(curi(url(2), 2), null, true);
+                    assertEquals(description, 1, deduplicator.stats.timestampMissing.sum());
+                } finally {
+                    deduplicator.stop();
+                }
+            }
+        } finally {
+            FileUtils.removeRecursively(dir);
+        }
+    }
+
+    private DeDuplicator createDeDuplicator(DeDuplicator.MatchingMethod method, boolean inMemory,
+            boolean tryEquivalent) throws Exception {
+        DeDuplicator deduplicator = new DeDuplicator();
+        deduplicator.setIndexLocation(indexDir.getAbsolutePath());
+        deduplicator.setMatchingMethod(method);
+        deduplicator.setAnalysisMode(DeDuplicator.AnalysisMode.NONE);
+        deduplicator.setOriginHandling(DeDuplicator.OriginHandling.INDEX);
+        deduplicator.setLoadIndexInMemory(inMemory);
+        deduplicator.setTryEquivalent(tryEquivalent);
+        deduplicator.afterPropertiesSet();
+        assertEquals(inMemory, deduplicator.inMemoryIndex != null);
+        assertEquals("The index on disk should be closed when loaded into memory", !inMemory,
+                deduplicator.indexReader != null);
+        return deduplicator;
+    }
+
+    private DeDuplicator createCompactDeDuplicator(DeDuplicator.MatchingMethod method) throws Exception {
+        DeDuplicator deduplicator = new DeDuplicator();
+        deduplicator.setIndexLocation(indexDir.getAbsolutePath());
+        deduplicator.setMatchingMethod(method);
+        deduplicator.setAnalysisMode(DeDuplicator.AnalysisMode.NONE);
+        deduplicator.setOriginHandling(DeDuplicator.OriginHandling.INDEX);
+        deduplicator.setUseCompactIndex(true);
+        deduplicator.afterPropertiesSet();
+        assertNotNull(deduplicator.compactIndex);
+        return deduplicator;
+    }
+
+    /**
+     * Process URIs from many threads; every second URI is a duplicate of an indexed URI. Verifies the number of
+     * duplicates found and the statistics counters afterwards.
+     */
+    private void runLookups(final DeDuplicator deduplicator, String description) throws Exception {
+        final List<CrawlURI> uris = new ArrayList<CrawlURI>();
+        for (int i = 0; i < LOOKUPS_PER_THREAD; i++) {
+            // Even numbers have the indexed digest, odd numbers have a changed digest
+            uris.add(curi(url(i % INDEXED_URLS), i % 2 == 0 ? i % INDEXED_URLS : -i));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+        for (int t = 0; t < THREADS; t++) {
+            results.add(executor.submit(new Callable<Integer>() {
+                public Integer call() throws Exception {
+                    int duplicates = 0;
+                    for (CrawlURI curi : uris) {
+                        Document duplicate = deduplicator.lookupByURL ? deduplicator.lookupByURL(curi, null)
+                                : deduplicator.lookupByDigest(curi, null);
+                        if (duplicate != null) {
+                            duplicates++;
+                        }
+                    }
+                    return duplicates;
+                }
+            }));
+        }
+        int duplicates = 0;
+        for (Future<Integer> result : results) {
+            duplicates += result.get();
+        }
+        executor.shutdown();
+        int lookups = THREADS * LOOKUPS_PER_THREAD;
+        assertEquals(description, lookups / 2, duplicates);
+        assertEquals(description, lookups / 2, deduplicator.stats.exactURLDuplicates.sum());
+    }
+
+    /**
+     * Write the given items to a deduplication index, indexed by both URL and digest.
+     */
+    private static void writeIndex(File dir, boolean includeTimestamp, boolean addToExistingIndex,
+            List<CrawlDataItem> items) throws Exception {
+        DigestIndexer indexer = new DigestIndexer(dir.getAbsolutePath(), DigestIndexer.MODE_BOTH, true,
+                includeTimestamp, false, addToExistingIndex);
+        final Iterator<CrawlDataItem> it = items.iterator();
+        indexer.writeToIndex(new CrawlDataIterator("test") {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public CrawlDataItem next() {
+                return it.next();
+            }
+
+            public void close() {
+            }
+
+            public String getSourceType() {
+                return "Test items";
+            }
+        }, "^text/.*", true, "", false);
+        indexer.close();
+    }
+
+    private static CrawlURI lastModified(CrawlURI curi, String lastModified) {
+        curi.putHttpResponseHeader("last-modified", lastModified);
+        return curi;
+    }
+
+    private static String url(int i) {
+        return "http://www.example.dk/page" + i;
+    }
+
+    private static byte[] sha1(int i) throws Exception {
+        return MessageDigest.getInstance("SHA1").digest(Integer.toString(i).getBytes("UTF-8"));
+    }
+
+    private static String digest(int i) throws Exception {
+        return Base32.encode(sha1(i));
+    }
+
+    private static CrawlURI curi(String url, int content) throws Exception {
+        CrawlURI curi = new CrawlURI(UURIFactory.getInstance(url));
+        curi.setContentDigest("sha1", sha1(content));
+        return curi;
+    }
+
+}
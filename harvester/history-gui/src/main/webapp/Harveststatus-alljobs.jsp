@@ -172,22 +172,39 @@ function resetForm() {
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.JOB_ID_RANGE.name()%>.value = "";
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.PAGE_SIZE.name()%>.value = "";	
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX.name()%>.value = "";
+	setPageAnchor("", "");
+}
+
+// Anchors the page to show on a job ID of the current page, so it can be
+// found without skipping the jobs of all preceding pages.
+function setPageAnchor(afterJobId, beforeJobId) {
+	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.AFTER_JOB_ID.name()%>.value = afterJobId;
+	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.BEFORE_JOB_ID.name()%>.value = beforeJobId;
 }
 
 // Displays the next page of results (if available).
 function previousPage() {
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX.name()%>.value = "<%=query.getStartPageIndex() - 1%>";
+<%  if (query.getStartPageIndex() > 2 && !jobStatusList.isEmpty()) { %>
+	setPageAnchor("", "<%=jobStatusList.get(0).getJobID()%>");
+<%  } else { %>
+	setPageAnchor("", "");
+<%  } %>
 	document.filtersForm.submit();
 }
 
 //Displays the previous page of results (if available).
 function nextPage() {
     document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX.name()%>.value = "<%=query.getStartPageIndex() + 1%>";
+<%  if (!jobStatusList.isEmpty()) { %>
+    setPageAnchor("<%=jobStatusList.get(jobStatusList.size() - 1).getJobID()%>", "");
+<%  } %>
     document.filtersForm.submit();
 }
 
 function resetPagination() {
 	document.filtersForm.<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX.name()%>.value = "1";
+	setPageAnchor("", "");
 }
 
 </script>
@@ -291,6 +308,12 @@ setupCalendar("<%=HarvestStatusQuery.UI_FIELD.END_DATE%>", "<%=HarvestStatusQuer
 <input type="hidden" 
        name="<%=HarvestStatusQuery.UI_FIELD.START_PAGE_INDEX%>"
        value="<%=query.getStartPageIndex()%>"/>
+<input type="hidden" 
+       name="<%=HarvestStatusQuery.UI_FIELD.AFTER_JOB_ID%>"
+       value=""/>
+<input type="hidden" 
+       name="<%=HarvestStatusQuery.UI_FIELD.BEFORE_JOB_ID%>"
+       value=""/>
    
 <input type="submit" name="upload" 
        onclick="resetPagination();"
@@ -99,19 +99,10 @@ This page displays harvest details for one harvest definition run
     
 
 
-    // List of information to be shown.
-    //counting maximum number of results
-    long pageSizeBackup=query.getPageSize();
-    query.setPageSize(HarvestStatusQuery.PAGE_SIZE_NONE);
-    List<JobStatusInfo> jobStatusList  = 
-        HarvestStatus.getjobStatusList(query).getJobStatusInfo();
- 
-    long totalResultsCount = jobStatusList.size();
-    
-    //back to the original parameter
-    query.setPageSize(pageSizeBackup);
-    jobStatusList = 
-    	HarvestStatus.getjobStatusList(query).getJobStatusInfo();
+    // List of information to be shown, and the maximum number of results
+    HarvestStatus results = HarvestStatus.getjobStatusList(query);
+    List<JobStatusInfo> jobStatusList = results.getJobStatusInfo();
+    long totalResultsCount = results.getFullResultsCount();
                                         
     final String harvestName
             = HarvestDefinitionDAO.getInstance().getHarvestName(harvestID);
@@ -27,8 +27,9 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 import org.apache.commons.lang3.time.FastDateFormat;
 import org.archive.wayback.UrlCanonicalizer;
@@ -39,6 +40,10 @@ import dk.netarkivet.common.exceptions.ArgumentNotValid;
 
 /**
  * Class containing methods for turning duplicate entries in a crawl log into lines in a CDX index file.
+ * <p>
+ * Crawl log lines are split into fields by a hand-written tokenizer, and only the fields used in the CDX line are
+ * copied. When adapting a stream, lines are found in a reusable byte buffer, and only the lines containing
+ * "duplicate:" are decoded.
  */
 public class DeduplicateToCDXAdapter implements DeduplicateToCDXAdapterInterface {
 
@@ -51,19 +56,35 @@ public class DeduplicateToCDXAdapter implements DeduplicateToCDXAdapterInterface
     private static final FastDateFormat crawlDateFormat = FastDateFormat.getInstance(crawlDateFormatString);
     private static final FastDateFormat cdxDateFormat = FastDateFormat.getInstance(cdxDateFormatString);
 
-    /** Pattern representing the part of a crawl log entry describing a duplicate record. */
-    private static final String duplicateRecordPatternString = "duplicate:\"([^,]*),([^,]*)\",(.*)";	//e.g. duplicate:"arcfile,offset"
-    // The extended format is made to preserve the date of the record pointed to by arcfile,offset argument
-    private static final String extendedDuplicateRecordPatternString = "duplicate:\"([^,]*),([^,]*),([^,]*)\",(.*)"; //e.g. duplicate:"arcfile,offset,timestamp"
-    
-    private static final Pattern duplicateRecordPattern = Pattern.compile(duplicateRecordPatternString);
-    private static final Pattern extendedDuplicateRecordPattern = Pattern.compile(extendedDuplicateRecordPatternString);
-
     /** canonicalizer used to canonicalize urls. */
     UrlCanonicalizer canonicalizer;
 
     /** String for identifying crawl-log entries representing duplicates. */
     private static final String DUPLICATE_MATCHING_STRING = "duplicate:";
+    /** The start of a duplicate annotation, up to the name of the file holding the original record. */
+    private static final String DUPLICATE_RECORD_START = DUPLICATE_MATCHING_STRING + "\"";
+    /** The bytes of {@link #DUPLICATE_MATCHING_STRING} in US-ASCII. */
+    private static final byte[] DUPLICATE_MATCHING_BYTES = DUPLICATE_MATCHING_STRING.getBytes(StandardCharsets.US_ASCII);
+    /** Prefix of the digest field, which is not part of the digest in the CDX line. */
+    private static final String DIGEST_PREFIX = "sha1:";
+
+    /** The number of whitespace separated fields of a crawl log line needed for a CDX line. */
+    private static final int CRAWL_LOG_FIELDS = 12;
+    /** Field numbers in the crawl log line. */
+    private static final int FIELD_TIMESTAMP = 0;
+    private static final int FIELD_STATUS = 1;
+    private static final int FIELD_URL = 3;
+    private static final int FIELD_MIMETYPE = 6;
+    private static final int FIELD_DIGEST = 9;
+    private static final int FIELD_ANNOTATIONS = 11;
+
+    /** The length of a crawl log timestamp, e.g. 2009-05-25T13:00:00.992Z. */
+    private static final int CRAWL_DATE_LENGTH = 24;
+    /** Days in each month of a non-leap year. */
+    private static final int[] DAYS_IN_MONTH = {31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31};
+
+    /** The initial size of the buffer used when adapting streams. It grows to hold the longest line. */
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
 
     /**
      * Default constructor. Initializes the canonicalizer.
@@ -82,53 +103,246 @@ public class DeduplicateToCDXAdapter implements DeduplicateToCDXAdapterInterface
     @Override
     public String adaptLine(String line) {
         if (line != null && line.contains(DUPLICATE_MATCHING_STRING)) {
-            try {
-                String[] crawlElements = line.split("\\s+");
-                StringBuffer result = new StringBuffer();
-                String originalUrl = crawlElements[3];
-                String canonicalUrl = canonicalizer.urlStringToKey(originalUrl);
-                result.append(canonicalUrl).append(' ');
-                String cdxDate = cdxDateFormat.format(crawlDateFormat.parse(crawlElements[0]));
-                result.append(cdxDate).append(' ').append(originalUrl).append(' ');
-                String mimetype = crawlElements[6];
-                result.append(mimetype).append(' ');
-                String httpCode = crawlElements[1];
-                result.append(httpCode).append(' ');
-                String digest = crawlElements[9].replaceAll("sha1:", "");
-                result.append(digest).append(" - ");
-                String duplicateRecord = crawlElements[11];
-                if (!duplicateRecord.startsWith(DUPLICATE_MATCHING_STRING)) {
-                    // Probably an Exception starting with "le:" is injected before the
-                    // DUPLICATE_MATCHING_STRING, Try splitting on duplicate:
-                    String[] parts = duplicateRecord.split(DUPLICATE_MATCHING_STRING);
-                    if (parts.length == 2) {
-                        String newDuplicateRecord = DUPLICATE_MATCHING_STRING + parts[1];
-                        log.debug("Duplicate-record changed from '{}' to '{}'", duplicateRecord, newDuplicateRecord);
-                        duplicateRecord = newDuplicateRecord;
-                    }
+            StringBuilder result = new StringBuilder(line.length());
+            if (adaptLine(line, new int[2 * CRAWL_LOG_FIELDS], result)) {
+                return result.toString();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Appends the CDX line for a crawl log line containing {@link #DUPLICATE_MATCHING_STRING} to a buffer. Errors are
+     * logged.
+     *
+     * @param line the crawl-log line to be analysed
+     * @param fields holds the start and end of each field of the line
+     * @param result the CDX line (without newline) is appended to this
+     * @return true, if the CDX line was appended
+     */
+    private boolean adaptLine(String line, int[] fields, StringBuilder result) {
+        int resultStart = result.length();
+        try {
+            if (!splitFields(line, fields)) {
+                throw new ArgumentNotValid("crawl record has less than " + CRAWL_LOG_FIELDS + " fields");
+            }
+            String originalUrl = field(line, fields, FIELD_URL);
+            result.append(canonicalizer.urlStringToKey(originalUrl)).append(' ');
+            appendCdxDate(line, fields[2 * FIELD_TIMESTAMP], fields[2 * FIELD_TIMESTAMP + 1], result);
+            result.append(' ').append(originalUrl).append(' ');
+            appendField(line, fields, FIELD_MIMETYPE, result).append(' ');
+            appendField(line, fields, FIELD_STATUS, result).append(' ');
+            appendDigest(line, fields[2 * FIELD_DIGEST], fields[2 * FIELD_DIGEST + 1], result);
+            result.append(" - ");
+
+            String annotations = line;
+            int annotationsStart = fields[2 * FIELD_ANNOTATIONS];
+            int annotationsEnd = fields[2 * FIELD_ANNOTATIONS + 1];
+            if (!line.startsWith(DUPLICATE_MATCHING_STRING, annotationsStart)) {
+                // Probably an Exception starting with "le:" is injected before the
+                // DUPLICATE_MATCHING_STRING, Try splitting on duplicate:
+                String duplicateRecord = line.substring(annotationsStart, annotationsEnd);
+                String[] parts = duplicateRecord.split(DUPLICATE_MATCHING_STRING);
+                if (parts.length == 2) {
+                    String newDuplicateRecord = DUPLICATE_MATCHING_STRING + parts[1];
+                    log.debug("Duplicate-record changed from '{}' to '{}'", duplicateRecord, newDuplicateRecord);
+                    annotations = newDuplicateRecord;
+                    annotationsStart = 0;
+                    annotationsEnd = newDuplicateRecord.length();
                 }
-                Matcher m = duplicateRecordPattern.matcher(duplicateRecord);
-                Matcher m1 = extendedDuplicateRecordPattern.matcher(duplicateRecord);
-                if (m.matches()) {
-                    String arcfile = m.group(1);
-                    String offset = m.group(2);
-                    result.append(offset).append(' ').append(arcfile);
-                } else if (m1.matches()) {
-                	String arcfile = m1.group(1);
-                	String offset = m1.group(2);
-                	result.append(offset).append(' ').append(arcfile);
-                } else {
-                    throw new ArgumentNotValid("crawl record did not match " + "expected pattern for duplicate"
-                            + " record: '" + duplicateRecord + "'");
+            }
+            if (!appendDuplicateRecord(annotations, annotationsStart, annotationsEnd, result)) {
+                throw new ArgumentNotValid("crawl record did not match " + "expected pattern for duplicate"
+                        + " record: '" + annotations.substring(annotationsStart, annotationsEnd) + "'");
+            }
+            return true;
+        } catch (Exception e) {
+            log.error("Could not adapt deduplicate record to CDX line: '{}'", line, e);
+            result.setLength(resultStart);
+            return false;
+        }
+    }
+
+    /**
+     * Find the first {@link #CRAWL_LOG_FIELDS} fields of a line, as split by the regular expression \\s+.
+     *
+     * @param line a crawl log line
+     * @param fields the start and end of field i are stored at 2i and 2i+1
+     * @return false, if the line has too few fields
+     */
+    private static boolean splitFields(String line, int[] fields) {
+        int length = line.length();
+        int pos = 0;
+        for (int field = 0; field < CRAWL_LOG_FIELDS; field++) {
+            if (field > 0) {
+                // A line starting with whitespace has an empty first field, but trailing whitespace adds no fields
+                while (pos < length && isWhitespace(line.charAt(pos))) {
+                    pos++;
                 }
-                return result.toString();
-            } catch (Exception e) {
-                log.error("Could not adapt deduplicate record to CDX line: '{}'", line, e);
-                return null;
+                if (pos == length) {
+                    return false;
+                }
+            }
+            fields[2 * field] = pos;
+            while (pos < length && !isWhitespace(line.charAt(pos))) {
+                pos++;
+            }
+            fields[2 * field + 1] = pos;
+        }
+        return true;
+    }
+
+    /**
+     * @return true, if the character is matched by the regular expression \\s
+     */
+    private static boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    private static String field(String line, int[] fields, int field) {
+        return line.substring(fields[2 * field], fields[2 * field + 1]);
+    }
+
+    private static StringBuilder appendField(String line, int[] fields, int field, StringBuilder result) {
+        return result.append(line, fields[2 * field], fields[2 * field + 1]);
+    }
+
+    /**
+     * Append the digest without any {@link #DIGEST_PREFIX}.
+     */
+    private static void appendDigest(String line, int start, int end, StringBuilder result) {
+        int from = start;
+        int prefix = line.indexOf(DIGEST_PREFIX, from);
+        while (prefix >= 0 && prefix + DIGEST_PREFIX.length() <= end) {
+            result.append(line, from, prefix);
+            from = prefix + DIGEST_PREFIX.length();
+            prefix = line.indexOf(DIGEST_PREFIX, from);
+        }
+        result.append(line, from, end);
+    }
+
+    /**
+     * Append a crawl log timestamp in the CDX format. Timestamps in the expected format are converted by copying the
+     * digits, others are parsed with {@link #crawlDateFormat}.
+     *
+     * @throws java.text.ParseException If the timestamp cannot be parsed
+     */
+    private static void appendCdxDate(String line, int start, int end, StringBuilder result)
+            throws java.text.ParseException {
+        if (isValidCrawlDate(line, start, end)) {
+            result.append(line, start, start + 4).append(line, start + 5, start + 7).append(line, start + 8,
+                    start + 10).append(line, start + 11, start + 13).append(line, start + 14, start + 16)
+                    .append(line, start + 17, start + 19);
+        } else {
+            result.append(cdxDateFormat.format(crawlDateFormat.parse(line.substring(start, end))));
+        }
+    }
+
+    /**
+     * @return true, if the field starts with a timestamp like 2009-05-25T13:00:00.992Z denoting a valid date and time
+     */
+    private static boolean isValidCrawlDate(String line, int start, int end) {
+        if (end - start < CRAWL_DATE_LENGTH || line.charAt(start) == '0' || line.charAt(start + 4) != '-'
+                || line.charAt(start + 7) != '-' || line.charAt(start + 10) != 'T' || line.charAt(start + 13) != ':'
+                || line.charAt(start + 16) != ':' || line.charAt(start + 19) != '.'
+                || line.charAt(start + 23) != 'Z') {
+            return false;
+        }
+        int year = number(line, start, 4);
+        int month = number(line, start + 5, 2);
+        int day = number(line, start + 8, 2);
+        if (year < 0 || month < 1 || month > 12 || day < 1 || number(line, start + 20, 3) < 0) {
+            return false;
+        }
+        boolean leapYear = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        int daysInMonth = (month == 2 && leapYear) ? 29 : DAYS_IN_MONTH[month - 1];
+        int hour = number(line, start + 11, 2);
+        int minute = number(line, start + 14, 2);
+        int second = number(line, start + 17, 2);
+        return day <= daysInMonth && hour >= 0 && hour < 24 && minute >= 0 && minute < 60 && second >= 0
+                && second < 60;
+    }
+
+    /**
+     * @return the number written with the given number of digits, or -1 if there are other characters
+     */
+    private static int number(String line, int start, int digits) {
+        int value = 0;
+        for (int i = start; i < start + digits; i++) {
+            char c = line.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
             }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    /**
+     * Append the offset and file name of the original record, if the annotation field is
+     * duplicate:"arcfile,offset",... or the extended format duplicate:"arcfile,offset,timestamp",... made to preserve
+     * the date of the original record. The fields are matched as by the regular expressions
+     * duplicate:"([^,]*),([^,]*)",(.*) and duplicate:"([^,]*),([^,]*),([^,]*)",(.*) respectively.
+     *
+     * @param annotation holds the annotation field
+     * @param start the start of the annotation field
+     * @param end the end of the annotation field
+     * @param result the offset and file name are appended to this
+     * @return false, if the annotation did not match
+     */
+    private static boolean appendDuplicateRecord(String annotation, int start, int end, StringBuilder result) {
+        if (!annotation.startsWith(DUPLICATE_RECORD_START, start)) {
+            return false;
+        }
+        int fileStart = start + DUPLICATE_RECORD_START.length();
+        int firstComma = indexOfComma(annotation, fileStart, end);
+        if (firstComma < 0) {
+            return false;
+        }
+        int secondComma = indexOfComma(annotation, firstComma + 1, end);
+        if (secondComma < 0) {
+            return false;
+        }
+        if (secondComma - 1 > firstComma && annotation.charAt(secondComma - 1) == '"'
+                && !containsLineTerminator(annotation, secondComma + 1, end)) {
+            // duplicate:"arcfile,offset",...
+            result.append(annotation, firstComma + 1, secondComma - 1);
         } else {
-            return null;
+            // duplicate:"arcfile,offset,timestamp",...
+            int thirdComma = indexOfComma(annotation, secondComma + 1, end);
+            if (thirdComma < 0 || thirdComma - 1 <= secondComma || annotation.charAt(thirdComma - 1) != '"'
+                    || containsLineTerminator(annotation, thirdComma + 1, end)) {
+                return false;
+            }
+            result.append(annotation, firstComma + 1, secondComma);
         }
+        result.append(' ').append(annotation, fileStart, firstComma);
+        return true;
+    }
+
+    /**
+     * @return the index of the first comma in the range, or -1
+     */
+    private static int indexOfComma(String s, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (s.charAt(i) == ',') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return true, if the range holds a character not matched by the regular expression .
+     */
+    private static boolean containsLineTerminator(String s, int from, int end) {
+        for (int i = from; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029') {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
@@ -141,17 +355,118 @@ public class DeduplicateToCDXAdapter implements DeduplicateToCDXAdapterInterface
     public void adaptStream(InputStream is, OutputStream os) {
         ArgumentNotValid.checkNotNull(is, "is");
         ArgumentNotValid.checkNotNull(os, "os");
+        Charset charset = Charset.defaultCharset();
         try {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(is));
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String cdxLine = adaptLine(line);
-                if (cdxLine != null) {
-                    os.write((cdxLine + "\n").getBytes());
+            if (isAsciiCompatible(charset)) {
+                adaptBytes(is, os, charset);
+            } else {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(is, charset));
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String cdxLine = adaptLine(line);
+                    if (cdxLine != null) {
+                        os.write((cdxLine + "\n").getBytes(charset));
+                    }
                 }
             }
         } catch (IOException e) {
             log.error("Exception reading crawl log;", e);
         }
     }
+
+    /**
+     * @return true, if line breaks and {@link #DUPLICATE_MATCHING_STRING} are encoded as in US-ASCII, so they can be
+     * found in the undecoded bytes
+     */
+    private static boolean isAsciiCompatible(Charset charset) {
+        String probe = DUPLICATE_MATCHING_STRING + "\r\n";
+        return Arrays.equals(probe.getBytes(charset), probe.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Adapts the lines of a stream in an ASCII compatible charset. The lines are separated as by
+     * {@link BufferedReader#readLine()}, and only lines containing {@link #DUPLICATE_MATCHING_STRING} are decoded.
+     */
+    private void adaptBytes(InputStream is, OutputStream os, Charset charset) throws IOException {
+        byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+        int[] fields = new int[2 * CRAWL_LOG_FIELDS];
+        StringBuilder cdxLine = new StringBuilder();
+        // buffer[lineStart, end) holds the bytes not yet adapted, of which buffer[lineStart, scanned) have no line break
+        int lineStart = 0;
+        int scanned = 0;
+        int end = 0;
+        boolean skipLineFeed = false;
+        while (true) {
+            if (end == buffer.length) {
+                if (lineStart == 0) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                } else {
+                    System.arraycopy(buffer, lineStart, buffer, 0, end - lineStart);
+                    scanned -= lineStart;
+                    end -= lineStart;
+                    lineStart = 0;
+                }
+            }
+            int read = is.read(buffer, end, buffer.length - end);
+            if (read < 0) {
+                break;
+            }
+            end += read;
+            for (; scanned < end; scanned++) {
+                byte b = buffer[scanned];
+                if (skipLineFeed) {
+                    skipLineFeed = false;
+                    if (b == '\n') {
+                        lineStart = scanned + 1;
+                        continue;
+                    }
+                }
+                if (b == '\n' || b == '\r') {
+                    adaptBytesLine(buffer, lineStart, scanned, charset, fields, cdxLine, os);
+                    lineStart = scanned + 1;
+                    skipLineFeed = (b == '\r');
+                }
+            }
+        }
+        if (lineStart < end) {
+            adaptBytesLine(buffer, lineStart, end, charset, fields, cdxLine, os);
+        }
+    }
+
+    /**
+     * Writes the CDX line for buffer[start, end) if it is a line representing a duplicate.
+     */
+    private void adaptBytesLine(byte[] buffer, int start, int end, Charset charset, int[] fields,
+            StringBuilder cdxLine, OutputStream os) throws IOException {
+        if (!containsDuplicateMatchingBytes(buffer, start, end)) {
+            return;
+        }
+        String line = new String(buffer, start, end - start, charset);
+        cdxLine.setLength(0);
+        if (line.contains(DUPLICATE_MATCHING_STRING) && adaptLine(line, fields, cdxLine)) {
+            cdxLine.append('\n');
+            os.write(cdxLine.toString().getBytes(charset));
+        }
+    }
+
+    /**
+     * @return true, if buffer[start, end) contains {@link #DUPLICATE_MATCHING_BYTES}
+     */
+    private static boolean containsDuplicateMatchingBytes(byte[] buffer, int start, int end) {
+        byte first = DUPLICATE_MATCHING_BYTES[0];
+        int last = end - DUPLICATE_MATCHING_BYTES.length;
+        for (int i = start; i <= last; i++) {
+            if (buffer[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < DUPLICATE_MATCHING_BYTES.length && buffer[i + j] == DUPLICATE_MATCHING_BYTES[j]) {
+                j++;
+            }
+            if (j == DUPLICATE_MATCHING_BYTES.length) {
+                return true;
+            }
+        }
+        return false;
+    }
 }
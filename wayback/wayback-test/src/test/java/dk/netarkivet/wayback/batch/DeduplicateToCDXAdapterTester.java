@@ -26,20 +26,35 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
+import org.apache.commons.lang3.time.FastDateFormat;
+import org.archive.wayback.UrlCanonicalizer;
 import org.archive.wayback.core.CaptureSearchResult;
 import org.archive.wayback.resourceindex.cdx.CDXLineToSearchResultAdapter;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import dk.netarkivet.common.utils.FileUtils;
+import dk.netarkivet.common.utils.SlowTest;
 import dk.netarkivet.testutils.TestFileUtils;
 import dk.netarkivet.wayback.TestInfo;
 
@@ -48,6 +63,8 @@ import dk.netarkivet.wayback.TestInfo;
  */
 public class DeduplicateToCDXAdapterTester {
 
+    private static final Logger log = LoggerFactory.getLogger(DeduplicateToCDXAdapterTester.class);
+
     public static final String DEDUP_CRAWL_LOG = "dedup_crawl_log.txt";
     public static final String DEDUP_CRAWL_STRING = "2009-05-25T13:00:00.992Z   200       "
             + "9717 https://wiki.statsbiblioteket.dk/wiki/summa/img/draft.png LLEE "
@@ -155,4 +172,196 @@ public class DeduplicateToCDXAdapterTester {
         assertTrue("expect at least 3 lines of output, got " + lines.length, lines.length > 2);
     }
 
+    /**
+     * Compares the adapter with the regular expression based reference implementation on random, partly malformed,
+     * crawl log lines, and on a stream of them with mixed line endings.
+     */
+    @Test
+    public void testSameResultsAsRegexImplementation() throws Exception {
+        Random random = new Random(42);
+        DeduplicateToCDXAdapter adapter = new DeduplicateToCDXAdapter();
+        UrlCanonicalizer canonicalizer = UrlCanonicalizerFactory.getDefaultUrlCanonicalizer();
+        int duplicates = 0;
+        for (int i = 0; i < 50000; i++) {
+            String line = randomCrawlLogLine(random);
+            String expected = adaptLineWithRegex(canonicalizer, line);
+            assertEquals("Wrong CDX line for '" + line + "'", expected, adapter.adaptLine(line));
+            if (expected != null) {
+                duplicates++;
+            }
+        }
+        assertTrue("Expected many valid duplicate lines, got " + duplicates, duplicates > 10000);
+
+        String crawlLog = randomCrawlLog(random, 100000);
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        adapter.adaptStream(new ByteArrayInputStream(crawlLog.getBytes()), os);
+        assertEquals(adaptWithRegex(canonicalizer, crawlLog), os.toString());
+    }
+
+    /**
+     * Times the adapter against the regular expression based reference implementation on a large crawl log, checking
+     * that both give the same output.
+     */
+    @Test
+    @Category(SlowTest.class)
+    public void testThroughputComparedToRegexImplementation() throws Exception {
+        DeduplicateToCDXAdapter adapter = new DeduplicateToCDXAdapter();
+        UrlCanonicalizer canonicalizer = UrlCanonicalizerFactory.getDefaultUrlCanonicalizer();
+        String crawlLog = randomCrawlLog(new Random(42), 1000000);
+        byte[] input = crawlLog.getBytes();
+
+        long start = System.nanoTime();
+        String expected = adaptWithRegex(canonicalizer, crawlLog);
+        long regexNanos = System.nanoTime() - start;
+
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        start = System.nanoTime();
+        adapter.adaptStream(new ByteArrayInputStream(input), os);
+        long streamNanos = System.nanoTime() - start;
+
+        assertEquals("adaptStream should give the same output as the regular expressions", expected, os.toString());
+        log.info("Adapted {} KB of crawl log in {} ms with regular expressions and in {} ms with adaptStream",
+                input.length / 1024, regexNanos / 1000000L, streamNanos / 1000000L);
+    }
+
+    /**
+     * Make a crawl log of the given number of lines, with mixed line endings. Most lines are not duplicates, as in a
+     * real crawl log.
+     */
+    private static String randomCrawlLog(Random random, int lines) {
+        StringBuilder crawlLog = new StringBuilder();
+        String[] lineEndings = {"\n", "\r\n", "\r"};
+        for (int i = 0; i < lines; i++) {
+            String line = (i % 4 == 0) ? randomCrawlLogLine(random).replace('\r', ' ') : "2017-01-01T10:00:00.000Z"
+                    + " 200 1234 http://www.example.dk/page" + i + " LL http://www.example.dk/ text/html #001"
+                    + " 20170101100000000+12 sha1:GXNQ4E7NHP556JC7ADL2LLBAB7EH37EL - content-size:1484";
+            // Characters not in the default charset are replaced when the log is written
+            line = new String(line.getBytes());
+            crawlLog.append(line).append(lineEndings[random.nextInt(lineEndings.length)]);
+        }
+        return crawlLog.toString();
+    }
+
+    /**
+     * Adapt a crawl log line by line with the reference implementation.
+     */
+    private static String adaptWithRegex(UrlCanonicalizer canonicalizer, String crawlLog) {
+        StringBuilder cdx = new StringBuilder();
+        for (String line : crawlLog.split("\r\n|\r|\n")) {
+            String cdxLine = adaptLineWithRegex(canonicalizer, line);
+            if (cdxLine != null) {
+                cdx.append(cdxLine).append('\n');
+            }
+        }
+        return cdx.toString();
+    }
+
+    /** Annotation fields, valid and invalid. */
+    private static final String[] ANNOTATIONS = {"duplicate:\"f-1.warc,123\",content-size:1",
+            "duplicate:\"f-1.warc,123,20170101120000000\",content-size:1",
+            "le:IOException@ExtractorSWF,duplicate:\"f.arc,69\",content-size:5", "duplicate:\"f,o\"",
+            "duplicate:\"f,o,t\"", "duplicate:\"f\"", "duplicate:f,o\",x", "duplicate:\"f,,\",x", "duplicate:\",o\",x",
+            "duplicate:\"f,o\",a\u2028b", "duplicate:\"f,o,t\",a\u0085", "duplicate:\"f,o\",x,duplicate:\"g,p\",y",
+            "duplicate:", "x,duplicate:", "x,duplicate:\"a,b\",c,duplicate:", "x,duplicate:duplicate:\"a,b\",c",
+            "duplicate:\"f\"o,p\",x", "duplicate:\"f,o\"p\",x", "duplicate:\"f,o,t\"u\",x", "duplicate:\"f,o,t,u\",x",
+            "duplicate:\"f,\",", "duplicate:\"\",\",", "content-size:12"};
+    /** Whitespace separating the fields. */
+    private static final String[] SEPARATORS = {" ", "   ", "\t", " \t ", "\u000B", "\f", "\r"};
+
+    private static String randomCrawlLogLine(Random random) {
+        List<String> fields = new ArrayList<String>(Arrays.asList(randomTimestamp(random),
+                Integer.toString(random.nextInt(600) - 10), Integer.toString(random.nextInt(100000)),
+                "http://www.Example" + random.nextInt(100) + ".dk/page", "LLE", "http://www.example.dk/",
+                random.nextInt(10) == 0 ? "text/html;duplicate:" : "image/png", "#016", "20090525130000915+76",
+                new String[] {"sha1:AXH2IF", "sha1:sha1:X", "XYZ", "Xsha1:", "sha1:"}[random.nextInt(5)],
+                random.nextBoolean() ? "-" : "http://seed.dk", ANNOTATIONS[random.nextInt(ANNOTATIONS.length)]));
+        if (random.nextInt(10) == 0) {
+            fields = fields.subList(0, random.nextInt(fields.size()));
+        }
+        if (random.nextInt(5) == 0) {
+            fields.add("3t");
+        }
+        StringBuilder line = new StringBuilder(random.nextInt(20) == 0 ? " " : "");
+        for (int i = 0; i < fields.size(); i++) {
+            if (i > 0) {
+                line.append(SEPARATORS[random.nextInt(SEPARATORS.length)]);
+            }
+            line.append(fields.get(i));
+        }
+        return line.toString();
+    }
+
+    private static String randomTimestamp(Random random) {
+        // Hours before 04 are avoided, as the regular expression implementation shifts times in the gap of a change
+        // to daylight saving time in the default time zone.
+        Calendar calendar = new GregorianCalendar(1990 + random.nextInt(40), random.nextInt(12),
+                1 + random.nextInt(28), 4 + random.nextInt(20), random.nextInt(60), random.nextInt(60));
+        String timestamp = String.format("%1$tY-%1$tm-%1$tdT%1$tH:%1$tM:%1$tS.%2$03dZ", calendar,
+                random.nextInt(1000));
+        switch (random.nextInt(10)) {
+        case 0:
+            return timestamp.substring(0, random.nextInt(timestamp.length()));
+        case 1:
+            char[] chars = timestamp.toCharArray();
+            int position = random.nextInt(chars.length);
+            if (position != 11 && position != 12) {
+                chars[position] = "0123456789-T:.Zx".charAt(random.nextInt(16));
+            }
+            return new String(chars);
+        case 2:
+            return timestamp + "x";
+        case 3:
+            return new String[] {"2016-02-30T10:11:12.123Z", "2016-13-01T10:11:12.123Z", "0999-01-01T10:11:12.123Z",
+                    "2016-02-29T23:59:59.999Z", "2015-02-29T10:11:12.123Z"}[random.nextInt(5)];
+        default:
+            return timestamp;
+        }
+    }
+
+    /** The regular expressions of the reference implementation. */
+    private static final Pattern DUPLICATE_RECORD = Pattern.compile("duplicate:\"([^,]*),([^,]*)\",(.*)");
+    private static final Pattern EXTENDED_DUPLICATE_RECORD = Pattern
+            .compile("duplicate:\"([^,]*),([^,]*),([^,]*)\",(.*)");
+    private static final FastDateFormat CRAWL_DATE_FORMAT = FastDateFormat.getInstance("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+    private static final FastDateFormat CDX_DATE_FORMAT = FastDateFormat.getInstance("yyyyMMddHHmmss");
+
+    /**
+     * The reference implementation of {@link DeduplicateToCDXAdapter#adaptLine(String)}, splitting the line and
+     * matching the duplicate annotation with regular expressions.
+     */
+    private static String adaptLineWithRegex(UrlCanonicalizer canonicalizer, String line) {
+        if (line == null || !line.contains("duplicate:")) {
+            return null;
+        }
+        try {
+            String[] crawlElements = line.split("\\s+");
+            StringBuilder result = new StringBuilder();
+            String originalUrl = crawlElements[3];
+            result.append(canonicalizer.urlStringToKey(originalUrl)).append(' ');
+            result.append(CDX_DATE_FORMAT.format(CRAWL_DATE_FORMAT.parse(crawlElements[0]))).append(' ');
+            result.append(originalUrl).append(' ').append(crawlElements[6]).append(' ');
+            result.append(crawlElements[1]).append(' ');
+            result.append(crawlElements[9].replaceAll("sha1:", "")).append(" - ");
+            String duplicateRecord = crawlElements[11];
+            if (!duplicateRecord.startsWith("duplicate:")) {
+                String[] parts = duplicateRecord.split("duplicate:");
+                if (parts.length == 2) {
+                    duplicateRecord = "duplicate:" + parts[1];
+                }
+            }
+            Matcher m = DUPLICATE_RECORD.matcher(duplicateRecord);
+            Matcher m1 = EXTENDED_DUPLICATE_RECORD.matcher(duplicateRecord);
+            if (m.matches()) {
+                result.append(m.group(2)).append(' ').append(m.group(1));
+            } else if (m1.matches()) {
+                result.append(m1.group(2)).append(' ').append(m1.group(1));
+            } else {
+                return null;
+            }
+            return result.toString();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
 }